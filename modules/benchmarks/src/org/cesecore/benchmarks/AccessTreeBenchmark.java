@@ -0,0 +1,124 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.benchmarks;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.X509KeyUsage;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.X509CertificateAuthenticationToken;
+import org.cesecore.authorization.access.AccessTree;
+import org.cesecore.authorization.rules.AccessRuleData;
+import org.cesecore.authorization.rules.AccessRuleState;
+import org.cesecore.authorization.user.AccessMatchType;
+import org.cesecore.authorization.user.AccessUserAspectData;
+import org.cesecore.authorization.user.matchvalues.X500PrincipalAccessMatchValue;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.roles.RoleData;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Authorization checks in the access tree (AccessTree and AccessTreeNode.isAuthorized) for an administrator authenticated with a client
+ * certificate, with a growing number of roles that all have rules on the same resources.
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccessTreeBenchmark {
+
+    private static final String[] RESOURCES = { "/ca_functionality/", "/ra_functionality/view_end_entity", "/ra_functionality/edit_end_entity",
+            "/administrator" };
+
+    @Param({ "10", "100" })
+    public int roles;
+
+    private AccessTree accessTree;
+    private AuthenticationToken authenticationToken;
+    private String authorizedCaResource;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keyPair = KeyTools.genKeys("1024", "RSA");
+        final X509Certificate adminCertificate = CertTools.genSelfCertForPurpose("CN=Admin " + (roles / 2) + ",O=PrimeKey Solutions AB,C=SE", 365L,
+                null, keyPair.getPrivate(), keyPair.getPublic(), BenchmarkTools.CA_SIGALG, false, X509KeyUsage.digitalSignature, true);
+        final int caId = CertTools.getIssuerDN(adminCertificate).hashCode();
+        final List<RoleData> roleDatas = new ArrayList<RoleData>();
+        for (int i = 0; i < roles; i++) {
+            final String roleName = "Role " + i;
+            final RoleData role = new RoleData(Integer.valueOf(i), roleName);
+            final Map<Integer, AccessRuleData> accessRules = new HashMap<Integer, AccessRuleData>();
+            addAccessRule(accessRules, new AccessRuleData(roleName, "/ca_functionality", AccessRuleState.RULE_ACCEPT, true));
+            addAccessRule(accessRules, new AccessRuleData(roleName, "/ra_functionality/view_end_entity", AccessRuleState.RULE_ACCEPT, false));
+            addAccessRule(accessRules, new AccessRuleData(roleName, "/ra_functionality/edit_end_entity", AccessRuleState.RULE_DECLINE, false));
+            addAccessRule(accessRules, new AccessRuleData(roleName, "/ca/" + (1000 + i), AccessRuleState.RULE_ACCEPT, true));
+            role.setAccessRules(accessRules);
+            final Map<Integer, AccessUserAspectData> accessUsers = new HashMap<Integer, AccessUserAspectData>();
+            final AccessUserAspectData accessUser = new AccessUserAspectData(roleName, caId, X500PrincipalAccessMatchValue.WITH_COMMONNAME,
+                    AccessMatchType.TYPE_EQUALCASE, "Admin " + i);
+            accessUsers.put(Integer.valueOf(accessUser.getPrimaryKey()), accessUser);
+            role.setAccessUsers(accessUsers);
+            roleDatas.add(role);
+        }
+        accessTree = new AccessTree();
+        accessTree.buildTree(roleDatas);
+        authenticationToken = new X509CertificateAuthenticationToken(adminCertificate);
+        authorizedCaResource = "/ca/" + (1000 + roles / 2);
+        if (!accessTree.isAuthorized(authenticationToken, authorizedCaResource, false)) {
+            throw new IllegalStateException("The access tree was not built as expected.");
+        }
+    }
+
+    private static void addAccessRule(final Map<Integer, AccessRuleData> accessRules, final AccessRuleData accessRule) {
+        accessRules.put(Integer.valueOf(accessRule.getPrimaryKey()), accessRule);
+    }
+
+    @Benchmark
+    public boolean isAuthorizedToCa() throws Exception {
+        return accessTree.isAuthorized(authenticationToken, authorizedCaResource, false);
+    }
+
+    @Benchmark
+    public int isAuthorizedToCommonResources() throws Exception {
+        int authorized = 0;
+        for (final String resource : RESOURCES) {
+            if (accessTree.isAuthorized(authenticationToken, resource, false)) {
+                authorized++;
+            }
+        }
+        return authorized;
+    }
+}
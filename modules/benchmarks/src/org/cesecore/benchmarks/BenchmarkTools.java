@@ -0,0 +1,105 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.benchmarks;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Properties;
+
+import org.bouncycastle.jce.X509KeyUsage;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.ca.catoken.CAToken;
+import org.cesecore.certificates.ca.catoken.CATokenConstants;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.endentity.EndEntityConstants;
+import org.cesecore.certificates.endentity.EndEntityInformation;
+import org.cesecore.certificates.endentity.EndEntityType;
+import org.cesecore.certificates.endentity.EndEntityTypes;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.token.SoftCryptoToken;
+import org.cesecore.keys.token.p11.exception.NoSuchSlotException;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.cesecore.util.StringTools;
+
+/**
+ * Fixtures shared by the benchmarks. Everything is created in memory with soft crypto tokens, so no application server or
+ * database is needed.
+ *
+ * @version $Id$
+ */
+public final class BenchmarkTools {
+
+    public static final String CA_DN = "CN=Benchmark CA,O=PrimeKey Solutions AB,C=SE";
+    public static final String USER_DN = "CN=Benchmark User,SN=123456789,OU=Performance,O=PrimeKey Solutions AB,L=Stockholm,C=SE";
+    public static final String USER_ALTNAME = "rfc822Name=user@example.com,dNSName=user.example.com";
+    public static final String CA_KEYSPEC = "2048";
+    public static final String CA_SIGALG = AlgorithmConstants.SIGALG_SHA256_WITH_RSA;
+
+    private BenchmarkTools() {}
+
+    /** @return a new empty soft auto-activated CryptoToken with BC installed */
+    public static CryptoToken createSoftCryptoToken() {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final Properties cryptoTokenProperties = new Properties();
+        cryptoTokenProperties.setProperty(CryptoToken.AUTOACTIVATE_PIN_PROPERTY, "foo1234");
+        try {
+            return CryptoTokenFactory.createCryptoToken(SoftCryptoToken.class.getName(), cryptoTokenProperties, null, 4711, "Benchmark CryptoToken");
+        } catch (NoSuchSlotException e) {
+            throw new IllegalStateException("Attempted to find a slot for a soft crypto token. This should not happen.", e);
+        }
+    }
+
+    /** @return an active self signed X509CA with its keys in the given soft CryptoToken */
+    public static X509CA createSoftCa(final CryptoToken cryptoToken, final String caDn) throws Exception {
+        cryptoToken.generateKeyPair(CA_KEYSPEC, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        cryptoToken.generateKeyPair(CA_KEYSPEC, CAToken.SOFTPRIVATEDECKEYALIAS);
+        final Properties caTokenProperties = new Properties();
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_CERTSIGN_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_CRLSIGN_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_DEFAULT_STRING, CAToken.SOFTPRIVATEDECKEYALIAS);
+        final CAToken caToken = new CAToken(cryptoToken.getId(), caTokenProperties);
+        caToken.setKeySequence(CAToken.DEFAULT_KEYSEQUENCE);
+        caToken.setKeySequenceFormat(StringTools.KEY_SEQUENCE_FORMAT_NUMERIC);
+        caToken.setSignatureAlgorithm(CA_SIGALG);
+        caToken.setEncryptionAlgorithm(CA_SIGALG);
+        final X509CAInfo cainfo = new X509CAInfo(caDn, "Benchmark CA", CAConstants.CA_ACTIVE, CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA,
+                3650, CAInfo.SELFSIGNED, null, caToken);
+        cainfo.setDescription("Benchmark CA");
+        final X509CA x509ca = new X509CA(cainfo);
+        x509ca.setCAToken(caToken);
+        final PublicKey publicKey = cryptoToken.getPublicKey(caToken.getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CERTSIGN));
+        final PrivateKey privateKey = cryptoToken.getPrivateKey(caToken.getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CERTSIGN));
+        final X509Certificate cacert = CertTools.genSelfCertForPurpose(caDn, 3650L, null, privateKey, publicKey, CA_SIGALG, true,
+                X509KeyUsage.keyCertSign + X509KeyUsage.cRLSign, true);
+        final Collection<Certificate> cachain = new ArrayList<Certificate>();
+        cachain.add(cacert);
+        x509ca.setCertificateChain(cachain);
+        return x509ca;
+    }
+
+    /** @return an end entity with a typical subject DN and altName */
+    public static EndEntityInformation createEndEntity() {
+        return new EndEntityInformation("benchmark", USER_DN, CA_DN.hashCode(), USER_ALTNAME, "user@example.com", new EndEntityType(
+                EndEntityTypes.ENDUSER), 0, CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER, EndEntityConstants.TOKEN_USERGEN, 0, null);
+    }
+}
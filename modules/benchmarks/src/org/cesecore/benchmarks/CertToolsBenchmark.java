@@ -0,0 +1,95 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyPair;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.X509KeyUsage;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.cesecore.util.NormalizedDnCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DN handling in CertTools, which is done several times for every issued certificate and every request to the protocol servlets.
+ * 
+ * getSubjectDNDecodingAgain is how CertTools.getSubjectDN used to work, by decoding the certificate again with the BC provider, and
+ * getSubjectDNNotCached uses the DN of the already decoded certificate but normalizes it on every call.
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CertToolsBenchmark {
+
+    @Param({ "CN=Benchmark User,SN=123456789,OU=Performance,O=PrimeKey Solutions AB,L=Stockholm,C=SE",
+            "cn=Benchmark User+uid=12345, ou=Performance, o=PrimeKey Solutions AB, dc=example, dc=com" })
+    public String dn;
+
+    private Certificate certificate;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keyPair = KeyTools.genKeys("1024", "RSA");
+        certificate = CertTools.genSelfCertForPurpose(dn, 365L, null, keyPair.getPrivate(), keyPair.getPublic(), BenchmarkTools.CA_SIGALG, false,
+                X509KeyUsage.digitalSignature, true);
+    }
+
+    @Benchmark
+    public String getSubjectDN() {
+        return CertTools.getSubjectDN(certificate);
+    }
+
+    @Benchmark
+    public String getSubjectDNNotCached() {
+        NormalizedDnCache.INSTANCE.clear();
+        return CertTools.getSubjectDN(certificate);
+    }
+
+    @Benchmark
+    public String getSubjectDNDecodingAgain() throws Exception {
+        final X509Certificate x509cert = (X509Certificate) CertTools.getCertificateFactory().generateCertificate(
+                new ByteArrayInputStream(certificate.getEncoded()));
+        return CertTools.stringToBCDNString(x509cert.getSubjectDN().toString());
+    }
+
+    @Benchmark
+    public String getIssuerDN() {
+        return CertTools.getIssuerDN(certificate);
+    }
+
+    @Benchmark
+    public String stringToBCDNString() {
+        return CertTools.stringToBCDNString(dn);
+    }
+}
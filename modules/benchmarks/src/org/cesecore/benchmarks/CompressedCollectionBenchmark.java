@@ -0,0 +1,80 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.util.CompressedCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * CompressedCollection filled with the revoked certificates that a CRL is made from.
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressedCollectionBenchmark {
+
+    /** Number of entries added to and read from the collection */
+    @Param({ "1000", "100000" })
+    public int revokedCertificates;
+
+    private RevokedCertInfo[] revokedCertInfos;
+    private CompressedCollection<RevokedCertInfo> compressedCollection;
+
+    @Setup
+    public void setUp() {
+        revokedCertInfos = new RevokedCertInfo[revokedCertificates];
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < revokedCertificates; i++) {
+            revokedCertInfos[i] = new RevokedCertInfo(("fingerprint" + i).getBytes(), BigInteger.valueOf(1000000L + i).toByteArray(), now - i,
+                    RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, now + 365L * 24 * 3600 * 1000);
+        }
+        compressedCollection = add();
+    }
+
+    @Benchmark
+    public CompressedCollection<RevokedCertInfo> add() {
+        final CompressedCollection<RevokedCertInfo> ret = new CompressedCollection<RevokedCertInfo>();
+        for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+            ret.add(revokedCertInfo);
+        }
+        ret.closeForWrite();
+        return ret;
+    }
+
+    @Benchmark
+    public void iterate(final Blackhole blackhole) {
+        for (final RevokedCertInfo revokedCertInfo : compressedCollection) {
+            blackhole.consume(revokedCertInfo);
+        }
+    }
+}
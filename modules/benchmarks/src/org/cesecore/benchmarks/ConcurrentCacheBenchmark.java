@@ -0,0 +1,104 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.cesecore.util.ConcurrentCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ConcurrentCache as it is used by the protocol servlets for cached lookups: mostly hits from several threads, and a steady stream of
+ * misses when the working set is larger than the max number of entries.
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentCacheBenchmark {
+
+    private static final long TIMEOUT = 1000L;
+
+    @Param({ "1000", "100000" })
+    public int entries;
+
+    private ConcurrentCache<String, Integer> cache;
+    private ConcurrentCache<String, Integer> boundedCache;
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        keys = new String[entries];
+        final Map<String, Integer> initial = new HashMap<String, Integer>();
+        for (int i = 0; i < entries; i++) {
+            keys[i] = "key" + i;
+            initial.put(keys[i], Integer.valueOf(i));
+        }
+        cache = new ConcurrentCache<String, Integer>(initial, -1L);
+        boundedCache = new ConcurrentCache<String, Integer>();
+        // Only half of the keys fit in the bounded cache, so about half of the lookups are misses
+        boundedCache.setMaxEntries(entries / 2);
+    }
+
+    private static Integer get(final ConcurrentCache<String, Integer> cache, final String key) {
+        final ConcurrentCache<String, Integer>.Entry entry = cache.openCacheEntry(key, TIMEOUT);
+        if (entry == null) {
+            return null; // timed out waiting for another thread
+        }
+        try {
+            if (entry.isInCache()) {
+                return entry.getValue();
+            }
+            final Integer value = Integer.valueOf(key.length());
+            entry.putValue(value);
+            return value;
+        } finally {
+            entry.close();
+        }
+    }
+
+    @Benchmark
+    public Integer hit() {
+        return get(cache, keys[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer hitContended() {
+        return get(cache, keys[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer boundedWithMisses() {
+        return get(boundedCache, keys[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+}
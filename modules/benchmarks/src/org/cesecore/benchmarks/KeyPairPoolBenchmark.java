@@ -0,0 +1,85 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.benchmarks;
+
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyPairPool;
+import org.cesecore.util.CryptoProviderTools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time a keystore enrollment waits for its key pair, with the key pairs generated by the request or taken from a KeyPairPool. The
+ * requests arrive with a pause in between, like enrollments do, which gives the background threads time to fill the pool. The sampled
+ * percentiles (p99 and up) show the spread of the RSA key generation time that the pool hides.
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 20)
+@Measurement(iterations = 5, time = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyPairPoolBenchmark {
+
+    /** Time between two enrollments */
+    private static final long ARRIVAL_INTERVAL = 400L;
+
+    @Param({ "2048", "3072" })
+    public String keySpec;
+
+    @Param({ "0", "20" })
+    public int poolDepth;
+
+    private KeyPairPool keyPairPool;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keyPairPool = new KeyPairPool(poolDepth, 4, Collections.singletonList(AlgorithmConstants.KEYALGORITHM_RSA + ":" + keySpec));
+        // The first request for a key specification creates its pool
+        keyPairPool.getKeyPair(keySpec, AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @TearDown
+    public void tearDown() {
+        keyPairPool.close();
+    }
+
+    /** Not included in the measured time */
+    @Setup(Level.Invocation)
+    public void waitForNextEnrollment() throws InterruptedException {
+        Thread.sleep(ARRIVAL_INTERVAL);
+    }
+
+    @Benchmark
+    public KeyPair getKeyPair() throws Exception {
+        return keyPairPool.getKeyPair(keySpec, AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+}
@@ -0,0 +1,114 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.benchmarks;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.ca.catoken.CATokenConstants;
+import org.cesecore.certificates.certificate.certextensions.AvailableCustomCertificateExtensionsConfiguration;
+import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.ocsp.HsmResponseThread;
+import org.cesecore.certificates.ocsp.SHA1DigestCalculator;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.util.KeyTools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building of OCSP responses the way OcspResponseGeneratorSessionBean does it for a request with a nonce, signed by a CA key from a
+ * soft crypto token. The status lookup in the database and the audit and transaction logging are not included, since they need an
+ * application server.
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OcspResponseBenchmark {
+
+    private byte[] encodedRequest;
+    private OcspSigningCacheEntry ocspSigningCacheEntry;
+
+    @Setup
+    public void setUp() throws Exception {
+        final CryptoToken cryptoToken = BenchmarkTools.createSoftCryptoToken();
+        final X509CA x509ca = BenchmarkTools.createSoftCa(cryptoToken, BenchmarkTools.CA_DN);
+        final X509Certificate caCertificate = (X509Certificate) x509ca.getCACertificate();
+        final KeyPair keyPair = KeyTools.genKeys("2048", "RSA");
+        final X509Certificate eeCertificate = (X509Certificate) x509ca.generateCertificate(cryptoToken, BenchmarkTools.createEndEntity(),
+                keyPair.getPublic(), 0, null, 365L, new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER), null,
+                new AvailableCustomCertificateExtensionsConfiguration());
+        final OCSPReqBuilder ocspReqBuilder = new OCSPReqBuilder();
+        ocspReqBuilder.addRequest(new JcaCertificateID(SHA1DigestCalculator.buildSha1Instance(), caCertificate, eeCertificate.getSerialNumber()));
+        final Extension nonce = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false, new DEROctetString("123456789abcdef0".getBytes()));
+        ocspReqBuilder.setRequestExtensions(new Extensions(nonce));
+        encodedRequest = ocspReqBuilder.build().getEncoded();
+        final List<X509Certificate> caChain = new ArrayList<X509Certificate>();
+        caChain.add(caCertificate);
+        final PrivateKey caPrivateKey = cryptoToken.getPrivateKey(x509ca.getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CERTSIGN));
+        ocspSigningCacheEntry = new OcspSigningCacheEntry(caCertificate, org.cesecore.certificates.certificate.CertificateStatus.OK, caChain,
+                null, caPrivateKey, cryptoToken.getSignProviderName(), null, OcspConfiguration.RESPONDERIDTYPE_KEYHASH);
+    }
+
+    @Benchmark
+    public OCSPReq parseRequest() throws Exception {
+        return new OCSPReq(encodedRequest);
+    }
+
+    @Benchmark
+    public byte[] buildResponse() throws Exception {
+        final OCSPReq req = new OCSPReq(encodedRequest);
+        final Date now = new Date();
+        final BasicOCSPRespBuilder basicRes = new BasicOCSPRespBuilder(ocspSigningCacheEntry.getRespId());
+        for (final Req request : req.getRequestList()) {
+            basicRes.addResponse(request.getCertID(), CertificateStatus.GOOD, now, null, null);
+        }
+        basicRes.setResponseExtensions(new Extensions(req.getExtension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce)));
+        final BasicOCSPResp basicOCSPResp = new HsmResponseThread(basicRes, BenchmarkTools.CA_SIGALG, ocspSigningCacheEntry.getPrivateKey(),
+                ocspSigningCacheEntry.getResponseCertChain(), ocspSigningCacheEntry.getSignatureProviderName(), now).call();
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basicOCSPResp).getEncoded();
+    }
+}
@@ -0,0 +1,105 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.benchmarks;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.Certificate;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.cert.X509CRLHolder;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.certificate.certextensions.AvailableCustomCertificateExtensionsConfiguration;
+import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.endentity.EndEntityInformation;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CompressedCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Certificate and CRL generation in X509CA with a soft crypto token, i.e. everything that happens in the CA for an issued certificate
+ * or a CRL, except the database.
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class X509CABenchmark {
+
+    /** The revoked certificates that are put in the generated CRL, kept apart so certificate generation is only run once */
+    @State(Scope.Benchmark)
+    public static class RevokedCertificates {
+        @Param({ "0", "1000", "100000" })
+        public int revokedCertificates;
+
+        private Collection<RevokedCertInfo> revokedCertInfos;
+
+        @Setup
+        public void setUp() {
+            final CompressedCollection<RevokedCertInfo> revoked = new CompressedCollection<RevokedCertInfo>();
+            final long now = System.currentTimeMillis();
+            for (int i = 0; i < revokedCertificates; i++) {
+                revoked.add(new RevokedCertInfo(null, BigInteger.valueOf(1000000L + i).toByteArray(), now - i,
+                        RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, now + 365L * 24 * 3600 * 1000));
+            }
+            revoked.closeForWrite();
+            revokedCertInfos = revoked;
+        }
+    }
+
+    private CryptoToken cryptoToken;
+    private X509CA x509ca;
+    private EndEntityInformation endEntity;
+    private KeyPair userKeyPair;
+    private CertificateProfile certificateProfile;
+    private AvailableCustomCertificateExtensionsConfiguration cceConfig;
+    private int crlNumber = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        cryptoToken = BenchmarkTools.createSoftCryptoToken();
+        x509ca = BenchmarkTools.createSoftCa(cryptoToken, BenchmarkTools.CA_DN);
+        endEntity = BenchmarkTools.createEndEntity();
+        userKeyPair = KeyTools.genKeys("2048", "RSA");
+        certificateProfile = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER);
+        cceConfig = new AvailableCustomCertificateExtensionsConfiguration();
+    }
+
+    @Benchmark
+    public Certificate generateCertificate() throws Exception {
+        return x509ca.generateCertificate(cryptoToken, endEntity, userKeyPair.getPublic(), 0, null, 365L, certificateProfile, null, cceConfig);
+    }
+
+    @Benchmark
+    public X509CRLHolder generateCRL(final RevokedCertificates revoked) throws Exception {
+        return x509ca.generateCRL(cryptoToken, revoked.revokedCertInfos, ++crlNumber);
+    }
+}
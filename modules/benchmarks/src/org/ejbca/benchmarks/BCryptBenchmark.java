@@ -0,0 +1,73 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ejbca.util.crypto.BCrypt;
+import org.ejbca.util.crypto.BCryptVerificationPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Verification of enrollment codes stored as BCrypt hashes, as done for every enrollment that authenticates with a password.
+ * The log rounds are those of ejbca.passwordlogrounds: 1 is the default and about 8 is recommended for high security.
+ *
+ * checkpwPool includes the hand-off to and from the password verification thread pool.
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BCryptBenchmark {
+
+    @Param({ "1", "8" })
+    public int logRounds;
+
+    private String password;
+    private String hash;
+
+    @Setup
+    public void setUp() {
+        password = "foo123";
+        hash = BCrypt.hashpw(password, BCrypt.gensalt(logRounds));
+    }
+
+    @Benchmark
+    public boolean checkpw() {
+        return BCrypt.checkpw(password, hash);
+    }
+
+    @Benchmark
+    public boolean checkpwPool() {
+        return BCryptVerificationPool.INSTANCE.checkpw(password, hash);
+    }
+
+    @Benchmark
+    public String hashpw() {
+        return BCrypt.hashpw(password, hash);
+    }
+}
@@ -0,0 +1,58 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.cesecore.certificates.ca.internal.SernoGeneratorRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generation of random certificate serial numbers, as done for every issued certificate, by 1, 8 and 32 concurrent threads.
+ * The throughput should grow with the number of threads up to the number of processors (or ca.serialnumberstripes).
+ *
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SernoGeneratorBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public BigInteger getSerno1Thread() {
+        return SernoGeneratorRandom.instance().getSerno();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public BigInteger getSerno8Threads() {
+        return SernoGeneratorRandom.instance().getSerno();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public BigInteger getSerno32Threads() {
+        return SernoGeneratorRandom.instance().getSerno();
+    }
+}
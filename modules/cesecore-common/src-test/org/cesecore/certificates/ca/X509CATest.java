@@ -880,6 +880,41 @@ public class X509CATest {
         assertEquals("Wrong DN order of issued certificate", desiredDN, name.toString());
     }
 
+    /**
+     * Tests that certificates issued with a compiled certificate profile, which uses the pre-encoded extensions of the profile, get the
+     * same extensions as when the extensions are created for each certificate.
+     */
+    @Test
+    public void testExtensionTemplate() throws Exception {
+        final CryptoToken cryptoToken = getNewCryptoToken();
+        final X509CA testCa = createTestCA(cryptoToken, CADN);
+        final PublicKey publicKey = testCa.getCACertificate().getPublicKey();
+        final CertificateProfile certProfile = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER);
+        certProfile.setUseCRLDistributionPoint(true);
+        certProfile.setCRLDistributionPointURI("http://crl.example.com/test.crl");
+        certProfile.setUseAuthorityInformationAccess(true);
+        certProfile.setOCSPServiceLocatorURI("http://ocsp.example.com");
+        certProfile.compile();
+        final CertificateProfile uncompiledProfile = certProfile.clone();
+        assertFalse("A clone should not be compiled", uncompiledProfile.isCompiled());
+        final EndEntityInformation subject = new EndEntityInformation("testExtensionTemplate", "CN=testExtensionTemplate", testCa.getCAId(),
+                "dnsName=test.example.com", null, new EndEntityType(EndEntityTypes.ENDUSER), 0, 0, EndEntityConstants.TOKEN_USERGEN, 0, null);
+        final X509Certificate expected = (X509Certificate) testCa.generateCertificate(cryptoToken, subject, publicKey, -1, null, 30,
+                uncompiledProfile, null, cceConfig);
+        for (int i = 0; i < 2; i++) {
+            final X509Certificate cert = (X509Certificate) testCa.generateCertificate(cryptoToken, subject, publicKey, -1, null, 30, certProfile,
+                    null, cceConfig);
+            assertEquals("Wrong critical extensions", expected.getCriticalExtensionOIDs(), cert.getCriticalExtensionOIDs());
+            assertEquals("Wrong non-critical extensions", expected.getNonCriticalExtensionOIDs(), cert.getNonCriticalExtensionOIDs());
+            for (final String oid : expected.getNonCriticalExtensionOIDs()) {
+                assertTrue("Wrong value of extension " + oid, Arrays.equals(expected.getExtensionValue(oid), cert.getExtensionValue(oid)));
+            }
+            for (final String oid : expected.getCriticalExtensionOIDs()) {
+                assertTrue("Wrong value of extension " + oid, Arrays.equals(expected.getExtensionValue(oid), cert.getExtensionValue(oid)));
+            }
+        }
+    }
+
     private static ASN1Encodable getValueFromDN(Certificate cert, ASN1ObjectIdentifier oid) {
         final X500Principal principal = ((X509Certificate)cert).getSubjectX500Principal();
         final X500Name xname = X500Name.getInstance(principal.getEncoded());
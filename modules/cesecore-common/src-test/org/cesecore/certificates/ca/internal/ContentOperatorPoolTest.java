@@ -0,0 +1,130 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Date;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cesecore.certificates.ca.internal.ContentOperatorPool.PooledContentSigner;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests signing and verifying certificates with reused signers and verifiers.
+ *
+ * @version $Id$
+ */
+public class ContentOperatorPoolTest {
+
+    private static KeyPair keyPair;
+    private static KeyPair otherKeyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keyPair = KeyTools.genKeys("1024", "RSA");
+        otherKeyPair = KeyTools.genKeys("1024", "RSA");
+    }
+
+    private static X509CertificateHolder sign(final ContentOperatorPool pool, final long serialNumber) throws Exception {
+        final X500Name name = new X500Name("CN=ContentOperatorPoolTest");
+        return sign(pool, name, name, keyPair.getPublic(), keyPair.getPrivate(), serialNumber);
+    }
+
+    private static X509CertificateHolder sign(final ContentOperatorPool pool, final X500Name issuer, final X500Name subject,
+            final PublicKey subjectKey, final PrivateKey issuerKey, final long serialNumber) throws Exception {
+        final JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer, BigInteger.valueOf(serialNumber), new Date(),
+                new Date(System.currentTimeMillis() + 3600000L), subject, subjectKey);
+        final PooledContentSigner signer = pool.getSigner("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME, issuerKey);
+        final X509CertificateHolder certHolder = builder.build(signer);
+        signer.release();
+        return certHolder;
+    }
+
+    @Test
+    public void testSignersAreReused() throws Exception {
+        final ContentOperatorPool pool = new ContentOperatorPool();
+        final PooledContentSigner signer1 = pool.getSigner("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME, keyPair.getPrivate());
+        final PooledContentSigner signer2 = pool.getSigner("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME, keyPair.getPrivate());
+        assertNotSame("A borrowed signer must not be handed out twice.", signer1, signer2);
+        signer1.release();
+        assertSame("A released signer should be reused.", signer1,
+                pool.getSigner("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME, keyPair.getPrivate()));
+        assertNotSame("A signer for another key should not be reused.", signer2,
+                pool.getSigner("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME, otherKeyPair.getPrivate()));
+    }
+
+    @Test
+    public void testReusedSignerAndVerifier() throws Exception {
+        final ContentOperatorPool pool = new ContentOperatorPool();
+        for (int i = 0; i < 3; i++) {
+            final X509CertificateHolder certHolder = sign(pool, i);
+            assertTrue("Signature should be valid with the signing key.", pool.isSignatureValid(certHolder, keyPair.getPublic()));
+            assertFalse("Signature should not be valid with another key.", pool.isSignatureValid(certHolder, otherKeyPair.getPublic()));
+            // A reused verifier should still accept a valid signature after having rejected an invalid one
+            assertTrue("Signature should be valid with the signing key.", pool.isSignatureValid(certHolder, keyPair.getPublic()));
+        }
+    }
+
+    @Test
+    public void testSubCaVerifierIsReused() throws Exception {
+        final ContentOperatorPool pool = new ContentOperatorPool();
+        final X500Name rootName = new X500Name("CN=ContentOperatorPoolTest Root");
+        final X500Name subCaName = new X500Name("CN=ContentOperatorPoolTest Sub");
+        final X509Certificate subCaCert = (X509Certificate) CertTools.getCertfromByteArray(sign(pool, rootName, subCaName, otherKeyPair.getPublic(),
+                keyPair.getPrivate(), 1).getEncoded());
+        assertNotSame("The test needs a CA certificate that returns a new public key object for each call.", subCaCert.getPublicKey(),
+                subCaCert.getPublicKey());
+        for (int i = 0; i < 3; i++) {
+            final X509CertificateHolder certHolder = sign(pool, subCaName, new X500Name("CN=ContentOperatorPoolTest User " + i),
+                    keyPair.getPublic(), otherKeyPair.getPrivate(), 10 + i);
+            assertTrue("Signature should be valid with the sub CA key.", pool.isSignatureValid(certHolder, subCaCert.getPublicKey()));
+            assertEquals("The verifier of the sub CA key should be reused.", 1, pool.getIdleVerifierCount());
+        }
+    }
+
+    @Test
+    public void testSignersOfUsedKeysAreKept() throws Exception {
+        final ContentOperatorPool pool = new ContentOperatorPool();
+        final PooledContentSigner signer = pool.getSigner("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME, keyPair.getPrivate());
+        signer.release();
+        final KeyFactory keyFactory = KeyFactory.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+        for (int i = 0; i < 50; i++) {
+            // New key objects, like the ones from a session pool or a reactivated crypto token, each get their own signers
+            final PrivateKey newKeyObject = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(otherKeyPair.getPrivate().getEncoded()));
+            pool.getSigner("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME, newKeyObject).release();
+            final PooledContentSigner reused = pool.getSigner("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME, keyPair.getPrivate());
+            assertSame("The signers of a key in use should not be dropped because other keys were used.", signer, reused);
+            reused.release();
+        }
+    }
+}
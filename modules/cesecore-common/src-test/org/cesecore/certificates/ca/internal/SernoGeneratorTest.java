@@ -18,7 +18,15 @@ import static org.junit.Assert.assertTrue;
 
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -137,4 +145,36 @@ public class SernoGeneratorTest {
 //        log.info("Number of duplicates: "+duplicates);
     }
 
+    /** Serial numbers generated concurrently, i.e. from different stripes, should be valid and unique. */
+    @Test
+    public void test03GenerateSernosConcurrently() throws Exception {
+        final SernoGeneratorRandom gen = new SernoGeneratorRandom();
+        gen.setSernoOctetSize(8);
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<List<BigInteger>>> results = new ArrayList<Future<List<BigInteger>>>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(new Callable<List<BigInteger>>() {
+                    @Override
+                    public List<BigInteger> call() {
+                        final List<BigInteger> sernos = new ArrayList<BigInteger>();
+                        for (int j = 0; j < 10000; j++) {
+                            sernos.add(gen.getSerno());
+                        }
+                        return sernos;
+                    }
+                }));
+            }
+            final Set<BigInteger> sernos = new HashSet<BigInteger>();
+            for (final Future<List<BigInteger>> result : results) {
+                for (final BigInteger serno : result.get()) {
+                    assertTrue("Serial number out of range: " + serno.toString(16), gen.checkSernoValidity(serno));
+                    assertTrue("Duplicate serno produced: " + serno.toString(16), sernos.add(serno));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 }
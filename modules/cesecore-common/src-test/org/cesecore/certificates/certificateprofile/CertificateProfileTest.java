@@ -24,6 +24,7 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyPair;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -436,6 +437,42 @@ public class CertificateProfileTest {
         assertEquals(clonemap2.size(), profmap.size()-1);
     }
     
+    @Test
+    public void testCompiledProfile() throws Exception {
+        final CertificateProfile profile = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_SUBCA);
+        final List<String> usedStandardCertificateExtensions = profile.getUsedStandardCertificateExtensions();
+        final boolean[] keyUsage = profile.getKeyUsage();
+        final CertificateProfile compiled = ((CertificateProfile) profile.clone()).compile();
+        assertEquals(usedStandardCertificateExtensions, compiled.getUsedStandardCertificateExtensions());
+        assertTrue(Arrays.equals(keyUsage, compiled.getKeyUsage()));
+        assertEquals(CertificateConstants.CERTTYPE_SUBCA, compiled.getType());
+        assertTrue(compiled.isTypeSubCA());
+        assertTrue(compiled.getStoreCertificateData());
+        assertTrue(compiled.getUseCertificateStorage());
+        assertFalse(compiled.isSingleActiveCertificateConstraint());
+        try {
+            compiled.getUsedStandardCertificateExtensions().add("1.2.3.4");
+            fail("The used standard certificate extensions of a compiled profile should not be modifiable.");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        // Returned arrays are copies
+        compiled.getKeyUsage()[CertificateConstants.DIGITALSIGNATURE] = !keyUsage[CertificateConstants.DIGITALSIGNATURE];
+        assertTrue(Arrays.equals(keyUsage, compiled.getKeyUsage()));
+        // A clone of a compiled profile can be edited
+        final CertificateProfile clone = (CertificateProfile) compiled.clone();
+        clone.setType(CertificateConstants.CERTTYPE_ENDENTITY);
+        clone.setStoreCertificateData(false);
+        clone.setUseKeyUsage(false);
+        clone.setKeyUsage(CertificateConstants.DIGITALSIGNATURE, !keyUsage[CertificateConstants.DIGITALSIGNATURE]);
+        assertEquals(CertificateConstants.CERTTYPE_ENDENTITY, clone.getType());
+        assertFalse(clone.getStoreCertificateData());
+        assertFalse(clone.getUsedStandardCertificateExtensions().contains(Extension.keyUsage.getId()));
+        assertEquals(!keyUsage[CertificateConstants.DIGITALSIGNATURE], clone.getKeyUsage(CertificateConstants.DIGITALSIGNATURE));
+        assertEquals("The compiled profile must not change when its clone is edited", CertificateConstants.CERTTYPE_SUBCA, compiled.getType());
+        assertTrue(compiled.getUsedStandardCertificateExtensions().contains(Extension.keyUsage.getId()));
+    }
+
     @Test
     public void test09ManyValues() {
         CertificateProfile profile = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_NO_PROFILE);
@@ -0,0 +1,178 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.util.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests reading CRLs with {@link StreamedCrl}, compared to X509CRL.
+ *
+ * @version $Id$
+ */
+public class StreamedCrlTest {
+
+    private static final Date THIS_UPDATE = new Date(1450000000000L);
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keyPair = KeyTools.genKeys("1024", "RSA");
+    }
+
+    /** @param serialNumbers the revoked serial numbers, where a negative number is revoked with reason key compromise */
+    private static byte[] createCrl(final int crlNumber, final long... serialNumbers) throws Exception {
+        final X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(new X500Name("CN=StreamedCrlTest"), THIS_UPDATE);
+        crlBuilder.setNextUpdate(new Date(THIS_UPDATE.getTime() + 3600000L));
+        for (final long serialNumber : serialNumbers) {
+            if (serialNumber < 0) {
+                crlBuilder.addCRLEntry(BigInteger.valueOf(-serialNumber), new Date(THIS_UPDATE.getTime() - 1000L), CRLReason.keyCompromise);
+            } else {
+                crlBuilder.addCRLEntry(BigInteger.valueOf(serialNumber), new Date(THIS_UPDATE.getTime() - serialNumber * 1000L), CRLReason.unspecified);
+            }
+        }
+        crlBuilder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(crlNumber)));
+        return crlBuilder.build(new JcaContentSignerBuilder("SHA256WithRSA").setProvider("BC").build(keyPair.getPrivate())).getEncoded();
+    }
+
+    private static List<BigInteger> getSerialNumbers(final Iterator<StreamedCrl.Entry> entries) {
+        final List<BigInteger> ret = new ArrayList<BigInteger>();
+        while (entries.hasNext()) {
+            ret.add(entries.next().getSerialNumber());
+        }
+        return ret;
+    }
+
+    @Test
+    public void testSameAsX509Crl() throws Exception {
+        final byte[] encoded = createCrl(17, 5, -300, 70000, 1, 128, 255, 256);
+        final X509CRL x509Crl = CertTools.getCRLfromByteArray(encoded);
+        final StreamedCrl streamedCrl = new StreamedCrl(encoded);
+        streamedCrl.verify(keyPair.getPublic(), "BC");
+        assertEquals(x509Crl.getThisUpdate(), streamedCrl.getThisUpdate());
+        assertEquals(x509Crl.getNextUpdate(), streamedCrl.getNextUpdate());
+        assertEquals(BigInteger.valueOf(17), CrlExtensions.getCrlNumber(streamedCrl));
+        assertEquals(BigInteger.valueOf(-1), CrlExtensions.getDeltaCRLIndicator(streamedCrl));
+        assertEquals(x509Crl.getNonCriticalExtensionOIDs(), streamedCrl.getNonCriticalExtensionOIDs());
+        assertFalse(streamedCrl.hasUnsupportedCriticalExtension());
+        assertEquals(x509Crl.getRevokedCertificates().size(), streamedCrl.getEntryCount());
+        // The entries are returned in the order of the encoding
+        final Iterator<StreamedCrl.Entry> entries = streamedCrl.getEntries();
+        for (final long serialNumber : new long[] { 5, 300, 70000, 1, 128, 255, 256 }) {
+            final StreamedCrl.Entry entry = entries.next();
+            assertEquals(BigInteger.valueOf(serialNumber), entry.getSerialNumber());
+            final X509CRLEntry x509CrlEntry = x509Crl.getRevokedCertificate(entry.getSerialNumber());
+            assertEquals(x509CrlEntry.getRevocationDate(), entry.getRevocationDate());
+            assertEquals(CrlExtensions.extractReasonCode(x509CrlEntry), entry.getReasonCode());
+            assertNull(entry.getCertificateIssuer());
+        }
+        assertFalse(entries.hasNext());
+    }
+
+    @Test
+    public void testEntriesNotInPreviousCrl() throws Exception {
+        final StreamedCrl previousCrl = new StreamedCrl(createCrl(1, 300, 2, 70000, 5, 4));
+        // 256 and 1 are new, 300 has a new reason and 70000 is unchanged. 2, 5 and 4 are no longer on the CRL.
+        final StreamedCrl crl = new StreamedCrl(createCrl(2, 256, 70000, -300, 1));
+        final List<BigInteger> expected = new ArrayList<BigInteger>();
+        expected.add(BigInteger.valueOf(1));
+        expected.add(BigInteger.valueOf(256));
+        expected.add(BigInteger.valueOf(300));
+        assertEquals(expected, getSerialNumbers(crl.getEntriesNotIn(previousCrl)));
+        assertTrue(getSerialNumbers(crl.getEntriesNotIn(crl)).isEmpty());
+        // Without a previous CRL, all entries sorted by serial number
+        expected.add(BigInteger.valueOf(70000));
+        assertEquals(expected, getSerialNumbers(crl.getEntriesNotIn(null)));
+        final Iterator<StreamedCrl.Entry> entries = crl.getEntriesNotIn(previousCrl);
+        while (entries.hasNext()) {
+            final StreamedCrl.Entry entry = entries.next();
+            if (entry.getSerialNumber().intValue() == 300) {
+                assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, entry.getReasonCode());
+            }
+        }
+    }
+
+    @Test
+    public void testSortingManyEntries() throws Exception {
+        final long[] serialNumbers = new long[2000];
+        final Set<BigInteger> expected = new HashSet<BigInteger>();
+        for (int i = 0; i < serialNumbers.length; i++) {
+            // Mixed lengths of the encoded serial numbers, in no particular order
+            serialNumbers[i] = (i * 7919L) % 100003L + 1;
+            expected.add(BigInteger.valueOf(serialNumbers[i]));
+        }
+        final List<BigInteger> sorted = getSerialNumbers(new StreamedCrl(createCrl(1, serialNumbers)).getEntriesNotIn(null));
+        assertEquals(expected.size(), sorted.size());
+        assertEquals(expected, new HashSet<BigInteger>(sorted));
+        for (int i = 1; i < sorted.size(); i++) {
+            assertTrue(sorted.get(i - 1).compareTo(sorted.get(i)) < 0);
+        }
+    }
+
+    @Test
+    public void testInvalidCrl() throws Exception {
+        final byte[] encoded = createCrl(1, 1, 2, 70000);
+        // Change the serial number of an entry (INTEGER 70000), so the signature does not match
+        boolean changed = false;
+        for (int i = 0; i < encoded.length - 4 && !changed; i++) {
+            if (encoded[i] == 0x02 && encoded[i + 1] == 0x03 && encoded[i + 2] == 0x01 && encoded[i + 3] == 0x11 && encoded[i + 4] == 0x70) {
+                encoded[i + 4] = 0x71;
+                changed = true;
+            }
+        }
+        assertTrue(changed);
+        final StreamedCrl streamedCrl = new StreamedCrl(encoded);
+        try {
+            streamedCrl.verify(keyPair.getPublic(), "BC");
+            fail("Changed CRL should not verify.");
+        } catch (SignatureException e) {
+            // Expected
+        }
+        try {
+            new StreamedCrl(new byte[] { 0x30, 0x05, 0x30, 0x03, 0x02, 0x01 });
+            fail("Truncated CRL should not be decoded.");
+        } catch (CRLException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests spreading the private keys of a crypto token over a session pool, using soft key stores in place of the PKCS#11 sessions.
+ *
+ * @version $Id$
+ */
+public class CryptoTokenSessionPoolTest {
+
+    private static final String ALIAS = "testKey";
+    private static final char[] PIN = "foo123".toCharArray();
+    private static final int THREADS = 8;
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+    }
+
+    private static BaseCryptoToken createToken() throws Exception {
+        final BaseCryptoToken token = (BaseCryptoToken) SoftCryptoTokenTest.createSoftToken(true);
+        token.activate(PIN);
+        token.generateKeyPair("1024", ALIAS);
+        return token;
+    }
+
+    /** @return a key store with the same content as the token, like another session to the same slot */
+    private static KeyStore loadKeyStore(final CryptoToken token) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12", BouncyCastleProvider.PROVIDER_NAME);
+        keyStore.load(new ByteArrayInputStream(token.getTokenData()), PIN);
+        return keyStore;
+    }
+
+    /** @return the encoded private keys that each of a number of new threads got from the token, which must be the same for all calls in a thread */
+    private static Set<String> getPrivateKeysFromThreads(final CryptoToken token) throws Exception {
+        final Set<String> privateKeys = Collections.synchronizedSet(new HashSet<String>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        final PrivateKey privateKey = token.getPrivateKey(ALIAS);
+                        for (int j = 0; j < 10; j++) {
+                            assertTrue(Arrays.equals(privateKey.getEncoded(), token.getPrivateKey(ALIAS).getEncoded()));
+                        }
+                        privateKeys.add(Hex.toHexString(privateKey.getEncoded()));
+                    } catch (Throwable t) { // NOPMD: report any failure to the test thread
+                        errors.add(t);
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        return privateKeys;
+    }
+
+    @Test
+    public void testSessionsAreUsedByThreads() throws Exception {
+        final BaseCryptoToken token = createToken();
+        final String tokenKey = Hex.toHexString(token.getPrivateKey(ALIAS).getEncoded());
+        // A session with another key under the alias shows which threads use it
+        final CryptoToken otherToken = createToken();
+        final String otherKey = Hex.toHexString(otherToken.getPrivateKey(ALIAS).getEncoded());
+        token.setPooledKeyStores(Arrays.asList(loadKeyStore(token), loadKeyStore(otherToken), loadKeyStore(token)));
+        assertEquals(4, token.getSessionCount());
+        assertEquals(new HashSet<String>(Arrays.asList(tokenKey, otherKey)), getPrivateKeysFromThreads(token));
+        // The health check leaves out the session where the key does not match
+        token.testKeyPair(ALIAS);
+        assertEquals(3, token.getSessionCount());
+        assertEquals(Collections.singleton(tokenKey), getPrivateKeysFromThreads(token));
+        // The pool is not used after the token has been deactivated
+        token.deactivate();
+        assertEquals(1, token.getSessionCount());
+    }
+
+    @Test
+    public void testWithoutSessionPool() throws Exception {
+        final BaseCryptoToken token = createToken();
+        token.setPooledKeyStores(Collections.<KeyStore> emptyList());
+        assertEquals(1, token.getSessionCount());
+        assertEquals(1, getPrivateKeysFromThreads(token).size());
+        token.testKeyPair(ALIAS);
+        assertEquals(1, token.getSessionCount());
+    }
+}
@@ -0,0 +1,180 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests generating key pairs in advance with KeyPairPool.
+ *
+ * @version $Id$
+ */
+public class KeyPairPoolTest {
+
+    private static final String KEYSPEC = "secp256r1";
+    private static final String KEYALG = AlgorithmConstants.KEYALGORITHM_ECDSA;
+    private static final int DEPTH = 5;
+    private static final List<String> POOLED_KEYSPECS = Arrays.asList(KEYALG + ":" + KEYSPEC, KEYALG + ":secp384r1", KEYALG + ":nosuchcurve");
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+    }
+
+    /** Wait for the pool to be filled with the given number of key pairs */
+    private static void waitForAvailable(final KeyPairPool keyPairPool, final int available) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30000L;
+        while (keyPairPool.getAvailable(KEYSPEC, KEYALG) != available) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The pool has " + keyPairPool.getAvailable(KEYSPEC, KEYALG) + " key pairs instead of " + available + ".");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static String getEncodedPrivateKey(final KeyPair keyPair) {
+        return Hex.toHexString(keyPair.getPrivate().getEncoded());
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        final KeyPairPool keyPairPool = new KeyPairPool(DEPTH, 2, POOLED_KEYSPECS);
+        try {
+            assertEquals(0, keyPairPool.getAvailable(KEYSPEC, KEYALG));
+            final Set<String> privateKeys = new HashSet<String>();
+            privateKeys.add(getEncodedPrivateKey(keyPairPool.getKeyPair(KEYSPEC, KEYALG)));
+            // The first request starts filling the pool, but not above the depth
+            waitForAvailable(keyPairPool, DEPTH);
+            Thread.sleep(200);
+            assertEquals(DEPTH, keyPairPool.getAvailable(KEYSPEC, KEYALG));
+            for (int i = 0; i < 3; i++) {
+                privateKeys.add(getEncodedPrivateKey(keyPairPool.getKeyPair(KEYSPEC, KEYALG)));
+            }
+            waitForAvailable(keyPairPool, DEPTH);
+            assertEquals(4, privateKeys.size());
+            // Other key specifications have pools of their own
+            assertEquals(0, keyPairPool.getAvailable("secp384r1", KEYALG));
+            keyPairPool.getKeyPair("secp384r1", KEYALG);
+            assertEquals(DEPTH, keyPairPool.getAvailable(KEYSPEC, KEYALG));
+        } finally {
+            keyPairPool.close();
+        }
+    }
+
+    @Test
+    public void testKeyPairsAreUsedOnce() throws Exception {
+        final KeyPairPool keyPairPool = new KeyPairPool(DEPTH, 2, POOLED_KEYSPECS);
+        try {
+            keyPairPool.getKeyPair(KEYSPEC, KEYALG);
+            waitForAvailable(keyPairPool, DEPTH);
+            // Empty the pool from several threads at once, so some key pairs are generated by the requesting threads
+            final List<String> privateKeys = Collections.synchronizedList(new ArrayList<String>());
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            final List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < 4; i++) {
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 10; j++) {
+                                privateKeys.add(getEncodedPrivateKey(keyPairPool.getKeyPair(KEYSPEC, KEYALG)));
+                            }
+                        } catch (Throwable t) { // NOPMD: report any failure to the test thread
+                            errors.add(t);
+                        }
+                    }
+                });
+            }
+            for (final Thread thread : threads) {
+                thread.start();
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(Collections.emptyList(), errors);
+            assertEquals(40, privateKeys.size());
+            assertEquals(40, new HashSet<String>(privateKeys).size());
+        } finally {
+            keyPairPool.close();
+        }
+    }
+
+    @Test
+    public void testWithoutPool() throws Exception {
+        final KeyPairPool keyPairPool = new KeyPairPool(0, 1, POOLED_KEYSPECS);
+        assertTrue(keyPairPool.getKeyPair(KEYSPEC, KEYALG) != null);
+        Thread.sleep(100);
+        assertEquals(0, keyPairPool.getAvailable(KEYSPEC, KEYALG));
+        keyPairPool.close();
+    }
+
+    @Test
+    public void testInvalidKeySpec() throws Exception {
+        final KeyPairPool keyPairPool = new KeyPairPool(DEPTH, 1, POOLED_KEYSPECS);
+        try {
+            keyPairPool.getKeyPair("nosuchcurve", KEYALG);
+            fail("Invalid key specification should not give a key pair.");
+        } catch (InvalidAlgorithmParameterException e) {
+            // Expected
+        }
+        assertEquals(0, keyPairPool.getAvailable("nosuchcurve", KEYALG));
+        keyPairPool.close();
+    }
+
+    @Test
+    public void testKeySpecNotConfigured() throws Exception {
+        final KeyPairPool keyPairPool = new KeyPairPool(DEPTH, 1, Collections.singletonList(KEYALG + ":secp384r1"));
+        try {
+            assertTrue(keyPairPool.getKeyPair(KEYSPEC, KEYALG) != null);
+            Thread.sleep(100);
+            assertEquals("Only the configured key specifications should be generated in advance.", 0, keyPairPool.getAvailable(KEYSPEC, KEYALG));
+        } finally {
+            keyPairPool.close();
+        }
+    }
+
+    @Test
+    public void testNumberOfPoolsIsLimited() throws Exception {
+        final List<String> keySpecs = new ArrayList<String>();
+        for (int i = 0; i < KeyPairPool.MAX_POOLS; i++) {
+            keySpecs.add(AlgorithmConstants.KEYALGORITHM_RSA + ":" + (1024 + 8 * i));
+        }
+        keySpecs.add(KEYALG + ":" + KEYSPEC);
+        final KeyPairPool keyPairPool = new KeyPairPool(DEPTH, 1, keySpecs);
+        try {
+            keyPairPool.getKeyPair(KEYSPEC, KEYALG);
+            Thread.sleep(100);
+            assertEquals("Key specifications above the max number of pools should not be generated in advance.", 0,
+                    keyPairPool.getAvailable(KEYSPEC, KEYALG));
+        } finally {
+            keyPairPool.close();
+        }
+    }
+}
@@ -31,6 +31,7 @@ import java.security.KeyPair;
 import java.security.PublicKey;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509CRL;
@@ -2060,6 +2061,32 @@ public class CertToolsTest {
         log.trace("<testPreventingHeapOverflowDuringgetCertsFromByteArray()");
     }
 
+    /**
+     * Tests that the DNs taken from the already decoded certificate or CRL are the same as when the certificate is decoded again by the BC
+     * provider, also for certificates decoded by another provider, and that the cached DNs are used.
+     */
+    @Test
+    public void testGetDnWithoutDecodingAgain() throws Exception {
+        log.trace(">testGetDnWithoutDecodingAgain()");
+        final CertificateFactory sunCertificateFactory = CertificateFactory.getInstance("X.509", "SUN");
+        for (final byte[] certBytes : new byte[][] { testcert, guidcert, qcRefCert, subjDirAttrCert, krb5principalcert, x509certchainsubsub }) {
+            final X509Certificate bcCert = CertTools.getCertfromByteArray(certBytes, X509Certificate.class);
+            final X509Certificate sunCert = (X509Certificate) sunCertificateFactory.generateCertificate(new ByteArrayInputStream(certBytes));
+            final String expectedSubjectDn = CertTools.stringToBCDNString(bcCert.getSubjectDN().toString());
+            final String expectedIssuerDn = CertTools.stringToBCDNString(bcCert.getIssuerDN().toString());
+            NormalizedDnCache.INSTANCE.clear();
+            assertEquals(expectedSubjectDn, CertTools.getSubjectDN(sunCert));
+            assertEquals(expectedIssuerDn, CertTools.getIssuerDN(sunCert));
+            assertEquals("The encoded name should be the same for both providers", 2, NormalizedDnCache.INSTANCE.size());
+            assertEquals(expectedSubjectDn, CertTools.getSubjectDN(bcCert));
+            assertEquals(expectedIssuerDn, CertTools.getIssuerDN(bcCert));
+            assertEquals(2, NormalizedDnCache.INSTANCE.size());
+        }
+        final X509CRL crl = CertTools.getCRLfromByteArray(testcrl);
+        assertEquals("CN=TEST", CertTools.getIssuerDN(crl));
+        log.trace("<testGetDnWithoutDecodingAgain()");
+    }
+
     private void checkNCException(X509Certificate cacert, X500Name subjectDNName, GeneralName subjectAltName, String message) {
         try {
             CertTools.checkNameConstraints(cacert, subjectDNName, new GeneralNames(subjectAltName));
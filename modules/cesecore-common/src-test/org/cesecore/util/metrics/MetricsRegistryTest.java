@@ -0,0 +1,117 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Tests of the metrics registry, its histograms and the Prometheus text format.
+ *
+ * @version $Id$
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        final Histogram histogram = new Histogram(new long[] { 10, 100, 1000 }, 0.001);
+        histogram.record(5);
+        histogram.record(10);
+        histogram.record(50);
+        histogram.record(5000);
+        assertEquals(4, histogram.getCount());
+        final long[] counts = histogram.getBucketCounts();
+        assertEquals("Bounds should be inclusive", 2, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(0, counts[2]);
+        assertEquals("Values above the last bound should end up in the last bucket", 1, counts[3]);
+        assertEquals(5.065, histogram.getSum(), 1e-9);
+        assertEquals(5.0, histogram.getMax(), 1e-9);
+        assertEquals(0.01, histogram.getValueAtPercentile(50), 1e-9);
+        assertEquals(0.1, histogram.getValueAtPercentile(75), 1e-9);
+        assertEquals("Percentiles above the last bound should use the max", 5.0, histogram.getValueAtPercentile(99), 1e-9);
+    }
+
+    @Test
+    public void testFamilyReturnsSameMetric() {
+        final MetricFamily<Counter> family = MetricsRegistry.INSTANCE.counterFamily("test_same_total", "Test counter", "label");
+        assertSame(family, MetricsRegistry.INSTANCE.counterFamily("test_same_total", "Test counter", "label"));
+        final Counter counter = family.get("a");
+        assertSame(counter, family.get("a"));
+        counter.inc();
+        counter.add(2);
+        assertEquals(3, family.get("a").get());
+        assertEquals(0, family.get("b").get());
+        try {
+            MetricsRegistry.INSTANCE.gaugeFamily("test_same_total", "Test gauge", null);
+            fail("Registering a metric with the same name and another type should not be possible.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testTextFormat() throws Exception {
+        MetricsRegistry.INSTANCE.counterFamily("test_text_requests_total", "Requests by \"status\"", "status").get("successful").add(7);
+        MetricsRegistry.INSTANCE.gaugeFamily("test_text_queue_length", "Queue length", null).get().set(42);
+        final Histogram histogram = MetricsRegistry.INSTANCE.durationFamily("test_text_duration_seconds", "Duration", "token").get("My \"token\"");
+        histogram.record(2000000L);
+        final StringWriter writer = new StringWriter();
+        MetricsRegistry.INSTANCE.writeTextFormat(writer);
+        final String text = writer.toString();
+        assertTrue(text, text.contains("# HELP test_text_requests_total Requests by \"status\"\n# TYPE test_text_requests_total counter\n"));
+        assertTrue(text, text.contains("test_text_requests_total{status=\"successful\"} 7\n"));
+        assertTrue(text, text.contains("# TYPE test_text_queue_length gauge\ntest_text_queue_length 42\n"));
+        assertTrue(text, text.contains("# TYPE test_text_duration_seconds histogram\n"));
+        assertTrue(text, text.contains("test_text_duration_seconds_bucket{token=\"My \\\"token\\\"\",le=\"0.001\"} 0\n"));
+        assertTrue(text, text.contains("test_text_duration_seconds_bucket{token=\"My \\\"token\\\"\",le=\"0.0025\"} 1\n"));
+        assertTrue(text, text.contains("test_text_duration_seconds_bucket{token=\"My \\\"token\\\"\",le=\"+Inf\"} 1\n"));
+        assertTrue(text, text.contains("test_text_duration_seconds_sum{token=\"My \\\"token\\\"\"} 0.002\n"));
+        assertTrue(text, text.contains("test_text_duration_seconds_count{token=\"My \\\"token\\\"\"} 1\n"));
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        MetricsRegistry.INSTANCE.counterFamily("test_jmx_total", "Test counter", "label").get("x").add(5);
+        MetricsRegistry.INSTANCE.sizeFamily("test_jmx_bytes", "Test sizes", null).get().record(3000);
+        final ObjectName objectName = new ObjectName(MetricsRegistry.JMX_OBJECT_NAME);
+        assertEquals(Long.valueOf(5), ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "test_jmx_total[x]"));
+        assertEquals(Long.valueOf(1), ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "test_jmx_bytes.count"));
+        assertEquals(Double.valueOf(3000), ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "test_jmx_bytes.max"));
+    }
+
+    @Test
+    public void testUnregisterMBean() throws Exception {
+        final ObjectName objectName = new ObjectName(MetricsRegistry.JMX_OBJECT_NAME);
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+        try {
+            MetricsRegistry.INSTANCE.unregisterMBean();
+            assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+            // Unregistering twice is harmless
+            MetricsRegistry.INSTANCE.unregisterMBean();
+        } finally {
+            MetricsRegistry.INSTANCE.registerMBean();
+        }
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+}
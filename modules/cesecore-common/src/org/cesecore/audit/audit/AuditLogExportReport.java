@@ -54,6 +54,11 @@ public class AuditLogExportReport extends AuditLogValidationReport {
 		exportCount++;
 	}
 
+	/** Increase the number of exported log entries. */
+	public void incExportCount(final int count) {
+		exportCount += count;
+	}
+
 	/** @return the number of exported log entries. */
 	public int getExportCount() {
 		return exportCount;
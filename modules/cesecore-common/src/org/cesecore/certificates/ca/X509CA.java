@@ -40,6 +40,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -113,6 +115,8 @@ import org.cesecore.certificates.ca.extendedservices.ExtendedCAService;
 import org.cesecore.certificates.ca.extendedservices.ExtendedCAServiceInfo;
 import org.cesecore.certificates.ca.extendedservices.ExtendedCAServiceTypes;
 import org.cesecore.certificates.ca.internal.CertificateValidity;
+import org.cesecore.certificates.ca.internal.ContentOperatorPool;
+import org.cesecore.certificates.ca.internal.ContentOperatorPool.PooledContentSigner;
 import org.cesecore.certificates.ca.internal.SernoGeneratorRandom;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.CertificateCreateException;
@@ -148,6 +152,9 @@ import org.cesecore.util.CertTools;
 import org.cesecore.util.PrintableStringNameStyle;
 import org.cesecore.util.SimpleTime;
 import org.cesecore.util.StringTools;
+import org.cesecore.util.metrics.Histogram;
+import org.cesecore.util.metrics.MetricFamily;
+import org.cesecore.util.metrics.MetricsRegistry;
 
 /**
  * X509CA is a implementation of a CA and holds data specific for Certificate and CRL generation according to the X509 standard.
@@ -191,6 +198,52 @@ public class X509CA extends CA implements Serializable {
 
     private static final CertificateTransparency ct = CertificateTransparencyFactory.getInstance();
 
+    private static final MetricFamily<Histogram> CERTIFICATE_SIGNING_DURATION = MetricsRegistry.INSTANCE.durationFamily(
+            "ca_certificate_signing_duration_seconds", "Time to sign an issued certificate, by crypto token", "crypto_token");
+    private static final MetricFamily<Histogram> CRL_SIGNING_DURATION = MetricsRegistry.INSTANCE.durationFamily(
+            "ca_crl_signing_duration_seconds", "Time to sign a CRL, by crypto token", "crypto_token");
+
+    /** Signers and verifiers reused for issuing certificates. Created when first used. */
+    private transient volatile ContentOperatorPool contentOperatorPool;
+
+    /** Max number of certificate profiles to keep encoded extensions for. Replaced profiles are dropped when the limit is reached. */
+    private static final int MAX_EXTENSION_TEMPLATES = 100;
+
+    /**
+     * The encoded request independent extensions of this CA, by compiled certificate profile. Compiled profiles are shared and replaced
+     * when edited, and so is a cached CA, so a template is never used after the profile or the CA has changed. Created when first used.
+     */
+    private transient volatile ConcurrentHashMap<CertificateProfile, ExtensionTemplate> extensionTemplates;
+
+    /** An encoded extension, with a null value if the extension should not be added for the CA and certificate profile */
+    private static final class EncodedExtension {
+        private final ASN1ObjectIdentifier oid;
+        private final boolean critical;
+        private final byte[] value;
+
+        private EncodedExtension(final CertificateExtension certExt, final byte[] value) {
+            this.oid = new ASN1ObjectIdentifier(certExt.getOID());
+            this.critical = certExt.isCriticalFlag();
+            this.value = value;
+        }
+    }
+
+    /**
+     * The extensions of a certificate profile that are the same for all certificates issued by this CA, i.e. those that are
+     * {@link CertificateExtension#isRequestIndependent()}, encoded once.
+     */
+    private static final class ExtensionTemplate {
+        private final AvailableCustomCertificateExtensionsConfiguration cceConfig;
+        /** Standard extensions by OID */
+        private final Map<String, EncodedExtension> standardExtensions = new HashMap<String, EncodedExtension>();
+        /** Custom extensions by id */
+        private final Map<Integer, EncodedExtension> customExtensions = new HashMap<Integer, EncodedExtension>();
+
+        private ExtensionTemplate(final AvailableCustomCertificateExtensionsConfiguration cceConfig) {
+            this.cceConfig = cceConfig;
+        }
+    }
+
     // Public Methods
     /** Creates a new instance of CA, this constructor should be used when a new CA is created */
     public X509CA(final X509CAInfo cainfo) {
@@ -468,6 +521,7 @@ public class X509CA extends CA implements Serializable {
 
     public void updateCA(CryptoToken cryptoToken, CAInfo cainfo, final AvailableCustomCertificateExtensionsConfiguration cceConfig) throws InvalidAlgorithmException {
         super.updateCA(cryptoToken, cainfo, cceConfig);
+        extensionTemplates = null;
         X509CAInfo info = (X509CAInfo) cainfo;
         setPolicies(info.getPolicies());
         setAuthorityInformationAccess(info.getAuthorityInformationAccess());
@@ -730,7 +784,7 @@ public class X509CA extends CA implements Serializable {
                 // The sequence is ignored later, but we fetch the same previous for now to do this the same way as for CVC..
                 final String ignoredKeySequence = catoken.getProperties().getProperty(CATokenConstants.PREVIOUS_SEQUENCE_PROPERTY);
                 final Certificate retcert = generateCertificate(cadata, null, currentCaCert.getPublicKey(), -1, currentCaCert.getNotBefore(), currentCaCert.getNotAfter(),
-                        certProfile, null, ignoredKeySequence, previousCaPublicKey, previousCaPrivateKey, provider, null, cceConfig, /*createLinkCertificate=*/true, caNameChange);
+                        certProfile, null, ignoredKeySequence, previousCaPublicKey, previousCaPrivateKey, provider, cryptoToken.getTokenName(), null, cceConfig, /*createLinkCertificate=*/true, caNameChange);
                 log.info(intres.getLocalizedMessage("cvc.info.createlinkcert", cadata.getDN(), cadata.getDN()));
                 ret = retcert.getEncoded();
             } catch (CryptoTokenOfflineException e) {
@@ -768,7 +822,67 @@ public class X509CA extends CA implements Serializable {
         final PrivateKey caPrivateKey = cryptoToken.getPrivateKey(catoken.getAliasFromPurpose(purpose));
         final String provider = cryptoToken.getSignProviderName();
         return generateCertificate(subject, request, publicKey, keyusage, notBefore, notAfter, certProfile, extensions, sequence,
-                caPublicKey, caPrivateKey, provider, certGenParams, cceConfig, /*linkCertificate=*/false, /*caNameChange=*/false);
+                caPublicKey, caPrivateKey, provider, cryptoToken.getTokenName(), certGenParams, cceConfig, /*linkCertificate=*/false, /*caNameChange=*/false);
+    }
+
+    private ContentOperatorPool getContentOperatorPool() {
+        ContentOperatorPool pool = contentOperatorPool;
+        if (pool == null) {
+            pool = new ContentOperatorPool();
+            contentOperatorPool = pool;
+        }
+        return pool;
+    }
+
+    /**
+     * Get the encoded request independent extensions for a compiled certificate profile, encoding them the first time the profile is used.
+     * An extension that can not be encoded is left out, so that it is created, and the error reported, for each certificate as before.
+     * 
+     * @return the extensions, or null if the profile is not compiled and the extensions must be created for each certificate
+     */
+    private ExtensionTemplate getExtensionTemplate(final CertificateProfile certProfile, final AvailableCustomCertificateExtensionsConfiguration cceConfig) {
+        if (!certProfile.isCompiled()) {
+            return null;
+        }
+        ConcurrentHashMap<CertificateProfile, ExtensionTemplate> templates = extensionTemplates;
+        if (templates == null) {
+            templates = new ConcurrentHashMap<CertificateProfile, ExtensionTemplate>();
+            extensionTemplates = templates;
+        }
+        ExtensionTemplate template = templates.get(certProfile);
+        if (template != null && template.cceConfig == cceConfig) {
+            return template;
+        }
+        template = new ExtensionTemplate(cceConfig);
+        final CertificateExtensionFactory fact = CertificateExtensionFactory.getInstance();
+        for (final String oid : certProfile.getUsedStandardCertificateExtensions()) {
+            final CertificateExtension certExt = fact.getStandardCertificateExtension(oid, certProfile);
+            if (certExt != null && certExt.isRequestIndependent()) {
+                try {
+                    template.standardExtensions.put(oid, new EncodedExtension(certExt, certExt.getValueEncoded(null, this, certProfile, null, null, null)));
+                } catch (CertificateExtensionException e) {
+                    log.debug("Standard certificate extension " + oid + " will be created for each certificate: " + e.getMessage());
+                }
+            }
+        }
+        if (cceConfig != null) {
+            for (final Integer id : certProfile.getUsedCertificateExtensions()) {
+                final CustomCertificateExtension customExt = cceConfig.getCustomCertificateExtension(id.intValue());
+                if (customExt instanceof CertificateExtension && ((CertificateExtension) customExt).isRequestIndependent()) {
+                    final CertificateExtension certExt = (CertificateExtension) customExt;
+                    try {
+                        template.customExtensions.put(id, new EncodedExtension(certExt, certExt.getValueEncoded(null, this, certProfile, null, null, null)));
+                    } catch (CertificateExtensionException e) {
+                        log.debug("Custom certificate extension " + id + " will be created for each certificate: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        if (templates.size() >= MAX_EXTENSION_TEMPLATES) {
+            templates.clear();
+        }
+        templates.put(certProfile, template);
+        return template;
     }
 
     /**
@@ -786,7 +900,7 @@ public class X509CA extends CA implements Serializable {
      */
     private Certificate generateCertificate(final EndEntityInformation subject, final RequestMessage request, final PublicKey publicKey,
             final int keyusage, final Date notBefore, final Date notAfter, final CertificateProfile certProfile, final Extensions extensions,
-            final String sequence, final PublicKey caPublicKey, final PrivateKey caPrivateKey, final String provider, 
+            final String sequence, final PublicKey caPublicKey, final PrivateKey caPrivateKey, final String provider, final String cryptoTokenName,
             CertificateGenerationParams certGenParams, AvailableCustomCertificateExtensionsConfiguration cceConfig, boolean linkCertificate, boolean caNameChange)
             throws CAOfflineException, InvalidAlgorithmException, IllegalValidityException, IllegalNameException, CertificateExtensionException,
              OperatorCreationException, CertificateCreateException, SignatureException {
@@ -1039,6 +1153,7 @@ public class X509CA extends CA implements Serializable {
         // Standard certificate extensions are defined in CertificateProfile and CertificateExtensionFactory
         // and implemented in package org.ejbca.core.model.certextensions.standard
         final CertificateExtensionFactory fact = CertificateExtensionFactory.getInstance();
+        final ExtensionTemplate extensionTemplate = getExtensionTemplate(certProfile, cceConfig);
         final List<String> usedStdCertExt = certProfile.getUsedStandardCertificateExtensions();
         final Iterator<String> certStdExtIter = usedStdCertExt.iterator();
         overridenexts = extgen.generate();
@@ -1048,11 +1163,18 @@ public class X509CA extends CA implements Serializable {
             // from the request, if AllowExtensionOverride is enabled.
             // Two extensions with the same oid is not allowed in the standard.
             if (overridenexts.getExtension(new ASN1ObjectIdentifier(oid)) == null) {
-                final CertificateExtension certExt = fact.getStandardCertificateExtension(oid, certProfile);
-                if (certExt != null) {
-                    final byte[] value = certExt.getValueEncoded(subject, this, certProfile, publicKey, caPublicKey, val);
-                    if (value != null) {
-                        extgen.addExtension(new ASN1ObjectIdentifier(certExt.getOID()), certExt.isCriticalFlag(), value);
+                final EncodedExtension encodedExt = extensionTemplate == null ? null : extensionTemplate.standardExtensions.get(oid);
+                if (encodedExt != null) {
+                    if (encodedExt.value != null) {
+                        extgen.addExtension(encodedExt.oid, encodedExt.critical, encodedExt.value);
+                    }
+                } else {
+                    final CertificateExtension certExt = fact.getStandardCertificateExtension(oid, certProfile);
+                    if (certExt != null) {
+                        final byte[] value = certExt.getValueEncoded(subject, this, certProfile, publicKey, caPublicKey, val);
+                        if (value != null) {
+                            extgen.addExtension(new ASN1ObjectIdentifier(certExt.getOID()), certExt.isCriticalFlag(), value);
+                        }
                     }
                 }
             } else {
@@ -1083,9 +1205,16 @@ public class X509CA extends CA implements Serializable {
                 // from the request, if AllowExtensionOverride is enabled.
                 // Two extensions with the same oid is not allowed in the standard.
                 if (overridenexts.getExtension(new ASN1ObjectIdentifier(certExt.getOID())) == null) {
-                    final byte[] value = certExt.getValueEncoded(subject, this, certProfile, publicKey, caPublicKey, val);
-                    if (value != null) {
-                        extgen.addExtension(new ASN1ObjectIdentifier(certExt.getOID()), certExt.isCriticalFlag(), value);
+                    final EncodedExtension encodedExt = extensionTemplate == null ? null : extensionTemplate.customExtensions.get(Integer.valueOf(id));
+                    if (encodedExt != null) {
+                        if (encodedExt.value != null) {
+                            extgen.addExtension(encodedExt.oid, encodedExt.critical, encodedExt.value);
+                        }
+                    } else {
+                        final byte[] value = certExt.getValueEncoded(subject, this, certProfile, publicKey, caPublicKey, val);
+                        if (value != null) {
+                            extgen.addExtension(new ASN1ObjectIdentifier(certExt.getOID()), certExt.isCriticalFlag(), value);
+                        }
                     }
                 } else {
                     if (log.isDebugEnabled()) {
@@ -1142,9 +1271,9 @@ public class X509CA extends CA implements Serializable {
                  *  It should have CA=true and ExtKeyUsage=PRECERTIFICATE_SIGNING_OID,
                  *  and should not have any other key usages.
                  */
-                final ContentSigner signer = new BufferingContentSigner(
-                        new JcaContentSignerBuilder(sigAlg).setProvider(provider).build(caPrivateKey), 20480);
+                final PooledContentSigner signer = getContentOperatorPool().getSigner(sigAlg, provider, caPrivateKey);
                 final X509CertificateHolder certHolder = precertbuilder.build(signer);
+                signer.release();
                 final X509Certificate cert = CertTools.getCertfromByteArray(certHolder.getEncoded(), X509Certificate.class);
 
                 // Get certificate chain
@@ -1199,8 +1328,11 @@ public class X509CA extends CA implements Serializable {
         if (log.isTraceEnabled()) {
             log.trace(">certgen.generate");
         }
-        final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(provider).build(caPrivateKey), 20480);
+        final long signingStartTime = System.nanoTime();
+        final PooledContentSigner signer = getContentOperatorPool().getSigner(sigAlg, provider, caPrivateKey);
         final X509CertificateHolder certHolder = certbuilder.build(signer);
+        signer.release();
+        CERTIFICATE_SIGNING_DURATION.get(cryptoTokenName).recordNanosSince(signingStartTime);
         X509Certificate cert;
         try {
             cert = CertTools.getCertfromByteArray(certHolder.getEncoded(), X509Certificate.class);
@@ -1225,14 +1357,13 @@ public class X509CA extends CA implements Serializable {
             verifyKey = caPublicKey;
         }
         try {
-            cert.verify(verifyKey);
-        } catch (InvalidKeyException e) {
+            // Verify the signature of the certificate holder, which we already have parsed, with a reused verifier
+            if (!getContentOperatorPool().isSignatureValid(certHolder, verifyKey)) {
+                throw new SignatureException("Signature of the issued certificate does not match the CA's public key.");
+            }
+        } catch (OperatorCreationException e) {
             throw new CertificateCreateException("CA's public key was invalid,", e);
-        } catch (NoSuchAlgorithmException e) {
-           throw new CertificateCreateException(e);
-        } catch (NoSuchProviderException e) {
-            throw new IllegalStateException("Provider was unknown", e);
-        } catch (CertificateException e) {
+        } catch (CertException e) {
             throw new CertificateCreateException(e);
         }
         
@@ -1509,8 +1640,10 @@ public class X509CA extends CA implements Serializable {
         }
         final String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
         try {
+            final long signingStartTime = System.nanoTime();
             final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(cryptoToken.getSignProviderName()).build(cryptoToken.getPrivateKey(alias)), 20480);
             crl = crlgen.build(signer);
+            CRL_SIGNING_DURATION.get(cryptoToken.getTokenName()).recordNanosSince(signingStartTime);
         } catch (OperatorCreationException e) {
             // Very fatal error
             throw new RuntimeException("Can not create Jca content signer: ", e);
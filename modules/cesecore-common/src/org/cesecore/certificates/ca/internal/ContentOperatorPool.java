@@ -0,0 +1,237 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca.internal;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.BufferingContentSigner;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+
+/**
+ * Reusable content signers and verifiers of a CA, so that issuing a certificate does not look up and initialize a new JCA Signature
+ * (and allocate a new buffer) for signing and for verifying the result.
+ *
+ * Signers are pooled by private key, signature algorithm and provider, and verifiers by public key and signature algorithm. Private
+ * keys are compared by identity, since they can not always be encoded, so when the crypto token returns new key objects, e.g. after it
+ * has been reactivated, new signers are created. Public keys are compared by their encoding, since e.g. the CA certificate returns a
+ * new key object for each call. A signer or verifier is only used by one thread at a time, and one that failed is not reused.
+ *
+ * @version $Id$
+ */
+public class ContentOperatorPool {
+
+    /** Max number of keys and algorithms to keep signers or verifiers for. The least recently used key is dropped when this is reached. */
+    private static final int MAX_KEYS = 16;
+    /** Max number of idle signers or verifiers per key and algorithm */
+    private static final int MAX_IDLE = 32;
+    /** Certificates are rarely larger than this, so the whole TBS certificate is normally passed to the Signature at once */
+    private static final int SIGNER_BUFFER_SIZE = 4096;
+
+    /** Identifies a private key by identity */
+    private static final class KeyIdentity {
+        private final PrivateKey key;
+
+        private KeyIdentity(final PrivateKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof KeyIdentity && key == ((KeyIdentity) o).key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+    }
+
+    /** Identifies a key, and an algorithm and provider */
+    private static final class OperatorKey {
+        private final Object key;
+        private final Object algorithm;
+        private final String provider;
+
+        private OperatorKey(final Object key, final Object algorithm, final String provider) {
+            this.key = key;
+            this.algorithm = algorithm;
+            this.provider = provider;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof OperatorKey)) {
+                return false;
+            }
+            final OperatorKey other = (OperatorKey) o;
+            return key.equals(other.key) && algorithm.equals(other.algorithm) && (provider == null ? other.provider == null : provider.equals(other.provider));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + algorithm.hashCode();
+        }
+    }
+
+    /** Idle operators per key, where the least recently used key is dropped when there are too many. Access must be synchronized. */
+    private static final class LruPool<T> extends LinkedHashMap<OperatorKey, ConcurrentLinkedQueue<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private LruPool() {
+            super(MAX_KEYS + 1, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<OperatorKey, ConcurrentLinkedQueue<T>> eldest) {
+            return size() > MAX_KEYS;
+        }
+    }
+
+    /** A signer borrowed from the pool. Call {@link #release()} after a successful signature to make it available again. */
+    public static final class PooledContentSigner implements ContentSigner {
+        private final ContentSigner signer;
+        private final ConcurrentLinkedQueue<PooledContentSigner> idle;
+
+        private PooledContentSigner(final ContentSigner signer, final ConcurrentLinkedQueue<PooledContentSigner> idle) {
+            this.signer = signer;
+            this.idle = idle;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return signer.getAlgorithmIdentifier();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return signer.getOutputStream();
+        }
+
+        @Override
+        public byte[] getSignature() {
+            return signer.getSignature();
+        }
+
+        /** Return the signer to the pool. Must not be called if the signing failed. */
+        public void release() {
+            offer(idle, this);
+        }
+    }
+
+    private final LruPool<PooledContentSigner> signers = new LruPool<>();
+    private final LruPool<ContentVerifier> verifiers = new LruPool<>();
+
+    private static <T> ConcurrentLinkedQueue<T> getQueue(final LruPool<T> pool, final OperatorKey key) {
+        synchronized (pool) {
+            ConcurrentLinkedQueue<T> queue = pool.get(key);
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<>();
+                pool.put(key, queue);
+            }
+            return queue;
+        }
+    }
+
+    private static <T> void offer(final ConcurrentLinkedQueue<T> queue, final T operator) {
+        // size() is not constant time, but the queue is small
+        if (queue.size() < MAX_IDLE) {
+            queue.offer(operator);
+        }
+    }
+
+    /**
+     * Get a signer from the pool, or create one if there is no idle signer.
+     *
+     * @param signatureAlgorithm a signature algorithm name accepted by JcaContentSignerBuilder, e.g. SHA256WithRSA
+     * @param provider the name of the provider of the private key
+     * @param privateKey the private key to sign with
+     * @return a signer that is only used by the caller until it is released
+     * @throws OperatorCreationException if a signer could not be created
+     */
+    public PooledContentSigner getSigner(final String signatureAlgorithm, final String provider, final PrivateKey privateKey)
+            throws OperatorCreationException {
+        final ConcurrentLinkedQueue<PooledContentSigner> idle = getQueue(signers, new OperatorKey(new KeyIdentity(privateKey), signatureAlgorithm, provider));
+        final PooledContentSigner signer = idle.poll();
+        if (signer != null) {
+            return signer;
+        }
+        return new PooledContentSigner(new BufferingContentSigner(new JcaContentSignerBuilder(signatureAlgorithm).setProvider(provider).build(
+                privateKey), SIGNER_BUFFER_SIZE), idle);
+    }
+
+    /**
+     * Verify the signature of a certificate using the BouncyCastle provider, like X509Certificate.verify, but without parsing the
+     * certificate again or looking up a new Signature for each certificate.
+     *
+     * @param certificateHolder the certificate to verify
+     * @param publicKey the public key of the issuer
+     * @return true if the signature is valid
+     * @throws OperatorCreationException if a verifier could not be created for the key and algorithm
+     * @throws CertException if the signature could not be verified, e.g. because it was malformed
+     */
+    public boolean isSignatureValid(final X509CertificateHolder certificateHolder, final PublicKey publicKey) throws OperatorCreationException,
+            CertException {
+        final AlgorithmIdentifier algorithm = certificateHolder.getSignatureAlgorithm();
+        final ConcurrentLinkedQueue<ContentVerifier> idle = getQueue(verifiers, new OperatorKey(ByteBuffer.wrap(publicKey.getEncoded()), algorithm, null));
+        ContentVerifier pooledVerifier = idle.poll();
+        if (pooledVerifier == null) {
+            pooledVerifier = new JcaContentVerifierProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(publicKey).get(algorithm);
+        }
+        final ContentVerifier verifier = pooledVerifier;
+        final boolean ret = certificateHolder.isSignatureValid(new ContentVerifierProvider() {
+            @Override
+            public boolean hasAssociatedCertificate() {
+                return false;
+            }
+
+            @Override
+            public X509CertificateHolder getAssociatedCertificate() {
+                return null;
+            }
+
+            @Override
+            public ContentVerifier get(final AlgorithmIdentifier verifierAlgorithm) {
+                return verifier;
+            }
+        });
+        // Not reached if the verification threw an exception
+        offer(idle, verifier);
+        return ret;
+    }
+
+    /** @return the number of idle verifiers, for tests */
+    int getIdleVerifierCount() {
+        int ret = 0;
+        synchronized (verifiers) {
+            for (final ConcurrentLinkedQueue<ContentVerifier> queue : verifiers.values()) {
+                ret += queue.size();
+            }
+        }
+        return ret;
+    }
+}
@@ -26,6 +26,11 @@ import org.cesecore.internal.InternalResources;
 /**
  * Implements a singleton serial number generator using SecureRandom. This generator generates random 8 octec (64 bits) serial numbers.
  * 
+ * Serial numbers are taken from a number of stripes, each with its own independently seeded SecureRandom and lock, chosen by the calling
+ * thread, so that concurrent issuance does not serialize on one generator. Each stripe reads random bytes for several serial numbers at
+ * a time. The number of stripes is configured with ca.serialnumberstripes. Serial numbers are random as before, so a collision with an
+ * existing certificate is still handled by the unique index on the issuer and serial number (see UniqueSernoHelper).
+ * 
  * RFC3280 defines serialNumber be positive INTEGER, and X.690 defines INTEGER consist of one or more octets. X.690 also defines as follows:
  * 
  * If the contents octets of an integer value encoding consist of more than one octet, then the bits of the first octet and bit 8 of the second octet:
@@ -56,22 +61,59 @@ public class SernoGeneratorRandom implements SernoGenerator {
     /** Internal localization of logs and errors */
     private static final InternalResources intres = InternalResources.getInstance();
 
+    /** Max number of stripes */
+    private static final int MAX_STRIPES = 64;
+    /** Number of serial numbers that each stripe reads random bytes for at a time */
+    private static final int SERNOS_PER_READ = 32;
+
     /** random generator algorithm, default SHA1PRNG */
     private String algorithm = "SHA1PRNG";
 
     /** number of bytes serial number to generate, default 8 */
-    private int noOctets = 8;
+    private volatile int noOctets = 8;
 
-    /** random generator */
-    private SecureRandom random;
+    /** random generators, the number of stripes is a power of two */
+    private volatile Stripe[] stripes;
 
     /** A handle to the unique Singleton instance. */
     private static SernoGeneratorRandom instance = null;
 
     /** lowest possible value we should deliver when getSerno is called */
-    private BigInteger lowest = new BigInteger("0080000000000000", 16); // Default value for 64 bit serials
+    private volatile BigInteger lowest = new BigInteger("0080000000000000", 16); // Default value for 64 bit serials
     /** highest possible value we should deliver when getSerno is called */
-    private BigInteger highest = new BigInteger("7FFFFFFFFFFFFFFF", 16); // Default value for 64 bit serials
+    private volatile BigInteger highest = new BigInteger("7FFFFFFFFFFFFFFF", 16); // Default value for 64 bit serials
+
+    /** A random generator with random bytes for the next few serial numbers */
+    private static final class Stripe {
+        private final SecureRandom random;
+        private final int noOctets;
+        private final byte[] buffer;
+        private int position;
+
+        private Stripe(final SecureRandom random, final int noOctets) {
+            this.random = random;
+            this.noOctets = noOctets;
+            this.buffer = new byte[noOctets * SERNOS_PER_READ];
+            this.position = buffer.length;
+        }
+
+        /** @return random bytes for one serial number */
+        private synchronized byte[] nextBytes() {
+            if (position == buffer.length) {
+                random.nextBytes(buffer);
+                position = 0;
+            }
+            final byte[] ret = Arrays.copyOfRange(buffer, position, position + noOctets);
+            position += noOctets;
+            return ret;
+        }
+
+        /** Reseeds the generator and discards random bytes generated with the old seed */
+        private synchronized void setSeed(final long seed) {
+            random.setSeed(seed);
+            position = buffer.length;
+        }
+    }
 
     /**
      * Creates a serial number generator using SecureRandom
@@ -88,15 +130,13 @@ public class SernoGeneratorRandom implements SernoGenerator {
         }
     }
 
-    private void init() {
-        // Init random number generator for random serial numbers
-        try {
-            random = SecureRandom.getInstance(algorithm);
-        } catch (NoSuchAlgorithmException e) {
-            //This state is unrecoverable, and since algorithm is set in configuration requires a redeploy to handle
-            throw new IllegalStateException("Algorithm " + algorithm + " was not a valid algorithm.", e);
+    private synchronized void init() {
+        int noStripes = 1;
+        final int configuredStripes = Math.min(MAX_STRIPES, CesecoreConfiguration.getCaSerialNumberStripes());
+        while (noStripes < configuredStripes) {
+            noStripes <<= 1;
         }
-
+        final Stripe[] newStripes = new Stripe[noStripes];
         // Using this seed we should get a different seed every time.
         // We are not concerned about the security of the random bits, only that
         // they are different every time.
@@ -107,8 +147,21 @@ public class SernoGeneratorRandom implements SernoGenerator {
         // Design criteria: 1. No counter to keep track on. 2. Multiple threads
         // can generate numbers at once, in
         // a clustered environment etc.
-        long seed = Math.abs((new Date().getTime()) + this.hashCode());
-        random.setSeed(seed);
+        // Each stripe gets its own seed, so that the stripes generate different sequences.
+        final long seed = Math.abs((new Date().getTime()) + this.hashCode());
+        for (int i = 0; i < noStripes; i++) {
+            // Init random number generator for random serial numbers
+            final SecureRandom random;
+            try {
+                random = SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                //This state is unrecoverable, and since algorithm is set in configuration requires a redeploy to handle
+                throw new IllegalStateException("Algorithm " + algorithm + " was not a valid algorithm.", e);
+            }
+            random.setSeed(seed + i);
+            newStripes[i] = new Stripe(random, Math.max(noOctets, 1));
+        }
+        stripes = newStripes;
 
         /*
          * Another possibility is to use SecureRandom's default seeding which is
@@ -144,7 +197,7 @@ public class SernoGeneratorRandom implements SernoGenerator {
     }
 
     @Override
-    public synchronized BigInteger getSerno() {
+    public BigInteger getSerno() {
         // This is only for testing, of size is set to 0 we will generate random number
         // between 1 and 4, this will give collisions often...
         if (noOctets == 0) {
@@ -152,12 +205,12 @@ public class SernoGeneratorRandom implements SernoGenerator {
             return new java.math.BigInteger(Long.toString(rand.nextInt(4)));
         }
 
-        final byte[] sernobytes = new byte[noOctets];
+        final Stripe[] stripes = this.stripes;
+        final Stripe stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
         boolean ok = false;
         BigInteger serno = null;
         while (!ok) {
-            random.nextBytes(sernobytes);
-            serno = (new java.math.BigInteger(sernobytes)).abs();
+            serno = (new java.math.BigInteger(stripe.nextBytes())).abs();
             // Must be within the range 0080000000000000 - 7FFFFFFFFFFFFFFF
             if (checkSernoValidity(serno)) {
                 ok = true;
@@ -182,12 +235,15 @@ public class SernoGeneratorRandom implements SernoGenerator {
     }
 
     @Override
-    public void setSeed(final long seed) {
-        random.setSeed(seed);
+    public synchronized void setSeed(final long seed) {
+        final Stripe[] stripes = this.stripes;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].setSeed(seed + i);
+        }
     }
 
     @Override
-    public void setAlgorithm(final String algo) throws NoSuchAlgorithmException {
+    public synchronized void setAlgorithm(final String algo) throws NoSuchAlgorithmException {
         // Since re-initialization is expensive, we only do it if we changed the algo
         if (this.algorithm == null || !this.algorithm.equals(algo)) {
             this.algorithm = algo;
@@ -197,7 +253,7 @@ public class SernoGeneratorRandom implements SernoGenerator {
     }
 
     @Override
-    public void setSernoOctetSize(final int noOctets) {
+    public synchronized void setSernoOctetSize(final int noOctets) {
         if (this.noOctets != noOctets) {
         	// We allow 0 octets for testing
             if ((noOctets > 20) && (noOctets != 0)) {
@@ -213,6 +269,10 @@ public class SernoGeneratorRandom implements SernoGenerator {
             arr[0] = '7';
             highest = new BigInteger(String.valueOf(arr), 16);
             this.noOctets = noOctets;
+            if (stripes != null) {
+                // The stripes hold random bytes for serial numbers of the old size
+                init();
+            }
         }
     }
 
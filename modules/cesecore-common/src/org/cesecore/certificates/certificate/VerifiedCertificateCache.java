@@ -0,0 +1,152 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.security.cert.Certificate;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * A cache of client certificates that have been looked up in the database and verified against the certificate of their CA, so that a
+ * client signing many requests with the same certificate, like an RA gateway, is not looked up and verified again for every request.
+ * Only active certificates are cached. An entry is only used while the CA still has the certificate it was verified with, and it is removed
+ * when the status of the certificate changes on this node, both at the change and when its transaction has completed. Changes made on other
+ * nodes are seen when the entry expires.
+ *
+ * @version $Id$
+ */
+public enum VerifiedCertificateCache {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(VerifiedCertificateCache.class);
+
+    /** The max number of cached certificates, so clients with many certificates can not fill the memory */
+    private static final int MAX_ENTRIES = 10000;
+
+    /** Mapping from certificate fingerprint to the verified certificate */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    /** Counts the removals, so that a certificate read from the database before a removal is not cached after it */
+    private final AtomicLong removals = new AtomicLong();
+
+    /** A certificate that was found active in the database and verified against the certificate of its CA */
+    public static final class Entry {
+        private final CertificateInfo certificateInfo;
+        private final Certificate caCertificate;
+        private final long expireTime;
+        private volatile AuthenticationToken authenticationToken = null;
+
+        private Entry(final CertificateInfo certificateInfo, final Certificate caCertificate, final long expireTime) {
+            this.certificateInfo = certificateInfo;
+            this.caCertificate = caCertificate;
+            this.expireTime = expireTime;
+        }
+
+        /** @return the certificate information read from the database when the certificate was verified */
+        public CertificateInfo getCertificateInfo() {
+            return certificateInfo;
+        }
+
+        /** @return the token the certificate was authenticated as, or null if it has not been authenticated */
+        public AuthenticationToken getAuthenticationToken() {
+            return authenticationToken;
+        }
+
+        public void setAuthenticationToken(final AuthenticationToken authenticationToken) {
+            this.authenticationToken = authenticationToken;
+        }
+    }
+
+    /**
+     * @param fingerprint the fingerprint of the certificate
+     * @param caCertificate the current certificate of the CA that issued the certificate
+     * @return the cached certificate, or null if it is not cached, has expired or was verified with another CA certificate
+     */
+    public Entry get(final String fingerprint, final Certificate caCertificate) {
+        final Entry entry = entries.get(fingerprint);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireTime < System.currentTimeMillis() || !entry.caCertificate.equals(caCertificate)) {
+            // Expired, or the CA has been renewed or replaced since the certificate was verified
+            entries.remove(fingerprint);
+            return null;
+        }
+        return entry;
+    }
+
+    /** @return the number of removals so far, to be read before the certificate information that is to be cached is read from the database */
+    public long getRemovalCount() {
+        return removals.get();
+    }
+
+    /**
+     * Cache a certificate that has been verified against the certificate of its CA. Certificates that are not active are not cached.
+     *
+     * @param fingerprint the fingerprint of the certificate
+     * @param certificateInfo the certificate information read from the database
+     * @param caCertificate the CA certificate the certificate was verified with
+     * @param removalCount {@link #getRemovalCount()} before certificateInfo was read, since a status change committed afterwards might not be in it
+     * @return the verified certificate, which is not cached if caching is disabled, the certificate is not active or any certificate has been
+     *         removed since removalCount was read
+     */
+    public Entry put(final String fingerprint, final CertificateInfo certificateInfo, final Certificate caCertificate, final long removalCount) {
+        final long cacheTime = CesecoreConfiguration.getCacheVerifiedCertificateTime();
+        final Entry entry = new Entry(certificateInfo, caCertificate, System.currentTimeMillis() + cacheTime);
+        if (cacheTime <= 0 || certificateInfo.getStatus() != CertificateConstants.CERT_ACTIVE) {
+            return entry;
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            removeExpired();
+            if (entries.size() >= MAX_ENTRIES) {
+                if (log.isDebugEnabled()) {
+                    log.debug("More than " + MAX_ENTRIES + " verified certificates cached, clearing the cache.");
+                }
+                entries.clear();
+            }
+        }
+        entries.put(fingerprint, entry);
+        if (removals.get() != removalCount) {
+            // A certificate was removed while this one was read and verified, and it might have been this one
+            entries.remove(fingerprint);
+        }
+        return entry;
+    }
+
+    /** Remove a certificate, for example when it is revoked. */
+    public void remove(final String fingerprint) {
+        if (fingerprint != null) {
+            removals.incrementAndGet();
+            entries.remove(fingerprint);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private void removeExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expireTime < now) {
+                iterator.remove();
+            }
+        }
+    }
+}
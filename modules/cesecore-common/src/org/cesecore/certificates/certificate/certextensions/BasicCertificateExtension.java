@@ -215,6 +215,12 @@ public class BasicCertificateExtension extends CertificateExtension implements C
         return result;
     }
 
+    /** @return true unless the value can be taken from the end entity, i.e. dynamic is enabled */
+    @Override
+    public boolean isRequestIndependent() {
+        return !Boolean.parseBoolean(StringUtils.trim(getProperties().getProperty(PROPERTY_DYNAMIC, Boolean.FALSE.toString())));
+    }
+
     /**
      * Get the extension value by first looking in the ExtendedInformation (if 
      * dynamic is enabled) and then in the static configuration.
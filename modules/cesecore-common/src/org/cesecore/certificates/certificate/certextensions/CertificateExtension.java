@@ -180,5 +180,16 @@ public abstract class CertificateExtension implements Serializable {
 		}
 		return result;
 	}
+
+	/**
+	 * Tells if the value of this extension only depends on the CA, the certificate profile and the configuration of the extension itself,
+	 * and not on the end entity, the public keys or the validity. The encoded value of such an extension can then be reused for all
+	 * certificates that the CA issues with the same certificate profile.
+	 * 
+	 * @return true if the value is the same for all requests, false (the default) if it has to be created for every certificate.
+	 */
+	public boolean isRequestIndependent() {
+		return false;
+	}
 	
 }
@@ -44,6 +44,11 @@ public class AuthorityInformationAccess extends StandardCertificateExtension {
     private static final Logger log = Logger.getLogger(AuthorityInformationAccess.class);
 
 
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
     public void init(final CertificateProfile certProf) {
 		super.setOID(Extension.authorityInfoAccess.getId());
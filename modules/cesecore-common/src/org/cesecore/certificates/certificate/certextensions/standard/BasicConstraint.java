@@ -34,6 +34,11 @@ public class BasicConstraint extends StandardCertificateExtension {
 	
     private static final long serialVersionUID = 1L;
 
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
 	public void init(final CertificateProfile certProf) {
 		super.setOID(Extension.basicConstraints.getId());
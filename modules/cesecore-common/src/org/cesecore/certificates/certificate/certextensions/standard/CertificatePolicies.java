@@ -48,6 +48,11 @@ public class CertificatePolicies extends StandardCertificateExtension {
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger(CertificatePolicies.class);
 	
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
 	public void init(final CertificateProfile certProf) {
 		super.setOID(Extension.certificatePolicies.getId());
@@ -49,6 +49,11 @@ public class CrlDistributionPoints extends StandardCertificateExtension {
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger(CrlDistributionPoints.class);
 	
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
 	public void init(final CertificateProfile certProf) {
 		super.setOID(Extension.cRLDistributionPoints.getId());
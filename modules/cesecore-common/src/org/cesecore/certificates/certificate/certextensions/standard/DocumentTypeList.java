@@ -40,6 +40,11 @@ public class DocumentTypeList extends StandardCertificateExtension {
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger(DocumentTypeList.class);
 
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
     public void init(final CertificateProfile certProf) {
         super.setOID("2.23.136.1.1.6.2");
@@ -37,6 +37,11 @@ public class ExtendedKeyUsage extends StandardCertificateExtension {
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger(ExtendedKeyUsage.class);
 
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
 	public void init(final CertificateProfile certProf) {
 		super.setOID(Extension.extendedKeyUsage.getId());
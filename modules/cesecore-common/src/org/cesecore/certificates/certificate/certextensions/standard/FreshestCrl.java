@@ -45,6 +45,11 @@ public class FreshestCrl extends StandardCertificateExtension {
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger(FreshestCrl.class);
 	
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
 	public void init(final CertificateProfile certProf) {
 		super.setOID(Extension.freshestCRL.getId());
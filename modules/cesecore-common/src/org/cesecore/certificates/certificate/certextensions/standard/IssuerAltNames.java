@@ -34,6 +34,11 @@ public class IssuerAltNames extends StandardCertificateExtension {
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger(IssuerAltNames.class);
 
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
     public void init(final CertificateProfile certProf) {
         super.setOID(Extension.issuerAlternativeName.getId());
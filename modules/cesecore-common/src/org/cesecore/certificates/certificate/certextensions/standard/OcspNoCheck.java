@@ -33,6 +33,11 @@ public class OcspNoCheck extends StandardCertificateExtension {
 	
     private static final long serialVersionUID = 1L;
 
+    @Override
+    public boolean isRequestIndependent() {
+        return true;
+    }
+
     @Override
 	public void init(final CertificateProfile certProf) {
 		super.setOID(OCSPObjectIdentifiers.id_pkix_ocsp_nocheck.getId());
@@ -271,7 +271,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     /** Constants holding the use properties for certificate extensions */
     protected static final HashMap<String, String> useStandardCertificateExtensions = new HashMap<>();
-    {
+    static {
         useStandardCertificateExtensions.put(USEBASICCONSTRAINTS, Extension.basicConstraints.getId());
         useStandardCertificateExtensions.put(USEKEYUSAGE, Extension.keyUsage.getId());
         useStandardCertificateExtensions.put(USESUBJECTKEYIDENTIFIER, Extension.subjectKeyIdentifier.getId());
@@ -300,6 +300,30 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     /** Policy Notice User Notice field alias in the data structure */
     protected static final String POLICY_NOTICE_UNOTICE_TEXT = "policynoticeunoticetext";
 
+    /** Values computed once by {@link #compile()}, or null if this profile can be edited. */
+    private transient volatile CompiledValues compiledValues = null;
+
+    /**
+     * The values that are read for every issued certificate and that are otherwise looked up in the data map, or even rebuilt, on every call.
+     */
+    private static final class CompiledValues {
+        private final int type;
+        private final boolean storeCertificateData;
+        private final boolean useCertificateStorage;
+        private final boolean singleActiveCertificateConstraint;
+        private final boolean[] keyUsage;
+        private final List<String> usedStandardCertificateExtensions;
+
+        private CompiledValues(final CertificateProfile profile) {
+            type = profile.getType();
+            storeCertificateData = profile.getStoreCertificateData();
+            useCertificateStorage = profile.getUseCertificateStorage();
+            singleActiveCertificateConstraint = profile.isSingleActiveCertificateConstraint();
+            keyUsage = profile.getKeyUsage();
+            usedStandardCertificateExtensions = Collections.unmodifiableList(profile.getUsedStandardCertificateExtensions());
+        }
+    }
+
     // Public Methods
 
     /**
@@ -327,6 +351,31 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
         setDefaultValues(type);
     }
 
+    /** Creates a new instance of CertificateProfile with the given data, without setting any default values first. Used by {@link #clone()}. */
+    private CertificateProfile(final LinkedHashMap<Object, Object> data) {
+        this.data = data;
+    }
+
+    /**
+     * Computes the values that are read for every issued certificate once, so that the getters return them directly. This also performs
+     * the lazy upgrades done by some getters, so that reading the profile never modifies it. Used for the shared profiles in the
+     * certificate profile cache, that many threads read at the same time.
+     * 
+     * The profile must not be modified after this call, since the computed values would then be out of date. Use {@link #clone()} to get a
+     * copy that can be edited.
+     * 
+     * @return this profile
+     */
+    public CertificateProfile compile() {
+        compiledValues = new CompiledValues(this);
+        return this;
+    }
+
+    /** @return true if {@link #compile()} has been called, i.e. this is a shared profile that will not change */
+    public boolean isCompiled() {
+        return compiledValues != null;
+    }
+
     private void setCommonDefaults() {
         setType(CertificateConstants.CERTTYPE_ENDENTITY);
         setCertificateVersion(VERSION_X509V3);
@@ -773,6 +822,10 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public boolean getStoreCertificateData() {
+        final CompiledValues compiled = compiledValues;
+        if (compiled != null) {
+            return compiled.storeCertificateData;
+        }
         //Lazy upgrade for profiles created prior to EJBCA 6.2.10
         Boolean value = (Boolean) data.get(STORECERTIFICATEDATA);
         if (value == null) {
@@ -920,6 +973,10 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public boolean getUseCertificateStorage() {
+        final CompiledValues compiled = compiledValues;
+        if (compiled != null) {
+            return compiled.useCertificateStorage;
+        }
         //Lazy upgrade for profiles created prior to EJBCA 6.2.10
         Boolean value = (Boolean) data.get(USECERTIFICATESTORAGE);
         if (value == null) {
@@ -1013,6 +1070,10 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * @see CertificateConstants.CERTTYPE_ROOTCA etc
      */
     public int getType() {
+        final CompiledValues compiled = compiledValues;
+        if (compiled != null) {
+            return compiled.type;
+        }
         return ((Integer) data.get(TYPE)).intValue();
     }
 
@@ -1024,15 +1085,15 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public boolean isTypeSubCA() {
-        return ((Integer) data.get(TYPE)).intValue() == CertificateConstants.CERTTYPE_SUBCA;
+        return getType() == CertificateConstants.CERTTYPE_SUBCA;
     }
 
     public boolean isTypeRootCA() {
-        return ((Integer) data.get(TYPE)).intValue() == CertificateConstants.CERTTYPE_ROOTCA;
+        return getType() == CertificateConstants.CERTTYPE_ROOTCA;
     }
 
     public boolean isTypeEndEntity() {
-        return ((Integer) data.get(TYPE)).intValue() == CertificateConstants.CERTTYPE_ENDENTITY;
+        return getType() == CertificateConstants.CERTTYPE_ENDENTITY;
     }
 
     public String[] getAvailableKeyAlgorithms() {
@@ -1143,6 +1204,10 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public boolean[] getKeyUsage() {
+        final CompiledValues compiled = compiledValues;
+        if (compiled != null) {
+            return compiled.keyUsage.clone();
+        }
         @SuppressWarnings("unchecked")
         ArrayList<Boolean> keyusage = (ArrayList<Boolean>) data.get(KEYUSAGE);
         boolean[] returnval = new boolean[keyusage.size()];
@@ -1781,6 +1846,10 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public boolean isSingleActiveCertificateConstraint() {
+        final CompiledValues compiled = compiledValues;
+        if (compiled != null) {
+            return compiled.singleActiveCertificateConstraint;
+        }
         Object constraintObject = data.get(USERSINGLEACTIVECERTIFICATECONSTRAINT);
         if(constraintObject == null) {
             //For upgrading from versions prior to 6.3.1
@@ -1882,9 +1951,13 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * Function that looks up in the profile all certificate extensions that we should use if the value is that we should use it, the oid for this
      * extension is returned in the list
      * 
-     * @return List of oid Strings for standard certificate extensions that should be used
+     * @return List of oid Strings for standard certificate extensions that should be used, which can not be modified if the profile is compiled
      */
     public List<String> getUsedStandardCertificateExtensions() {
+        final CompiledValues compiled = compiledValues;
+        if (compiled != null) {
+            return compiled.usedStandardCertificateExtensions;
+        }
         ArrayList<String> ret = new ArrayList<>();
         Iterator<String> iter = useStandardCertificateExtensions.keySet().iterator();
         while (iter.hasNext()) {
@@ -2234,18 +2307,17 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     @Override
     public CertificateProfile clone() throws CloneNotSupportedException {
-        final CertificateProfile clone = new CertificateProfile(0);
-        // We need to make a deep copy of the hashmap here
-        clone.data = new LinkedHashMap<>(data.size());
+        // We need to make a deep copy of the hashmap here. The clone is not compiled, so it can be edited.
+        final LinkedHashMap<Object, Object> clonedData = new LinkedHashMap<>(data.size());
         for (final Entry<Object,Object> entry : data.entrySet()) {
                 Object value = entry.getValue();
                 if (value instanceof ArrayList<?>) {
                         // We need to make a clone of this object, but the stored immutables can still be referenced
                         value = ((ArrayList<?>)value).clone();
                 }
-                clone.data.put(entry.getKey(), value);
+                clonedData.put(entry.getKey(), value);
         }
-        return clone;
+        return new CertificateProfile(clonedData);
     }
 
     /** Implementation of UpgradableDataHashMap function getLatestVersion */
@@ -17,6 +17,7 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,14 +39,17 @@ import org.cesecore.util.CertTools;
 /**
  * Hold information needed to create OCSP responses without database lookups.
  * 
+ * The cache is replaced as a whole with an unmodifiable map when it is reloaded or an entry is added, so lookups never wait for
+ * a reload.
+ * 
  * @version $Id$
  */
 public enum OcspSigningCache {
     INSTANCE;
     
-    private Map<Integer, OcspSigningCacheEntry> cache = new HashMap<Integer, OcspSigningCacheEntry>();
+    private volatile Map<Integer, OcspSigningCacheEntry> cache = Collections.emptyMap();
     private Map<Integer, OcspSigningCacheEntry> staging = new HashMap<Integer, OcspSigningCacheEntry>();
-    private OcspSigningCacheEntry defaultResponderCacheEntry = null;
+    private volatile OcspSigningCacheEntry defaultResponderCacheEntry = null;
     private final ReentrantLock lock = new ReentrantLock(false);
     private final static Logger log = Logger.getLogger(OcspSigningCache.class);
     /** Flag to detect and log non-existence of a default responder once. */
@@ -104,7 +108,11 @@ public enum OcspSigningCache {
             OcspSigningCacheEntry entry = staging.get(key);
             //If entry has been created without a private key, replace it with the default responder.
             if (entry.isPlaceholder()) {
-                if (defaultResponderCacheEntry != null) {
+                final OcspSigningCacheEntry committedEntry = cache.get(key);
+                if (defaultResponderCacheEntry != null && isSameDefaultResponderEntry(committedEntry, entry, defaultResponderCacheEntry)) {
+                    // Already replaced by the same default responder, so there is no need to compute the certificate IDs again
+                    modifiedEntries.put(key, committedEntry);
+                } else if (defaultResponderCacheEntry != null) {
                     entry = new OcspSigningCacheEntry(entry.getIssuerCaCertificate(), entry.getIssuerCaCertificateStatus(),
                             defaultResponderCacheEntry.getCaCertificateChain(), defaultResponderCacheEntry.getOcspSigningCertificate(),
                             defaultResponderCacheEntry.getPrivateKey(), defaultResponderCacheEntry.getSignatureProviderName(),
@@ -121,7 +129,7 @@ public enum OcspSigningCache {
             staging.remove(removedKey);
         }
         logDefaultResponderChanges(this.defaultResponderCacheEntry, defaultResponderCacheEntry, defaultResponderSubjectDn);
-        cache = staging;
+        cache = Collections.unmodifiableMap(staging);
         this.defaultResponderCacheEntry = defaultResponderCacheEntry;
         if (log.isDebugEnabled()) {
             log.debug("Committing the following to OCSP cache:");
@@ -142,6 +150,18 @@ public enum OcspSigningCache {
         lock.unlock();
     }
 
+    /** @return true if the committed entry was created from the placeholder and the default responder */
+    private static boolean isSameDefaultResponderEntry(final OcspSigningCacheEntry committedEntry, final OcspSigningCacheEntry placeholder,
+            final OcspSigningCacheEntry defaultResponderCacheEntry) {
+        return committedEntry != null && committedEntry.getIssuerCaCertificate() == placeholder.getIssuerCaCertificate()
+                && committedEntry.getIssuerCaCertificateStatus() == placeholder.getIssuerCaCertificateStatus()
+                && committedEntry.getCaCertificateChain() == defaultResponderCacheEntry.getCaCertificateChain()
+                && committedEntry.getOcspSigningCertificate() == defaultResponderCacheEntry.getOcspSigningCertificate()
+                && committedEntry.getPrivateKey() == defaultResponderCacheEntry.getPrivateKey()
+                && committedEntry.getOcspKeyBinding() == defaultResponderCacheEntry.getOcspKeyBinding()
+                && committedEntry.getResponderIdType() == defaultResponderCacheEntry.getResponderIdType();
+    }
+
     /** Log any change in default responder */
     private void logDefaultResponderChanges(final OcspSigningCacheEntry currentEntry, final OcspSigningCacheEntry stagedEntry, final String defaultResponderSubjectDn) {
         String msg = null;
@@ -197,17 +217,19 @@ public enum OcspSigningCache {
      */
     public void addSingleEntry(OcspSigningCacheEntry ocspSigningCacheEntry) {
         List<CertificateID> certIDs = ocspSigningCacheEntry.getCertificateID();
-        for (CertificateID certID : certIDs) {
-            int cacheId = getCacheIdFromCertificateID(certID);
-            lock.lock();
-            try {
+        lock.lock();
+        try {
+            final Map<Integer, OcspSigningCacheEntry> newCache = new HashMap<Integer, OcspSigningCacheEntry>(cache);
+            for (CertificateID certID : certIDs) {
+                int cacheId = getCacheIdFromCertificateID(certID);
                 //Make sure that another thread didn't add the same entry while this one was waiting.
-                if (!cache.containsKey(cacheId)) {
-                    cache.put(cacheId, ocspSigningCacheEntry);
+                if (!newCache.containsKey(cacheId)) {
+                    newCache.put(cacheId, ocspSigningCacheEntry);
                 }
-            } finally {
-                lock.unlock();
             }
+            cache = Collections.unmodifiableMap(newCache);
+        } finally {
+            lock.unlock();
         }
     }
 
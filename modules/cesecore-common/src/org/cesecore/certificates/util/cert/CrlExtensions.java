@@ -15,8 +15,8 @@ package org.cesecore.certificates.util.cert;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Extension;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,7 +47,7 @@ public class CrlExtensions {
      * 
      * @return the CRLnumber, or 0 if no CRL number extension was found or an error reading it occurred. Never return null.
      */
-    public static BigInteger getCrlNumber(X509CRL crl) {
+    public static BigInteger getCrlNumber(X509Extension crl) {
     	BigInteger ret = BigInteger.valueOf(0);
         try {
 			ASN1Primitive obj = CrlExtensions.getExtensionValue(crl, Extension.cRLNumber.getId());
@@ -67,7 +67,7 @@ public class CrlExtensions {
      * 
      * @return the BaseCRLNumber, or -1 if no delta crl indicator extension was found or an error reading it occurred. Never return null.
      */
-    public static BigInteger getDeltaCRLIndicator(X509CRL crl) {
+    public static BigInteger getDeltaCRLIndicator(X509Extension crl) {
     	BigInteger ret = BigInteger.valueOf(-1);
         try {
 			ASN1Primitive obj = CrlExtensions.getExtensionValue(crl, Extension.deltaCRLIndicator.getId());
@@ -86,7 +86,7 @@ public class CrlExtensions {
     /**
      * Return an Extension ASN1Primitive from a CRL
      */
-    protected static ASN1Primitive getExtensionValue(X509CRL crl, String oid)
+    protected static ASN1Primitive getExtensionValue(X509Extension crl, String oid)
       throws IOException {
     	if (crl == null) {
     		return null;
@@ -119,7 +119,7 @@ public class CrlExtensions {
     }
 
     /** @return a list of URLs in String format with present freshest CRL extensions or an empty List */
-    public static List<String> extractFreshestCrlDistributionPoints(final X509CRL crl) {
+    public static List<String> extractFreshestCrlDistributionPoints(final X509Extension crl) {
         final List<String> freshestCdpUrls = new ArrayList<String>();
         final byte[] extensionValue = crl.getExtensionValue(Extension.freshestCRL.getId());
         if (extensionValue!=null) {
@@ -0,0 +1,538 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.util.cert;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.cert.CRLException;
+import java.security.cert.X509Extension;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+
+/**
+ * An X.509 CRL that is read directly from its DER encoding. Unlike X509CRL, which decodes all revoked certificates up front, only the
+ * CRL fields and the positions of the revoked certificates are read when the CRL is created. The revoked certificates are decoded one
+ * at a time when they are iterated over, so a CRL with millions of entries takes little more memory than its encoding.
+ *
+ * @version $Id$
+ */
+public class StreamedCrl implements X509Extension {
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+    private static final int TAG_EXTENSIONS = 0xa0;
+
+    /** A revoked certificate in the CRL */
+    public static final class Entry {
+        private final BigInteger serialNumber;
+        private final Date revocationDate;
+        private final int reasonCode;
+        private final String certificateIssuer;
+
+        private Entry(final BigInteger serialNumber, final Date revocationDate, final int reasonCode, final String certificateIssuer) {
+            this.serialNumber = serialNumber;
+            this.revocationDate = revocationDate;
+            this.reasonCode = reasonCode;
+            this.certificateIssuer = certificateIssuer;
+        }
+
+        public BigInteger getSerialNumber() {
+            return serialNumber;
+        }
+
+        public Date getRevocationDate() {
+            return revocationDate;
+        }
+
+        /** @return the revocation reason code as defined in RevokedCertInfo.REVOCATION_REASON_... */
+        public int getReasonCode() {
+            return reasonCode;
+        }
+
+        /** @return the DN from the certificate issuer extension of the entry, or null if there is none */
+        public String getCertificateIssuer() {
+            return certificateIssuer;
+        }
+    }
+
+    private final byte[] encoded;
+    private final int tbsOffset;
+    private final int tbsLength;
+    private final AlgorithmIdentifier signatureAlgorithm;
+    private final byte[] signature;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final Extensions extensions;
+    /** The offsets of the revoked certificates in the encoded CRL, in the order of the CRL */
+    private final int[] entryOffsets;
+    /** The offsets of the revoked certificates sorted by serial number, created when first needed */
+    private int[] sortedEntryOffsets = null;
+
+    /**
+     * @param encoded the DER encoded CRL, which must not be modified afterwards
+     * @throws CRLException if the CRL could not be decoded
+     */
+    public StreamedCrl(final byte[] encoded) throws CRLException {
+        this.encoded = encoded;
+        try {
+            if (end(expect(0, TAG_SEQUENCE)) != encoded.length) {
+                throw new CRLException("Unexpected data after the CRL.");
+            }
+            tbsOffset = expect(contentOffset(0), TAG_SEQUENCE);
+            final int tbsEnd = end(tbsOffset);
+            tbsLength = tbsEnd - tbsOffset;
+            final int signatureAlgorithmOffset = expect(tbsEnd, TAG_SEQUENCE);
+            signatureAlgorithm = AlgorithmIdentifier.getInstance(decode(signatureAlgorithmOffset));
+            signature = DERBitString.getInstance(decode(end(signatureAlgorithmOffset))).getBytes();
+            // Walk through the fields of the TBSCertList
+            int offset = contentOffset(tbsOffset);
+            if (tag(offset) == TAG_INTEGER) {
+                offset = end(offset);   // version
+            }
+            offset = end(expect(offset, TAG_SEQUENCE)); // signature
+            offset = end(expect(offset, TAG_SEQUENCE)); // issuer
+            if (tag(offset) != TAG_UTC_TIME && tag(offset) != TAG_GENERALIZED_TIME) {
+                throw new CRLException("Missing thisUpdate in CRL.");
+            }
+            thisUpdate = Time.getInstance(decode(offset)).getDate();
+            offset = end(offset);
+            if (offset < tbsEnd && (tag(offset) == TAG_UTC_TIME || tag(offset) == TAG_GENERALIZED_TIME)) {
+                nextUpdate = Time.getInstance(decode(offset)).getDate();
+                offset = end(offset);
+            } else {
+                nextUpdate = null;
+            }
+            if (offset < tbsEnd && tag(offset) == TAG_SEQUENCE) {
+                entryOffsets = getEntryOffsets(offset);
+                offset = end(offset);
+            } else {
+                entryOffsets = new int[0];
+            }
+            if (offset < tbsEnd && tag(offset) == TAG_EXTENSIONS) {
+                extensions = Extensions.getInstance(ASN1TaggedObject.getInstance(decode(offset)), true);
+                offset = end(offset);
+            } else {
+                extensions = null;
+            }
+            if (offset != tbsEnd) {
+                throw new CRLException("Unexpected data in TBSCertList.");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CRLException("Unable to decode CRL: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new CRLException("Unable to decode CRL: " + e.getMessage(), e);
+        }
+    }
+
+    /** @return the offsets of the elements of the revokedCertificates sequence */
+    private int[] getEntryOffsets(final int revokedCertificatesOffset) throws CRLException {
+        final int revokedCertificatesEnd = end(revokedCertificatesOffset);
+        int count = 0;
+        for (int offset = contentOffset(revokedCertificatesOffset); offset < revokedCertificatesEnd; offset = end(expect(offset, TAG_SEQUENCE))) {
+            count++;
+        }
+        final int[] ret = new int[count];
+        int offset = contentOffset(revokedCertificatesOffset);
+        for (int i = 0; i < count; i++) {
+            ret[i] = offset;
+            offset = end(offset);
+        }
+        return ret;
+    }
+
+    /** @return the encoded CRL */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    /** @return the next update, or null if the CRL has none */
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    /** @return the number of revoked certificates in the CRL */
+    public int getEntryCount() {
+        return entryOffsets.length;
+    }
+
+    /**
+     * Verify the signature of the CRL, with the same exceptions as {@link java.security.cert.X509CRL#verify(PublicKey, String)}.
+     */
+    public void verify(final PublicKey key, final String sigProvider) throws CRLException, NoSuchAlgorithmException, InvalidKeyException,
+            NoSuchProviderException, SignatureException {
+        final ContentVerifier contentVerifier;
+        try {
+            contentVerifier = new JcaContentVerifierProviderBuilder().setProvider(sigProvider).build(key).get(signatureAlgorithm);
+        } catch (OperatorCreationException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) cause;
+            } else if (cause instanceof NoSuchProviderException) {
+                throw (NoSuchProviderException) cause;
+            } else if (cause instanceof InvalidKeyException) {
+                throw (InvalidKeyException) cause;
+            }
+            throw new SignatureException("Unable to verify CRL signature: " + e.getMessage(), e);
+        }
+        try {
+            final OutputStream outputStream = contentVerifier.getOutputStream();
+            outputStream.write(encoded, tbsOffset, tbsLength);
+            outputStream.close();
+        } catch (IOException e) {
+            throw new CRLException(e);
+        }
+        if (!contentVerifier.verify(signature)) {
+            throw new SignatureException("CRL does not verify with supplied public key.");
+        }
+    }
+
+    /** @return the revoked certificates in the order of the CRL */
+    public Iterator<Entry> getEntries() {
+        return new EntryIterator(entryOffsets) {
+            @Override
+            protected boolean include(final int entryOffset) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get the revoked certificates that have been added or changed since a previous CRL. The two CRLs are sorted by serial number and merged,
+     * so this takes time in proportion to the size of the CRLs, but no more memory than an int for each revoked certificate.
+     *
+     * @param previousCrl the previous CRL, or null to get all revoked certificates
+     * @return the revoked certificates whose encoding is not in the previous CRL, in serial number order
+     */
+    public Iterator<Entry> getEntriesNotIn(final StreamedCrl previousCrl) {
+        final int[] previousOffsets = previousCrl == null ? new int[0] : previousCrl.getSortedEntryOffsets();
+        return new EntryIterator(getSortedEntryOffsets()) {
+            private int previousIndex = 0;
+
+            @Override
+            protected boolean include(final int entryOffset) {
+                // Skip the entries of the previous CRL with lower serial numbers, and then look for an identical entry among the ones with the same serial number
+                while (previousIndex < previousOffsets.length && compareSerialNumbers(previousCrl, previousOffsets[previousIndex], entryOffset) < 0) {
+                    previousIndex++;
+                }
+                for (int i = previousIndex; i < previousOffsets.length && compareSerialNumbers(previousCrl, previousOffsets[i], entryOffset) == 0; i++) {
+                    if (isSameEntry(previousCrl, previousOffsets[i], entryOffset)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /** Iterates over the entries at some of the given offsets, decoding one entry at a time */
+    private abstract class EntryIterator implements Iterator<Entry> {
+        private final int[] offsets;
+        private int index = 0;
+        private Entry next = null;
+
+        private EntryIterator(final int[] offsets) {
+            this.offsets = offsets;
+        }
+
+        /** @return true if the entry at the offset should be returned */
+        protected abstract boolean include(int entryOffset);
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && index < offsets.length) {
+                final int entryOffset = offsets[index++];
+                if (include(entryOffset)) {
+                    next = decodeEntry(entryOffset);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry ret = next;
+            next = null;
+            return ret;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private Entry decodeEntry(final int entryOffset) {
+        try {
+            final ASN1Sequence sequence = ASN1Sequence.getInstance(decode(entryOffset));
+            final BigInteger serialNumber = ASN1Integer.getInstance(sequence.getObjectAt(0)).getValue();
+            final Date revocationDate = Time.getInstance(sequence.getObjectAt(1)).getDate();
+            int reasonCode = RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED;
+            String certificateIssuer = null;
+            if (sequence.size() > 2) {
+                final Extensions entryExtensions = Extensions.getInstance(sequence.getObjectAt(2));
+                final Extension reasonCodeExtension = entryExtensions.getExtension(Extension.reasonCode);
+                if (reasonCodeExtension != null) {
+                    reasonCode = ASN1Enumerated.getInstance(reasonCodeExtension.getParsedValue()).getValue().intValue();
+                }
+                final Extension certificateIssuerExtension = entryExtensions.getExtension(Extension.certificateIssuer);
+                if (certificateIssuerExtension != null) {
+                    for (final GeneralName generalName : GeneralNames.getInstance(certificateIssuerExtension.getParsedValue()).getNames()) {
+                        if (generalName.getTagNo() == GeneralName.directoryName) {
+                            certificateIssuer = X500Name.getInstance(generalName.getName()).toString();
+                            break;
+                        }
+                    }
+                }
+            }
+            return new Entry(serialNumber, revocationDate, reasonCode, certificateIssuer);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to decode CRL entry: " + e.getMessage(), e);
+        } catch (CRLException e) {
+            throw new IllegalStateException("Unable to decode CRL entry: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized int[] getSortedEntryOffsets() {
+        if (sortedEntryOffsets == null) {
+            final int[] offsets = entryOffsets.clone();
+            mergeSort(offsets, entryOffsets.clone(), 0, offsets.length);
+            sortedEntryOffsets = offsets;
+        }
+        return sortedEntryOffsets;
+    }
+
+    /** Sort the entry offsets in the range by serial number. Arrays.sort can not sort ints with a comparator without boxing each of them. */
+    private void mergeSort(final int[] offsets, final int[] buffer, final int from, final int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        // The buffer holds the same values as offsets, so the halves are sorted in the buffer and merged into offsets
+        mergeSort(buffer, offsets, from, middle);
+        mergeSort(buffer, offsets, middle, to);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareSerialNumbers(this, buffer[left], buffer[right]) <= 0)) {
+                offsets[i] = buffer[left++];
+            } else {
+                offsets[i] = buffer[right++];
+            }
+        }
+    }
+
+    /** Compare the serial number of an entry in another CRL to the serial number of an entry in this CRL. */
+    private int compareSerialNumbers(final StreamedCrl crl, final int entryOffset, final int thisEntryOffset) {
+        try {
+            final int integerOffset1 = crl.expect(crl.contentOffset(entryOffset), TAG_INTEGER);
+            final int offset1 = crl.contentOffset(integerOffset1);
+            final int length1 = crl.end(integerOffset1) - offset1;
+            final int integerOffset2 = expect(contentOffset(thisEntryOffset), TAG_INTEGER);
+            final int offset2 = contentOffset(integerOffset2);
+            final int length2 = end(integerOffset2) - offset2;
+            final boolean negative1 = length1 > 0 && crl.encoded[offset1] < 0;
+            final boolean negative2 = length2 > 0 && encoded[offset2] < 0;
+            if (negative1 != negative2) {
+                return negative1 ? -1 : 1;
+            }
+            if (length1 != length2) {
+                // DER integers have no leading zero or 0xff bytes, so a longer integer is larger, or smaller if negative
+                return (length1 < length2) != negative1 ? -1 : 1;
+            }
+            for (int i = 0; i < length1; i++) {
+                final int b1 = crl.encoded[offset1 + i] & 0xff;
+                final int b2 = encoded[offset2 + i] & 0xff;
+                if (b1 != b2) {
+                    return b1 < b2 ? -1 : 1;
+                }
+            }
+            return 0;
+        } catch (CRLException e) {
+            // Checked when the entries were located
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** @return true if an entry in another CRL has the same encoding as an entry in this CRL */
+    private boolean isSameEntry(final StreamedCrl crl, final int entryOffset, final int thisEntryOffset) {
+        try {
+            final int length = crl.end(entryOffset) - entryOffset;
+            if (length != end(thisEntryOffset) - thisEntryOffset) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (crl.encoded[entryOffset + i] != encoded[thisEntryOffset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (CRLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //
+    // Reading DER encoded elements. Only the single byte tags used by CRLs are supported.
+    //
+
+    private int tag(final int offset) throws CRLException {
+        if (offset >= encoded.length) {
+            throw new CRLException("Unexpected end of CRL.");
+        }
+        return encoded[offset] & 0xff;
+    }
+
+    /** @return the offset, if the element at the offset has the expected tag */
+    private int expect(final int offset, final int expectedTag) throws CRLException {
+        if (tag(offset) != expectedTag) {
+            throw new CRLException("Unexpected tag " + tag(offset) + " at offset " + offset + " in CRL, expected " + expectedTag + ".");
+        }
+        return offset;
+    }
+
+    /** @return the offset of the content of the element at the offset */
+    private int contentOffset(final int offset) throws CRLException {
+        tag(offset);
+        if (offset + 1 >= encoded.length) {
+            throw new CRLException("Unexpected end of CRL.");
+        }
+        final int first = encoded[offset + 1] & 0xff;
+        if (first < 0x80) {
+            return offset + 2;
+        }
+        final int lengthBytes = first & 0x7f;
+        if (lengthBytes == 0 || lengthBytes > 4) {
+            throw new CRLException("Unsupported length encoding at offset " + offset + " in CRL.");
+        }
+        return offset + 2 + lengthBytes;
+    }
+
+    /** @return the offset right after the element at the offset */
+    private int end(final int offset) throws CRLException {
+        final int contentOffset = contentOffset(offset);
+        final int first = encoded[offset + 1] & 0xff;
+        long length;
+        if (first < 0x80) {
+            length = first;
+        } else {
+            length = 0;
+            for (int i = offset + 2; i < contentOffset; i++) {
+                if (i >= encoded.length) {
+                    throw new CRLException("Unexpected end of CRL.");
+                }
+                length = (length << 8) | (encoded[i] & 0xff);
+            }
+        }
+        if (contentOffset + length > encoded.length) {
+            throw new CRLException("Unexpected end of CRL.");
+        }
+        return (int) (contentOffset + length);
+    }
+
+    /** @return the element at the offset */
+    private ASN1Primitive decode(final int offset) throws CRLException, IOException {
+        return ASN1Primitive.fromByteArray(Arrays.copyOfRange(encoded, offset, end(offset)));
+    }
+
+    //
+    // X509Extension, for the CRL extensions
+    //
+
+    @Override
+    public boolean hasUnsupportedCriticalExtension() {
+        // The critical extensions that X509CRL handles
+        final Set<String> criticalExtensionOIDs = getCriticalExtensionOIDs();
+        if (criticalExtensionOIDs == null) {
+            return false;
+        }
+        criticalExtensionOIDs.remove(Extension.issuingDistributionPoint.getId());
+        criticalExtensionOIDs.remove(Extension.deltaCRLIndicator.getId());
+        return !criticalExtensionOIDs.isEmpty();
+    }
+
+    @Override
+    public Set<String> getCriticalExtensionOIDs() {
+        return getExtensionOIDs(true);
+    }
+
+    @Override
+    public Set<String> getNonCriticalExtensionOIDs() {
+        return getExtensionOIDs(false);
+    }
+
+    private Set<String> getExtensionOIDs(final boolean critical) {
+        if (extensions == null) {
+            return null;
+        }
+        final Set<String> ret = new HashSet<String>();
+        for (final ASN1ObjectIdentifier oid : critical ? extensions.getCriticalExtensionOIDs() : extensions.getNonCriticalExtensionOIDs()) {
+            ret.add(oid.getId());
+        }
+        return ret;
+    }
+
+    /** @return the DER encoded OCTET STRING of the extension value, like {@link java.security.cert.X509CRL#getExtensionValue(String)} */
+    @Override
+    public byte[] getExtensionValue(final String oid) {
+        if (extensions == null) {
+            return null;
+        }
+        final Extension extension = extensions.getExtension(new ASN1ObjectIdentifier(oid));
+        if (extension == null) {
+            return null;
+        }
+        try {
+            return extension.getExtnValue().getEncoded();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -72,6 +72,22 @@ public final class CesecoreConfiguration {
         return Integer.parseInt(value);
     }
 
+    /**
+     * The number of independently seeded random number generators that serial numbers are generated from, so that concurrent issuance
+     * does not wait for a single generator. Defaults to the number of available processors.
+     */
+    public static int getCaSerialNumberStripes() {
+        final String value = ConfigurationHolder.getString("ca.serialnumberstripes");
+        if (StringUtils.isNotEmpty(value)) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value for ca.serialnumberstripes, using the number of available processors: " + value);
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     /**
      * The algorithm that should be used to generate random numbers (Random Number Generator Algorithm)
      */
@@ -185,6 +201,11 @@ public final class CesecoreConfiguration {
         return getLongValue("authorization.cachetime", 30000L, "milliseconds to cache authorization");
     }
     
+    /** Parameter to specify if client certificates verified against their CA (in CMP) should be cached, and in that case for how long. */
+    public static long getCacheVerifiedCertificateTime() {
+        return getLongValue("verifiedcertificate.cachetime", 10000L, "milliseconds to cache verified certificates");
+    }
+
     /**
      * Parameter to specify if retrieving GlobalConfiguration (in GlobalConfigurationSessionBean) should be cached, and in that case for how long.
      */
@@ -361,6 +382,11 @@ public final class CesecoreConfiguration {
         return Long.valueOf(getLongValue("database.crlgenfetchsize", 500000L, "rows")).intValue();
     }
 
+    /** @return the number of certificates that should be revoked in each transaction when all certificates issued by a CA are revoked. */
+    public static int getDatabaseRevokeAllBatchSize() {
+        return Long.valueOf(getLongValue("database.revokeallbatchsize", 10000L, "rows")).intValue();
+    }
+
     /**
      * Used just in {@link #getForbiddenCharacters()}. The method is called very
      * often so we declare this String in the class so it does not have to be
@@ -390,6 +416,69 @@ public final class CesecoreConfiguration {
         return value==null || Boolean.parseBoolean(value.trim());
     }
 
+    /**
+     * @return the number of logged in provider instances that private key operations on a PKCS#11 slot are spread over, where 1 means that all
+     *         threads share the single provider of the slot.
+     */
+    public static int getPkcs11SessionPoolSize() {
+        final String value = ConfigurationHolder.getString("pkcs11.sessionpool.size");
+        if (StringUtils.isNotEmpty(value)) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value for pkcs11.sessionpool.size, using 1: " + value);
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return the number of key pairs for server generated keys that are generated in advance for each key algorithm and key specification,
+     *         where 0 means that the keys are generated when they are requested.
+     */
+    public static int getKeyPairPoolDepth() {
+        final String value = ConfigurationHolder.getString("keypairpool.depth");
+        if (StringUtils.isNotEmpty(value)) {
+            try {
+                return Math.max(0, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value for keypairpool.depth, not generating keys in advance: " + value);
+            }
+        }
+        return 0;
+    }
+
+    /** @return the number of background threads that generate key pairs in advance. */
+    public static int getKeyPairPoolThreads() {
+        final String value = ConfigurationHolder.getString("keypairpool.threads");
+        if (StringUtils.isNotEmpty(value)) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value for keypairpool.threads, using 1: " + value);
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return the key algorithms and key specifications that key pairs are generated in advance for, as "keyAlg:keySpec". Other key pairs are
+     *         generated when they are requested.
+     */
+    public static List<String> getKeyPairPoolKeySpecs() {
+        final List<String> ret = new ArrayList<String>();
+        String value = ConfigurationHolder.getString("keypairpool.keyspecs");
+        if (value == null) {
+            value = "RSA:2048,RSA:3072,RSA:4096";
+        }
+        for (final String keySpec : value.split(",")) {
+            if (StringUtils.isNotBlank(keySpec)) {
+                ret.add(keySpec.trim());
+            }
+        }
+        return ret;
+    }
+
     /** @return true key store content of Crypto Tokens should be cached. */
     public static boolean isKeyStoreCacheEnabled() {
         return Boolean.parseBoolean(ConfigurationHolder.getString("cryptotoken.keystorecache"));
@@ -53,6 +53,8 @@ public class OcspConfiguration {
     public static final String REKEYING_TRIGGERING_PASSWORD = "ocsp.rekeying.trigging.password";
     public static final String REKEYING_UPDATE_TIME_IN_SECONDS = "ocsp.rekeying.update.time.in.seconds";
     public static final String REKEYING_SAFETY_MARGIN_IN_SECONDS = "ocsp.rekeying.safety.margin.in.seconds";
+    public static final String REKEYING_THREADS = "ocsp.rekeying.threads";
+    public static final String REKEYING_PARALLELISM_PER_CRYPTOTOKEN = "ocsp.rekeying.parallelism.per.cryptotoken";
     public static final String EXPIREDCERT_RETENTIONPERIOD = "ocsp.expiredcert.retentionperiod";
     public static final String UNTIL_NEXT_UPDATE = "ocsp.untilNextUpdate";
     public static final String REVOKED_UNTIL_NEXT_UPDATE = "ocsp.revoked.untilNextUpdate";
@@ -113,6 +115,33 @@ public class OcspConfiguration {
     public static long getRekeyingSafetyMarginInSeconds() {
         return Long.parseLong(ConfigurationHolder.getString(REKEYING_SAFETY_MARGIN_IN_SECONDS));
     }
+
+    /**
+     * @return the max number of OCSP signing keys that are renewed at the same time. Default value is 8
+     */
+    public static int getRekeyingThreads() {
+        return getPositiveInt(REKEYING_THREADS, 8);
+    }
+
+    /**
+     * @return the max number of OCSP signing keys in the same crypto token that are renewed at the same time. Default value is 2
+     */
+    public static int getRekeyingParallelismPerCryptoToken() {
+        return getPositiveInt(REKEYING_PARALLELISM_PER_CRYPTOTOKEN, 2);
+    }
+
+    private static int getPositiveInt(final String property, final int defaultValue) {
+        try {
+            final int value = Integer.parseInt(ConfigurationHolder.getString(property));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Use the default value
+        }
+        log.warn(property + " is not a positive decimal integer. Using default " + defaultValue);
+        return defaultValue;
+    }
     
     /**
      * The interval on which new OCSP signing certificates are loaded in milliseconds
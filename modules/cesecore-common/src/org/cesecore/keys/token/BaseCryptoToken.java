@@ -27,10 +27,12 @@ import java.security.PublicKey;
 import java.security.Security;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
@@ -73,6 +75,37 @@ public abstract class BaseCryptoToken implements CryptoToken {
     /** The java KeyStore backing the Crypto Token */
     protected transient CachingKeyStoreWrapper keyStore;
 
+    /**
+     * The other sessions of a session pool, or null if all threads use the key store and provider of the token. The array is only replaced
+     * when the token is activated or deactivated, so a session that stops working does not move threads to other sessions.
+     */
+    private transient volatile PooledSession[] pooledSessions;
+
+    /**
+     * Gives each thread a fixed position in the session pools, so a thread gets its private keys and their provider from the same session.
+     * Only when that session fails a key test does the thread fall back to the session of the token, for both.
+     */
+    private static final AtomicInteger nextSessionThread = new AtomicInteger();
+    private static final ThreadLocal<Integer> sessionThreadIndex = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return Integer.valueOf(nextSessionThread.getAndIncrement() & Integer.MAX_VALUE);
+        }
+    };
+
+    /** A key store of a session pool, and the name of the provider its private keys must be used with */
+    private static class PooledSession {
+        private final CachingKeyStoreWrapper keyStore;
+        private final String providerName;
+        /** Cleared when a key test fails in the session, after which its threads use the session of the token */
+        private volatile boolean working = true;
+
+        private PooledSession(final KeyStore keyStore) throws KeyStoreException {
+            this.keyStore = new CachingKeyStoreWrapper(keyStore, CesecoreConfiguration.isKeyStoreCacheEnabled());
+            this.providerName = keyStore.getProvider().getName();
+        }
+    }
+
     /** public constructor */
     public BaseCryptoToken() {
         super();
@@ -81,11 +114,62 @@ public abstract class BaseCryptoToken implements CryptoToken {
     protected void setKeyStore(KeyStore keystore) throws KeyStoreException {
         if (keystore==null) {
             this.keyStore = null;
+            this.pooledSessions = null;
         } else {
             this.keyStore = new CachingKeyStoreWrapper(keystore, CesecoreConfiguration.isKeyStoreCacheEnabled());
         }
     }
 
+    /**
+     * Sets the key stores of the other sessions in a session pool of the token. Private keys, and the provider names to use them with, are
+     * then taken from the same session for each thread, spread over the key store set with {@link #setKeyStore(KeyStore)} and these.
+     * Everything else, like aliases, public keys and key generation, always uses the key store of the token.
+     *
+     * @param keyStores loaded key stores for the same token from other provider instances, or an empty list to not use a session pool.
+     *            Key stores that can not be read are left out of the pool.
+     */
+    protected void setPooledKeyStores(final List<KeyStore> keyStores) {
+        final List<PooledSession> sessions = new ArrayList<PooledSession>();
+        if (keyStores != null) {
+            for (final KeyStore pooledKeyStore : keyStores) {
+                try {
+                    sessions.add(new PooledSession(pooledKeyStore));
+                } catch (KeyStoreException e) {
+                    log.warn("Not using a session of provider '" + pooledKeyStore.getProvider().getName() + "' for crypto token " + getId() + ": "
+                            + e.getMessage());
+                }
+            }
+        }
+        this.pooledSessions = sessions.isEmpty() ? null : sessions.toArray(new PooledSession[sessions.size()]);
+    }
+
+    /** @return the number of working sessions that private keys are spread over, which is 1 when no session pool is used */
+    public int getSessionCount() {
+        final PooledSession[] sessions = this.pooledSessions;
+        int ret = 1;
+        if (sessions != null) {
+            for (final PooledSession session : sessions) {
+                if (session.working) {
+                    ret++;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /** @return the pooled session of the calling thread, or null if the thread uses the key store and provider of the token */
+    private PooledSession getPooledSession() {
+        final PooledSession[] sessions = this.pooledSessions;
+        if (sessions == null) {
+            return null;
+        }
+        final int index = sessionThreadIndex.get().intValue() % (sessions.length + 1);
+        if (index == 0 || !sessions[index - 1].working) {
+            return null;
+        }
+        return sessions[index - 1];
+    }
+
     /**
      * Return the key store for this crypto token.
      *
@@ -139,11 +223,41 @@ public abstract class BaseCryptoToken implements CryptoToken {
     
     @Override
     public void testKeyPair(final String alias) throws InvalidKeyException, CryptoTokenOfflineException { // NOPMD:this is not a junit test
-        final PrivateKey privateKey = getPrivateKey(alias);
         final PublicKey publicKey = getPublicKey(alias);
+        if (this.pooledSessions != null) {
+            // First, so the calling thread does not test a session that is about to stop being used
+            testPooledSessions(alias, publicKey);
+        }
+        final PrivateKey privateKey = getPrivateKey(alias);
         testKeyPair(alias, publicKey, privateKey);
     }
 
+    /**
+     * Tests the key pair in every working session of the session pool, and not only in the session of the calling thread. A pooled session that
+     * fails the test is no longer used until the token is activated again, while a failure in the session of the token itself is thrown.
+     */
+    private void testPooledSessions(final String alias, final PublicKey publicKey) throws InvalidKeyException, CryptoTokenOfflineException {
+        KeyTools.testKey(getPrivateKey(getKeyStore(), alias, true), publicKey, this.mJcaProviderName);
+        final PooledSession[] sessions = this.pooledSessions;
+        if (sessions == null) {
+            return;
+        }
+        for (final PooledSession session : sessions) {
+            if (!session.working) {
+                continue;
+            }
+            try {
+                KeyTools.testKey(getPrivateKey(session.keyStore, alias, true), publicKey, session.providerName);
+            } catch (InvalidKeyException e) {
+                log.warn("Removing session of provider '" + session.providerName + "' from the session pool of crypto token " + getId() + ": " + e.getMessage());
+                session.working = false;
+            } catch (CryptoTokenOfflineException e) {
+                log.warn("Removing session of provider '" + session.providerName + "' from the session pool of crypto token " + getId() + ": " + e.getMessage());
+                session.working = false;
+            }
+        }
+    }
+
     @Override
     public void testKeyPair(final String alias, PublicKey publicKey, PrivateKey privateKey) throws InvalidKeyException { // NOPMD:this is not a junit test
         if (log.isDebugEnabled()) {
@@ -408,7 +522,8 @@ public abstract class BaseCryptoToken implements CryptoToken {
 
     @Override
     public String getSignProviderName() {
-        return this.mJcaProviderName;
+        final PooledSession session = getPooledSession();
+        return session == null ? this.mJcaProviderName : session.providerName;
     }
 
     @Override
@@ -416,7 +531,7 @@ public abstract class BaseCryptoToken implements CryptoToken {
         // If we don't have a specific JCE provider, it is most likely the same
         // as the JCA provider
         if (this.mJceProviderName == null) {
-            return this.mJcaProviderName;
+            return getSignProviderName();
         }
         return this.mJceProviderName;
     }
@@ -452,14 +567,23 @@ public abstract class BaseCryptoToken implements CryptoToken {
      */
     private PrivateKey getPrivateKey(final String alias, boolean warn) throws CryptoTokenOfflineException {
         // Auto activate is done in the call to getKeyStore below
+        final CachingKeyStoreWrapper tokenKeyStore = getKeyStore();
+        final PooledSession session = getPooledSession();
+        return getPrivateKey(session == null ? tokenKeyStore : session.keyStore, alias, warn);
+    }
+
+    /** @see #getPrivateKey(String, boolean)
+     * @param keyStore the key store of the token or of one of its pooled sessions
+     */
+    private PrivateKey getPrivateKey(final CachingKeyStoreWrapper keyStore, final String alias, boolean warn) throws CryptoTokenOfflineException {
         try {
-            final PrivateKey privateK = (PrivateKey) getKeyStore().getKey(alias, (mAuthCode != null && mAuthCode.length > 0) ? mAuthCode : null);
+            final PrivateKey privateK = (PrivateKey) keyStore.getKey(alias, (mAuthCode != null && mAuthCode.length > 0) ? mAuthCode : null);
             if (privateK == null) {
                 if (warn) {
                     log.warn(intres.getLocalizedMessage("token.noprivate", alias));
                     if (log.isDebugEnabled()) {
                         final Enumeration<String> aliases;
-                        aliases = getKeyStore().aliases();
+                        aliases = keyStore.aliases();
                         while (aliases.hasMoreElements()) {
                             log.debug("Existing alias: " + aliases.nextElement());
                         }
@@ -24,6 +24,8 @@ import java.security.NoSuchProviderException;
 import java.security.Provider;
 import java.security.cert.CertificateException;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import javax.security.auth.DestroyFailedException;
@@ -122,8 +124,9 @@ public class PKCS11CryptoToken extends BaseCryptoToken implements P11SlotUser {
             throw new CryptoTokenOfflineException("Slot not initialized.");
         }
         try {
-            final KeyStore keyStore = createKeyStore(authCode);
+            final KeyStore keyStore = createKeyStore(this.p11slot.getProvider(), authCode);
             setKeyStore(keyStore);
+            setPooledKeyStores(createSessionKeyStores(authCode));
         } catch (Throwable t) { // NOPMD: when dealing with HSMs we need to catch everything
             log.warn("Failed to initialize PKCS11 provider slot '" + this.sSlotLabel + "'.", t);
             CryptoTokenAuthenticationFailedException authfe = new CryptoTokenAuthenticationFailedException(
@@ -135,10 +138,40 @@ public class PKCS11CryptoToken extends BaseCryptoToken implements P11SlotUser {
         log.info(msg);
     }
 
-    private KeyStore createKeyStore(final char[] authCode) throws NoSuchAlgorithmException, CertificateException, UnsupportedEncodingException,
+    /**
+     * Log in the other providers of the session pool of the slot, and load a key store for each of them.
+     * @param authCode the PIN, or null if the providers are already logged in and only the key stores should be loaded again
+     * @return the key stores of the sessions that could be logged in, or an empty list if no session pool is used
+     */
+    private List<KeyStore> createSessionKeyStores(final char[] authCode) {
+        final List<Provider> sessionProviders = this.p11slot.getSessionProviders();
+        final List<KeyStore> ret = new ArrayList<KeyStore>(sessionProviders.size());
+        for (final Provider sessionProvider : sessionProviders) {
+            try {
+                if (authCode == null) {
+                    final KeyStore keyStore = KeyStore.getInstance("PKCS11", sessionProvider);
+                    keyStore.load(null, null);
+                    ret.add(keyStore);
+                } else {
+                    ret.add(createKeyStore(sessionProvider, authCode));
+                }
+            } catch (Exception e) { // NOPMD: the token works without this session, so just leave it out of the pool
+                log.warn("Failed to load PKCS#11 session '" + sessionProvider.getName() + "' of slot '" + this.sSlotLabel + "': " + e.getMessage());
+            }
+        }
+        return ret;
+    }
+
+    /** Load the key stores of the session pool again, so they see keys that have been generated or deleted using the key store of the token. */
+    private void reloadSessionKeyStores() {
+        if (getSessionCount() > 1) {
+            setPooledKeyStores(createSessionKeyStores(null));
+        }
+    }
+
+    private KeyStore createKeyStore(final Provider provider, final char[] authCode) throws NoSuchAlgorithmException, CertificateException, UnsupportedEncodingException,
             IOException, KeyStoreException {
         final PasswordProtection pwp = new PasswordProtection(authCode);
-        Provider provider = this.p11slot.getProvider();
         final KeyStore.Builder builder = KeyStore.Builder.newInstance("PKCS11", provider, pwp);
         final KeyStore keyStore = builder.getKeyStore();
         log.debug("Loading key from slot '" + this.sSlotLabel + "' using pin.");
@@ -162,7 +195,7 @@ public class PKCS11CryptoToken extends BaseCryptoToken implements P11SlotUser {
         // null). If it is null, the default login manager will use the configured method for prompting the PIN on demand. If the application just
         // provides the instance number as a string instead of the complete provider name, the key store will also accept it.
         if (provider.getClass().getName().equals(Pkcs11SlotLabel.IAIK_PKCS11_CLASS)) {
-            keyStore.load(new ByteArrayInputStream(getSignProviderName().getBytes("UTF-8")), authCode);
+            keyStore.load(new ByteArrayInputStream(provider.getName().getBytes("UTF-8")), authCode);
         } else {
             // For the Sun provider this works fine to initialize the provider using previously provided protection parameters.
             keyStore.load(null, null);
@@ -204,8 +237,9 @@ public class PKCS11CryptoToken extends BaseCryptoToken implements P11SlotUser {
     public void deleteEntry(final String alias) throws KeyStoreException, NoSuchAlgorithmException,
             CertificateException, IOException, CryptoTokenOfflineException {
         if (StringUtils.isNotEmpty(alias)) {
-            KeyStoreTools cont = new KeyStoreTools(getKeyStore(), getSignProviderName());
+            KeyStoreTools cont = new KeyStoreTools(getKeyStore(), this.p11slot.getProvider().getName());
             cont.deleteEntry(alias);
+            reloadSessionKeyStores();
             String msg = intres.getLocalizedMessage("token.deleteentry", alias, getId());
             log.info(msg);
         } else {
@@ -217,8 +251,9 @@ public class PKCS11CryptoToken extends BaseCryptoToken implements P11SlotUser {
     public void generateKeyPair(final String keySpec, final String alias) throws InvalidAlgorithmParameterException,
             CryptoTokenOfflineException {
         if (StringUtils.isNotEmpty(alias)) {
-            KeyStoreTools cont = new KeyStoreTools(getKeyStore(), getSignProviderName());
+            KeyStoreTools cont = new KeyStoreTools(getKeyStore(), this.p11slot.getProvider().getName());
             cont.generateKeyPair(keySpec, alias);
+            reloadSessionKeyStores();
         } else {
             log.debug("Trying to generate keys with empty alias.");
         }
@@ -229,8 +264,9 @@ public class PKCS11CryptoToken extends BaseCryptoToken implements P11SlotUser {
             InvalidAlgorithmParameterException, CertificateException, IOException,
             CryptoTokenOfflineException {
         if (StringUtils.isNotEmpty(alias)) {
-            KeyStoreTools cont = new KeyStoreTools(getKeyStore(), getSignProviderName());
+            KeyStoreTools cont = new KeyStoreTools(getKeyStore(), this.p11slot.getProvider().getName());
             cont.generateKeyPair(spec, alias);
+            reloadSessionKeyStores();
         } else {
             log.debug("Trying to generate keys with empty alias.");
         }
@@ -243,8 +279,9 @@ public class PKCS11CryptoToken extends BaseCryptoToken implements P11SlotUser {
             log.debug("Generate key, "+algorithm+", "+keysize+", "+alias);
         }
         if (StringUtils.isNotEmpty(alias)) {
-            KeyStoreTools cont = new KeyStoreTools(getKeyStore(), getSignProviderName());
+            KeyStoreTools cont = new KeyStoreTools(getKeyStore(), this.p11slot.getProvider().getName());
             cont.generateKey(algorithm, keysize, alias);
+            reloadSessionKeyStores();
         } else {
             log.debug("Trying to generate keys with empty alias.");
         }
@@ -16,12 +16,16 @@ import java.io.File;
 import java.security.AuthProvider;
 import java.security.Provider;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.security.auth.login.LoginException;
 
 import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.keys.token.p11.exception.NoSuchSlotException;
@@ -47,6 +51,8 @@ public class P11Slot {
     private final String sharedLibrary;
     private final String sunP11ConfigFileName;
     private final Provider provider;
+    /** Further providers logged in to the slot, that private key operations are spread over. Empty if no session pool is used. */
+    private final List<Provider> sessionProviders;
     private final String libraryFileName;
     
     private P11Slot(final Pkcs11SlotLabelType slotLabelType, final String slotLabel, final String sharedLibrary, final String attributesFile,
@@ -60,7 +66,8 @@ public class P11Slot {
         if (provider==null) {
             throw new NoSuchSlotException("Slot labeled " + slotLabel + " could not be located.");
         }
-        addProvider();
+        addProvider(provider);
+        sessionProviders = createSessionProviders(attributesFile);
     }
 
     private P11Slot(final String sunP11ConfigFileName) throws NoSuchSlotException {
@@ -73,19 +80,55 @@ public class P11Slot {
         if (this.provider==null) {
             throw new NoSuchSlotException("Slot configured in " + sunP11ConfigFileName + " could not be located.");
         }
-        addProvider();
+        addProvider(provider);
+        // The name of the provider is given by the configuration file, so there can't be more than one
+        this.sessionProviders = Collections.emptyList();
     }
 
-    private void addProvider() {
-        if (Security.getProvider(provider.getName())!=null) {
-            Security.removeProvider(provider.getName());
+    private static void addProvider(final Provider prov) {
+        if (Security.getProvider(prov.getName())!=null) {
+            Security.removeProvider(prov.getName());
         }
-        Security.addProvider(provider);
+        Security.addProvider(prov);
         if (log.isDebugEnabled()) {
-            log.debug("Provider successfully added: "+provider);
+            log.debug("Provider successfully added: "+prov);
         }
     }
 
+    /**
+     * Create the providers of the session pool, each with a name of its own so they can all be installed.
+     * @return the providers besides the provider of the slot, or an empty list if the pool size is 1 or the provider is not the Sun provider.
+     */
+    private List<Provider> createSessionProviders(final String attributesFile) {
+        final int poolSize = CesecoreConfiguration.getPkcs11SessionPoolSize();
+        if (poolSize <= 1) {
+            return Collections.emptyList();
+        }
+        if (!Pkcs11SlotLabel.SUN_PKCS11_CLASS.equals(provider.getClass().getName())) {
+            log.info("Not using a session pool for " + toString() + " since the provider is " + provider.getClass().getName() + ".");
+            return Collections.emptyList();
+        }
+        final List<Provider> ret = new ArrayList<Provider>(poolSize - 1);
+        for (int i = 1; i < poolSize; i++) {
+            final Provider sessionProvider;
+            try {
+                sessionProvider = new Pkcs11SlotLabel(slotLabelType, slotLabel).getSessionProvider(sharedLibrary, attributesFile, "session" + i);
+            } catch (NoSuchSlotException e) {
+                log.warn("Not possible to create session " + i + " of the session pool for " + toString(), e);
+                break;
+            }
+            if (sessionProvider == null) {
+                break;
+            }
+            addProvider(sessionProvider);
+            ret.add(sessionProvider);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Using " + (ret.size() + 1) + " sessions for " + toString());
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
     @Override
     public String toString() {
         if (Pkcs11SlotLabelType.SUN_FILE.equals(slotLabelType)) {
@@ -123,11 +166,18 @@ public class P11Slot {
                 }
             }
         }
-        if (provider instanceof AuthProvider) {
+        logout(provider);
+        for (final Provider sessionProvider : sessionProviders) {
+            logout(sessionProvider);
+        }
+    }
+
+    private void logout(final Provider prov) {
+        if (prov instanceof AuthProvider) {
             try {
-                ((AuthProvider)provider).logout();
+                ((AuthProvider)prov).logout();
                 if (log.isDebugEnabled()) {
-                    log.debug("PKCS#11 session terminated for \"" + toString() + "\".");
+                    log.debug("PKCS#11 session terminated for \"" + toString() + "\" (" + prov.getName() + ").");
                 }
             } catch (LoginException e) {
                 log.warn("Not possible to logout from PKCS#11 Session. HW problems?", e);
@@ -142,6 +192,14 @@ public class P11Slot {
         return provider;
     }
 
+    /**
+     * @return the other providers of the session pool of the slot, that can be logged in to the slot like the provider from {@link #getProvider()}.
+     *         Empty if no session pool is used.
+     */
+    public List<Provider> getSessionProviders() {
+        return sessionProviders;
+    }
+
     /**
      * Get P11 slot instance. Only one instance (provider) will ever be created for each slot regardless of how many times this method is called.
      * @param slotLabel the labeling of the slot, regardless of label type. 
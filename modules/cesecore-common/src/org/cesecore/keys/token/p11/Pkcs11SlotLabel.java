@@ -113,6 +113,49 @@ public class Pkcs11SlotLabel {
                 throw new P11RuntimeException(String.format("The file %s can not be closed after use.", libFile), e);
             }
         }
+        final long slot = getSlot(libFile);
+        {// We will first try to construct the more competent IAIK provider, if it exists in the classpath
+            final Provider prov = getIAIKP11Provider(slot, libFile, this.type);
+            if (prov != null) {
+                return prov;
+            }
+        }
+        {// if that does not exist, we will revert back to use the SUN provider
+            final Provider prov = getSunP11Provider( getSunP11ProviderInputStream(slot, libFile, this.type, attributesFile, privateKeyLabel, "") );
+            if (prov != null) {
+                return prov;
+            }
+        }
+        log.error("No provider available.");
+        return null;
+    }
+
+    /**
+     * Get one more Sun provider for the slot, that can be logged in to the slot in addition to the provider from
+     * {@link #getProvider(String, String, String)}. Used for the sessions of a session pool.
+     * @param fileName path name to the P11 module so file
+     * @param attributesFile Path to file with P11 attributes to be used when generating keys with the provider. If null a good default will be used.
+     * @param sessionName added to the name of the provider, so that it is not the same as the name of any other provider for the slot
+     * @return the provider, or null if none is available.
+     * @throws NoSuchSlotException if no slot as defined by this slot label was found
+     */
+    public Provider getSessionProvider(final String fileName, final String attributesFile, final String sessionName) throws NoSuchSlotException {
+        if (this.type == Pkcs11SlotLabelType.SUN_FILE) {
+            throw new IllegalStateException("The name of the provider is defined in the Sun configuration file.");
+        }
+        final File libFile = new File(fileName);
+        if (!libFile.isFile() || !libFile.canRead()) {
+            throw new IllegalArgumentException("The file " + fileName + " can't be read.");
+        }
+        return getSunP11Provider(getSunP11ProviderInputStream(getSlot(libFile), libFile, this.type, attributesFile, null, "-" + sessionName));
+    }
+
+    /**
+     * @param libFile P11 module so file.
+     * @return the slot ID or slot list index of this slot label
+     * @throws NoSuchSlotException if no slot with the label was found
+     */
+    private long getSlot(final File libFile) throws NoSuchSlotException {
         final long slot;
         final Pkcs11Wrapper p11 = Pkcs11Wrapper.getInstance(libFile); // must be called before any provider is created for libFile
         switch (this.type) {
@@ -133,20 +176,7 @@ public class Pkcs11SlotLabel {
         default:
             throw new IllegalStateException("This should not ever happen if all type of slots are tested.");
         }
-        {// We will first try to construct the more competent IAIK provider, if it exists in the classpath
-            final Provider prov = getIAIKP11Provider(slot, libFile, this.type);
-            if (prov != null) {
-                return prov;
-            }
-        }
-        {// if that does not exist, we will revert back to use the SUN provider
-            final Provider prov = getSunP11Provider( getSunP11ProviderInputStream(slot, libFile, this.type, attributesFile, privateKeyLabel) );
-            if (prov != null) {
-                return prov;
-            }
-        }
-        log.error("No provider available.");
-        return null;
+        return slot;
     }
 
     /** @return a List of "slotId;tokenLabel" in the (indexed) order we get the from the P11 */
@@ -266,16 +296,17 @@ public class Pkcs11SlotLabel {
      * @param isIndex true if first parameter is a slot list index, false if slot ID.
      * @param attributesFile Path to file with P11 attributes to be used when generating keys with the provider. If null a good default will be used.
      * @param privateKeyLabel Label that will be set to all private keys generated by the provider. If null no label will be set.
+     * @param nameSuffix added to the name of the provider
      * @return the stream
      */
     private static InputStream getSunP11ProviderInputStream(final long slot, final File libFile, final Pkcs11SlotLabelType type, final String attributesFile,
-            String privateKeyLabel) {
+            String privateKeyLabel, final String nameSuffix) {
 
         // Properties for the SUN PKCS#11 provider
         final String sSlot = Long.toString(slot);
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try( final PrintWriter pw = new PrintWriter(baos) ) {
-            pw.println("name = " + libFile.getName() + "-slot" + sSlot);
+            pw.println("name = " + libFile.getName() + "-slot" + sSlot + nameSuffix);
             try {
                 pw.println("library = " + libFile.getCanonicalPath());
             } catch (IOException e) {
@@ -397,7 +428,7 @@ public class Pkcs11SlotLabel {
      */
     static void doC_Initialize(final File libFile) {
         try {
-            getSunP11ProviderNoExceptionHandeling( getSunP11ProviderInputStream(-1, libFile, Pkcs11SlotLabelType.SLOT_NUMBER, null, null) );
+            getSunP11ProviderNoExceptionHandeling( getSunP11ProviderInputStream(-1, libFile, Pkcs11SlotLabelType.SLOT_NUMBER, null, null, "") );
         } catch (InvocationTargetException e) {
             // the p11 module don't like the bogus arguments and throws an exception but we don't bother about this since
             // C_Initialize has already been called with multithread arguments.
@@ -0,0 +1,234 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.keys.util;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Key pairs generated in advance for server generated keys, so that a request does not have to wait for the key generation, which can take
+ * seconds for large RSA keys. There is a pool for each configured key algorithm and key specification that has been requested, which
+ * background threads with low priority fill up to the configured depth. The key pairs are only kept in memory, and each key pair is handed out
+ * only once. When a pool is empty, or the key specification is not configured for pooling, the key pair is generated by the requesting thread
+ * as before.
+ *
+ * @version $Id$
+ */
+public class KeyPairPool {
+
+    private static final Logger log = Logger.getLogger(KeyPairPool.class);
+
+    /** The max number of pools, since each one can hold depth key pairs in memory */
+    static final int MAX_POOLS = 16;
+
+    private static volatile KeyPairPool instance = null;
+
+    private final int depth;
+    private final int threads;
+    /** The key algorithms and key specifications that get a pool, as "keyAlg:keySpec" */
+    private final Set<String> pooledKeySpecs;
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+    /** Created when the first pool is, so nothing is started when pre-generation is not used */
+    private volatile ExecutorService executorService = null;
+
+    /** The generated key pairs for one key algorithm and key specification */
+    private class Pool {
+        private final String keySpec;
+        private final String keyAlg;
+        private final ConcurrentLinkedQueue<KeyPair> keyPairs = new ConcurrentLinkedQueue<KeyPair>();
+        /** The number of key pairs in the pool, plus the number being generated for it */
+        private final AtomicInteger filled = new AtomicInteger(0);
+
+        private Pool(final String keySpec, final String keyAlg) {
+            this.keySpec = keySpec;
+            this.keyAlg = keyAlg;
+        }
+
+        private KeyPair poll() {
+            final KeyPair keyPair = keyPairs.poll();
+            if (keyPair != null) {
+                filled.decrementAndGet();
+            }
+            return keyPair;
+        }
+
+        /** Start generating key pairs until the pool is filled to the configured depth */
+        private void refill() {
+            int current;
+            while ((current = filled.get()) < depth) {
+                if (filled.compareAndSet(current, current + 1)) {
+                    try {
+                        getExecutorService().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                generate();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // The pool has been closed
+                        filled.decrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void generate() {
+            try {
+                keyPairs.add(KeyTools.genKeys(keySpec, keyAlg));
+            } catch (InvalidAlgorithmParameterException e) {
+                // Not expected, since the key specification was used by the request that created the pool
+                filled.decrementAndGet();
+                log.warn("Failed to generate a " + keyAlg + " " + keySpec + " key pair in advance: " + e.getMessage());
+            } catch (RuntimeException e) {
+                filled.decrementAndGet();
+                log.warn("Failed to generate a " + keyAlg + " " + keySpec + " key pair in advance: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param depth the max number of key pairs generated in advance for each key algorithm and key specification, or 0 to not generate keys in
+     *            advance
+     * @param threads the number of background threads generating key pairs
+     * @param pooledKeySpecs the key algorithms and key specifications to generate in advance, as "keyAlg:keySpec", for example "RSA:2048".
+     *            Only the first {@link #MAX_POOLS} are used.
+     */
+    public KeyPairPool(final int depth, final int threads, final Collection<String> pooledKeySpecs) {
+        this.depth = depth;
+        this.threads = Math.max(1, threads);
+        final Set<String> keySpecs = new HashSet<String>();
+        for (final String pooledKeySpec : pooledKeySpecs) {
+            if (keySpecs.size() >= MAX_POOLS) {
+                log.warn("Only " + MAX_POOLS + " key specifications can be generated in advance, generating " + pooledKeySpec + " keys when requested.");
+                continue;
+            }
+            keySpecs.add(pooledKeySpec);
+        }
+        this.pooledKeySpecs = Collections.unmodifiableSet(keySpecs);
+    }
+
+    /** @return the pool configured in cesecore.properties */
+    public static KeyPairPool getInstance() {
+        if (instance == null) {
+            synchronized (KeyPairPool.class) {
+                if (instance == null) {
+                    instance = new KeyPairPool(CesecoreConfiguration.getKeyPairPoolDepth(), CesecoreConfiguration.getKeyPairPoolThreads(),
+                            CesecoreConfiguration.getKeyPairPoolKeySpecs());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** Stop the background threads of the pool configured in cesecore.properties, if it has been created. Called when the application stops. */
+    public static void closeInstance() {
+        synchronized (KeyPairPool.class) {
+            if (instance != null) {
+                instance.close();
+            }
+        }
+    }
+
+    /**
+     * Get a key pair that has not been handed out before, taken from the pool if there is one and generated if not. The first request for a
+     * configured key algorithm and key specification always generates the key pair, and starts filling the pool for following requests.
+     *
+     * @param keySpec the key specification, as for {@link KeyTools#genKeys(String, String)}
+     * @param keyAlg the key algorithm, as for {@link KeyTools#genKeys(String, String)}
+     * @return a new key pair
+     * @throws InvalidAlgorithmParameterException if the key specification is not valid for the algorithm
+     */
+    public KeyPair getKeyPair(final String keySpec, final String keyAlg) throws InvalidAlgorithmParameterException {
+        if (depth <= 0 || keySpec == null || "implicitlyCA".equals(keySpec)) {
+            // The parameters of implicitlyCA keys are a setting of the provider, that could change while keys are in the pool
+            return KeyTools.genKeys(keySpec, keyAlg);
+        }
+        final String poolKey = keyAlg + ":" + keySpec;
+        Pool pool = pools.get(poolKey);
+        if (pool == null) {
+            if (!pooledKeySpecs.contains(poolKey)) {
+                return KeyTools.genKeys(keySpec, keyAlg);
+            }
+            // Only create a pool for key specifications that can be generated
+            final KeyPair keyPair = KeyTools.genKeys(keySpec, keyAlg);
+            pool = new Pool(keySpec, keyAlg);
+            final Pool existing = pools.putIfAbsent(poolKey, pool);
+            (existing == null ? pool : existing).refill();
+            return keyPair;
+        }
+        KeyPair keyPair = pool.poll();
+        pool.refill();
+        if (keyPair == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("No " + keyAlg + " " + keySpec + " key pair generated in advance, generating one now.");
+            }
+            keyPair = KeyTools.genKeys(keySpec, keyAlg);
+        }
+        return keyPair;
+    }
+
+    /** @return the number of key pairs in the pool for the key algorithm and key specification */
+    public int getAvailable(final String keySpec, final String keyAlg) {
+        final Pool pool = pools.get(keyAlg + ":" + keySpec);
+        return pool == null ? 0 : pool.keyPairs.size();
+    }
+
+    /** Stop generating key pairs in advance, and drop the key pairs in the pools. Key pairs are generated by the requesting threads after this. */
+    public void close() {
+        final ExecutorService current = executorService;
+        if (current != null) {
+            current.shutdownNow();
+        }
+        for (final Pool pool : pools.values()) {
+            pool.keyPairs.clear();
+        }
+    }
+
+    private ExecutorService getExecutorService() {
+        if (executorService == null) {
+            synchronized (this) {
+                if (executorService == null) {
+                    executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "KeyPairPool-" + threadNumber.getAndIncrement());
+                            thread.setDaemon(true);
+                            // Requests that generate their own keys, or sign, come first
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return executorService;
+    }
+}
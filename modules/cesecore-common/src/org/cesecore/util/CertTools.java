@@ -69,6 +69,8 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.security.auth.x500.X500Principal;
+
 import org.apache.commons.lang.CharUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
@@ -125,6 +127,7 @@ import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
 import org.bouncycastle.jce.X509KeyUsage;
+import org.bouncycastle.jce.X509Principal;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jce.provider.PKIXNameConstraintValidator;
 import org.bouncycastle.jce.provider.PKIXNameConstraintValidatorException;
@@ -856,21 +859,8 @@ public abstract class CertTools {
         }
         if (cert instanceof X509Certificate) {
             // cert.getType=X.509
-            try {
-                final CertificateFactory cf = CertTools.getCertificateFactory();
-                final X509Certificate x509cert = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(cert.getEncoded()));
-                String dn = null;
-                if (which == 1) {
-                    dn = x509cert.getSubjectDN().toString();
-                } else {
-                    dn = x509cert.getIssuerDN().toString();
-                }
-                ret = stringToBCDNString(dn);
-            } catch (CertificateException ce) {
-                log.info("Could not get DN from X509Certificate. " + ce.getMessage());
-                log.debug("", ce);
-                return null;
-            }
+            final X509Certificate x509cert = (X509Certificate) cert;
+            ret = getNormalizedDN(which == 1 ? x509cert.getSubjectX500Principal() : x509cert.getIssuerX500Principal());
         } else if (StringUtils.equals(cert.getType(), "CVC")) {
             final CardVerifiableCertificate cvccert = (CardVerifiableCertificate) cert;
             try {
@@ -906,6 +896,28 @@ public abstract class CertTools {
         return ret;
     }
 
+    /**
+     * Gets a DN in the format we are sure about (BouncyCastle) from the already decoded name of a certificate or CRL, without decoding the
+     * certificate again. The result is the same as from the DN of the certificate when it is decoded by the BC provider. Normalized DNs
+     * are cached by the encoding of the name.
+     * 
+     * @param principal issuer or subject of a certificate or CRL
+     * @return String containing the DN.
+     */
+    @SuppressWarnings("deprecation")
+    private static String getNormalizedDN(final X500Principal principal) {
+        final byte[] encoded = principal.getEncoded();
+        String ret = NormalizedDnCache.INSTANCE.get(encoded);
+        if (ret == null) {
+            // This is what the BC provider returns from X509Certificate.getSubjectDN() and getIssuerDN()
+            ret = stringToBCDNString(new X509Principal(X500Name.getInstance(encoded)).toString());
+            if (ret != null) {
+                NormalizedDnCache.INSTANCE.put(encoded, ret);
+            }
+        }
+        return ret;
+    }
+
     /**
      * Gets Serial number of the certificate.
      * 
@@ -1063,17 +1075,7 @@ public abstract class CertTools {
      * @return String containing the DN.
      */
     public static String getIssuerDN(X509CRL crl) {
-        String dn = null;
-        try {
-            CertificateFactory cf = CertTools.getCertificateFactory();
-            X509CRL x509crl = (X509CRL) cf.generateCRL(new ByteArrayInputStream(crl.getEncoded()));
-            // log.debug("Created certificate of class: " + x509crl.getClass().getName());
-            dn = x509crl.getIssuerDN().toString();
-        } catch (CRLException ce) {
-            log.error("CRLException: ", ce);
-            return null;
-        }
-        return stringToBCDNString(dn);
+        return getNormalizedDN(crl.getIssuerX500Principal());
     }
 
     public static Date getNotBefore(Certificate cert) {
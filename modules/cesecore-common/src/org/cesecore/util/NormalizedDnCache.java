@@ -0,0 +1,84 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache from the DER encoding of an X.500 name to the normalized DN string produced by {@link CertTools#stringToBCDNString(String)}.
+ *
+ * The same few issuer and subject names are normalized over and over again, e.g. the issuer of every certificate that is checked
+ * by OCSP or published. The cache is simply cleared when it is full, which is cheap and keeps the frequently used names in the
+ * cache since they are added again on the next lookup.
+ *
+ * @version $Id$
+ */
+public enum NormalizedDnCache {
+    INSTANCE;
+
+    /** Max number of cached DNs. Each entry uses a few hundred bytes for typical DNs. */
+    private static final int MAX_ENTRIES = 10000;
+
+    private final ConcurrentHashMap<EncodedName, String> cache = new ConcurrentHashMap<>();
+
+    /** Key that compares the content of the encoded name */
+    private static final class EncodedName {
+        private final byte[] encoded;
+        private final int hashCode;
+
+        private EncodedName(final byte[] encoded) {
+            this.encoded = encoded;
+            this.hashCode = Arrays.hashCode(encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof EncodedName && Arrays.equals(encoded, ((EncodedName) obj).encoded);
+        }
+    }
+
+    /**
+     * @param encoded the DER encoding of an X.500 name, which must not be modified after it has been passed to this cache
+     * @return the normalized DN or null if it is not in the cache
+     */
+    public String get(final byte[] encoded) {
+        return cache.get(new EncodedName(encoded));
+    }
+
+    /**
+     * @param encoded the DER encoding of an X.500 name, which must not be modified after it has been passed to this cache
+     * @param normalizedDn the normalized DN
+     */
+    public void put(final byte[] encoded, final String normalizedDn) {
+        if (cache.size() >= MAX_ENTRIES) {
+            cache.clear();
+        }
+        cache.put(new EncodedName(encoded), normalizedDn);
+    }
+
+    /** @return the number of cached DNs */
+    public int size() {
+        return cache.size();
+    }
+
+    /** Remove all cached DNs. */
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,42 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count, for example the number of processed requests.
+ *
+ * @version $Id$
+ */
+public class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    /*package*/ Counter() {}
+
+    /** Increase the counter by one. */
+    public void inc() {
+        value.incrementAndGet();
+    }
+
+    /** Increase the counter by the given, non-negative, amount. */
+    public void add(final long amount) {
+        value.addAndGet(amount);
+    }
+
+    /** @return the current count */
+    public long get() {
+        return value.get();
+    }
+}
@@ -0,0 +1,42 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that can go up and down, for example the number of entries in a queue.
+ *
+ * @version $Id$
+ */
+public class Gauge {
+
+    private final AtomicLong value = new AtomicLong();
+
+    /*package*/ Gauge() {}
+
+    /** Set the gauge to the given value. */
+    public void set(final long newValue) {
+        value.set(newValue);
+    }
+
+    /** Increase (or decrease with a negative amount) the gauge. */
+    public void add(final long amount) {
+        value.addAndGet(amount);
+    }
+
+    /** @return the current value */
+    public long get() {
+        return value.get();
+    }
+}
@@ -0,0 +1,127 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of observed values, for example durations or sizes, in buckets with fixed upper bounds.
+ *
+ * Values are recorded as longs in the unit of the bounds (e.g. nanoseconds) and are multiplied by the unit scale when they are exported
+ * (e.g. 1e-9 to get seconds). Recording does not allocate any objects and does not take any locks.
+ *
+ * @version $Id$
+ */
+public class Histogram {
+
+    private final long[] bounds;
+    private final double unitScale;
+    /** One bucket for each bound and a last one for values larger than all bounds */
+    private final AtomicLongArray buckets;
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param bounds inclusive upper bounds of the buckets, in ascending order
+     * @param unitScale factor that converts a recorded value to the exported unit
+     */
+    /*package*/ Histogram(final long[] bounds, final double unitScale) {
+        this.bounds = bounds;
+        this.unitScale = unitScale;
+        this.buckets = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /** Record a value in the unit of the bounds. */
+    public void record(final long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        buckets.incrementAndGet(index);
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Another thread updated the max, try again
+        }
+    }
+
+    /** Record the time elapsed since the given {@link System#nanoTime()}, for histograms with bounds in nanoseconds. */
+    public void recordNanosSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /** @return the inclusive upper bounds of the buckets, in the exported unit */
+    public double[] getBounds() {
+        final double[] ret = new double[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            ret[i] = bounds[i] * unitScale;
+        }
+        return ret;
+    }
+
+    /** @return the number of values in each bucket, not cumulative, with the bucket for values larger than all bounds last */
+    public long[] getBucketCounts() {
+        final long[] ret = new long[buckets.length()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = buckets.get(i);
+        }
+        return ret;
+    }
+
+    /** @return the number of recorded values */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /** @return the sum of all recorded values, in the exported unit */
+    public double getSum() {
+        return sum.get() * unitScale;
+    }
+
+    /** @return the largest recorded value, in the exported unit */
+    public double getMax() {
+        return max.get() * unitScale;
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket where it is found. Values above the last bound are estimated with the max.
+     *
+     * @param percentile between 0 and 100
+     * @return the estimated value, in the exported unit, or 0 if nothing has been recorded
+     */
+    public double getValueAtPercentile(final double percentile) {
+        final long[] counts = getBucketCounts();
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return Math.min(bounds[i], max.get()) * unitScale;
+            }
+        }
+        return getMax();
+    }
+}
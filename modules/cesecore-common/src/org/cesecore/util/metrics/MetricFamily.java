@@ -0,0 +1,95 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named metric with an optional label, where each label value (e.g. a crypto token name) has its own counter, gauge or histogram.
+ *
+ * Label values should be Strings that already exist at the call site, so that looking up the metric does not allocate. Metrics without
+ * a label are stored under the empty label value.
+ *
+ * @version $Id$
+ */
+public abstract class MetricFamily<T> {
+
+    public enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        private final String textFormatName;
+
+        private Type(final String textFormatName) {
+            this.textFormatName = textFormatName;
+        }
+
+        /** @return the type as written in the Prometheus text format */
+        public String getTextFormatName() {
+            return textFormatName;
+        }
+    }
+
+    private final String name;
+    private final String help;
+    private final String labelName;
+    private final Type type;
+    private final ConcurrentHashMap<String, T> metrics = new ConcurrentHashMap<>();
+
+    /*package*/ MetricFamily(final String name, final String help, final String labelName, final Type type) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+        this.type = type;
+    }
+
+    /** @return a new metric for a label value that has not been seen before */
+    protected abstract T newMetric();
+
+    /** @return the metric for the given label value, which is created on first use. null is treated as the empty label value. */
+    public T get(final String labelValue) {
+        final String key = labelValue == null ? "" : labelValue;
+        T metric = metrics.get(key);
+        if (metric == null) {
+            final T created = newMetric();
+            metric = metrics.putIfAbsent(key, created);
+            if (metric == null) {
+                metric = created;
+            }
+        }
+        return metric;
+    }
+
+    /** @return the metric of a family without label */
+    public T get() {
+        return get("");
+    }
+
+    /** Remove the metric of a label value that no longer exists, e.g. a deleted publisher. */
+    public void remove(final String labelValue) {
+        metrics.remove(labelValue == null ? "" : labelValue);
+    }
+
+    public String getName() { return name; }
+    public String getHelp() { return help; }
+    /** @return the name of the label, or null if this family only has a single metric */
+    public String getLabelName() { return labelName; }
+    public Type getType() { return type; }
+
+    /** @return a sorted copy of the current metrics by label value */
+    public SortedMap<String, T> getMetrics() {
+        return Collections.unmodifiableSortedMap(new TreeMap<String, T>(metrics));
+    }
+}
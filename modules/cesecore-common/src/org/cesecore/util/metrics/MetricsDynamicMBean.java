@@ -0,0 +1,118 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only MBean with one attribute per metric. Labelled metrics are named "name[label value]" and histograms have the attributes
+ * ".count", ".sum", ".max", ".p50" and ".p99", where the percentiles are estimated from the histogram buckets.
+ *
+ * @version $Id$
+ */
+/*package*/ class MetricsDynamicMBean implements DynamicMBean {
+
+    private final MetricsRegistry registry;
+
+    /*package*/ MetricsDynamicMBean(final MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** @return the current value of all attributes, by attribute name */
+    /*package*/ Map<String, Object> getValues() {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        for (final MetricFamily<?> family : registry.getFamilies()) {
+            for (final Entry<String, ?> entry : family.getMetrics().entrySet()) {
+                final String attributeName = family.getLabelName() == null ? family.getName() : family.getName() + "[" + entry.getKey() + "]";
+                final Object metric = entry.getValue();
+                switch (family.getType()) {
+                case COUNTER:
+                    values.put(attributeName, Long.valueOf(((Counter) metric).get()));
+                    break;
+                case GAUGE:
+                    values.put(attributeName, Long.valueOf(((Gauge) metric).get()));
+                    break;
+                case HISTOGRAM:
+                    final Histogram histogram = (Histogram) metric;
+                    values.put(attributeName + ".count", Long.valueOf(histogram.getCount()));
+                    values.put(attributeName + ".sum", Double.valueOf(histogram.getSum()));
+                    values.put(attributeName + ".max", Double.valueOf(histogram.getMax()));
+                    values.put(attributeName + ".p50", Double.valueOf(histogram.getValueAtPercentile(50)));
+                    values.put(attributeName + ".p99", Double.valueOf(histogram.getValueAtPercentile(99)));
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final Object value = getValues().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("No metric named " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        final Map<String, Object> values = getValues();
+        final AttributeList ret = new AttributeList();
+        for (final String attribute : attributes) {
+            final Object value = values.get(attribute);
+            if (value != null) {
+                ret.add(new Attribute(attribute, value));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributeInfos = new ArrayList<>();
+        for (final Entry<String, Object> entry : getValues().entrySet()) {
+            attributeInfos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Internal metrics of this node", attributeInfos.toArray(new MBeanAttributeInfo[0]), null,
+                new MBeanOperationInfo[0], null);
+    }
+
+    @Override
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only.");
+    }
+
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) throws ReflectionException {
+        throw new ReflectionException(new UnsupportedOperationException("No operations are available: " + actionName));
+    }
+}
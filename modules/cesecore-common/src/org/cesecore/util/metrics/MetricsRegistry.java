@@ -0,0 +1,269 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registry of the internal metrics of this node: counters, gauges and histograms for protocol, signing and database hot paths.
+ *
+ * Call sites look up their metric families once and keep them in static final fields, so recording a value is a map lookup on an
+ * existing String at most. The metrics are exposed through JMX as {@value #JMX_OBJECT_NAME} and can be written in the Prometheus text
+ * format, which is done by the metrics servlet of the health check web application.
+ *
+ * @version $Id$
+ */
+public enum MetricsRegistry {
+    INSTANCE;
+
+    public static final String JMX_OBJECT_NAME = "org.cesecore:type=Metrics";
+
+    /** Bucket bounds for durations, in nanoseconds, from 50 µs to 10 s */
+    public static final long[] DURATION_BOUNDS_NANOS = { 50000L, 100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L, 10000000L,
+            25000000L, 50000000L, 100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L, 10000000000L };
+    /** Bucket bounds for sizes, in bytes, from 1 KiB to 256 MiB */
+    public static final long[] SIZE_BOUNDS_BYTES = { 1024L, 4096L, 16384L, 65536L, 262144L, 1048576L, 4194304L, 16777216L, 67108864L,
+            268435456L };
+    private static final double NANOS_TO_SECONDS = 1e-9;
+
+    private final ConcurrentSkipListMap<String, MetricFamily<?>> families = new ConcurrentSkipListMap<>();
+
+    private MetricsRegistry() {
+        registerMBean();
+    }
+
+    /**
+     * @param name metric name, by convention ending with "_total"
+     * @param labelName name of the label, or null for a single counter
+     * @return the counter family with the given name, created on first use
+     */
+    public MetricFamily<Counter> counterFamily(final String name, final String help, final String labelName) {
+        return register(new MetricFamily<Counter>(name, help, labelName, MetricFamily.Type.COUNTER) {
+            @Override
+            protected Counter newMetric() {
+                return new Counter();
+            }
+        });
+    }
+
+    /** @return the counter with the given name, created on first use */
+    public Counter counter(final String name, final String help) {
+        return counterFamily(name, help, null).get();
+    }
+
+    /**
+     * @param labelName name of the label, or null for a single gauge
+     * @return the gauge family with the given name, created on first use
+     */
+    public MetricFamily<Gauge> gaugeFamily(final String name, final String help, final String labelName) {
+        return register(new MetricFamily<Gauge>(name, help, labelName, MetricFamily.Type.GAUGE) {
+            @Override
+            protected Gauge newMetric() {
+                return new Gauge();
+            }
+        });
+    }
+
+    /**
+     * Histogram family for durations recorded in nanoseconds, e.g. with {@link Histogram#recordNanosSince(long)}, and exported in seconds.
+     *
+     * @param name metric name, by convention ending with "_seconds"
+     * @param labelName name of the label, or null for a single histogram
+     * @return the histogram family with the given name, created on first use
+     */
+    public MetricFamily<Histogram> durationFamily(final String name, final String help, final String labelName) {
+        return histogramFamily(name, help, labelName, DURATION_BOUNDS_NANOS, NANOS_TO_SECONDS);
+    }
+
+    /**
+     * Histogram family for sizes recorded in bytes.
+     *
+     * @param name metric name, by convention ending with "_bytes"
+     * @param labelName name of the label, or null for a single histogram
+     * @return the histogram family with the given name, created on first use
+     */
+    public MetricFamily<Histogram> sizeFamily(final String name, final String help, final String labelName) {
+        return histogramFamily(name, help, labelName, SIZE_BOUNDS_BYTES, 1);
+    }
+
+    /**
+     * @param bounds inclusive upper bounds of the buckets in the recorded unit, in ascending order
+     * @param unitScale factor that converts a recorded value to the exported unit
+     * @return the histogram family with the given name, created on first use
+     */
+    public MetricFamily<Histogram> histogramFamily(final String name, final String help, final String labelName, final long[] bounds,
+            final double unitScale) {
+        return register(new MetricFamily<Histogram>(name, help, labelName, MetricFamily.Type.HISTOGRAM) {
+            @Override
+            protected Histogram newMetric() {
+                return new Histogram(bounds, unitScale);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> MetricFamily<T> register(final MetricFamily<T> family) {
+        final MetricFamily<?> existing = families.putIfAbsent(family.getName(), family);
+        if (existing == null) {
+            return family;
+        }
+        if (existing.getType() != family.getType()) {
+            throw new IllegalArgumentException("Metric " + family.getName() + " is already registered as a " + existing.getType() + ".");
+        }
+        return (MetricFamily<T>) existing;
+    }
+
+    /** @return all metric families, sorted by name */
+    public List<MetricFamily<?>> getFamilies() {
+        return new ArrayList<MetricFamily<?>>(families.values());
+    }
+
+    /**
+     * Write all metrics in the Prometheus text exposition format, version 0.0.4.
+     */
+    public void writeTextFormat(final Writer writer) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (final MetricFamily<?> family : families.values()) {
+            final String name = family.getName();
+            sb.append("# HELP ").append(name).append(' ').append(escape(family.getHelp(), false)).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(family.getType().getTextFormatName()).append('\n');
+            for (final Entry<String, ?> entry : family.getMetrics().entrySet()) {
+                final String labels = getLabels(family.getLabelName(), entry.getKey());
+                final Object metric = entry.getValue();
+                switch (family.getType()) {
+                case COUNTER:
+                    appendSample(sb, name, labels, null, ((Counter) metric).get());
+                    break;
+                case GAUGE:
+                    appendSample(sb, name, labels, null, ((Gauge) metric).get());
+                    break;
+                case HISTOGRAM:
+                    final Histogram histogram = (Histogram) metric;
+                    final double[] bounds = histogram.getBounds();
+                    final long[] counts = histogram.getBucketCounts();
+                    long cumulative = 0;
+                    for (int i = 0; i < bounds.length; i++) {
+                        cumulative += counts[i];
+                        appendSample(sb, name + "_bucket", labels, "le=\"" + bounds[i] + "\"", cumulative);
+                    }
+                    cumulative += counts[bounds.length];
+                    appendSample(sb, name + "_bucket", labels, "le=\"+Inf\"", cumulative);
+                    sb.append(name).append("_sum");
+                    appendLabels(sb, labels, null);
+                    sb.append(' ').append(histogram.getSum()).append('\n');
+                    appendSample(sb, name + "_count", labels, null, cumulative);
+                    break;
+                }
+            }
+            writer.write(sb.toString());
+            sb.setLength(0);
+        }
+        writer.flush();
+    }
+
+    private static String getLabels(final String labelName, final String labelValue) {
+        if (labelName == null) {
+            return null;
+        }
+        return labelName + "=\"" + escape(labelValue, true) + "\"";
+    }
+
+    private static void appendSample(final StringBuilder sb, final String name, final String labels, final String extraLabel, final long value) {
+        sb.append(name);
+        appendLabels(sb, labels, extraLabel);
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static void appendLabels(final StringBuilder sb, final String labels, final String extraLabel) {
+        if (labels == null && extraLabel == null) {
+            return;
+        }
+        sb.append('{');
+        if (labels != null) {
+            sb.append(labels);
+            if (extraLabel != null) {
+                sb.append(',');
+            }
+        }
+        if (extraLabel != null) {
+            sb.append(extraLabel);
+        }
+        sb.append('}');
+    }
+
+    /** Escape backslash and new line, and also double quote in label values, as required by the text format. */
+    private static String escape(final String value, final boolean labelValue) {
+        if (value == null) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (final char c : value.toCharArray()) {
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '"' && labelValue) {
+                sb.append("\\\"");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Register the metrics on the platform MBean server. An MBean left behind by an earlier deployment of the application is replaced,
+     * so the registered MBean always shows the metrics of the running deployment.
+     */
+    void registerMBean() {
+        final Logger log = Logger.getLogger(MetricsRegistry.class);
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(JMX_OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(new MetricsDynamicMBean(this), objectName);
+        } catch (Exception e) {
+            // Metrics are still available through the metrics servlet
+            log.warn("Unable to register the metrics MBean " + JMX_OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the metrics from the platform MBean server, which outlives the application. Called when the application stops, so the MBean
+     * does not keep the classes of an undeployed application loaded.
+     */
+    public void unregisterMBean() {
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(JMX_OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            Logger.getLogger(MetricsRegistry.class).warn("Unable to unregister the metrics MBean " + JMX_OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+}
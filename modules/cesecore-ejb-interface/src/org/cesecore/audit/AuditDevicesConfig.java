@@ -206,6 +206,16 @@ public class AuditDevicesConfig {
         return getInt(properties, "export.fetchsize", 1000);
     }
 
+    /** Parameter to specify the max number of nodes whose logs are validated or exported in parallel. */
+    public static int getAuditLogValidationThreads(final Properties properties) {
+        return Math.max(1, getInt(properties, "validate.threads", 4));
+    }
+
+    /** Parameter to specify if a validation only verifies the logs after where the previous validation ended. */
+    public static boolean isAuditLogValidationCheckpointed(final Properties properties) {
+        return Boolean.valueOf(properties.getProperty("validate.checkpoint", "true").trim()).booleanValue();
+    }
+
     private static int getInt(final Properties properties, final String key, final int defaultValue) {
         int ret = defaultValue;
         try {
@@ -0,0 +1,118 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.configuration.ConfigurationBase;
+import org.cesecore.dbprotection.ProtectionStringBuilder;
+
+/**
+ * The point up to which the audit log of one node has been verified. Stored in GlobalConfigurationData, so it gets the same database
+ * integrity protection as the audit log itself.
+ *
+ * The checkpoint holds a hash over all verified log rows, where each row is hashed together with the hash of the rows before it. When
+ * the log is verified again, the rows up to the checkpoint only have to be hashed to see that they have not been changed, and the rows
+ * after it are verified as usual.
+ *
+ * @version $Id$
+ */
+public class AuditLogCheckpoint extends ConfigurationBase {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Prefix of the configuration ID, followed by the node ID */
+    public static final String CONFIGURATION_ID_PREFIX = "AUDITLOGCHECKPOINT:";
+
+    private static final String NODEID = "nodeId";
+    private static final String SEQUENCENUMBER = "sequenceNumber";
+    private static final String TIMESTAMP = "timeStamp";
+    private static final String HASH = "hash";
+
+    public AuditLogCheckpoint() {
+    }
+
+    /**
+     * @param nodeId the node whose logs have been verified
+     * @param sequenceNumber the sequence number of the last verified log
+     * @param timeStamp the time stamp of the last verified log
+     * @param hash the hash of all logs up to and including the last verified one
+     */
+    public AuditLogCheckpoint(final String nodeId, final long sequenceNumber, final long timeStamp, final String hash) {
+        data.put(NODEID, nodeId);
+        data.put(SEQUENCENUMBER, Long.valueOf(sequenceNumber));
+        data.put(TIMESTAMP, Long.valueOf(timeStamp));
+        data.put(HASH, hash);
+    }
+
+    public String getNodeId() {
+        return (String) data.get(NODEID);
+    }
+
+    public long getSequenceNumber() {
+        return ((Long) data.get(SEQUENCENUMBER)).longValue();
+    }
+
+    public long getTimeStamp() {
+        return ((Long) data.get(TIMESTAMP)).longValue();
+    }
+
+    public String getHash() {
+        return (String) data.get(HASH);
+    }
+
+    @Override
+    public void upgrade() {
+        if (Float.compare(LATEST_VERSION, getVersion()) != 0) {
+            data.put(VERSION, Float.valueOf(LATEST_VERSION));
+        }
+    }
+
+    @Override
+    public String getConfigurationId() {
+        return getConfigurationId(getNodeId());
+    }
+
+    /** @return the ID the checkpoint of the given node is stored under */
+    public static String getConfigurationId(final String nodeId) {
+        return CONFIGURATION_ID_PREFIX + nodeId;
+    }
+
+    /**
+     * Hash a log row together with the hash of the rows before it.
+     * @param previousHash the hash of the previous rows, or null for the first row of a node
+     * @param auditRecordData the row
+     * @return the hash of the rows up to and including this one, hex encoded
+     */
+    public static String getHash(final String previousHash, final AuditRecordData auditRecordData) {
+        // The same fields as the database integrity protection, except the row protection itself, which changes if the rows are protected again
+        final ProtectionStringBuilder build = new ProtectionStringBuilder();
+        build.append(previousHash);
+        build.append(auditRecordData.getPk()).append(auditRecordData.getNodeId()).append(auditRecordData.getSequenceNumber())
+                .append(auditRecordData.getTimeStamp());
+        build.append(auditRecordData.getEventType()).append(auditRecordData.getEventStatus()).append(auditRecordData.getAuthToken())
+                .append(auditRecordData.getService()).append(auditRecordData.getModule());
+        build.append(auditRecordData.getCustomId()).append(auditRecordData.getSearchDetail1()).append(auditRecordData.getSearchDetail2())
+                .append(auditRecordData.getAdditionalDetails());
+        try {
+            return Hex.toHexString(MessageDigest.getInstance("SHA-256").digest(build.toString().getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
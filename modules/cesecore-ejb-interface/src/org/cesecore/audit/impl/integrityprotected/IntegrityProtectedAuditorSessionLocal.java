@@ -12,12 +12,16 @@
  *************************************************************************/
 package org.cesecore.audit.impl.integrityprotected;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.Future;
 
 import javax.ejb.Local;
 
 import org.cesecore.audit.Auditable;
+import org.cesecore.audit.audit.AuditExporter;
+import org.cesecore.audit.audit.AuditLogExportReport;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 
@@ -39,4 +43,17 @@ public interface IntegrityProtectedAuditorSessionLocal extends Auditable {
 	 * @throws AuthorizationDeniedException unless token has StandardRules.AUDITLOGEXPORT rights
 	 */
 	int deleteRows(AuthenticationToken token, Date timestamp, Properties properties) throws AuthorizationDeniedException;
+
+	/**
+	 * Asynchronously verify and optionally export the logs of one node, up until the specified time. Used internally to process the nodes
+	 * in parallel on the threads of the container.
+	 * @param auditExporter can be null if no export should take place
+	 * @param useCheckpoint true to only verify the logs after where the previous verification ended, when no export should take place
+	 * @return a report with the problems found and the number of exported logs, or the IOException as the cause of the ExecutionException
+	 */
+	Future<AuditLogExportReport> verifyAndOptionalExportNode(AuditExporter auditExporter, String nodeId, Date timestamp, int fetchSize,
+	        boolean useCheckpoint) throws IOException;
+
+	/** Store the point up to which the logs of a node have been verified. Used internally to store it in a transaction. */
+	void saveAuditLogCheckpoint(AuditLogCheckpoint checkpoint);
 }
@@ -351,6 +351,9 @@ public interface CertificateStoreSession {
      * Method revoking all certificates generated by the specified issuerdn. Sets revocationDate to current time. 
      * Should only be called by when a CA is about to be revoked.
      * 
+     * The certificates are revoked in batches (database.revokeallbatchsize), each batch in a transaction of its own.
+     * If the operation fails half way through, it can be invoked again to revoke the remaining certificates.
+     * 
      * @param admin    the administrator performing the event.
      * @param issuerdn the dn of CA about to be revoked
      * @param reason   the reason of revocation.
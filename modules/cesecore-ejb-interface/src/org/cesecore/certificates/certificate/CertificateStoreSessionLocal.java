@@ -23,6 +23,7 @@ import javax.ejb.Local;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.certificate.request.RequestMessage;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 
 /**
  * Local interface for CertificateStoreSession.
@@ -161,6 +162,19 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      * @see CertificateStoreSessionLocal#updateLimitedCertificateDataStatus(AuthenticationToken, int, String, String, String, BigInteger, int, Date, int, String)
      */
     void updateLimitedCertificateDataStatus(AuthenticationToken admin, int caId, String issuerDn, BigInteger serialNumber, Date revocationDate, int reasonCode, String caFingerprint) throws AuthorizationDeniedException;
+
+    /**
+     * Creates, updates or removes revoked certificate data for many certificates in one transaction, for example for the changed entries of a CRL.
+     * The existing entries are read with one query for each 1000 certificates, and only the entries that are created or changed are written.
+     * 
+     * @param revokedCertInfos the serial numbers, revocation dates and reasons of the certificates. Entries with reason
+     *          RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL are removed.
+     * @return the number of entries that were created, updated or removed
+     * @throws UnsupportedOperationException if one of the certificates has an entry that was not created through this method
+     * @see CertificateStoreSessionLocal#updateLimitedCertificateDataStatus(AuthenticationToken, int, String, String, String, BigInteger, int, Date, int, String)
+     */
+    int updateLimitedCertificateDataStatus(AuthenticationToken admin, int caId, String issuerDn, List<RevokedCertInfo> revokedCertInfos, String caFingerprint)
+            throws AuthorizationDeniedException;
     
     /**
      * Method for populating the CertificateData table with limited information for example from a CRL, so the OCSP responder can answer if a certificate is revoked.
@@ -237,6 +251,14 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      */
     boolean setRevokeStatusNoAuth(AuthenticationToken admin, CertificateData certificateData, Date revokeDate, int reason) throws CertificateRevokeException;
 
+    /**
+     * Update the status of several certs in the database, in one transaction.
+     * @param fingerprints the fingerprints of the certificates
+     * @param status one of CertificateConstants.CERT_...
+     * @return the number of certificates whose status was updated, certificates that did not exist are not counted
+     */
+    int setStatus(AuthenticationToken admin, List<String> fingerprints, int status) throws AuthorizationDeniedException;
+
     /**
      * Changes a certificate from CERT_ROLLOVERPENDING to CERT_ACTIVE. If the certificate status is already CERT_ACTIVE, then it does nothing.
      * @param admin Administrator performing the operation
@@ -244,4 +266,15 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      * @throws AuthorizationDeniedException
      */
     void setRolloverDoneStatus(AuthenticationToken admin, String fingerprint) throws AuthorizationDeniedException;
+
+    /**
+     * Revokes the given certificates in a new transaction, without checking authorization. Certificates that are already revoked are left as
+     * they are. Used by {@link #revokeAllCertByCA(AuthenticationToken, String, int)} to keep transactions bounded.
+     * 
+     * @param fingerprints the fingerprints of the certificates to revoke
+     * @param revocationDate the revocation date to set, in epoch milliseconds
+     * @param reason the revocation reason, one of the RevokedCertInfo.REVOCATION_REASON_ constants
+     * @return the number of certificates that were revoked
+     */
+    int revokeCertificatesNoAuth(List<String> fingerprints, long revocationDate, int reason);
 }
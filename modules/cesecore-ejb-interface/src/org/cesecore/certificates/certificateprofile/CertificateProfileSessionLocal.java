@@ -27,5 +27,19 @@ public interface CertificateProfileSessionLocal extends CertificateProfileSessio
      * @return a collection of all existing certificate profiles.
      */
     Map<Integer, CertificateProfile> getAllCertificateProfiles();
+
+    /** WARNING: This method must only be used when doing read_only operation on the profile. Otherwise
+     * any changes to the profile will affect the profile in the cache and thus affect all other threads.
+     * 
+     * Use the normal getCertificateProfile for all edit operations, followed by a changeCertificateProfile if you want to persist your changes and make 
+     * them visible for other threads.
+     * 
+     * This method exists only for speed purposes since a clone() done by the proper getCertificateProfile method is slightly expensive. 
+     * The returned profile is compiled, see {@link CertificateProfile#compile()}.
+     * 
+     * Finds a certificate profile by id.
+     * @return CertificateProfile (shared in cache) or null if it does not exist
+     */
+    CertificateProfile getCertificateProfileNoClone(int id);
     
 }
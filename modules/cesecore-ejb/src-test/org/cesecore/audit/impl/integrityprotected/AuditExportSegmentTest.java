@@ -0,0 +1,95 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cesecore.audit.audit.AuditExporter;
+import org.cesecore.audit.impl.AuditExportCsv;
+import org.cesecore.audit.impl.AuditExporterXml;
+import org.junit.Test;
+
+/**
+ * Tests that exporting the audit log of several nodes through segments gives the same export as exporting the nodes one after another.
+ *
+ * @version $Id$
+ */
+public class AuditExportSegmentTest {
+
+    private static final List<String> NODE_IDS = Arrays.asList("node1", "node2", "node3");
+    private static final int LOGS_PER_NODE = 1000;
+
+    private static void writeLogs(final AuditExporter auditExporter, final String nodeId) throws Exception {
+        final char[] largeDetails = new char[100000];
+        Arrays.fill(largeDetails, '\u00e5');
+        for (int i = 0; i < LOGS_PER_NODE; i++) {
+            auditExporter.writeStartObject();
+            auditExporter.writeField("pk", nodeId + "-" + i);
+            auditExporter.writeField("nodeId", nodeId);
+            auditExporter.writeField("sequenceNumber", i);
+            auditExporter.writeField("timestamp", 1400000000000L + i);
+            auditExporter.writeField("customId", i % 2 == 0 ? null : "custom" + i);
+            auditExporter.writeField("additionalDetails", i == 10 ? new String(largeDetails) : "details " + i);
+            auditExporter.writeEndObject();
+        }
+    }
+
+    private static byte[] exportSerially(final AuditExporter auditExporter) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        auditExporter.setOutputStream(out);
+        for (final String nodeId : NODE_IDS) {
+            writeLogs(auditExporter, nodeId);
+        }
+        auditExporter.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] exportWithSegments(final AuditExporter auditExporter) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        auditExporter.setOutputStream(out);
+        // The first node is written directly, and the others to segments as if they were processed at the same time
+        final List<AuditExportSegment> segments = new ArrayList<AuditExportSegment>();
+        for (int i = 1; i < NODE_IDS.size(); i++) {
+            final AuditExportSegment segment = new AuditExportSegment();
+            writeLogs(segment, NODE_IDS.get(i));
+            segments.add(segment);
+        }
+        writeLogs(auditExporter, NODE_IDS.get(0));
+        for (final AuditExportSegment segment : segments) {
+            segment.replay(auditExporter);
+            segment.delete();
+        }
+        auditExporter.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testXmlExportIsIdentical() throws Exception {
+        final byte[] expected = exportSerially(new AuditExporterXml());
+        assertTrue(expected.length > 0);
+        assertArrayEquals("Export through segments differs.", expected, exportWithSegments(new AuditExporterXml()));
+    }
+
+    @Test
+    public void testCsvExportIsIdentical() throws Exception {
+        final byte[] expected = exportSerially(new AuditExportCsv());
+        assertTrue(expected.length > 0);
+        assertArrayEquals("Export through segments differs.", expected, exportWithSegments(new AuditExportCsv()));
+    }
+}
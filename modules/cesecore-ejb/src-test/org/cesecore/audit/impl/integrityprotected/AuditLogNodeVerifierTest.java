@@ -0,0 +1,231 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.cesecore.audit.audit.AuditLogExportReport;
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.cesecore.audit.impl.AuditExporterDummy;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.junit.Test;
+
+/**
+ * Tests verifying the audit log of a node from a checkpoint, with the log in memory.
+ *
+ * @version $Id$
+ */
+public class AuditLogNodeVerifierTest {
+
+    private static final String NODEID = "node1";
+    private static final int FETCH_SIZE = 10;
+
+    /** The log of a node, where rows can be changed so that their database integrity protection fails */
+    private static class LogRows implements AuditLogNodeVerifier.Rows {
+        private final List<AuditRecordData> auditRecordDatas = new ArrayList<AuditRecordData>();
+        private final Set<String> failingRows = new HashSet<String>();
+        /** The number of rows whose database integrity protection has been verified */
+        private int verifiedRows = 0;
+
+        void add(final int count) {
+            for (int i = 0; i < count; i++) {
+                addWithSequenceNumber(auditRecordDatas.size());
+            }
+        }
+
+        /** Add a row with the given sequence number, which might already be used by another row */
+        void addWithSequenceNumber(final long sequenceNumber) {
+            auditRecordDatas.add(new AuditRecordData(NODEID, Long.valueOf(sequenceNumber), Long.valueOf(1400000000000L + sequenceNumber),
+                    EventTypes.ACCESS_CONTROL, EventStatus.SUCCESS, "CN=Admin", ServiceTypes.CORE, ModuleTypes.SECURITY_AUDIT, null, null,
+                    null, null));
+        }
+
+        /** Change a row, and make its database integrity protection fail */
+        void tamper(final int index) {
+            auditRecordDatas.get(index).setAuthToken("CN=Someone else");
+            failingRows.add(auditRecordDatas.get(index).getPk());
+        }
+
+        @Override
+        public List<AuditRecordData> getRows(final long afterSequenceNumber, final String afterPk, final int max) throws DatabaseProtectionException {
+            final List<AuditRecordData> ret = new ArrayList<AuditRecordData>();
+            for (final AuditRecordData auditRecordData : getRowsAfter(afterSequenceNumber, afterPk)) {
+                if (ret.size() < max) {
+                    verifiedRows++;
+                    if (failingRows.contains(auditRecordData.getPk())) {
+                        throw new DatabaseProtectionException("Row protection failed", auditRecordData);
+                    }
+                    ret.add(auditRecordData);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public List<AuditRecordData> getUnverifiedRows(final long afterSequenceNumber, final String afterPk, final long lastSequenceNumber,
+                final int max) {
+            final List<AuditRecordData> ret = new ArrayList<AuditRecordData>();
+            for (final AuditRecordData auditRecordData : getRowsAfter(afterSequenceNumber, afterPk)) {
+                if (auditRecordData.getSequenceNumber().longValue() <= lastSequenceNumber && ret.size() < max) {
+                    ret.add(auditRecordData);
+                }
+            }
+            return ret;
+        }
+
+        /** @return the rows after the given one in sequence number and primary key order, like the database reads them */
+        private List<AuditRecordData> getRowsAfter(final long afterSequenceNumber, final String afterPk) {
+            final List<AuditRecordData> sorted = new ArrayList<AuditRecordData>(auditRecordDatas);
+            Collections.sort(sorted, new Comparator<AuditRecordData>() {
+                @Override
+                public int compare(final AuditRecordData o1, final AuditRecordData o2) {
+                    final int ret = o1.getSequenceNumber().compareTo(o2.getSequenceNumber());
+                    return ret != 0 ? ret : o1.getPk().compareTo(o2.getPk());
+                }
+            });
+            final List<AuditRecordData> ret = new ArrayList<AuditRecordData>();
+            for (final AuditRecordData auditRecordData : sorted) {
+                final long sequenceNumber = auditRecordData.getSequenceNumber().longValue();
+                if (sequenceNumber > afterSequenceNumber
+                        || (sequenceNumber == afterSequenceNumber && afterPk != null && auditRecordData.getPk().compareTo(afterPk) > 0)) {
+                    ret.add(auditRecordData);
+                }
+            }
+            return ret;
+        }
+    }
+
+    /** Verify the log from a checkpoint, and check that the rows before the checkpoint were not verified again. */
+    private static AuditLogCheckpoint verify(final LogRows logRows, final AuditLogCheckpoint previousCheckpoint, final int expectedVerifiedRows)
+            throws Exception {
+        logRows.verifiedRows = 0;
+        final AuditLogNodeVerifier auditLogNodeVerifier = new AuditLogNodeVerifier(logRows, NODEID, FETCH_SIZE);
+        final AuditLogExportReport report = auditLogNodeVerifier.verifyFromCheckpoint(previousCheckpoint);
+        assertTrue(report.errors().isEmpty());
+        assertTrue(report.warnings().isEmpty());
+        assertEquals(expectedVerifiedRows, logRows.verifiedRows);
+        return auditLogNodeVerifier.getCheckpoint();
+    }
+
+    @Test
+    public void testOnlyNewRowsAreVerified() throws Exception {
+        final LogRows logRows = new LogRows();
+        logRows.add(95);
+        final AuditLogCheckpoint checkpoint = verify(logRows, null, 95);
+        assertNotNull(checkpoint);
+        assertEquals(94, checkpoint.getSequenceNumber());
+        assertEquals(1400000000094L, checkpoint.getTimeStamp());
+        // An unchanged log is not verified again
+        assertSame(checkpoint, verify(logRows, checkpoint, 0));
+        logRows.add(7);
+        final AuditLogCheckpoint nextCheckpoint = verify(logRows, checkpoint, 7);
+        assertEquals(101, nextCheckpoint.getSequenceNumber());
+        // The same as if all rows were verified at once
+        assertEquals(verify(logRows, null, 102).getHash(), nextCheckpoint.getHash());
+    }
+
+    @Test
+    public void testTamperingBeforeCheckpointIsDetected() throws Exception {
+        final LogRows logRows = new LogRows();
+        logRows.add(50);
+        final AuditLogCheckpoint checkpoint = verify(logRows, null, 50);
+        logRows.add(10);
+        // A row is changed without changing its database integrity protection, which is not verified before the checkpoint
+        logRows.auditRecordDatas.get(20).setAdditionalDetails("changed");
+        final AuditLogNodeVerifier auditLogNodeVerifier = new AuditLogNodeVerifier(logRows, NODEID, FETCH_SIZE);
+        final AuditLogExportReport report = auditLogNodeVerifier.verifyFromCheckpoint(checkpoint);
+        assertEquals(1, report.errors().size());
+        assertEquals(Long.valueOf(49), report.errors().get(0).getSecond());
+        assertNull("The changed log should not get a checkpoint.", auditLogNodeVerifier.getCheckpoint());
+    }
+
+    @Test
+    public void testTamperingAfterCheckpointIsDetected() throws Exception {
+        final LogRows logRows = new LogRows();
+        logRows.add(50);
+        final AuditLogCheckpoint checkpoint = verify(logRows, null, 50);
+        logRows.add(10);
+        logRows.tamper(55);
+        final AuditLogNodeVerifier auditLogNodeVerifier = new AuditLogNodeVerifier(logRows, NODEID, FETCH_SIZE);
+        final AuditLogExportReport report = auditLogNodeVerifier.verifyFromCheckpoint(checkpoint);
+        assertEquals(1, report.warnings().size());
+        assertEquals(Long.valueOf(55), report.warnings().get(0).getSecond());
+        assertNull("The changed log should not get a checkpoint.", auditLogNodeVerifier.getCheckpoint());
+        // A missing row is detected as well
+        logRows.failingRows.clear();
+        logRows.auditRecordDatas.remove(57);
+        final AuditLogNodeVerifier auditLogNodeVerifier2 = new AuditLogNodeVerifier(logRows, NODEID, FETCH_SIZE);
+        assertEquals(1, auditLogNodeVerifier2.verifyFromCheckpoint(checkpoint).warnings().size());
+        assertNull(auditLogNodeVerifier2.getCheckpoint());
+    }
+
+    @Test
+    public void testDuplicateSequenceNumberIsReported() throws Exception {
+        final LogRows logRows = new LogRows();
+        logRows.add(25);
+        // The two rows with sequence number 9 are read in different batches
+        logRows.addWithSequenceNumber(9);
+        final AuditLogNodeVerifier auditLogNodeVerifier = new AuditLogNodeVerifier(logRows, NODEID, FETCH_SIZE);
+        final AuditLogExportReport report = auditLogNodeVerifier.verifyFromCheckpoint(null);
+        assertEquals(1, report.errors().size());
+        assertEquals(Long.valueOf(9), report.errors().get(0).getSecond());
+        assertTrue(report.warnings().isEmpty());
+        assertEquals("All rows should be verified.", 26, logRows.verifiedRows);
+        assertNull("The log with a duplicate should not get a checkpoint.", auditLogNodeVerifier.getCheckpoint());
+    }
+
+    @Test
+    public void testDuplicateSequenceNumberIsReportedWhenVerifyingRowByRow() throws Exception {
+        final LogRows logRows = new LogRows();
+        logRows.add(25);
+        logRows.addWithSequenceNumber(15);
+        logRows.addWithSequenceNumber(15);
+        // The failing row makes the rows of its batch verified one at a time
+        logRows.tamper(13);
+        final AuditLogExportReport report = new AuditLogNodeVerifier(logRows, NODEID, FETCH_SIZE).verifyAndOptionalExport(new AuditExporterDummy());
+        assertEquals(2, report.errors().size());
+        assertEquals(Long.valueOf(15), report.errors().get(0).getSecond());
+        assertEquals(Long.valueOf(15), report.errors().get(1).getSecond());
+        assertEquals(1, report.warnings().size());
+        assertEquals(Long.valueOf(13), report.warnings().get(0).getSecond());
+        assertEquals("All rows should be exported.", 27, report.getExportCount());
+    }
+
+    @Test
+    public void testDuplicateBeforeCheckpointIsDetected() throws Exception {
+        final LogRows logRows = new LogRows();
+        logRows.add(30);
+        final AuditLogCheckpoint checkpoint = verify(logRows, null, 30);
+        // A row is added with the sequence number of the checkpoint
+        logRows.addWithSequenceNumber(29);
+        final AuditLogNodeVerifier auditLogNodeVerifier = new AuditLogNodeVerifier(logRows, NODEID, FETCH_SIZE);
+        final AuditLogExportReport report = auditLogNodeVerifier.verifyFromCheckpoint(checkpoint);
+        assertEquals(2, report.errors().size());
+        assertEquals(Long.valueOf(29), report.errors().get(1).getSecond());
+        assertNull(auditLogNodeVerifier.getCheckpoint());
+    }
+}
@@ -0,0 +1,252 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.jce.X509KeyUsage;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.ca.catoken.CAToken;
+import org.cesecore.certificates.ca.catoken.CATokenConstants;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.certificate.certextensions.AvailableCustomCertificateExtensionsConfiguration;
+import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.endentity.EndEntityConstants;
+import org.cesecore.certificates.endentity.EndEntityInformation;
+import org.cesecore.certificates.endentity.EndEntityType;
+import org.cesecore.certificates.endentity.EndEntityTypes;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.keybind.InternalKeyBinding;
+import org.cesecore.keybind.InternalKeyBindingDataSessionLocal;
+import org.cesecore.keybind.InternalKeyBindingStatus;
+import org.cesecore.keybind.impl.OcspKeyBinding;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.token.CryptoTokenSessionLocal;
+import org.cesecore.keys.token.SoftCryptoToken;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that reloading the OCSP signing cache only creates the entries of CAs and key bindings that have changed, using mocked sessions.
+ *
+ * @version $Id$
+ */
+public class OcspSigningCacheLoaderTest {
+
+    private static final String CA1_DN = "CN=OcspSigningCacheLoaderTest CA1";
+    private static final String CA2_DN = "CN=OcspSigningCacheLoaderTest CA2";
+    private static final String OCSP_KEY_ALIAS = "ocspSignKey";
+    private static final int KEY_BINDING_ID = 4711;
+
+    private static CryptoToken cryptoToken1;
+    private static CryptoToken cryptoToken2;
+    private static X509CA ca1;
+    private static X509CA ca2;
+    private static X509Certificate ocspSigningCertificate;
+
+    private final CaSessionLocal caSession = EasyMock.createMock(CaSessionLocal.class);
+    private final CertificateStoreSessionLocal certificateStoreSession = EasyMock.createMock(CertificateStoreSessionLocal.class);
+    private final CryptoTokenSessionLocal cryptoTokenSession = EasyMock.createMock(CryptoTokenSessionLocal.class);
+    private final InternalKeyBindingDataSessionLocal internalKeyBindingDataSession = EasyMock.createMock(InternalKeyBindingDataSessionLocal.class);
+    private final Map<String, OcspSigningCacheLoader.LoadedEntry> loadedEntries = new HashMap<String, OcspSigningCacheLoader.LoadedEntry>();
+    /** The current objects, as the caches would return them */
+    private CAInfo caInfo1;
+    private CAInfo caInfo2;
+    private OcspKeyBinding ocspKeyBinding;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        cryptoToken1 = createCryptoToken(1);
+        cryptoToken2 = createCryptoToken(2);
+        ca1 = createCa(cryptoToken1, CA1_DN);
+        ca2 = createCa(cryptoToken2, CA2_DN);
+        // An OCSP signing certificate issued by CA1, with its key in the same crypto token
+        cryptoToken1.generateKeyPair("1024", OCSP_KEY_ALIAS);
+        final CertificateProfile certificateProfile = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_OCSPSIGNER);
+        certificateProfile.setUseExtendedKeyUsage(true);
+        certificateProfile.setExtendedKeyUsage(new ArrayList<String>(Arrays.asList(KeyPurposeId.id_kp_OCSPSigning.getId())));
+        final EndEntityInformation endEntity = new EndEntityInformation("ocspSigner", "CN=OcspSigningCacheLoaderTest Signer", ca1.getCAId(), null,
+                null, new EndEntityType(EndEntityTypes.ENDUSER), 0, 0, EndEntityConstants.TOKEN_USERGEN, 0, null);
+        ocspSigningCertificate = (X509Certificate) ca1.generateCertificate(cryptoToken1, endEntity, cryptoToken1.getPublicKey(OCSP_KEY_ALIAS),
+                X509KeyUsage.digitalSignature, null, 10L, certificateProfile, null, new AvailableCustomCertificateExtensionsConfiguration());
+    }
+
+    private static CryptoToken createCryptoToken(final int cryptoTokenId) throws Exception {
+        final Properties cryptoTokenProperties = new Properties();
+        cryptoTokenProperties.setProperty(CryptoToken.AUTOACTIVATE_PIN_PROPERTY, "foo1234");
+        return CryptoTokenFactory.createCryptoToken(SoftCryptoToken.class.getName(), cryptoTokenProperties, null, cryptoTokenId,
+                "OcspSigningCacheLoaderTest" + cryptoTokenId);
+    }
+
+    private static X509CA createCa(final CryptoToken cryptoToken, final String caDn) throws Exception {
+        cryptoToken.generateKeyPair("1024", CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final Properties caTokenProperties = new Properties();
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_CERTSIGN_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_CRLSIGN_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_DEFAULT_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final CAToken caToken = new CAToken(cryptoToken.getId(), caTokenProperties);
+        caToken.setSignatureAlgorithm("SHA256WithRSA");
+        final X509CA ca = new X509CA(createCaInfo(caDn, caToken, null));
+        ca.setCAToken(caToken);
+        final PublicKey publicKey = cryptoToken.getPublicKey(CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final PrivateKey privateKey = cryptoToken.getPrivateKey(CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final Collection<Certificate> caCertificateChain = new ArrayList<Certificate>();
+        caCertificateChain.add(CertTools.genSelfCert(caDn, 10L, null, privateKey, publicKey, "SHA256WithRSA", true));
+        ca.setCertificateChain(caCertificateChain);
+        return ca;
+    }
+
+    /** @return a new CAInfo object for the same CA, like the one the CA cache creates when the CA has been changed */
+    private static X509CAInfo createCaInfo(final String caDn, final CAToken caToken, final Collection<Certificate> caCertificateChain) {
+        final X509CAInfo caInfo = new X509CAInfo(caDn, caDn, CAConstants.CA_ACTIVE, CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA, 3650,
+                CAInfo.SELFSIGNED, null, caToken);
+        caInfo.setCAId(getCaId(caDn));
+        if (caCertificateChain != null) {
+            caInfo.setCertificateChain(caCertificateChain);
+        }
+        return caInfo;
+    }
+
+    private static CAInfo createCaInfo(final X509CA ca) {
+        return createCaInfo(ca.getSubjectDN(), ca.getCAToken(), ca.getCertificateChain());
+    }
+
+    private static int getCaId(final String caDn) {
+        return CertTools.stringToBCDNString(caDn).hashCode();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        caInfo1 = createCaInfo(ca1);
+        caInfo2 = createCaInfo(ca2);
+        ocspKeyBinding = createOcspKeyBinding();
+        replaySessions();
+    }
+
+    private static OcspKeyBinding createOcspKeyBinding() {
+        final OcspKeyBinding ocspKeyBinding = new OcspKeyBinding();
+        ocspKeyBinding.init(KEY_BINDING_ID, "OcspSigningCacheLoaderTest", InternalKeyBindingStatus.ACTIVE,
+                CertTools.getFingerprintAsString(ocspSigningCertificate), cryptoToken1.getId(), OCSP_KEY_ALIAS, new LinkedHashMap<Object, Object>());
+        return ocspKeyBinding;
+    }
+
+    /** Make the mocked sessions return the current objects, which the tests replace to simulate changes in the database */
+    private void replaySessions() throws Exception {
+        EasyMock.expect(caSession.getAllCaIds()).andStubReturn(Arrays.asList(Integer.valueOf(getCaId(CA1_DN)), Integer.valueOf(getCaId(CA2_DN))));
+        EasyMock.expect(caSession.getCAInfoInternal(getCaId(CA1_DN))).andStubAnswer(new IAnswer<CAInfo>() {
+            @Override
+            public CAInfo answer() {
+                return caInfo1;
+            }
+        });
+        EasyMock.expect(caSession.getCAInfoInternal(getCaId(CA2_DN))).andStubAnswer(new IAnswer<CAInfo>() {
+            @Override
+            public CAInfo answer() {
+                return caInfo2;
+            }
+        });
+        EasyMock.expect(cryptoTokenSession.getCryptoToken(cryptoToken1.getId())).andStubReturn(cryptoToken1);
+        EasyMock.expect(cryptoTokenSession.getCryptoToken(cryptoToken2.getId())).andStubReturn(cryptoToken2);
+        EasyMock.expect(certificateStoreSession.getStatus(EasyMock.isA(String.class), EasyMock.isA(BigInteger.class))).andStubReturn(CertificateStatus.OK);
+        EasyMock.expect(certificateStoreSession.findCertificateByFingerprint(CertTools.getFingerprintAsString(ocspSigningCertificate)))
+                .andStubReturn(ocspSigningCertificate);
+        EasyMock.expect(certificateStoreSession.findLatestX509CertificateBySubject(CertTools.stringToBCDNString(CA1_DN))).andStubReturn(
+                (X509Certificate) ca1.getCACertificate());
+        EasyMock.expect(internalKeyBindingDataSession.getIds(OcspKeyBinding.IMPLEMENTATION_ALIAS)).andStubReturn(
+                Arrays.asList(Integer.valueOf(KEY_BINDING_ID)));
+        EasyMock.expect(internalKeyBindingDataSession.getInternalKeyBinding(KEY_BINDING_ID)).andStubAnswer(new IAnswer<InternalKeyBinding>() {
+            @Override
+            public InternalKeyBinding answer() {
+                return ocspKeyBinding;
+            }
+        });
+        EasyMock.replay(caSession, certificateStoreSession, cryptoTokenSession, internalKeyBindingDataSession);
+    }
+
+    private List<OcspSigningCacheEntry> load(final OcspSigningCacheLoader loader, final int expectedCreatedEntries) throws Exception {
+        final List<OcspSigningCacheEntry> entries = loader.loadEntries(loadedEntries);
+        assertEquals("Unexpected number of entries.", 3, entries.size());
+        assertEquals("Unexpected number of created entries.", expectedCreatedEntries, loader.getCreatedEntries());
+        return entries;
+    }
+
+    @Test
+    public void testUnchangedEntriesAreReused() throws Exception {
+        final OcspSigningCacheLoader loader = new OcspSigningCacheLoader(caSession, certificateStoreSession, cryptoTokenSession,
+                internalKeyBindingDataSession);
+        final List<OcspSigningCacheEntry> first = load(loader, 3);
+        // CA entries first, and the key binding that overrides CA1 last
+        assertNotNull("The key binding entry should have a signing certificate.", first.get(2).getOcspSigningCertificate());
+        assertEquals(ocspSigningCertificate, first.get(2).getOcspSigningCertificate());
+        final List<OcspSigningCacheEntry> second = load(loader, 0);
+        for (int i = 0; i < first.size(); i++) {
+            assertSame("Entry " + i + " has not changed and should have been reused.", first.get(i), second.get(i));
+        }
+    }
+
+    @Test
+    public void testOnlyChangedEntriesAreCreated() throws Exception {
+        final OcspSigningCacheLoader loader = new OcspSigningCacheLoader(caSession, certificateStoreSession, cryptoTokenSession,
+                internalKeyBindingDataSession);
+        final List<OcspSigningCacheEntry> first = load(loader, 3);
+        // CA2 changed in the database
+        caInfo2 = createCaInfo(ca2);
+        final List<OcspSigningCacheEntry> second = load(loader, 1);
+        assertSame(first.get(0), second.get(0));
+        assertNotSame("The entry of the changed CA should have been created again.", first.get(1), second.get(1));
+        assertSame(first.get(2), second.get(2));
+        // The key binding changed in the database
+        ocspKeyBinding = createOcspKeyBinding();
+        final List<OcspSigningCacheEntry> third = load(loader, 1);
+        assertSame(second.get(0), third.get(0));
+        assertSame(second.get(1), third.get(1));
+        assertNotSame("The entry of the changed key binding should have been created again.", second.get(2), third.get(2));
+        // CA1, which issued the key binding's certificate, changed in the database
+        caInfo1 = createCaInfo(ca1);
+        final List<OcspSigningCacheEntry> fourth = load(loader, 2);
+        assertNotSame(third.get(0), fourth.get(0));
+        assertSame(third.get(1), fourth.get(1));
+        assertNotSame("The key binding entry should have been created again when its issuer changed.", third.get(2), fourth.get(2));
+    }
+}
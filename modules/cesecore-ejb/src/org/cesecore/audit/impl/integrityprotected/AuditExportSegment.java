@@ -0,0 +1,184 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.cesecore.audit.audit.AuditExporter;
+
+/**
+ * An AuditExporter that records the calls made to it in a temporary file, so that they can be replayed to the real exporter later.
+ *
+ * Used to export the audit log of several nodes in parallel: each node is recorded in its own segment, and the segments are then
+ * replayed in order to the exporter that writes the signed export file. The exporter gets exactly the same calls as if the nodes
+ * had been exported one after another, so the export file is the same, whatever format the exporter writes.
+ *
+ * @version $Id$
+ */
+public class AuditExportSegment implements AuditExporter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int START_OBJECT_LABEL = 1;
+    private static final int END_OBJECT_LABEL = 2;
+    private static final int START_OBJECT = 3;
+    private static final int LONG_FIELD = 4;
+    private static final int STRING_FIELD = 5;
+    private static final int NULL_STRING_FIELD = 6;
+    private static final int END_OBJECT = 7;
+
+    private final File file;
+    private DataOutputStream out;
+
+    /** Create a segment in a new temporary file, which is deleted by {@link #delete()} */
+    public AuditExportSegment() throws IOException {
+        file = File.createTempFile("cesecore-auditexport", ".segment");
+        file.deleteOnExit();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+    }
+
+    /** Not supported, the segment always writes to its temporary file. */
+    @Override
+    public void setOutputStream(final OutputStream outputStream) throws IOException {
+        throw new UnsupportedOperationException("An export segment writes to its own file.");
+    }
+
+    @Override
+    public void startObjectLabel(final String label) throws IOException {
+        out.writeByte(START_OBJECT_LABEL);
+        writeString(label);
+    }
+
+    @Override
+    public void endObjectLabel() throws IOException {
+        out.writeByte(END_OBJECT_LABEL);
+    }
+
+    @Override
+    public void writeStartObject() throws IOException {
+        out.writeByte(START_OBJECT);
+    }
+
+    @Override
+    public void writeField(final String key, final long value) throws IOException {
+        out.writeByte(LONG_FIELD);
+        writeString(key);
+        out.writeLong(value);
+    }
+
+    @Override
+    public void writeField(final String key, final String value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_STRING_FIELD);
+            writeString(key);
+        } else {
+            out.writeByte(STRING_FIELD);
+            writeString(key);
+            writeString(value);
+        }
+    }
+
+    @Override
+    public void writeEndObject() throws IOException {
+        out.writeByte(END_OBJECT);
+    }
+
+    /** Finish writing the segment. Called before {@link #replay(AuditExporter)}. */
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /** DataOutputStream.writeUTF is limited to 64 KiB, which the additional details of a log entry may exceed */
+    private void writeString(final String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Make the recorded calls to another exporter.
+     *
+     * @param auditExporter the exporter to write to
+     */
+    public void replay(final AuditExporter auditExporter) throws IOException {
+        close();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            while (true) {
+                final int operation;
+                try {
+                    operation = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                switch (operation) {
+                case START_OBJECT_LABEL:
+                    auditExporter.startObjectLabel(readString(in));
+                    break;
+                case END_OBJECT_LABEL:
+                    auditExporter.endObjectLabel();
+                    break;
+                case START_OBJECT:
+                    auditExporter.writeStartObject();
+                    break;
+                case LONG_FIELD:
+                    auditExporter.writeField(readString(in), in.readLong());
+                    break;
+                case STRING_FIELD:
+                    auditExporter.writeField(readString(in), readString(in));
+                    break;
+                case NULL_STRING_FIELD:
+                    auditExporter.writeField(readString(in), (String) null);
+                    break;
+                case END_OBJECT:
+                    auditExporter.writeEndObject();
+                    break;
+                default:
+                    throw new IOException("Corrupt audit log export segment " + file.getAbsolutePath());
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Delete the temporary file */
+    public void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            // The file is deleted anyway
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,266 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.cesecore.audit.audit.AuditExporter;
+import org.cesecore.audit.audit.AuditLogExportReport;
+import org.cesecore.audit.audit.AuditLogReportElem;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+
+/**
+ * Verifies and optionally exports the audit log of one node, optionally starting from a checkpoint where an earlier verification ended.
+ *
+ * @version $Id$
+ */
+public class AuditLogNodeVerifier {
+
+    private static final Logger log = Logger.getLogger(AuditLogNodeVerifier.class);
+
+    /**
+     * Reads the log rows of the node, in sequence number and then primary key order. Rows are read after a given row, so that rows that
+     * share a sequence number are neither skipped nor read twice.
+     */
+    public interface Rows {
+        /**
+         * @param afterSequenceNumber read rows with a sequence number after this one
+         * @param afterPk also read rows with the sequence number afterSequenceNumber and a primary key after this one, or null to read none
+         * @param max the max number of rows to read
+         * @return rows up until the time of the verification, with verified database integrity protection
+         * @throws DatabaseProtectionException if the integrity verification fails for one of the rows
+         */
+        List<AuditRecordData> getRows(long afterSequenceNumber, String afterPk, int max) throws DatabaseProtectionException;
+
+        /**
+         * @param afterSequenceNumber read rows with a sequence number after this one
+         * @param afterPk also read rows with the sequence number afterSequenceNumber and a primary key after this one, or null to read none
+         * @param lastSequenceNumber read rows with a sequence number up to and including this one
+         * @param max the max number of rows to read
+         * @return rows without verifying their database integrity protection
+         */
+        List<AuditRecordData> getUnverifiedRows(long afterSequenceNumber, String afterPk, long lastSequenceNumber, int max);
+    }
+
+    private final Rows rows;
+    private final String nodeId;
+    private final int fetchSize;
+    private AuditLogCheckpoint checkpoint = null;
+
+    /**
+     * @param rows the log rows of the node
+     * @param nodeId the node
+     * @param fetchSize the number of rows read at a time
+     */
+    public AuditLogNodeVerifier(final Rows rows, final String nodeId, final int fetchSize) {
+        this.rows = rows;
+        this.nodeId = nodeId;
+        this.fetchSize = fetchSize;
+    }
+
+    /** @return a checkpoint at the last row verified by {@link #verifyFromCheckpoint(AuditLogCheckpoint)}, or null if problems were found */
+    public AuditLogCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Verify and optionally export all the logs of the node.
+     * @param auditExporter can be null if no export should take place
+     * @return a report with the problems found and the number of exported logs
+     */
+    public AuditLogExportReport verifyAndOptionalExport(final AuditExporter auditExporter) throws IOException {
+        final AuditLogExportReport report = new AuditLogExportReport();
+        verifyAndOptionalExport(auditExporter, report, new Holder(-1L, null, false));
+        return report;
+    }
+
+    /**
+     * Verify the logs of the node after a checkpoint. The logs up to the checkpoint are only checked against the hash in the checkpoint, and
+     * if they have been changed, all logs are verified.
+     * Afterwards {@link #getCheckpoint()} returns a checkpoint at the last verified log if no problems were found.
+     * @param previousCheckpoint where the previous verification ended, or null to verify all logs
+     * @return a report with the problems found
+     */
+    public AuditLogExportReport verifyFromCheckpoint(final AuditLogCheckpoint previousCheckpoint) throws IOException {
+        final AuditLogExportReport report = new AuditLogExportReport();
+        long lastSeqNumber = -1L;
+        String hash = null;
+        if (previousCheckpoint != null) {
+            if (getHash(previousCheckpoint.getSequenceNumber()).equals(previousCheckpoint.getHash())) {
+                lastSeqNumber = previousCheckpoint.getSequenceNumber();
+                hash = previousCheckpoint.getHash();
+            } else {
+                log.error("The audit log of node " + nodeId + " has been changed before the checkpoint at sequence number "
+                        + previousCheckpoint.getSequenceNumber() + ".");
+                report.error(new AuditLogReportElem(Long.valueOf(-1L), Long.valueOf(previousCheckpoint.getSequenceNumber()),
+                        "log up to sequence number " + previousCheckpoint.getSequenceNumber() + " on nodeId " + nodeId
+                                + " has been changed after it was verified"));
+            }
+        }
+        final Holder state = new Holder(lastSeqNumber, hash, true);
+        verifyAndOptionalExport(null, report, state);
+        if (report.errors().isEmpty() && report.warnings().isEmpty()) {
+            if (state.lastRow != null) {
+                checkpoint = new AuditLogCheckpoint(nodeId, state.lastSeqNumber, state.lastRow.getTimeStamp().longValue(), state.hash);
+            } else {
+                // Nothing new since the last verification
+                checkpoint = previousCheckpoint;
+            }
+        }
+        return report;
+    }
+
+    /** @return the hash of the rows up to and including the given sequence number */
+    private String getHash(final long lastSequenceNumber) {
+        String hash = null;
+        long afterSequenceNumber = -1L;
+        String afterPk = null;
+        while (true) {
+            final List<AuditRecordData> result = rows.getUnverifiedRows(afterSequenceNumber, afterPk, lastSequenceNumber, fetchSize);
+            if (result.isEmpty()) {
+                return String.valueOf(hash);
+            }
+            for (final AuditRecordData auditRecordData : result) {
+                hash = AuditLogCheckpoint.getHash(hash, auditRecordData);
+            }
+            afterSequenceNumber = result.get(result.size() - 1).getSequenceNumber().longValue();
+            afterPk = result.get(result.size() - 1).getPk();
+        }
+    }
+
+    /** Verify and optionally export the rows after the last processed one, and add the problems found to the report. */
+    private void verifyAndOptionalExport(final AuditExporter auditExporter, final AuditLogExportReport report, final Holder state) throws IOException {
+        if (log.isDebugEnabled()) {
+            log.debug("exportAuditLogs for nodeId " + nodeId + " after sequence number " + state.lastSeqNumber);
+        }
+        // The batches are read after the last row of the previous batch, so that each batch is read from the index
+        // instead of scanning past all previous rows
+        while (true) {
+            try {
+                final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(fetchSize, report, state);
+                if (queryResult.isEmpty()) {
+                    break;	// No more data for this node
+                }
+                if (auditExporter!=null) {
+                    for (final AuditRecordData auditRecordData : queryResult) {
+                        writeToExport(auditExporter, auditRecordData);
+                        report.incExportCount();
+                    }
+                }
+            } catch (DatabaseProtectionException e) {
+                // One of the FETCH_SIZE entries failed.. we have to go through line by line to find out witch one..
+                for (int i=0; i<fetchSize; i++) {
+                    try {
+                        final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(1, report, state);
+                        if (queryResult.size() != 1) {
+                            break;	// No more data for this node
+                        }
+                        if (auditExporter!=null) {
+                            writeToExport(auditExporter, queryResult.get(0));
+                            report.incExportCount();
+                        }
+                    } catch (DatabaseProtectionException e2) {
+                        final AuditRecordData auditRecordData = (AuditRecordData) e2.getEntity();
+                        // Add to report
+                        report.warn(new AuditLogReportElem(Long.valueOf(state.lastSeqNumber), auditRecordData.getSequenceNumber(), "log with sequence number after " + state.lastSeqNumber + " on nodeId " + nodeId + " could not be verified"));
+                        state.add(auditRecordData);
+                        // We still export it
+                        // TODO: It might make sense to make it configurable to export when verification fails..
+                        if (auditExporter!=null) {
+                            writeToExport(auditExporter, auditRecordData);
+                            report.incExportCount();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** We want to export exactly like it was stored in the database, to comply with requirements on logging systems where no altering of the original log data is allowed. */
+    private void writeToExport(final AuditExporter auditExporter, final AuditRecordData auditRecordData) throws IOException {
+        auditExporter.writeStartObject();
+        auditExporter.writeField("pk", auditRecordData.getPk());
+        auditExporter.writeField("nodeId", auditRecordData.getNodeId());
+        auditExporter.writeField("sequenceNumber", auditRecordData.getSequenceNumber());
+        auditExporter.writeField("timestamp", auditRecordData.getTimeStamp());
+        auditExporter.writeField("eventType", auditRecordData.getEventTypeValue().toString());
+        auditExporter.writeField("eventStatus", auditRecordData.getEventStatusValue().toString());
+        auditExporter.writeField("authToken", auditRecordData.getAuthToken());
+        auditExporter.writeField("service", auditRecordData.getServiceTypeValue().toString());
+        auditExporter.writeField("module", auditRecordData.getModuleTypeValue().toString());
+        auditExporter.writeField("customId", auditRecordData.getCustomId());
+        auditExporter.writeField("searchDetail1", auditRecordData.getSearchDetail1());
+        auditExporter.writeField("searchDetail2", auditRecordData.getSearchDetail2());
+        auditExporter.writeField("additionalDetails", auditRecordData.getAdditionalDetails());
+        auditExporter.writeField("rowProtection", auditRecordData.getRowProtection());
+        auditExporter.writeEndObject();
+    }
+
+    /**
+     * Fetch a batch of log rows after the last processed one from the database (implying database integrity check)
+     * and verifies that all sequence numbers are present exactly once.
+     * @param max entries per batch
+     * @param report will be updated when a problem is found
+     * @param state the last row processed before this subset, will be updated to the last row processed in this subset
+     * @return the log entries we fetched from the database so the caller may export these
+     * @throws DatabaseProtectionException if the intregrity verification fails for one of the entries in the batch during fetch
+     */
+    private List<AuditRecordData> verifyLogsIntegritySubset(final int max, final AuditLogExportReport report, final Holder state) throws DatabaseProtectionException {
+        final List<AuditRecordData> queryResult = rows.getRows(state.lastSeqNumber, state.lastPk, max);	// Might throw DatabaseProtectionException
+        // Loop through results and verify that the sequence order is correct
+        for (final AuditRecordData auditRecordData : queryResult) {
+            final long currentSeqNumber = auditRecordData.getSequenceNumber().longValue();
+            if (currentSeqNumber == state.lastSeqNumber) {
+                log.error("Log verification failure for log on node " + nodeId + ". Duplicate entry with sequenceNumber " + currentSeqNumber
+                        + " and pk " + auditRecordData.getPk());
+                // Add to report
+                report.error(new AuditLogReportElem(Long.valueOf(state.lastSeqNumber), Long.valueOf(currentSeqNumber), "duplicate log with sequence number " + currentSeqNumber + " on nodeId " + nodeId));
+            } else if (currentSeqNumber != state.lastSeqNumber + 1) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Log verification failure for log on node " + nodeId + ". Missing entry. Last sequenceNumber was " + state.lastSeqNumber + " and current is " + currentSeqNumber);
+                }
+                // Add to report
+                report.warn(new AuditLogReportElem(Long.valueOf(state.lastSeqNumber), Long.valueOf(currentSeqNumber), "missing log with sequence number " + (state.lastSeqNumber + 1) + " on nodeId " + nodeId));
+            }
+            state.add(auditRecordData);
+        }
+        return queryResult;
+    }
+
+    /** The last row processed and, when a checkpoint is to be made, the hash of all rows processed. */
+    private static class Holder {
+        private final boolean hashing;
+        private long lastSeqNumber;
+        /** The primary key of the last row processed, or null to continue after all rows with the last sequence number */
+        private String lastPk = null;
+        private String hash;
+        private AuditRecordData lastRow = null;
+
+        Holder(final long lastSeqNumber, final String hash, final boolean hashing) {
+            this.lastSeqNumber = lastSeqNumber;
+            this.hash = hash;
+            this.hashing = hashing;
+        }
+
+        void add(final AuditRecordData auditRecordData) {
+            lastSeqNumber = auditRecordData.getSequenceNumber().longValue();
+            lastPk = auditRecordData.getPk();
+            if (hashing) {
+                hash = AuditLogCheckpoint.getHash(hash, auditRecordData);
+            }
+            lastRow = auditRecordData;
+        }
+    }
+}
@@ -14,15 +14,21 @@ package org.cesecore.audit.impl.integrityprotected;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
@@ -39,7 +45,6 @@ import org.cesecore.audit.AuditLogEntry;
 import org.cesecore.audit.audit.AuditExporter;
 import org.cesecore.audit.audit.AuditLogExportReport;
 import org.cesecore.audit.audit.AuditLogExporterException;
-import org.cesecore.audit.audit.AuditLogReportElem;
 import org.cesecore.audit.audit.AuditLogValidationReport;
 import org.cesecore.audit.audit.AuditLogValidatorException;
 import org.cesecore.audit.audit.SigningFileOutputStream;
@@ -50,6 +55,7 @@ import org.cesecore.audit.enums.ServiceTypes;
 import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.configuration.GlobalConfigurationData;
 import org.cesecore.dbprotection.DatabaseProtectionException;
 import org.cesecore.keys.token.CryptoToken;
 import org.cesecore.util.ValidityDate;
@@ -99,7 +105,8 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
             final SigningFileOutputStream signingFileOutputStream = new SigningFileOutputStream(exportFile, cryptoToken, signatureDetails);
             final AuditExporter auditExporter = c.newInstance();
             auditExporter.setOutputStream(signingFileOutputStream);
-            verifyAndOptionalExport(auditExporter, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties));
+            verifyAndOptionalExport(auditExporter, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties),
+                    AuditDevicesConfig.getAuditLogValidationThreads(properties), false);
         	report.setExportedFile(exportFile.getCanonicalPath());
         	if (log.isDebugEnabled()) {
         		log.debug("Exported " + report.getExportCount() + " rows.");
@@ -139,6 +146,9 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
         securityEventsLogger.log(EventTypes.LOG_DELETE, EventStatus.VOID, ModuleTypes.SECURITY_AUDIT, ServiceTypes.CORE, token.toString(), null, null, null, detailsDelete);
         // Delete all the exported logs (from all nodes)
 		final QueryCriteria queryCriteria = QueryCriteria.create().add(Criteria.leq(AuditLogEntry.FIELD_TIMESTAMP, timestamp.getTime())).add(Criteria.orderAsc(AuditLogEntry.FIELD_SEQUENCENUMBER));
+		// The checkpoints of the verification no longer match the logs that are left
+		entityManager.createQuery("DELETE FROM GlobalConfigurationData a WHERE a.configurationId LIKE :prefix")
+		        .setParameter("prefix", AuditLogCheckpoint.CONFIGURATION_ID_PREFIX + "%").executeUpdate();
 		return buildConditionalQuery(entityManager, "DELETE FROM AuditRecordData a", queryCriteria, 0, 0).executeUpdate();
 	}
 
@@ -153,7 +163,8 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
 	public AuditLogValidationReport verifyLogsIntegrity(final AuthenticationToken token, final Date timestamp, final Properties properties) throws AuditLogValidatorException {
         final AuditLogValidationReport report = new AuditLogValidationReport();
         try {
-            verifyAndOptionalExport(null, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties));
+            verifyAndOptionalExport(null, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties),
+                    AuditDevicesConfig.getAuditLogValidationThreads(properties), AuditDevicesConfig.isAuditLogValidationCheckpointed(properties));
         	// Log the success or failure depending on if verification returns error or not
         	logVerificationResult(report.errors().size(), timestamp, token);
         } catch (final Exception e) {
@@ -163,117 +174,151 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
 	}
 
 	/**
-	 * Read batches of logs from the database. If the database integrity check fails, the batch will be processed row by row.
+	 * Verify and optionally export the logs of all nodes. The logs of each node are independent, so the nodes are processed in parallel.
+	 * The logs of the first node are exported directly, and the logs of the others to temporary segments that are copied to the export
+	 * in order, so the export is the same as if the nodes were processed one after another.
 	 * Results are added to the report.
 	 * @param auditExporter can be null if no export should take place
 	 * @param report is a AuditLogValidationReport or AuditLogExportReport
 	 * @param timestamp process all entries up until this time (should be epoch GMT)
+	 * @param threads the max number of nodes to process in parallel
+	 * @param useCheckpoint true to only verify the logs after where the previous verification ended, when no export should take place
 	 */
-	private void verifyAndOptionalExport(AuditExporter auditExporter, AuditLogValidationReport report, Date timestamp, final int fetchSize) throws IOException {
+	private void verifyAndOptionalExport(final AuditExporter auditExporter, final AuditLogValidationReport report, final Date timestamp, final int fetchSize,
+	        final int threads, final boolean useCheckpoint) throws IOException {
     	// Get a list of the nodes that have data in the database
-    	for (final String nodeId : getNodeIds()) {
-    		if (log.isDebugEnabled()) {
-    			log.debug("exportAuditLogs for nodeId " + nodeId);
-    		}
-    		// Assuming timeStamp is in UTC
-    		final QueryCriteria queryCriteria = QueryCriteria.create().add((Criteria.and(Criteria.eq(AuditLogEntry.FIELD_NODEID, nodeId), Criteria.leq(AuditLogEntry.FIELD_TIMESTAMP, timestamp.getTime())))).add(Criteria.orderAsc(AuditLogEntry.FIELD_SEQUENCENUMBER));
-    		int startIndex = 1;
-    		final Holder<Long> lastSeqNumber = new Holder<Long>(Long.valueOf(-1L));
-    		while (true) {
-    			try {
-        			final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(startIndex, fetchSize, queryCriteria, report, lastSeqNumber, nodeId);
-    				final int results = queryResult.size();
-    				if (results == 0) {
-    					break;	// No more data for this node
-    				}
-    				startIndex += results;
-					if (auditExporter!=null) {
-						for (final AuditRecordData auditRecordData : queryResult) {
-							writeToExport(auditExporter, auditRecordData);
-        					((AuditLogExportReport) report).incExportCount();
-						}
-					}
-    			} catch (DatabaseProtectionException e) {
-    				// One of the FETCH_SIZE entries failed.. we have to go through line by line to find out witch one..
-    				for (int i=0; i<fetchSize; i++) {
-        				try {
-                			final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(startIndex, 1, queryCriteria, report, lastSeqNumber, nodeId);
-            				final int results = queryResult.size();
-            				if (results != 1) {
-            					break;	// No more data for this node
-            				}
-        					if (auditExporter!=null) {
-        						writeToExport(auditExporter, queryResult.get(0));
-            					((AuditLogExportReport) report).incExportCount();
-        					}
-        				} catch (DatabaseProtectionException e2) {
-        					final AuditRecordData auditRecordData = (AuditRecordData) e2.getEntity();
-        					// Add to report
-        					report.warn(new AuditLogReportElem(lastSeqNumber.get().longValue(), auditRecordData.getSequenceNumber(), "log with sequence number after " + lastSeqNumber + " on nodeId " + nodeId + " could not be verified"));
-        					lastSeqNumber.set(auditRecordData.getSequenceNumber());
-        					// We still export it
-        					// TODO: It might make sense to make it configurable to export when verification fails..
-        					if (auditExporter!=null) {
-            					writeToExport(auditExporter, auditRecordData);
-            					((AuditLogExportReport) report).incExportCount();
-        					}
-        				}
-        				startIndex += 1;
-    				}
-    			}
-    		}
-    	}
+	    final List<String> nodeIds = getNodeIds();
+	    if (nodeIds.size() <= 1 || threads <= 1) {
+	        for (final String nodeId : nodeIds) {
+	            // Called directly, so it runs on this thread
+	            addToReport(report, getNodeReport(verifyAndOptionalExportNode(auditExporter, nodeId, timestamp, fetchSize, useCheckpoint)));
+	        }
+	        return;
+	    }
+	    final List<AuditExportSegment> segments = new ArrayList<AuditExportSegment>();
+	    final List<Future<AuditLogExportReport>> results = new ArrayList<Future<AuditLogExportReport>>();
+	    // The number of nodes whose results have been added to the report
+	    int completed = 0;
+	    try {
+	        for (final String nodeId : nodeIds) {
+	            if (results.size() - completed >= threads) {
+	                // Wait for the oldest node before starting another one
+	                completeNode(auditExporter, report, results, segments, completed++);
+	            }
+	            final AuditExporter nodeExporter;
+	            if (auditExporter == null || results.isEmpty()) {
+	                nodeExporter = auditExporter;
+	            } else {
+	                final AuditExportSegment segment = new AuditExportSegment();
+	                segments.add(segment);
+	                nodeExporter = segment;
+	            }
+	            // Through the business interface, so the node is processed on an asynchronous thread of the container
+	            results.add(integrityProtectedAuditorSession.verifyAndOptionalExportNode(nodeExporter, nodeId, timestamp, fetchSize, useCheckpoint));
+	        }
+	        while (completed < results.size()) {
+	            completeNode(auditExporter, report, results, segments, completed++);
+	        }
+	    } finally {
+	        for (int i = completed; i < results.size(); i++) {
+	            // Nodes that have not been started yet are not needed any more
+	            results.get(i).cancel(false);
+	        }
+	        for (final AuditExportSegment segment : segments) {
+	            segment.delete();
+	        }
+	    }
 	}
 
-	/** We want to export exactly like it was stored in the database, to comply with requirements on logging systems where no altering of the original log data is allowed. */
-    private void writeToExport(final AuditExporter auditExporter, final AuditRecordData auditRecordData) throws IOException {
-        auditExporter.writeStartObject();
-        auditExporter.writeField("pk", auditRecordData.getPk());
-        auditExporter.writeField("nodeId", auditRecordData.getNodeId());
-        auditExporter.writeField("sequenceNumber", auditRecordData.getSequenceNumber());
-        auditExporter.writeField("timestamp", auditRecordData.getTimeStamp());
-        auditExporter.writeField("eventType", auditRecordData.getEventTypeValue().toString());
-        auditExporter.writeField("eventStatus", auditRecordData.getEventStatusValue().toString());
-        auditExporter.writeField("authToken", auditRecordData.getAuthToken());
-        auditExporter.writeField("service", auditRecordData.getServiceTypeValue().toString());
-        auditExporter.writeField("module", auditRecordData.getModuleTypeValue().toString());
-        auditExporter.writeField("customId", auditRecordData.getCustomId());
-        auditExporter.writeField("searchDetail1", auditRecordData.getSearchDetail1());
-        auditExporter.writeField("searchDetail2", auditRecordData.getSearchDetail2());
-        auditExporter.writeField("additionalDetails", auditRecordData.getAdditionalDetails());
-        auditExporter.writeField("rowProtection", auditRecordData.getRowProtection());
-        auditExporter.writeEndObject();
-    }
-    
-    /**
-     * Fetch a batch of log rows from the database (implying database integrity check) and verifies
-     * that all sequence numbers are present.
-     * @param startIndex start batch from this position 
-     * @param max entries per batch
-     * @param queryCriteria where clause
-     * @param report will be updated when a problem is found
-     * @param lastSeqNumber will be updated to the last sequence number processed in this subset
-     * @param nodeId identifier of which node that claims to have written this data
-     * @return the log entries we fetched from the database so the caller may export these
-     * @throws DatabaseProtectionException if the intregrity verification fails for one of the entries in the batch during fetch
-     */
-	private List<AuditRecordData> verifyLogsIntegritySubset(final int startIndex, final int max, final QueryCriteria queryCriteria, final AuditLogValidationReport report, final Holder<Long> lastSeqNumber, final String nodeId) throws DatabaseProtectionException {
-		final List<AuditRecordData> queryResult = internalSelectAuditLogs(startIndex, max, queryCriteria);	// Might throw DatabaseProtectionException
-		// Loop through results and verify that the sequence order is correct
-		for (int i=0; i<queryResult.size(); i++) {
-			final long currentSeqNumber = queryResult.get(i).getSequenceNumber().longValue();
-			if (currentSeqNumber != lastSeqNumber.get().longValue() + 1) {
-				if (log.isDebugEnabled()) {
-					log.debug("Log verification failure for log on node " + nodeId + ". Missing entry. Last sequenceNumber was " + lastSeqNumber + " and current is " + currentSeqNumber);
-				}
-				// Add to report
-				report.warn(new AuditLogReportElem(lastSeqNumber.get(), Long.valueOf(currentSeqNumber), "missing log with sequence number " + (lastSeqNumber.get().longValue() + 1) + " on nodeId " + nodeId));
+	/** Wait for the node with the given index, add its result to the report, and copy its segment of the export to the export. */
+	private void completeNode(final AuditExporter auditExporter, final AuditLogValidationReport report, final List<Future<AuditLogExportReport>> results,
+	        final List<AuditExportSegment> segments, final int index) throws IOException {
+	    addToReport(report, getNodeReport(results.get(index)));
+	    if (auditExporter != null && index > 0) {
+	        segments.get(index - 1).replay(auditExporter);
+	        segments.get(index - 1).delete();
+	    }
+	}
+
+	@Asynchronous
+	@Override
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public Future<AuditLogExportReport> verifyAndOptionalExportNode(final AuditExporter auditExporter, final String nodeId, final Date timestamp,
+	        final int fetchSize, final boolean useCheckpoint) throws IOException {
+		return new AsyncResult<AuditLogExportReport>(verifyAndExportNode(auditExporter, nodeId, timestamp, fetchSize, useCheckpoint));
+	}
+
+	private AuditLogExportReport verifyAndExportNode(final AuditExporter auditExporter, final String nodeId, final Date timestamp, final int fetchSize,
+	        final boolean useCheckpoint) throws IOException {
+		final AuditLogNodeVerifier auditLogNodeVerifier = new AuditLogNodeVerifier(new NodeRows(nodeId, timestamp), nodeId, fetchSize);
+		if (auditExporter != null || !useCheckpoint) {
+			return auditLogNodeVerifier.verifyAndOptionalExport(auditExporter);
+		}
+		final AuditLogCheckpoint previousCheckpoint = getAuditLogCheckpoint(nodeId);
+		if (previousCheckpoint != null && previousCheckpoint.getTimeStamp() > timestamp.getTime()) {
+			// The checkpoint is after the time to verify up until, so it can neither be used nor moved
+			return auditLogNodeVerifier.verifyAndOptionalExport(null);
+		}
+		final AuditLogExportReport report = auditLogNodeVerifier.verifyFromCheckpoint(previousCheckpoint);
+		final AuditLogCheckpoint checkpoint = auditLogNodeVerifier.getCheckpoint();
+		if (checkpoint != null && checkpoint != previousCheckpoint) {
+			integrityProtectedAuditorSession.saveAuditLogCheckpoint(checkpoint);
+		}
+		return report;
+	}
+
+	@Override
+	@TransactionAttribute(TransactionAttributeType.REQUIRED)
+	public void saveAuditLogCheckpoint(final AuditLogCheckpoint checkpoint) {
+		final GlobalConfigurationData globalConfigurationData = entityManager.find(GlobalConfigurationData.class, checkpoint.getConfigurationId());
+		if (globalConfigurationData == null) {
+			entityManager.persist(new GlobalConfigurationData(checkpoint.getConfigurationId(), checkpoint));
+		} else {
+			globalConfigurationData.setConfiguration(checkpoint);
+		}
+	}
+
+	/** @return the point up to which the logs of the node were verified, or null if they have not been verified without problems */
+	private AuditLogCheckpoint getAuditLogCheckpoint(final String nodeId) {
+		final GlobalConfigurationData globalConfigurationData = entityManager.find(GlobalConfigurationData.class, AuditLogCheckpoint.getConfigurationId(nodeId));
+		if (globalConfigurationData == null) {
+			return null;
+		}
+		final AuditLogCheckpoint checkpoint = new AuditLogCheckpoint();
+		checkpoint.loadData(globalConfigurationData.getData());
+		return checkpoint;
+	}
+
+	/** Add the problems found and the exported logs of one node to the report of all nodes. */
+	private void addToReport(final AuditLogValidationReport report, final AuditLogExportReport nodeReport) {
+		// Already logged when they were found
+		report.errors().addAll(nodeReport.errors());
+		report.warnings().addAll(nodeReport.warnings());
+		if (report instanceof AuditLogExportReport) {
+			((AuditLogExportReport) report).incExportCount(nodeReport.getExportCount());
+		}
+	}
+
+	/** Wait for the verification of a node to finish, and throw the exception it threw, if any. */
+	private AuditLogExportReport getNodeReport(final Future<AuditLogExportReport> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for audit log verification.");
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
 			}
-			lastSeqNumber.set(Long.valueOf(currentSeqNumber));
+			throw new IllegalStateException(cause);
 		}
-		return queryResult;
 	}
-	
+
 	/** Log the outcome of the verification to the secure audit log based on the supplied number of errors. */
 	private void logVerificationResult(final int errors, final Date timestamp, final AuthenticationToken token) {
     	final Map<String, Object> details = new LinkedHashMap<String, Object>();
@@ -298,7 +343,8 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
 	/** @return a unique list of node identifiers that have been writing audit log to the database. */
 	@SuppressWarnings("unchecked")
 	private List<String> getNodeIds() {
-		return entityManager.createQuery("SELECT DISTINCT a.nodeId FROM AuditRecordData a").getResultList();
+		// Ordered, so that the nodes are always exported in the same order
+		return entityManager.createQuery("SELECT DISTINCT a.nodeId FROM AuditRecordData a ORDER BY a.nodeId").getResultList();
 	}
 
 	/**
@@ -327,11 +373,77 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
         return query;
     }
     
-    /** Class used internally for holding an object that can updated by a method. */
-    private class Holder<T> {
-    	private T object;
-    	Holder(final T object) { set(object); }
-		public void set(final T object) { this.object = object; }
-		public T get() { return object; }
+    /** The logs of one node up until the time of the verification, read by keyset pagination on the sequence number and primary key. */
+    private class NodeRows implements AuditLogNodeVerifier.Rows {
+        private final String nodeId;
+        private final Date timestamp;
+
+        NodeRows(final String nodeId, final Date timestamp) {
+            this.nodeId = nodeId;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public List<AuditRecordData> getRows(final long afterSequenceNumber, final String afterPk, final int max) throws DatabaseProtectionException {
+            // Assuming timeStamp is in UTC
+            final Query query = entityManager.createQuery("SELECT a FROM AuditRecordData a WHERE a.nodeId=:nodeId AND a.timeStamp<=:timeStamp AND "
+                    + getAfterCondition(afterPk) + " ORDER BY a.sequenceNumber ASC, a.pk ASC");
+            query.setParameter("nodeId", nodeId);
+            query.setParameter("timeStamp", Long.valueOf(timestamp.getTime()));
+            setAfterParameters(query, afterSequenceNumber, afterPk);
+            query.setMaxResults(max);
+            @SuppressWarnings("unchecked")
+            final List<AuditRecordData> ret = query.getResultList();	// Might throw DatabaseProtectionException
+            return ret;
+        }
+
+        @Override
+        public List<AuditRecordData> getUnverifiedRows(final long afterSequenceNumber, final String afterPk, final long lastSequenceNumber, final int max) {
+            // Selecting the fields instead of the entity skips the verification of the database integrity protection
+            final Query query = entityManager.createQuery("SELECT a.pk, a.sequenceNumber, a.timeStamp, a.eventType, a.eventStatus, a.authToken, a.service,"
+                    + " a.module, a.customId, a.searchDetail1, a.searchDetail2, a.additionalDetails FROM AuditRecordData a"
+                    + " WHERE a.nodeId=:nodeId AND " + getAfterCondition(afterPk) + " AND a.sequenceNumber<=:lastSequenceNumber"
+                    + " ORDER BY a.sequenceNumber ASC, a.pk ASC");
+            query.setParameter("nodeId", nodeId);
+            setAfterParameters(query, afterSequenceNumber, afterPk);
+            query.setParameter("lastSequenceNumber", Long.valueOf(lastSequenceNumber));
+            query.setMaxResults(max);
+            @SuppressWarnings("unchecked")
+            final List<Object[]> resultList = query.getResultList();
+            final List<AuditRecordData> ret = new ArrayList<AuditRecordData>(resultList.size());
+            for (final Object[] result : resultList) {
+                final AuditRecordData auditRecordData = new AuditRecordData();
+                auditRecordData.setPk((String) result[0]);
+                auditRecordData.setNodeId(nodeId);
+                auditRecordData.setSequenceNumber((Long) result[1]);
+                auditRecordData.setTimeStamp((Long) result[2]);
+                auditRecordData.setEventType((String) result[3]);
+                auditRecordData.setEventStatus((String) result[4]);
+                auditRecordData.setAuthToken((String) result[5]);
+                auditRecordData.setService((String) result[6]);
+                auditRecordData.setModule((String) result[7]);
+                auditRecordData.setCustomId((String) result[8]);
+                auditRecordData.setSearchDetail1((String) result[9]);
+                auditRecordData.setSearchDetail2((String) result[10]);
+                auditRecordData.setAdditionalDetails((String) result[11]);
+                ret.add(auditRecordData);
+            }
+            return ret;
+        }
+
+        /** @return the condition for rows after the given row, where a sequence number may repeat */
+        private String getAfterCondition(final String afterPk) {
+            if (afterPk == null) {
+                return "a.sequenceNumber>:afterSequenceNumber";
+            }
+            return "(a.sequenceNumber>:afterSequenceNumber OR (a.sequenceNumber=:afterSequenceNumber AND a.pk>:afterPk))";
+        }
+
+        private void setAfterParameters(final Query query, final long afterSequenceNumber, final String afterPk) {
+            query.setParameter("afterSequenceNumber", Long.valueOf(afterSequenceNumber));
+            if (afterPk != null) {
+                query.setParameter("afterPk", afterPk);
+            }
+        }
     }
 }
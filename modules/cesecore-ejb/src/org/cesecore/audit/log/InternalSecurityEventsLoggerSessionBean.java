@@ -14,13 +14,13 @@ package org.cesecore.audit.log;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 
-import org.apache.commons.lang.time.StopWatch;
 import org.apache.log4j.Logger;
 import org.cesecore.audit.AuditDevicesConfig;
 import org.cesecore.audit.audit.LogServiceState;
@@ -36,6 +36,9 @@ import org.cesecore.audit.impl.integrityprotected.IntegrityProtectedLoggerSessio
 import org.cesecore.audit.impl.queued.QueuedLoggerSessionLocal;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.time.TrustedTime;
+import org.cesecore.util.metrics.Histogram;
+import org.cesecore.util.metrics.MetricFamily;
+import org.cesecore.util.metrics.MetricsRegistry;
 
 /**
  * Internal logging without dependency on TrustedTime.
@@ -47,6 +50,8 @@ import org.cesecore.time.TrustedTime;
 public class InternalSecurityEventsLoggerSessionBean implements InternalSecurityEventsLoggerSessionLocal {
 
     private static final Logger LOG = Logger.getLogger(InternalSecurityEventsLoggerSessionBean.class);
+    private static final MetricFamily<Histogram> AUDIT_LOG_WRITE_DURATION = MetricsRegistry.INSTANCE.durationFamily("audit_log_write_duration_seconds",
+            "Time to write an audit log event, by audit device", "device");
     
     @EJB
     private QueuedLoggerSessionLocal queuedLoggerSession;
@@ -63,15 +68,12 @@ public class InternalSecurityEventsLoggerSessionBean implements InternalSecurity
         boolean anyFailures = false;
         for (final String loggerId : AuditDevicesConfig.getAllDeviceIds()) {
             try {
-                StopWatch sw = null;
-                if(LOG.isDebugEnabled()){
-                    sw = new StopWatch();
-                    sw.start();
-                }
+                final long startTime = System.nanoTime();
                 AuditDevicesConfig.getDevice(ejbs, loggerId).log(trustedTime, eventType, eventStatus, module, service, authToken, customId, searchDetail1, searchDetail2, additionalDetails, AuditDevicesConfig.getProperties(loggerId));
+                final long duration = System.nanoTime() - startTime;
+                AUDIT_LOG_WRITE_DURATION.get(loggerId).record(duration);
                 if(LOG.isDebugEnabled()){
-                    sw.stop();
-                    LOG.debug("LogDevice: "+ loggerId +" Proc: "+sw.getTime());
+                    LOG.debug("LogDevice: "+ loggerId +" Proc: "+TimeUnit.NANOSECONDS.toMillis(duration));
                 }
             } catch (Exception e) { // AuditRecordStorageException
                 anyFailures = true;
@@ -53,6 +53,7 @@ import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.catoken.CAToken;
 import org.cesecore.certificates.ca.internal.CACacheHelper;
 import org.cesecore.certificates.ca.internal.CaCache;
+import org.cesecore.certificates.certificate.VerifiedCertificateCache;
 import org.cesecore.certificates.certificate.certextensions.AvailableCustomCertificateExtensionsConfiguration;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
@@ -113,6 +114,8 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     public void flushCACache() {
         CaCache.INSTANCE.flush();
+        // Client certificates are verified against the cached CAs
+        VerifiedCertificateCache.INSTANCE.clear();
         if (log.isDebugEnabled()) {
             log.debug("Flushed CA cache.");
         }
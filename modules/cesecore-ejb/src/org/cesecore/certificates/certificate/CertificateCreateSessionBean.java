@@ -644,7 +644,7 @@ public class CertificateCreateSessionBean implements CertificateCreateSessionLoc
     }
 
     private CertificateProfile getCertificateProfile(final int certProfileId, final int caid) throws AuthorizationDeniedException {
-        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(certProfileId);
+        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(certProfileId);
         // What if certProfile == null?
         if (certProfile == null) {
             final String msg = intres.getLocalizedMessage("createcert.errorcertprofilenotfound", Integer.valueOf(certProfileId));
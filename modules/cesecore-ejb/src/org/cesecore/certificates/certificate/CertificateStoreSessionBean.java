@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -42,9 +43,12 @@ import javax.ejb.Timer;
 import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.interceptor.Interceptors;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -83,6 +87,7 @@ import org.ejbca.cvc.PublicKeyEC;
  */
 @Stateless(mappedName = JndiConstants.APP_JNDI_PREFIX + "CertificateStoreSessionRemote")
 @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+@Interceptors(CertificateStoreSessionMetricsInterceptor.class)
 public class CertificateStoreSessionBean implements CertificateStoreSessionRemote, CertificateStoreSessionLocal {
 
     private final static Logger log = Logger.getLogger(CertificateStoreSessionBean.class);
@@ -104,6 +109,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     // Myself needs to be looked up in postConstruct
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     private CertificateStoreSessionLocal certificateStoreSession;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining. 
@@ -172,7 +179,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         // Probably not important in EJB3 anymore
         final boolean useBase64CertTable = CesecoreConfiguration.useBase64CertTable();
         Base64CertData base64CertData = null;
-        final CertificateProfile certificateProfile = certificateProfileSession.getCertificateProfile(certificateProfileId);
+        final CertificateProfile certificateProfile = certificateProfileSession.getCertificateProfileNoClone(certificateProfileId);
         final boolean storeCertificateData = certificateProfile==null || certificateProfile.getStoreCertificateData();
         if (useBase64CertTable && storeCertificateData) {
             // use special table for encoded data if told so.
@@ -1046,6 +1053,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         if (returnVal) {
             // Persist changes
             entityManager.merge(certificateData);
+            removeVerifiedCertificates(Collections.singletonList(certificateData.getFingerprint()));
         }
         if (log.isTraceEnabled()) {
             log.trace("<private setRevokeStatusNoAuth(), issuerdn=" + issuerDn + ", serno=" + serialNumber);
@@ -1054,33 +1062,31 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     }
 
     @Override
-    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void revokeAllCertByCA(AuthenticationToken admin, String issuerdn, int reason) throws AuthorizationDeniedException {
-        int revoked = 0;
-        
         // Must be authorized to CA in order to change status is certificates issued by the CA
-        String bcdn = CertTools.stringToBCDNString(issuerdn);
-    	int caid = bcdn.hashCode();
+        final String bcdn = CertTools.stringToBCDNString(issuerdn);
+        final int caid = bcdn.hashCode();
         authorizedToCA(admin, caid);
-
+        final int batchSize = CesecoreConfiguration.getDatabaseRevokeAllBatchSize();
+        final long revocationDate = System.currentTimeMillis();
+        int revoked = 0;
         try {
-            final int maxRows = 10000;
-            int firstResult = 0;
-            // Revoking all non revoked certificates.
-            
-            // Update 10000 records at a time
-            firstResult = 0;
-            List<CertificateData> list = CertificateData.findAllNonRevokedCertificates(entityManager, bcdn, firstResult, maxRows);
-            while (list.size() > 0) {
-            	for (int i = 0; i<list.size(); i++) {
-                	CertificateData d = list.get(i);
-                	d.setStatus(CertificateConstants.CERT_REVOKED);
-                	d.setRevocationDate(System.currentTimeMillis());
-                	d.setRevocationReason(reason);
-                	revoked++;
-            	}
-            	firstResult += maxRows;
-            	list = CertificateData.findAllNonRevokedCertificates(entityManager, bcdn, firstResult, maxRows);
+            // Page through the primary keys of the non revoked certificates using the last seen fingerprint, and revoke each page with a
+            // set-based update in a transaction of its own. This keeps both transactions and the persistence context bounded.
+            // Since revoked certificates are never selected again, an interrupted run is resumed by simply invoking this method again.
+            String lastFingerprint = "";
+            while (true) {
+                final List<String> fingerprints = CertificateData.findNextNonRevokedFingerprints(entityManager, bcdn, lastFingerprint, batchSize);
+                if (fingerprints.isEmpty()) {
+                    break;
+                }
+                revoked += certificateStoreSession.revokeCertificatesNoAuth(fingerprints, revocationDate, reason);
+                lastFingerprint = fingerprints.get(fingerprints.size()-1);
+                log.info("Revoked " + revoked + " certificates from issuer '" + issuerdn + "' so far.");
+                if (fingerprints.size() < batchSize) {
+                    break;
+                }
             }
             final String msg = INTRES.getLocalizedMessage("store.revokedallbyca", issuerdn, Integer.valueOf(revoked), Integer.valueOf(reason));
     		Map<String, Object> details = new LinkedHashMap<String, Object>();
@@ -1088,11 +1094,34 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     		logSession.log(EventTypes.CERT_REVOKED, EventStatus.SUCCESS, ModuleTypes.CERTIFICATE, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);            
         } catch (Exception e) {
             final String msg = INTRES.getLocalizedMessage("store.errorrevokeallbyca", issuerdn);
-            log.info(msg);
+            log.info(msg + " " + revoked + " certificates were revoked before the failure.");
             throw new EJBException(e);
         }
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int revokeCertificatesNoAuth(final List<String> fingerprints, final long revocationDate, final int reason) {
+        final long updateTime = System.currentTimeMillis();
+        removeVerifiedCertificates(fingerprints);
+        if (!CesecoreConfiguration.useDatabaseIntegrityProtection(CertificateData.class.getSimpleName())) {
+            return CertificateData.revokeByFingerprints(entityManager, fingerprints, revocationDate, reason, updateTime);
+        }
+        // A set-based update would not update the row protection, so go through the entities instead
+        int revoked = 0;
+        for (final String fingerprint : fingerprints) {
+            final CertificateData certificateData = CertificateData.findByFingerprint(entityManager, fingerprint);
+            if (certificateData != null && certificateData.getStatus() != CertificateConstants.CERT_REVOKED) {
+                certificateData.setStatus(CertificateConstants.CERT_REVOKED);
+                certificateData.setRevocationDate(revocationDate);
+                certificateData.setRevocationReason(reason);
+                certificateData.setUpdateTime(updateTime);
+                revoked++;
+            }
+        }
+        return revoked;
+    }
+
     @Override
     public boolean isRevoked(String issuerDN, BigInteger serno) {
         if (log.isTraceEnabled()) {
@@ -1207,6 +1236,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         authorizedToCA(admin, caid);
 
         certificateData.setStatus(status);
+        removeVerifiedCertificates(Collections.singletonList(certificateData.getFingerprint()));
         final Certificate certificate = certificateData.getCertificate(this.entityManager);
         String serialNo;
         if (certificate==null) {
@@ -1240,6 +1270,23 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return (certificateData != null);
     }
     
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public int setStatus(AuthenticationToken admin, List<String> fingerprints, int status) throws IllegalArgumentException, AuthorizationDeniedException {
+        if (status == CertificateConstants.CERT_REVOKED || status == CertificateConstants.CERT_ACTIVE) {
+            final String msg = INTRES.getLocalizedMessage("store.errorsetstatusargument", fingerprints, status);
+            throw new IllegalArgumentException(msg);
+        }
+        final List<CertificateData> certificateDatas = CertificateData.findByFingerprints(entityManager, fingerprints);
+        for (final CertificateData certificateData : certificateDatas) {
+            changeStatus(admin, certificateData, status);
+        }
+        if (log.isDebugEnabled() && certificateDatas.size() != fingerprints.size()) {
+            log.debug("Status " + status + " was set for " + certificateDatas.size() + " of " + fingerprints.size() + " certificates, the others were not found.");
+        }
+        return certificateDatas.size();
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRED)
     public void setRolloverDoneStatus(AuthenticationToken admin, String fingerprint) throws IllegalArgumentException, AuthorizationDeniedException {
@@ -1267,6 +1314,30 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
     }
 
+    /**
+     * Removes certificates whose status changes from the verified certificate cache, both now and when the transaction has completed.
+     * Until the change is committed, a client can still read the certificate as active and cache it again.
+     */
+    private void removeVerifiedCertificates(final Collection<String> fingerprints) {
+        for (final String fingerprint : fingerprints) {
+            VerifiedCertificateCache.INSTANCE.remove(fingerprint);
+        }
+        if (transactionSynchronizationRegistry.getTransactionKey() != null) {
+            final List<String> removedFingerprints = new ArrayList<String>(fingerprints);
+            transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {}
+
+                @Override
+                public void afterCompletion(final int status) {
+                    for (final String fingerprint : removedFingerprints) {
+                        VerifiedCertificateCache.INSTANCE.remove(fingerprint);
+                    }
+                }
+            });
+        }
+    }
+
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @Override
     public Certificate findMostRecentlyUpdatedActiveCertificate(byte[] subjectKeyId) {
@@ -1476,6 +1547,77 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public int updateLimitedCertificateDataStatus(final AuthenticationToken admin, final int caId, final String issuerDn,
+            final List<RevokedCertInfo> revokedCertInfos, final String caFingerprint) throws AuthorizationDeniedException {
+        if (!accessSession.isAuthorizedNoLogging(admin, StandardRules.CAACCESS.resource() + caId)) {
+            final String msg = INTRES.getLocalizedMessage("caadmin.notauthorizedtoca", admin.toString(), caId);
+            throw new AuthorizationDeniedException(msg);
+        }
+        // Read the existing entries of all the certificates at once, instead of one query for each certificate
+        final List<String> serialNumbers = new ArrayList<String>(revokedCertInfos.size());
+        for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+            serialNumbers.add(revokedCertInfo.getUserCertificate().toString());
+        }
+        final String dn = CertTools.stringToBCDNString(StringTools.strip(issuerDn));
+        final Map<String, CertificateData> existing = new HashMap<String, CertificateData>();
+        for (final CertificateData certificateData : CertificateData.findByIssuerDNSerialNumbers(entityManager, dn, serialNumbers)) {
+            existing.put(certificateData.getSerialNumber(), certificateData);
+        }
+        final List<String> removedFingerprints = new ArrayList<String>();
+        int written = 0;
+        for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+            final BigInteger serialNumber = revokedCertInfo.getUserCertificate();
+            final int reasonCode = revokedCertInfo.getReason();
+            final Date revocationDate = revokedCertInfo.getRevocationDate();
+            final String limitedFingerprint = getLimitedCertificateDataFingerprint(issuerDn, serialNumber);
+            final CertificateData certificateData = existing.get(serialNumber.toString());
+            if (certificateData != null && !limitedFingerprint.equals(certificateData.getFingerprint())) {
+                // Refuse to update a normal entry with this method
+                throw new UnsupportedOperationException("Only limited certificate entries can be updated using this method.");
+            }
+            if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
+                removedFingerprints.add(limitedFingerprint);
+                existing.remove(serialNumber.toString());
+            } else if (certificateData == null) {
+                // Create a limited entry, see the single certificate version of this method
+                final CertificateData limitedCertificateData = new CertificateData();
+                limitedCertificateData.setFingerprint(limitedFingerprint);
+                limitedCertificateData.setSerialNumber(serialNumber.toString());
+                limitedCertificateData.setIssuer(issuerDn);
+                limitedCertificateData.setSubjectDN("CN=limited");
+                limitedCertificateData.setUsername(null);
+                limitedCertificateData.setCertificateProfileId(new Integer(CertificateProfileConstants.CERTPROFILE_NO_PROFILE));
+                limitedCertificateData.setStatus(CertificateConstants.CERT_REVOKED);
+                limitedCertificateData.setRevocationReason(reasonCode);
+                limitedCertificateData.setRevocationDate(revocationDate);
+                limitedCertificateData.setUpdateTime(Long.valueOf(System.currentTimeMillis()));
+                limitedCertificateData.setCaFingerprint(caFingerprint);
+                if (log.isDebugEnabled()) {
+                    log.debug("Adding limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"'");
+                }
+                entityManager.persist(limitedCertificateData);
+                existing.put(serialNumber.toString(), limitedCertificateData);
+                written++;
+            } else if (certificateData.getRevocationDate()!=revocationDate.getTime() || certificateData.getRevocationReason()!=reasonCode) {
+                // Update the limited entry, which is managed, so it is written when the transaction commits
+                if (log.isDebugEnabled()) {
+                    log.debug("Updating limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"'");
+                }
+                certificateData.setStatus(CertificateConstants.CERT_REVOKED);
+                certificateData.setRevocationReason(reasonCode);
+                certificateData.setRevocationDate(revocationDate);
+                certificateData.setUpdateTime(Long.valueOf(System.currentTimeMillis()));
+                written++;
+            }
+        }
+        if (!removedFingerprints.isEmpty()) {
+            written += CertificateData.deleteLimitedByFingerprints(entityManager, removedFingerprints);
+        }
+        return written;
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.SUPPORTS) 
     public void reloadCaCertificateCache() {
@@ -0,0 +1,42 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+import org.cesecore.util.metrics.Histogram;
+import org.cesecore.util.metrics.MetricFamily;
+import org.cesecore.util.metrics.MetricsRegistry;
+
+/**
+ * EJB Interceptor that records the time spent in each business method of CertificateStoreSessionBean, which is almost entirely
+ * database time. The method name from the invocation context is used as label, so no objects are allocated per invocation.
+ * 
+ * @version $Id$
+ */
+public class CertificateStoreSessionMetricsInterceptor {
+
+    private static final MetricFamily<Histogram> DURATION = MetricsRegistry.INSTANCE.durationFamily("certificate_store_duration_seconds",
+            "Time spent in CertificateStoreSession methods, by method", "method");
+
+    @AroundInvoke
+    public Object recordDuration(final InvocationContext invocationContext) throws Exception {
+        final long startTime = System.nanoTime();
+        try {
+            return invocationContext.proceed();
+        } finally {
+            DURATION.get(invocationContext.getMethod().getName()).recordNanosSince(startTime);
+        }
+    }
+}
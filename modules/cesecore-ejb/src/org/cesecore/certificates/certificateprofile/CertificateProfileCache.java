@@ -15,6 +15,7 @@ package org.cesecore.certificates.certificateprofile;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.persistence.EntityManager;
@@ -56,6 +57,8 @@ public enum CertificateProfileCache {
     private volatile Map<String, Integer> nameIdMapCache = null;
     /** Cache of certificate profiles, with Id as keys */
     private volatile Map<Integer, CertificateProfile> profileCache = null;
+    /** The fixed certificate profiles, which never change, created when first used */
+    private final ConcurrentHashMap<Integer, CertificateProfile> fixedProfiles = new ConcurrentHashMap<Integer, CertificateProfile>();
 
     private volatile long lastUpdate = 0;
 
@@ -121,7 +124,8 @@ public enum CertificateProfileCache {
                 final String certificateProfileName = current.getCertificateProfileName();
                 idNameCache.put(id, certificateProfileName);
                 nameIdCache.put(certificateProfileName, id);
-                profCache.put(id, current.getCertificateProfile());
+                // Compiled, since the cached profiles are shared by all threads and must never be modified
+                profCache.put(id, current.getCertificateProfile().compile());
             }
         } catch (Exception e) {
             LOG.error("Error reading certificate profiles: ", e);
@@ -140,6 +144,23 @@ public enum CertificateProfileCache {
         return profileCache;
     }
 
+    /**
+     * @param id one of the CertificateProfileConstants.CERTPROFILE_FIXED_XX ids
+     * @return a compiled fixed certificate profile, shared by all threads, that must not be modified
+     */
+    public CertificateProfile getFixedProfile(final int id) {
+        final Integer key = Integer.valueOf(id);
+        CertificateProfile profile = fixedProfiles.get(key);
+        if (profile == null) {
+            final CertificateProfile newProfile = new CertificateProfile(id).compile();
+            profile = fixedProfiles.putIfAbsent(key, newProfile);
+            if (profile == null) {
+                profile = newProfile;
+            }
+        }
+        return profile;
+    }
+
     /** @return the latest object from the cache or a current database representation if no caching is used. */
     public Map<Integer, String> getIdNameMapCache(final EntityManager entityManager) {
         updateProfileCache(entityManager, false);
@@ -323,6 +323,23 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
         }
         return returnval;
     }
+
+    @Override
+    public CertificateProfile getCertificateProfileNoClone(final int id) {
+        if (LOG.isTraceEnabled()) {
+            LOG.trace(">getCertificateProfileNoClone(" + id + ")");
+        }
+        final CertificateProfile returnval;
+        if (id < CertificateProfileConstants.FIXED_CERTIFICATEPROFILE_BOUNDRY) {
+            returnval = CertificateProfileCache.INSTANCE.getFixedProfile(id);
+        } else {
+            returnval = CertificateProfileCache.INSTANCE.getProfileCache(entityManager).get(Integer.valueOf(id));
+        }
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("<getCertificateProfileNoClone(" + id + "): " + (returnval == null ? "null" : "not null"));
+        }
+        return returnval;
+    }
     
     @Override
     public Map<Integer, CertificateProfile> getAllCertificateProfiles() {
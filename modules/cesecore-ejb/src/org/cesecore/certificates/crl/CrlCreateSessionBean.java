@@ -43,6 +43,9 @@ import org.cesecore.keys.token.CryptoTokenManagementSessionLocal;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.CryptoProviderTools;
+import org.cesecore.util.metrics.Histogram;
+import org.cesecore.util.metrics.MetricFamily;
+import org.cesecore.util.metrics.MetricsRegistry;
 
 /**
  * Business class for CRL actions, i.e. running CRLs. 
@@ -56,6 +59,9 @@ public class CrlCreateSessionBean implements CrlCreateSessionLocal, CrlCreateSes
     private static final Logger log = Logger.getLogger(CrlCreateSessionBean.class);
     /** Internal localization of logs and errors */
     private static final InternalResources intres = InternalResources.getInstance();
+    private static final MetricFamily<Histogram> CRL_GENERATION_DURATION = MetricsRegistry.INSTANCE.durationFamily("crl_generation_duration_seconds",
+            "Time to generate and sign a CRL, by CA", "ca");
+    private static final MetricFamily<Histogram> CRL_SIZE = MetricsRegistry.INSTANCE.sizeFamily("crl_size_bytes", "Size of generated CRLs, by CA", "ca");
     
     @EJB
     private AccessControlSessionLocal accessSession;
@@ -90,6 +96,7 @@ public class CrlCreateSessionBean implements CrlCreateSessionLocal, CrlCreateSes
     			throw new CryptoTokenOfflineException(msg);
     		}
     		final X509CRLHolder crl;
+    		final long startTime = System.nanoTime();
     		
     		boolean deltaCRL = (basecrlnumber > -1);
     		final CryptoToken cryptoToken = cryptoTokenManagementSession.getCryptoToken(ca.getCAToken().getCryptoTokenId());
@@ -112,6 +119,8 @@ public class CrlCreateSessionBean implements CrlCreateSessionLocal, CrlCreateSes
     			    log.debug("Encoding CRL to byte array. Free memory="+Runtime.getRuntime().freeMemory());
     			}          
     			byte[] tmpcrlBytes = crl.getEncoded();                    
+    			CRL_GENERATION_DURATION.get(ca.getName()).recordNanosSince(startTime);
+    			CRL_SIZE.get(ca.getName()).record(tmpcrlBytes.length);
     			if (log.isDebugEnabled()) {
     			    log.debug("Finished encoding CRL to byte array. Free memory="+Runtime.getRuntime().freeMemory());
     				log.debug("Storing CRL in certificate store.");
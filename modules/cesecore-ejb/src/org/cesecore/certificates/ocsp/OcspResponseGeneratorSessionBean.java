@@ -30,7 +30,6 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.SignatureException;
 import java.security.UnrecoverableEntryException;
-import java.security.cert.CertPathValidatorException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
@@ -84,7 +83,6 @@ import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.Extensions;
 import org.bouncycastle.asn1.x509.ExtensionsGenerator;
 import org.bouncycastle.asn1.x509.GeneralName;
-import org.bouncycastle.asn1.x509.KeyPurposeId;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
@@ -106,15 +104,10 @@ import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authentication.tokens.UsernamePrincipal;
 import org.cesecore.authorization.AuthorizationDeniedException;
-import org.cesecore.certificates.ca.CAConstants;
-import org.cesecore.certificates.ca.CADoesntExistsException;
-import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.ca.InvalidAlgorithmException;
 import org.cesecore.certificates.ca.SignRequestException;
 import org.cesecore.certificates.ca.SignRequestSignatureException;
-import org.cesecore.certificates.ca.catoken.CAToken;
-import org.cesecore.certificates.ca.catoken.CATokenConstants;
 import org.cesecore.certificates.ca.internal.CaCertificateCache;
 import org.cesecore.certificates.certificate.CertificateInfo;
 import org.cesecore.certificates.certificate.CertificateStatus;
@@ -171,7 +164,10 @@ import org.cesecore.util.CertTools;
 import org.cesecore.util.log.ProbableErrorHandler;
 import org.cesecore.util.log.SaferAppenderListener;
 import org.cesecore.util.log.SaferDailyRollingFileAppender;
-import org.cesecore.util.provider.EkuPKIXCertPathChecker;
+import org.cesecore.util.metrics.Counter;
+import org.cesecore.util.metrics.Histogram;
+import org.cesecore.util.metrics.MetricFamily;
+import org.cesecore.util.metrics.MetricsRegistry;
 
 /**
  * This SSB generates OCSP responses. 
@@ -194,6 +190,15 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     private static final InternalResources intres = InternalResources.getInstance();
     
     private static volatile ExecutorService service = Executors.newCachedThreadPool();
+    /** The OcspSigningCache entries from the last reload, by CA and key binding. Only used while holding the OcspSigningCache staging lock. */
+    private static final Map<String, OcspSigningCacheLoader.LoadedEntry> loadedOcspSigningCacheEntries = new HashMap<String, OcspSigningCacheLoader.LoadedEntry>();
+
+    /** Request counters by OCSP response status, indexed by the status codes of OCSPRespBuilder */
+    private static final Counter[] OCSP_REQUESTS_BY_STATUS = getOcspRequestCounters();
+    private static final Histogram OCSP_REQUEST_DURATION = MetricsRegistry.INSTANCE.durationFamily("ocsp_request_duration_seconds",
+            "Time to process an OCSP request, including status lookups and signing", null).get();
+    private static final MetricFamily<Histogram> OCSP_SIGNING_DURATION = MetricsRegistry.INSTANCE.durationFamily("ocsp_signing_duration_seconds",
+            "Time to sign an OCSP response, by signature provider of the signing key", "signature_provider");
     
     @Resource
     private SessionContext sessionContext;
@@ -276,135 +281,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
             OcspSigningCache.INSTANCE.stagingStart();
             try {
-                // Populate OcspSigningCache
-                // Add all potential CA's as OCSP responders to the staging area
-                for (final Integer caId : caSession.getAllCaIds()) {
-                    final List<X509Certificate> caCertificateChain = new ArrayList<X509Certificate>();
-                    try {
-                        final CAInfo caInfo = caSession.getCAInfoInternal(caId.intValue());
-                        if (caInfo.getCAType() == CAInfo.CATYPE_CVC ) {
-                            // Bravely ignore OCSP for CVC CAs
-                            continue;
-                        } 
-                        if (caInfo.getStatus() == CAConstants.CA_ACTIVE) {
-                            //Cache active CAs as signers
-                            if (log.isDebugEnabled()) {
-                                log.debug("Processing X509 CA " + caInfo.getName() + " (" + caInfo.getCAId() + ").");
-                            }
-                            final CAToken caToken = caInfo.getCAToken();
-                            final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(caToken.getCryptoTokenId());
-                            if (cryptoToken == null) {
-                                log.info("Excluding CA with id " + caId + " for OCSP signing consideration due to missing CryptoToken.");
-                                continue;
-                            }
-                            for (final Certificate certificate : caInfo.getCertificateChain()) {
-                                caCertificateChain.add((X509Certificate) certificate);
-                            }
-                            final String keyPairAlias;
-                            try {
-                                keyPairAlias = caToken.getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CERTSIGN);
-                            } catch (CryptoTokenOfflineException e) {
-                                log.warn("Referenced private key with purpose " + CATokenConstants.CAKEYPURPOSE_CERTSIGN
-                                        + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
-                                continue;
-                            }
-                            final PrivateKey privateKey;
-                            try {
-                                privateKey = cryptoToken.getPrivateKey(keyPairAlias);
-                            } catch (CryptoTokenOfflineException e) {
-                                log.warn("Referenced private key with alias " + keyPairAlias
-                                        + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
-                                continue;
-                            }
-                            if (privateKey == null) {
-                                log.warn("Referenced private key with alias " + keyPairAlias + " does not exist. Ignoring CA with id " + caId);
-                                continue;
-                            }
-                            final String signatureProviderName = cryptoToken.getSignProviderName();
-                            if (caCertificateChain.size() > 0) {
-                                X509Certificate caCertificate = caCertificateChain.get(0);
-                                CertificateStatus caCertificateStatus = certificateStoreSession.getStatus(CertTools.getIssuerDN(caCertificate), CertTools.getSerialNumber(caCertificate));
-                                OcspSigningCache.INSTANCE.stagingAdd(new OcspSigningCacheEntry(caCertificate, caCertificateStatus, caCertificateChain, null, privateKey,
-                                        signatureProviderName, null, OcspConfiguration.getResponderIdType()));
-                                // Check if CA cert has been revoked somehow. Always make this check, even if this CA has an OCSP signing certificate, because
-                                // signing will still fail even if the signing cert is valid. Shouldn't happen, but log it just in case.
-                                if (caCertificateStatus.equals(CertificateStatus.REVOKED)) {
-                                    log.warn("Active CA with subject DN '" + CertTools.getSubjectDN(caCertificate) + "' and serial number "
-                                            + CertTools.getSerialNumber(caCertificate) + " has a revoked certificate.");
-                                }
-                                //Check if CA cert is expired
-                                if (!CertTools.isCertificateValid(caCertificate)) {
-                                    log.warn("Active CA with subject DN '" + CertTools.getSubjectDN(caCertificate) + "' and serial number "
-                                            + CertTools.getSerialNumber(caCertificate) + " has an expired certificate.");
-                                }
-                            } else {
-                                log.warn("CA with ID " + caId
-                                        + " appears to lack a certificate in the database. This may be a serious error if not in a test environment.");
-                            }
-                        } else if (caInfo.getStatus() == CAConstants.CA_EXTERNAL) {
-                            // If set, all external CA's without a keybinding (set below) will be responded to by the default responder. 
-                            for (final Certificate certificate : caInfo.getCertificateChain()) {
-                                caCertificateChain.add((X509Certificate) certificate);
-                            }
-                            CertificateStatus caCertificateStatus = certificateStoreSession.getStatus(CertTools.getIssuerDN(caCertificateChain.get(0)),
-                                    CertTools.getSerialNumber(caCertificateChain.get(0)));
-                            // Check if CA cert has been revoked somehow. Always make this check, even if this CA has an OCSP signing certificate, because
-                            // signing will still fail even if the signing cert is valid. 
-                            if (caCertificateStatus.equals(CertificateStatus.REVOKED)) {
-                                log.info("External CA with subject DN '" + CertTools.getSubjectDN(caCertificateChain.get(0)) + "' and serial number "
-                                        + CertTools.getSerialNumber(caCertificateChain.get(0)) + " has a revoked certificate.");
-                            }
-                            //Check if CA cert is expired
-                            if (!CertTools.isCertificateValid(caCertificateChain.get(0))) {
-                                log.info("External CA with subject DN '" + CertTools.getSubjectDN(caCertificateChain.get(0)) + "' and serial number "
-                                        + CertTools.getSerialNumber(caCertificateChain.get(0)) + " has an expired certificate.");
-                            }
-                            //Add an entry with just a chain and nothing else
-                            OcspSigningCache.INSTANCE.stagingAdd(new OcspSigningCacheEntry(caCertificateChain.get(0), caCertificateStatus, null, null,
-                                    null, null, null, OcspConfiguration.getResponderIdType()));
-  
-                        }
-                    } catch (CADoesntExistsException e) {
-                        // Should only happen if the CA was deleted between the getAvailableCAs and the last one
-                        log.warn("CA with Id " + caId + " disappeared during reload operation.");
-                    }
-                }
-                // Add all potential InternalKeyBindings as OCSP responders to the staging area, overwriting CA entries from before
-                for (final int internalKeyBindingId : internalKeyBindingDataSession.getIds(OcspKeyBinding.IMPLEMENTATION_ALIAS)) {
-                    final OcspKeyBinding ocspKeyBinding = (OcspKeyBinding) internalKeyBindingDataSession.getInternalKeyBinding(internalKeyBindingId);  
-                    if (log.isDebugEnabled()) {
-                        log.debug("Processing " + ocspKeyBinding.getName() + " (" + ocspKeyBinding.getId() + ")");
-                    }
-                    if (!ocspKeyBinding.getStatus().equals(InternalKeyBindingStatus.ACTIVE)) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Ignoring OcspKeyBinding since it is not active.");
-                        }
-                        continue;
-                    }
-                    final X509Certificate ocspSigningCertificate = (X509Certificate) certificateStoreSession.findCertificateByFingerprint(ocspKeyBinding.getCertificateId());
-                    if (ocspSigningCertificate == null) {
-                        log.warn("OCSP signing certificate with referenced fingerprint " + ocspKeyBinding.getCertificateId() +
-                                " does not exist. Ignoring internalKeyBinding with id " + ocspKeyBinding.getId());
-                        continue;
-                    }
-                    //Make the same check as above 
-                    if (certificateStoreSession.getStatus(CertTools.getIssuerDN(ocspSigningCertificate), CertTools.getSerialNumber(ocspSigningCertificate))
-                            .equals(CertificateStatus.REVOKED)) {
-                        log.warn("OCSP Responder certificate with subject DN '" + CertTools.getSubjectDN(ocspSigningCertificate) + "' and serial number "
-                                + CertTools.getSerialNumber(ocspSigningCertificate) + " is revoked.");
-                    }
-                    //Check if signing cert is expired
-                    if (!CertTools.isCertificateValid(ocspSigningCertificate)) {
-                        log.warn("OCSP Responder certificate with subject DN '" + CertTools.getSubjectDN(ocspSigningCertificate) + "' and serial number "
-                                + CertTools.getSerialNumber(ocspSigningCertificate) + " is expired.");
-                    }
-                    
-                    OcspSigningCacheEntry ocspSigningCacheEntry = makeOcspSigningCacheEntry(ocspSigningCertificate, ocspKeyBinding);
-                    if (ocspSigningCacheEntry == null) {
-                        continue;
-                    } else {
-                        OcspSigningCache.INSTANCE.stagingAdd(ocspSigningCacheEntry);
-                    }
+                // Populate OcspSigningCache, reusing the entries of CAs and key bindings that have not changed since the last reload
+                final OcspSigningCacheLoader loader = new OcspSigningCacheLoader(caSession, certificateStoreSession, cryptoTokenSession,
+                        internalKeyBindingDataSession);
+                for (final OcspSigningCacheEntry ocspSigningCacheEntry : loader.loadEntries(loadedOcspSigningCacheEntries)) {
+                    OcspSigningCache.INSTANCE.stagingAdd(ocspSigningCacheEntry);
                 }
                 OcspSigningCache.INSTANCE.stagingCommit(ocspConfiguration.getOcspDefaultResponderReference());
             } finally {
@@ -416,112 +297,6 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
     }
 
-    /**
-     * Constructs an OcspSigningCacheEntry from the given parameters.
-     * 
-     * @param ocspSigningCertificate The signing certificate associated with the key binding. May be found separately, so given as a separate parameter
-     * @param ocspKeyBinding the Key Binding to base the cache entry off of. 
-     * @return an OcspSigningCacheEntry, or null if any error was encountered.
-     */
-    private OcspSigningCacheEntry makeOcspSigningCacheEntry(X509Certificate ocspSigningCertificate, OcspKeyBinding ocspKeyBinding) {
-        final List<X509Certificate> caCertificateChain = getCaCertificateChain(ocspSigningCertificate);
-        if (caCertificateChain == null) {
-            log.warn("OcspKeyBinding " + ocspKeyBinding.getName() + " ( " + ocspKeyBinding.getId() + ") has an signing certificate, but no chain and will be ignored.");
-            return null;
-        }
-        final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(ocspKeyBinding.getCryptoTokenId());
-        if (cryptoToken == null) {
-            log.warn("Referenced CryptoToken with id " + ocspKeyBinding.getCryptoTokenId() + " does not exist. Ignoring OcspKeyBinding with id "
-                    + ocspKeyBinding.getId());
-            return null;
-        }
-        final PrivateKey privateKey;
-        try {
-            privateKey = cryptoToken.getPrivateKey(ocspKeyBinding.getKeyPairAlias());
-        } catch (CryptoTokenOfflineException e) {
-            log.warn("Referenced private key with alias " + ocspKeyBinding.getKeyPairAlias() + " could not be used. CryptoToken is off-line for OcspKeyBinding with id "+ocspKeyBinding.getId()+": " + e.getMessage());
-            return null;
-        }
-        if (privateKey == null) {
-            log.warn("Referenced private key with alias " + ocspKeyBinding.getKeyPairAlias() + " does not exist. Ignoring OcspKeyBinding with id "+ ocspKeyBinding.getId());
-            return null;
-        }
-        final String signatureProviderName = cryptoToken.getSignProviderName();
-        if (log.isDebugEnabled()) {
-            log.debug("Adding OcspKeyBinding "+ocspKeyBinding.getId()+", "+ocspKeyBinding.getName());
-        }
-        CertificateStatus certificateStatus = certificateStoreSession.getStatus(CertTools.getIssuerDN(caCertificateChain.get(0)),
-                CertTools.getSerialNumber(caCertificateChain.get(0)));
-        final int respIdType;
-        if (ResponderIdType.NAME.equals(ocspKeyBinding.getResponderIdType())) {
-            respIdType = OcspConfiguration.RESPONDERIDTYPE_NAME;
-        } else {
-            respIdType = OcspConfiguration.RESPONDERIDTYPE_KEYHASH;
-        }
-        return new OcspSigningCacheEntry(caCertificateChain.get(0), certificateStatus, caCertificateChain, ocspSigningCertificate, privateKey,
-                signatureProviderName, ocspKeyBinding, respIdType);
-    }
-    
-    private List<X509Certificate> getCaCertificateChain(final X509Certificate leafCertificate) {
-        final List<X509Certificate> caCertificateChain = new ArrayList<X509Certificate>();
-        X509Certificate currentLevelCertificate = leafCertificate;
-        while (!CertTools.getIssuerDN(currentLevelCertificate).equals(CertTools.getSubjectDN(currentLevelCertificate))) {
-            final String issuerDn = CertTools.getIssuerDN(currentLevelCertificate);
-            currentLevelCertificate = certificateStoreSession.findLatestX509CertificateBySubject(issuerDn);
-            if (currentLevelCertificate == null) {
-                log.warn("Unable to build certificate chain for OCSP signing certificate with Subject DN '" +
-                        CertTools.getSubjectDN(leafCertificate) + "'. CA with Subject DN '" + issuerDn + "' is missing in the database.");
-                return null;
-            }
-            caCertificateChain.add(currentLevelCertificate);
-        }
-        try {
-            CertTools.verify(leafCertificate, caCertificateChain, new Date(), new EkuPKIXCertPathChecker(KeyPurposeId.id_kp_OCSPSigning.getId()));
-        } catch (CertPathValidatorException e) {
-            // Apparently the built chain could not be used to validate the leaf certificate
-            // this could happen if the CA keys were renewed, but the subject DN did not change
-            log.info("Unable to build a valid certificate chain for OCSP signing certificate with Subject DN '" +
-                    CertTools.getSubjectDN(leafCertificate)  + "' and Issuer DN " + CertTools.getIssuerDN(leafCertificate) +
-                    "' using the latest CA certificate(s) in the database. Trying to recover from exception: " + e.getMessage());
-            final CertificateInfo certificateInfo = certificateStoreSession.getCertificateInfo(CertTools.getFingerprintAsString(leafCertificate));
-            final List<Certificate> chainByFingerPrints = certificateStoreSession.getCertificateChain(certificateInfo);
-            if (chainByFingerPrints.size()>0) {
-                // Remove the leaf certificate itself
-                chainByFingerPrints.remove(0);
-            }
-            caCertificateChain.clear();
-            for (final Certificate current : chainByFingerPrints) {
-                if (current instanceof X509Certificate) {
-                    caCertificateChain.add((X509Certificate) current);
-                } else {
-                    log.warn("Unable to build certificate chain for OCSP signing certificate with Subject DN '" +
-                            CertTools.getSubjectDN(leafCertificate) + "' and Issuer DN '" + CertTools.getIssuerDN(leafCertificate) +
-                            "'. CA certificate chain contains non-X509 certificates.");
-                    return null;
-                }
-            }
-            if (caCertificateChain.isEmpty()) {
-                log.warn("Unable to build certificate chain for OCSP signing certificate with Subject DN '" +
-                        CertTools.getSubjectDN(leafCertificate) + "' and Issuer DN '" + CertTools.getIssuerDN(leafCertificate) +
-                        "''. CA certificate(s) are missing in the database.");
-                return null;
-            }
-            try {
-                CertTools.verify(leafCertificate, caCertificateChain, new Date(), new EkuPKIXCertPathChecker(KeyPurposeId.id_kp_OCSPSigning.getId()));
-            } catch (Exception e2) {
-                log.warn("Unable to build certificate chain for OCSP signing certificate with Subject DN '" +
-                        CertTools.getSubjectDN(leafCertificate) + "' and Issuer DN '" + CertTools.getIssuerDN(leafCertificate) +
-                        "''. Found CA certificate(s) cannot be used for validation: " + e2.getMessage());
-                return null;
-            }
-            log.info("Recovered and managed to build a valid certificate chain for OCSP signing certificate with Subject DN '" +
-                    CertTools.getSubjectDN(leafCertificate) + "' and Issuer DN '" + CertTools.getIssuerDN(leafCertificate) +
-                    "'.");
-        }
-        return caCertificateChain;
-    }
-   
-    
     @Override
     public void setCanlog(boolean canLog) {
         CanLogCache.INSTANCE.setCanLog(canLog);
@@ -1032,6 +807,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
         byte[] respBytes = null;
         final Date startTime = new Date();
+        final long startNanos = System.nanoTime();
         OCSPResp ocspResponse = null;
         // Start logging process time after we have received the request
         if (transactionLogger.isEnabled()) {
@@ -1464,8 +1240,26 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 auditLogger.flush();
             }
         }
+        if (ocspResponse != null) {
+            final int status = ocspResponse.getStatus();
+            OCSP_REQUESTS_BY_STATUS[status >= 0 && status < OCSP_REQUESTS_BY_STATUS.length ? status : OCSPRespBuilder.TRY_LATER + 1].inc();
+        }
+        OCSP_REQUEST_DURATION.recordNanosSince(startNanos);
         return new OcspResponseInformation(ocspResponse, maxAge);
     }
+
+    private static Counter[] getOcspRequestCounters() {
+        final MetricFamily<Counter> family = MetricsRegistry.INSTANCE.counterFamily("ocsp_requests_total", "OCSP requests by response status", "status");
+        final Counter[] ret = new Counter[OCSPRespBuilder.UNAUTHORIZED + 1];
+        ret[OCSPRespBuilder.SUCCESSFUL] = family.get("successful");
+        ret[OCSPRespBuilder.MALFORMED_REQUEST] = family.get("malformed_request");
+        ret[OCSPRespBuilder.INTERNAL_ERROR] = family.get("internal_error");
+        ret[OCSPRespBuilder.TRY_LATER] = family.get("try_later");
+        ret[OCSPRespBuilder.TRY_LATER + 1] = family.get("unknown"); // 4 is not used by RFC 6960
+        ret[OCSPRespBuilder.SIG_REQUIRED] = family.get("sig_required");
+        ret[OCSPRespBuilder.UNAUTHORIZED] = family.get("unauthorized");
+        return ret;
+    }
     
     private boolean checkAddArchiveCuttoff(String caCertificateSubjectDn, CertificateID certId) {
         if (OcspConfiguration.getExpiredArchiveCutoff() == -1) {
@@ -1557,7 +1351,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         try {
                             if (certId.matchesIssuer(new JcaX509CertificateHolder(issuingCertificate), new BcDigestCalculatorProvider())) {
                                 //We found it! Unless it's not active, or something else was wrong with it. 
-                                ocspSigningCacheEntry = makeOcspSigningCacheEntry(ocspCertificate, ocspKeyBinding);
+                                ocspSigningCacheEntry = new OcspSigningCacheLoader(caSession, certificateStoreSession, cryptoTokenSession,
+                                        internalKeyBindingDataSession).makeOcspSigningCacheEntry(ocspCertificate, ocspKeyBinding);
                                 //If it was all right, add it to the cache for future use.
                                 if (ocspSigningCacheEntry != null) {
                                     OcspSigningCache.INSTANCE.addSingleEntry(ocspSigningCacheEntry);
@@ -1634,9 +1429,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
          * Note that this does in no way break the spirit of the EJB standard, which is to not interrupt EJB's transaction handling by 
          * competing with its own thread pool, since these operations have no database impact.
          */
+        final long signingStartTime = System.nanoTime();
         final Future<BasicOCSPResp> task = service.submit(new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
         try {
             returnval = task.get(HsmResponseThread.HSM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            OCSP_SIGNING_DURATION.get(provider).recordNanosSince(signingStartTime);
         } catch (InterruptedException e) {
             task.cancel(true);
             throw new Error("OCSP response retrieval was interrupted while running. This should not happen", e);
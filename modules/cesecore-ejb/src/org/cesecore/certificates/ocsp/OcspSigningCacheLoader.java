@@ -0,0 +1,457 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp;
+
+import java.security.PrivateKey;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CADoesntExistsException;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.catoken.CAToken;
+import org.cesecore.certificates.ca.catoken.CATokenConstants;
+import org.cesecore.certificates.certificate.CertificateInfo;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.keybind.InternalKeyBindingDataSessionLocal;
+import org.cesecore.keybind.InternalKeyBindingStatus;
+import org.cesecore.keybind.impl.OcspKeyBinding;
+import org.cesecore.keybind.impl.OcspKeyBinding.ResponderIdType;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.CryptoTokenOfflineException;
+import org.cesecore.keys.token.CryptoTokenSessionLocal;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.provider.EkuPKIXCertPathChecker;
+
+/**
+ * Creates the entries of the OcspSigningCache from the CAs and OcspKeyBindings.
+ *
+ * Each entry is stored with a fingerprint of what it was created from: the CA info and the key binding as returned from their caches
+ * (which replace them when their data in the database changes), the crypto token, its status and the private key, the OCSP signing
+ * certificate fingerprint and the status of the CA certificate. The next reload only creates the entries whose fingerprint has changed, and
+ * reuses the others, so it does not read certificate chains or compute certificate IDs for signers that have not changed.
+ * <p>
+ * The private key is still fetched from the crypto token for every entry on every reload, since a key that has been replaced under the
+ * same alias, or a token that has been logged in to again, is only noticed by comparing the key objects.
+ *
+ * @version $Id$
+ */
+public class OcspSigningCacheLoader {
+
+    private static final Logger log = Logger.getLogger(OcspSigningCacheLoader.class);
+
+    private final CaSessionLocal caSession;
+    private final CertificateStoreSessionLocal certificateStoreSession;
+    private final CryptoTokenSessionLocal cryptoTokenSession;
+    private final InternalKeyBindingDataSessionLocal internalKeyBindingDataSession;
+    /** Number of entries created by the last call to {@link #loadEntries(Map)}, as opposed to reused */
+    private int createdEntries = 0;
+
+    /** What an entry was created from. Cached objects are compared by identity, other values with equals. */
+    private static final class Fingerprint {
+        private final Object[] cachedObjects;
+        private final Object[] values;
+
+        private Fingerprint(final Object[] cachedObjects, final Object... values) {
+            this.cachedObjects = cachedObjects;
+            this.values = values;
+        }
+
+        private boolean matches(final Fingerprint other) {
+            if (other == null || cachedObjects.length != other.cachedObjects.length) {
+                return false;
+            }
+            for (int i = 0; i < cachedObjects.length; i++) {
+                if (cachedObjects[i] != other.cachedObjects[i]) {
+                    return false;
+                }
+            }
+            return Arrays.equals(values, other.values);
+        }
+    }
+
+    /** An entry of the OcspSigningCache and the fingerprint of what it was created from */
+    public static final class LoadedEntry {
+        private final Fingerprint fingerprint;
+        private final OcspSigningCacheEntry entry;
+
+        private LoadedEntry(final Fingerprint fingerprint, final OcspSigningCacheEntry entry) {
+            this.fingerprint = fingerprint;
+            this.entry = entry;
+        }
+    }
+
+    public OcspSigningCacheLoader(final CaSessionLocal caSession, final CertificateStoreSessionLocal certificateStoreSession,
+            final CryptoTokenSessionLocal cryptoTokenSession, final InternalKeyBindingDataSessionLocal internalKeyBindingDataSession) {
+        this.caSession = caSession;
+        this.certificateStoreSession = certificateStoreSession;
+        this.cryptoTokenSession = cryptoTokenSession;
+        this.internalKeyBindingDataSession = internalKeyBindingDataSession;
+    }
+
+    /** @return the number of entries that were created, rather than reused, by the last call to {@link #loadEntries(Map)} */
+    public int getCreatedEntries() {
+        return createdEntries;
+    }
+
+    /** @return the status and revocation of a certificate, to compare with the status when an entry was created */
+    private static String getStatusValue(final CertificateStatus status) {
+        return status.toString() + ";" + status.revocationDate.getTime() + ";" + status.revocationReason;
+    }
+
+    /**
+     * Get the entries for all active CAs, external CAs and active OcspKeyBindings, in the order they should be staged in the
+     * OcspSigningCache: key bindings last, so that they replace the entries of the CAs that they respond for.
+     *
+     * @param loadedEntries the entries from the previous call, by CA or key binding, which will be replaced with the current entries.
+     *      The caller must make sure that this is not called concurrently with the same map.
+     * @return the entries to stage
+     */
+    public List<OcspSigningCacheEntry> loadEntries(final Map<String, LoadedEntry> loadedEntries) {
+        final Map<String, LoadedEntry> currentEntries = new HashMap<String, LoadedEntry>();
+        final List<OcspSigningCacheEntry> ret = new ArrayList<OcspSigningCacheEntry>();
+        createdEntries = 0;
+        // Add all potential CA's as OCSP responders
+        for (final Integer caId : caSession.getAllCaIds()) {
+            final String key = "CA;" + caId;
+            try {
+                final LoadedEntry loadedEntry = loadCaEntry(caId.intValue(), loadedEntries.get(key));
+                if (loadedEntry != null) {
+                    currentEntries.put(key, loadedEntry);
+                    ret.add(loadedEntry.entry);
+                }
+            } catch (CADoesntExistsException e) {
+                // Should only happen if the CA was deleted between the getAvailableCAs and the last one
+                log.warn("CA with Id " + caId + " disappeared during reload operation.");
+            }
+        }
+        // Add all potential InternalKeyBindings as OCSP responders, overwriting CA entries from before
+        for (final int internalKeyBindingId : internalKeyBindingDataSession.getIds(OcspKeyBinding.IMPLEMENTATION_ALIAS)) {
+            final String key = "KB;" + internalKeyBindingId;
+            final LoadedEntry loadedEntry = loadKeyBindingEntry(internalKeyBindingId, loadedEntries.get(key));
+            if (loadedEntry != null) {
+                currentEntries.put(key, loadedEntry);
+                ret.add(loadedEntry.entry);
+            }
+        }
+        loadedEntries.clear();
+        loadedEntries.putAll(currentEntries);
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded " + ret.size() + " OCSP signing cache entries, of which " + createdEntries + " were created and the rest reused.");
+        }
+        return ret;
+    }
+
+    private LoadedEntry loadCaEntry(final int caId, final LoadedEntry previous) throws CADoesntExistsException {
+        final CAInfo caInfo = caSession.getCAInfoInternal(caId);
+        if (caInfo.getCAType() == CAInfo.CATYPE_CVC) {
+            // Bravely ignore OCSP for CVC CAs
+            return null;
+        }
+        final List<X509Certificate> caCertificateChain = new ArrayList<X509Certificate>();
+        if (caInfo.getStatus() == CAConstants.CA_ACTIVE) {
+            //Cache active CAs as signers
+            if (log.isDebugEnabled()) {
+                log.debug("Processing X509 CA " + caInfo.getName() + " (" + caInfo.getCAId() + ").");
+            }
+            final CAToken caToken = caInfo.getCAToken();
+            final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(caToken.getCryptoTokenId());
+            if (cryptoToken == null) {
+                log.info("Excluding CA with id " + caId + " for OCSP signing consideration due to missing CryptoToken.");
+                return null;
+            }
+            for (final Certificate certificate : caInfo.getCertificateChain()) {
+                caCertificateChain.add((X509Certificate) certificate);
+            }
+            if (caCertificateChain.isEmpty()) {
+                log.warn("CA with ID " + caId
+                        + " appears to lack a certificate in the database. This may be a serious error if not in a test environment.");
+                return null;
+            }
+            final X509Certificate caCertificate = caCertificateChain.get(0);
+            final CertificateStatus caCertificateStatus = certificateStoreSession.getStatus(CertTools.getIssuerDN(caCertificate), CertTools.getSerialNumber(caCertificate));
+            // Check if CA cert has been revoked somehow. Always make this check, even if this CA has an OCSP signing certificate, because
+            // signing will still fail even if the signing cert is valid. Shouldn't happen, but log it just in case.
+            if (caCertificateStatus.equals(CertificateStatus.REVOKED)) {
+                log.warn("Active CA with subject DN '" + CertTools.getSubjectDN(caCertificate) + "' and serial number "
+                        + CertTools.getSerialNumber(caCertificate) + " has a revoked certificate.");
+            }
+            //Check if CA cert is expired
+            if (!CertTools.isCertificateValid(caCertificate)) {
+                log.warn("Active CA with subject DN '" + CertTools.getSubjectDN(caCertificate) + "' and serial number "
+                        + CertTools.getSerialNumber(caCertificate) + " has an expired certificate.");
+            }
+            final String keyPairAlias;
+            try {
+                keyPairAlias = caToken.getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CERTSIGN);
+            } catch (CryptoTokenOfflineException e) {
+                log.warn("Referenced private key with purpose " + CATokenConstants.CAKEYPURPOSE_CERTSIGN
+                        + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
+                return null;
+            }
+            final PrivateKey privateKey;
+            try {
+                privateKey = cryptoToken.getPrivateKey(keyPairAlias);
+            } catch (CryptoTokenOfflineException e) {
+                log.warn("Referenced private key with alias " + keyPairAlias
+                        + " could not be used. CryptoToken is off-line for CA with id " + caId + ": " + e.getMessage());
+                return null;
+            }
+            if (privateKey == null) {
+                log.warn("Referenced private key with alias " + keyPairAlias + " does not exist. Ignoring CA with id " + caId);
+                return null;
+            }
+            final Fingerprint fingerprint = new Fingerprint(new Object[] { caInfo, cryptoToken, privateKey }, Integer.valueOf(cryptoToken.getTokenStatus()),
+                    getStatusValue(caCertificateStatus), Integer.valueOf(OcspConfiguration.getResponderIdType()));
+            if (previous != null && fingerprint.matches(previous.fingerprint)) {
+                return new LoadedEntry(fingerprint, previous.entry);
+            }
+            final String signatureProviderName = cryptoToken.getSignProviderName();
+            createdEntries++;
+            return new LoadedEntry(fingerprint, new OcspSigningCacheEntry(caCertificate, caCertificateStatus, caCertificateChain, null, privateKey,
+                    signatureProviderName, null, OcspConfiguration.getResponderIdType()));
+        } else if (caInfo.getStatus() == CAConstants.CA_EXTERNAL) {
+            // If set, all external CA's without a keybinding (set below) will be responded to by the default responder. 
+            for (final Certificate certificate : caInfo.getCertificateChain()) {
+                caCertificateChain.add((X509Certificate) certificate);
+            }
+            CertificateStatus caCertificateStatus = certificateStoreSession.getStatus(CertTools.getIssuerDN(caCertificateChain.get(0)),
+                    CertTools.getSerialNumber(caCertificateChain.get(0)));
+            // Check if CA cert has been revoked somehow. Always make this check, even if this CA has an OCSP signing certificate, because
+            // signing will still fail even if the signing cert is valid. 
+            if (caCertificateStatus.equals(CertificateStatus.REVOKED)) {
+                log.info("External CA with subject DN '" + CertTools.getSubjectDN(caCertificateChain.get(0)) + "' and serial number "
+                        + CertTools.getSerialNumber(caCertificateChain.get(0)) + " has a revoked certificate.");
+            }
+            //Check if CA cert is expired
+            if (!CertTools.isCertificateValid(caCertificateChain.get(0))) {
+                log.info("External CA with subject DN '" + CertTools.getSubjectDN(caCertificateChain.get(0)) + "' and serial number "
+                        + CertTools.getSerialNumber(caCertificateChain.get(0)) + " has an expired certificate.");
+            }
+            final Fingerprint fingerprint = new Fingerprint(new Object[] { caInfo }, getStatusValue(caCertificateStatus),
+                    Integer.valueOf(OcspConfiguration.getResponderIdType()));
+            if (previous != null && fingerprint.matches(previous.fingerprint)) {
+                return new LoadedEntry(fingerprint, previous.entry);
+            }
+            //Add an entry with just a chain and nothing else
+            createdEntries++;
+            return new LoadedEntry(fingerprint, new OcspSigningCacheEntry(caCertificateChain.get(0), caCertificateStatus, null, null,
+                    null, null, null, OcspConfiguration.getResponderIdType()));
+        }
+        return null;
+    }
+
+    private LoadedEntry loadKeyBindingEntry(final int internalKeyBindingId, final LoadedEntry previous) {
+        final OcspKeyBinding ocspKeyBinding = (OcspKeyBinding) internalKeyBindingDataSession.getInternalKeyBinding(internalKeyBindingId);
+        if (ocspKeyBinding == null) {
+            return null;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Processing " + ocspKeyBinding.getName() + " (" + ocspKeyBinding.getId() + ")");
+        }
+        if (!ocspKeyBinding.getStatus().equals(InternalKeyBindingStatus.ACTIVE)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Ignoring OcspKeyBinding since it is not active.");
+            }
+            return null;
+        }
+        // The signing certificate and the chain can be taken from the previous entry if the key binding still refers to the same
+        // certificate, and the issuing CA has not changed (e.g. been renewed) since then
+        final OcspSigningCacheEntry previousEntry = previous == null ? null : previous.entry;
+        final X509Certificate ocspSigningCertificate;
+        CAInfo issuerCaInfo = null;
+        if (previousEntry != null && previousEntry.getOcspKeyBinding() == ocspKeyBinding) {
+            ocspSigningCertificate = previousEntry.getOcspSigningCertificate();
+            try {
+                issuerCaInfo = caSession.getCAInfoInternal(CertTools.getIssuerDN(ocspSigningCertificate).hashCode());
+            } catch (CADoesntExistsException e) {
+                // Not issued by a CA known to this instance, so the chain is read from the database again
+            }
+        } else {
+            ocspSigningCertificate = (X509Certificate) certificateStoreSession.findCertificateByFingerprint(ocspKeyBinding.getCertificateId());
+        }
+        if (ocspSigningCertificate == null) {
+            log.warn("OCSP signing certificate with referenced fingerprint " + ocspKeyBinding.getCertificateId() +
+                    " does not exist. Ignoring internalKeyBinding with id " + ocspKeyBinding.getId());
+            return null;
+        }
+        //Make the same check as for CAs
+        if (certificateStoreSession.getStatus(CertTools.getIssuerDN(ocspSigningCertificate), CertTools.getSerialNumber(ocspSigningCertificate))
+                .equals(CertificateStatus.REVOKED)) {
+            log.warn("OCSP Responder certificate with subject DN '" + CertTools.getSubjectDN(ocspSigningCertificate) + "' and serial number "
+                    + CertTools.getSerialNumber(ocspSigningCertificate) + " is revoked.");
+        }
+        //Check if signing cert is expired
+        if (!CertTools.isCertificateValid(ocspSigningCertificate)) {
+            log.warn("OCSP Responder certificate with subject DN '" + CertTools.getSubjectDN(ocspSigningCertificate) + "' and serial number "
+                    + CertTools.getSerialNumber(ocspSigningCertificate) + " is expired.");
+        }
+        if (issuerCaInfo != null) {
+            final X509Certificate caCertificate = previousEntry.getIssuerCaCertificate();
+            final CertificateStatus caCertificateStatus = certificateStoreSession.getStatus(CertTools.getIssuerDN(caCertificate),
+                    CertTools.getSerialNumber(caCertificate));
+            final Fingerprint fingerprint = getFingerprint(ocspKeyBinding, issuerCaInfo, caCertificateStatus);
+            if (fingerprint.matches(previous.fingerprint)) {
+                return new LoadedEntry(fingerprint, previousEntry);
+            }
+        }
+        final OcspSigningCacheEntry ocspSigningCacheEntry = makeOcspSigningCacheEntry(ocspSigningCertificate, ocspKeyBinding);
+        if (ocspSigningCacheEntry == null) {
+            return null;
+        }
+        createdEntries++;
+        if (issuerCaInfo == null) {
+            try {
+                issuerCaInfo = caSession.getCAInfoInternal(CertTools.getIssuerDN(ocspSigningCertificate).hashCode());
+            } catch (CADoesntExistsException e) {
+                // Not issued by a CA known to this instance, so the entry is created again on the next reload
+            }
+        }
+        return new LoadedEntry(getFingerprint(ocspKeyBinding, issuerCaInfo, ocspSigningCacheEntry.getIssuerCaCertificateStatus()), ocspSigningCacheEntry);
+    }
+
+    /** @return the fingerprint of an entry for a key binding, which never matches if the issuer is not a CA known to this instance */
+    private Fingerprint getFingerprint(final OcspKeyBinding ocspKeyBinding, final CAInfo issuerCaInfo, final CertificateStatus caCertificateStatus) {
+        final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(ocspKeyBinding.getCryptoTokenId());
+        PrivateKey privateKey = null;
+        if (cryptoToken != null) {
+            try {
+                privateKey = cryptoToken.getPrivateKey(ocspKeyBinding.getKeyPairAlias());
+            } catch (CryptoTokenOfflineException e) {
+                // Handled when the entry is created
+            }
+        }
+        // A new object is never identical to the one in a previous fingerprint
+        return new Fingerprint(new Object[] { ocspKeyBinding, issuerCaInfo == null ? new Object() : issuerCaInfo, cryptoToken, privateKey },
+                ocspKeyBinding.getCertificateId(), Integer.valueOf(cryptoToken == null ? 0 : cryptoToken.getTokenStatus()),
+                getStatusValue(caCertificateStatus));
+    }
+
+    /**
+     * Constructs an OcspSigningCacheEntry from the given parameters.
+     * 
+     * @param ocspSigningCertificate The signing certificate associated with the key binding. May be found separately, so given as a separate parameter
+     * @param ocspKeyBinding the Key Binding to base the cache entry off of. 
+     * @return an OcspSigningCacheEntry, or null if any error was encountered.
+     */
+    public OcspSigningCacheEntry makeOcspSigningCacheEntry(X509Certificate ocspSigningCertificate, OcspKeyBinding ocspKeyBinding) {
+        final List<X509Certificate> caCertificateChain = getCaCertificateChain(ocspSigningCertificate);
+        if (caCertificateChain == null) {
+            log.warn("OcspKeyBinding " + ocspKeyBinding.getName() + " ( " + ocspKeyBinding.getId() + ") has an signing certificate, but no chain and will be ignored.");
+            return null;
+        }
+        final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(ocspKeyBinding.getCryptoTokenId());
+        if (cryptoToken == null) {
+            log.warn("Referenced CryptoToken with id " + ocspKeyBinding.getCryptoTokenId() + " does not exist. Ignoring OcspKeyBinding with id "
+                    + ocspKeyBinding.getId());
+            return null;
+        }
+        final PrivateKey privateKey;
+        try {
+            privateKey = cryptoToken.getPrivateKey(ocspKeyBinding.getKeyPairAlias());
+        } catch (CryptoTokenOfflineException e) {
+            log.warn("Referenced private key with alias " + ocspKeyBinding.getKeyPairAlias() + " could not be used. CryptoToken is off-line for OcspKeyBinding with id "+ocspKeyBinding.getId()+": " + e.getMessage());
+            return null;
+        }
+        if (privateKey == null) {
+            log.warn("Referenced private key with alias " + ocspKeyBinding.getKeyPairAlias() + " does not exist. Ignoring OcspKeyBinding with id "+ ocspKeyBinding.getId());
+            return null;
+        }
+        final String signatureProviderName = cryptoToken.getSignProviderName();
+        if (log.isDebugEnabled()) {
+            log.debug("Adding OcspKeyBinding "+ocspKeyBinding.getId()+", "+ocspKeyBinding.getName());
+        }
+        CertificateStatus certificateStatus = certificateStoreSession.getStatus(CertTools.getIssuerDN(caCertificateChain.get(0)),
+                CertTools.getSerialNumber(caCertificateChain.get(0)));
+        final int respIdType;
+        if (ResponderIdType.NAME.equals(ocspKeyBinding.getResponderIdType())) {
+            respIdType = OcspConfiguration.RESPONDERIDTYPE_NAME;
+        } else {
+            respIdType = OcspConfiguration.RESPONDERIDTYPE_KEYHASH;
+        }
+        return new OcspSigningCacheEntry(caCertificateChain.get(0), certificateStatus, caCertificateChain, ocspSigningCertificate, privateKey,
+                signatureProviderName, ocspKeyBinding, respIdType);
+    }
+
+    private List<X509Certificate> getCaCertificateChain(final X509Certificate leafCertificate) {
+        final List<X509Certificate> caCertificateChain = new ArrayList<X509Certificate>();
+        X509Certificate currentLevelCertificate = leafCertificate;
+        while (!CertTools.getIssuerDN(currentLevelCertificate).equals(CertTools.getSubjectDN(currentLevelCertificate))) {
+            final String issuerDn = CertTools.getIssuerDN(currentLevelCertificate);
+            currentLevelCertificate = certificateStoreSession.findLatestX509CertificateBySubject(issuerDn);
+            if (currentLevelCertificate == null) {
+                log.warn("Unable to build certificate chain for OCSP signing certificate with Subject DN '" +
+                        CertTools.getSubjectDN(leafCertificate) + "'. CA with Subject DN '" + issuerDn + "' is missing in the database.");
+                return null;
+            }
+            caCertificateChain.add(currentLevelCertificate);
+        }
+        try {
+            CertTools.verify(leafCertificate, caCertificateChain, new Date(), new EkuPKIXCertPathChecker(KeyPurposeId.id_kp_OCSPSigning.getId()));
+        } catch (CertPathValidatorException e) {
+            // Apparently the built chain could not be used to validate the leaf certificate
+            // this could happen if the CA keys were renewed, but the subject DN did not change
+            log.info("Unable to build a valid certificate chain for OCSP signing certificate with Subject DN '" +
+                    CertTools.getSubjectDN(leafCertificate)  + "' and Issuer DN " + CertTools.getIssuerDN(leafCertificate) +
+                    "' using the latest CA certificate(s) in the database. Trying to recover from exception: " + e.getMessage());
+            final CertificateInfo certificateInfo = certificateStoreSession.getCertificateInfo(CertTools.getFingerprintAsString(leafCertificate));
+            final List<Certificate> chainByFingerPrints = certificateStoreSession.getCertificateChain(certificateInfo);
+            if (chainByFingerPrints.size()>0) {
+                // Remove the leaf certificate itself
+                chainByFingerPrints.remove(0);
+            }
+            caCertificateChain.clear();
+            for (final Certificate current : chainByFingerPrints) {
+                if (current instanceof X509Certificate) {
+                    caCertificateChain.add((X509Certificate) current);
+                } else {
+                    log.warn("Unable to build certificate chain for OCSP signing certificate with Subject DN '" +
+                            CertTools.getSubjectDN(leafCertificate) + "' and Issuer DN '" + CertTools.getIssuerDN(leafCertificate) +
+                            "'. CA certificate chain contains non-X509 certificates.");
+                    return null;
+                }
+            }
+            if (caCertificateChain.isEmpty()) {
+                log.warn("Unable to build certificate chain for OCSP signing certificate with Subject DN '" +
+                        CertTools.getSubjectDN(leafCertificate) + "' and Issuer DN '" + CertTools.getIssuerDN(leafCertificate) +
+                        "''. CA certificate(s) are missing in the database.");
+                return null;
+            }
+            try {
+                CertTools.verify(leafCertificate, caCertificateChain, new Date(), new EkuPKIXCertPathChecker(KeyPurposeId.id_kp_OCSPSigning.getId()));
+            } catch (Exception e2) {
+                log.warn("Unable to build certificate chain for OCSP signing certificate with Subject DN '" +
+                        CertTools.getSubjectDN(leafCertificate) + "' and Issuer DN '" + CertTools.getIssuerDN(leafCertificate) +
+                        "''. Found CA certificate(s) cannot be used for validation: " + e2.getMessage());
+                return null;
+            }
+            log.info("Recovered and managed to build a valid certificate chain for OCSP signing certificate with Subject DN '" +
+                    CertTools.getSubjectDN(leafCertificate) + "' and Issuer DN '" + CertTools.getIssuerDN(leafCertificate) +
+                    "'.");
+        }
+        return caCertificateChain;
+    }
+}
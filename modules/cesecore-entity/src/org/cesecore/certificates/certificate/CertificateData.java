@@ -18,6 +18,7 @@ import java.security.PublicKey;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
@@ -78,6 +79,9 @@ public class CertificateData extends ProtectedData implements Serializable {
 
     private static final Logger log = Logger.getLogger(CertificateData.class);
 
+    /** Largest number of elements to use in a single SQL IN list */
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
     private String issuerDN;
     private String subjectDN;
     private String fingerprint = "";
@@ -829,6 +833,45 @@ public class CertificateData extends ProtectedData implements Serializable {
         return query.getResultList();
     }
 
+    /** @return the entries with any of the fingerprints, in one query for each {@value #MAX_IN_LIST_SIZE} fingerprints */
+    @SuppressWarnings("unchecked")
+    public static List<CertificateData> findByFingerprints(EntityManager entityManager, List<String> fingerprints) {
+        final Query query = entityManager.createQuery("SELECT a FROM CertificateData a WHERE a.fingerprint IN (:fingerprints)");
+        final List<CertificateData> ret = new ArrayList<CertificateData>();
+        for (int i=0; i<fingerprints.size(); i+=MAX_IN_LIST_SIZE) {
+            query.setParameter("fingerprints", fingerprints.subList(i, Math.min(i+MAX_IN_LIST_SIZE, fingerprints.size())));
+            ret.addAll(query.getResultList());
+        }
+        return ret;
+    }
+
+    /** @return the entries from the issuer with any of the serial numbers, in one query for each {@value #MAX_IN_LIST_SIZE} serial numbers */
+    @SuppressWarnings("unchecked")
+    public static List<CertificateData> findByIssuerDNSerialNumbers(EntityManager entityManager, String issuerDN, List<String> serialNumbers) {
+        final Query query = entityManager.createQuery("SELECT a FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)");
+        query.setParameter("issuerDN", issuerDN);
+        final List<CertificateData> ret = new ArrayList<CertificateData>();
+        for (int i=0; i<serialNumbers.size(); i+=MAX_IN_LIST_SIZE) {
+            query.setParameter("serialNumbers", serialNumbers.subList(i, Math.min(i+MAX_IN_LIST_SIZE, serialNumbers.size())));
+            ret.addAll(query.getResultList());
+        }
+        return ret;
+    }
+
+    /**
+     * Deletes the entries with the given fingerprints that have no subjectKeyId, i.e. that were created from a CRL and not from a certificate.
+     * @return the number of deleted entries
+     */
+    public static int deleteLimitedByFingerprints(EntityManager entityManager, List<String> fingerprints) {
+        final Query query = entityManager.createQuery("DELETE FROM CertificateData a WHERE a.fingerprint IN (:fingerprints) AND a.subjectKeyId IS NULL");
+        int deleted = 0;
+        for (int i=0; i<fingerprints.size(); i+=MAX_IN_LIST_SIZE) {
+            query.setParameter("fingerprints", fingerprints.subList(i, Math.min(i+MAX_IN_LIST_SIZE, fingerprints.size())));
+            deleted += query.executeUpdate();
+        }
+        return deleted;
+    }
+
     /** @return return the query results as a List. */
     public static CertificateInfo findFirstCertificateInfo(EntityManager entityManager, String issuerDN, String serialNumber) {
         CertificateInfo ret = null;
@@ -1183,21 +1226,48 @@ public class CertificateData extends ProtectedData implements Serializable {
     }
 
     /**
-     * @return the certificates that have CertificateConstants.CERT_REVOKED.
-     * @param firstResult pagination variable, 0 for the first call, insrease by maxRows for further calls if return value is == maxRows
-     * @param maxRows pagination variable max number of rows that should be returned, used in order to make it somewhat efficient on large data
-     *            volumes
-     * */
+     * Keyset pagination over the primary keys of the certificates from an issuer that are not revoked. Rows that are revoked between calls drop
+     * out of the result, which is why an offset can not be used for paging while revoking.
+     * 
+     * @param currentFingerprint only fingerprints greater than this are returned, use "" for the first call and the last returned fingerprint after that
+     * @param maxRows the maximum number of fingerprints to return
+     * @return the fingerprints of certificates that are not CertificateConstants.CERT_REVOKED, in ascending order
+     */
     @SuppressWarnings("unchecked")
-    public static List<CertificateData> findAllNonRevokedCertificates(EntityManager entityManager, String issuerDN, int firstResult, int maxRows) {
-        final Query query = entityManager.createQuery("SELECT a FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.status <> :status");
+    public static List<String> findNextNonRevokedFingerprints(EntityManager entityManager, String issuerDN, String currentFingerprint, int maxRows) {
+        final Query query = entityManager.createQuery("SELECT a.fingerprint FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.status<>:status"
+                + " AND a.fingerprint>:currentFingerprint ORDER BY a.fingerprint ASC");
         query.setParameter("issuerDN", issuerDN);
         query.setParameter("status", CertificateConstants.CERT_REVOKED);
-        query.setFirstResult(firstResult);
+        query.setParameter("currentFingerprint", currentFingerprint);
         query.setMaxResults(maxRows);
         return query.getResultList();
     }
 
+    /**
+     * Revokes the given certificates with a single set-based update. Certificates that are already revoked are left as they are.
+     * 
+     * NOTE! This bypasses the entity life cycle, so it must not be used when database integrity protection is enabled for this table.
+     * 
+     * @return the number of certificates that were revoked
+     */
+    public static int revokeByFingerprints(EntityManager entityManager, List<String> fingerprints, long revocationDate, int reason, long updateTime) {
+        final Query query = entityManager.createQuery("UPDATE CertificateData a SET a.status=:status, a.revocationDate=:revocationDate,"
+                + " a.revocationReason=:revocationReason, a.updateTime=:updateTime, a.rowVersion=a.rowVersion+1"
+                + " WHERE a.fingerprint IN (:fingerprints) AND a.status<>:status");
+        query.setParameter("status", CertificateConstants.CERT_REVOKED);
+        query.setParameter("revocationDate", revocationDate);
+        query.setParameter("revocationReason", reason);
+        query.setParameter("updateTime", updateTime);
+        int updated = 0;
+        // Some databases (e.g. Oracle) limit the number of elements in an IN list
+        for (int i=0; i<fingerprints.size(); i+=MAX_IN_LIST_SIZE) {
+            query.setParameter("fingerprints", fingerprints.subList(i, Math.min(i+MAX_IN_LIST_SIZE, fingerprints.size())));
+            updated += query.executeUpdate();
+        }
+        return updated;
+    }
+
     /**
      * @return a List<Certificate> of SecConst.CERT_ACTIVE and CERT_NOTIFIEDABOUTEXPIRATION certs that have one of the specified types. */
     @SuppressWarnings("unchecked")
@@ -0,0 +1,175 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERUTCTime;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.util.cert.StreamedCrl;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests processing the entries of large CRLs in CRLDownloadWorker, with the database calls mocked.
+ *
+ * @version $Id$
+ */
+public class CRLDownloadWorkerTest {
+
+    private static final String ISSUER_DN = "CN=CRLDownloadWorkerTest";
+    private static final int ENTRIES = 1000000;
+    /** Every n:th entry of the full CRL is not on the previous CRL */
+    private static final int NEW_ENTRY_INTERVAL = 20;
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keyPair = KeyTools.genKeys("1024", "RSA");
+    }
+
+    /** Write a DER tag and length */
+    private static void writeHeader(final ByteArrayOutputStream out, final int tag, final int length) {
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = 0;
+            for (int i = length; i > 0; i >>>= 8) {
+                bytes++;
+            }
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> (i * 8));
+            }
+        }
+    }
+
+    /**
+     * Create a CRL with the given number of entries, without the object overhead of a CRL builder.
+     * @param skipInterval every n:th serial number is left out, or 0 to include all
+     */
+    private static byte[] createCrl(final int entries, final int skipInterval) throws Exception {
+        final Date revocationDate = new Date(1450000000000L);
+        final ByteArrayOutputStream revokedCertificates = new ByteArrayOutputStream(entries * 24);
+        final byte[] encodedRevocationDate = new DERUTCTime(revocationDate).getEncoded();
+        for (int i = 1; i <= entries; i++) {
+            if (skipInterval != 0 && i % skipInterval == 0) {
+                continue;
+            }
+            final byte[] serialNumber = new ASN1Integer(BigInteger.valueOf(i)).getEncoded();
+            writeHeader(revokedCertificates, 0x30, serialNumber.length + encodedRevocationDate.length);
+            revokedCertificates.write(serialNumber);
+            revokedCertificates.write(encodedRevocationDate);
+        }
+        final AlgorithmIdentifier signatureAlgorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption);
+        final ByteArrayOutputStream tbsContent = new ByteArrayOutputStream(revokedCertificates.size() + 200);
+        tbsContent.write(new ASN1Integer(1).getEncoded());
+        tbsContent.write(signatureAlgorithm.getEncoded());
+        tbsContent.write(new X500Name(ISSUER_DN).getEncoded());
+        tbsContent.write(new DERUTCTime(revocationDate).getEncoded());
+        writeHeader(tbsContent, 0x30, revokedCertificates.size());
+        revokedCertificates.writeTo(tbsContent);
+        final ByteArrayOutputStream tbs = new ByteArrayOutputStream(tbsContent.size() + 10);
+        writeHeader(tbs, 0x30, tbsContent.size());
+        tbsContent.writeTo(tbs);
+        final Signature signature = Signature.getInstance("SHA256WithRSA", "BC");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(tbs.toByteArray());
+        final byte[] encodedSignatureAlgorithm = signatureAlgorithm.getEncoded();
+        final byte[] encodedSignature = new DERBitString(signature.sign()).getEncoded();
+        final ByteArrayOutputStream crl = new ByteArrayOutputStream(tbs.size() + encodedSignatureAlgorithm.length + encodedSignature.length + 10);
+        writeHeader(crl, 0x30, tbs.size() + encodedSignatureAlgorithm.length + encodedSignature.length);
+        tbs.writeTo(crl);
+        crl.write(encodedSignatureAlgorithm);
+        crl.write(encodedSignature);
+        return crl.toByteArray();
+    }
+
+    private static long getUsedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Counts the entries written to the database, and the heap used while they are written. */
+    private static class WriteCounter implements IAnswer<Integer> {
+        private int calls = 0;
+        private int entries = 0;
+        private long maxUsedMemory = 0;
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Integer answer() {
+            final List<RevokedCertInfo> revokedCertInfos = (List<RevokedCertInfo>) EasyMock.getCurrentArguments()[3];
+            for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+                // Only entries that were not on the previous CRL
+                assertEquals(0, revokedCertInfo.getUserCertificate().intValue() % NEW_ENTRY_INTERVAL);
+            }
+            if (calls % 10 == 0) {
+                maxUsedMemory = Math.max(maxUsedMemory, getUsedMemory());
+            }
+            calls++;
+            entries += revokedCertInfos.size();
+            return Integer.valueOf(revokedCertInfos.size());
+        }
+    }
+
+    @Test
+    public void testOnlyNewEntriesAreWrittenInBatches() throws Exception {
+        final StreamedCrl previousCrl = new StreamedCrl(createCrl(ENTRIES, NEW_ENTRY_INTERVAL));
+        final StreamedCrl crl = new StreamedCrl(createCrl(ENTRIES, 0));
+        crl.verify(keyPair.getPublic(), "BC");
+        assertEquals(ENTRIES, crl.getEntryCount());
+        final int newEntries = ENTRIES / NEW_ENTRY_INTERVAL;
+        final WriteCounter writeCounter = new WriteCounter();
+        final CertificateStoreSessionLocal certificateStoreSession = EasyMock.createMock(CertificateStoreSessionLocal.class);
+        EasyMock.expect(Integer.valueOf(certificateStoreSession.updateLimitedCertificateDataStatus(EasyMock.<AuthenticationToken> anyObject(),
+                EasyMock.eq(4711), EasyMock.eq(ISSUER_DN), EasyMock.<List<RevokedCertInfo>> anyObject(), EasyMock.eq("caFingerprint"))))
+                .andAnswer(writeCounter).anyTimes();
+        EasyMock.replay(certificateStoreSession);
+        final long usedMemoryBefore = getUsedMemory();
+        final int result = new CRLDownloadWorker().updateChangedEntries(certificateStoreSession, 4711, ISSUER_DN, "caFingerprint", crl, previousCrl);
+        EasyMock.verify(certificateStoreSession);
+        assertEquals(newEntries, result);
+        assertEquals(newEntries, writeCounter.entries);
+        assertEquals((newEntries + 999) / 1000, writeCounter.calls);
+        // The sorted entry offsets of both CRLs and one batch of entries, but nothing per decoded entry
+        final long usedMemory = writeCounter.maxUsedMemory - usedMemoryBefore;
+        assertTrue("Used " + usedMemory + " bytes of memory while processing the CRL entries.", usedMemory < 4L * 4 * ENTRIES);
+        // Nothing is written for the same CRL again
+        assertEquals(0, new CRLDownloadWorker().updateChangedEntries(certificateStoreSession, 4711, ISSUER_DN, "caFingerprint", crl, crl));
+        assertEquals((newEntries + 999) / 1000, writeCounter.calls);
+    }
+}
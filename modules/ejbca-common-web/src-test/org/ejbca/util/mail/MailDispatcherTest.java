@@ -0,0 +1,200 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util.mail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Provider;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests sending emails over pooled connections with MailDispatcher, using a transport that counts connections instead of a mail server.
+ *
+ * @version $Id$
+ */
+public class MailDispatcherTest {
+
+    private static final Logger log = Logger.getLogger(MailDispatcherTest.class);
+
+    private static final int MAX_CONNECTIONS = 4;
+    private static final String REJECTED_ADDRESS = "rejected@example.com";
+
+    private static final AtomicInteger connects = new AtomicInteger();
+    private static final AtomicInteger sentMessages = new AtomicInteger();
+    private static final AtomicInteger concurrentSends = new AtomicInteger();
+    private static final AtomicInteger maxConcurrentSends = new AtomicInteger();
+    /** The number of messages a connection can send before it is dropped, or 0 for no limit and -1 to drop every connection */
+    private static volatile int messagesPerConnection = 0;
+    private static volatile long sendTime = 0;
+
+    /** Transport that counts the connections and messages, instead of sending them */
+    public static class CountingTransport extends Transport {
+        private int sentOnConnection = 0;
+
+        public CountingTransport(final Session session, final URLName urlname) {
+            super(session, urlname);
+        }
+
+        @Override
+        protected boolean protocolConnect(final String host, final int port, final String user, final String password) {
+            connects.incrementAndGet();
+            sentOnConnection = 0;
+            return true;
+        }
+
+        @Override
+        public void sendMessage(final Message message, final Address[] addresses) throws MessagingException {
+            if (!isConnected()) {
+                throw new MessagingException("Not connected.");
+            }
+            if (REJECTED_ADDRESS.equals(addresses[0].toString())) {
+                throw new SendFailedException("Recipient rejected.");
+            }
+            if (messagesPerConnection != 0 && sentOnConnection >= messagesPerConnection) {
+                close();
+                throw new MessagingException("Connection dropped by the server.");
+            }
+            final int concurrent = concurrentSends.incrementAndGet();
+            int max;
+            while ((max = maxConcurrentSends.get()) < concurrent && !maxConcurrentSends.compareAndSet(max, concurrent)) {
+                // Try again
+            }
+            try {
+                if (sendTime > 0) {
+                    Thread.sleep(sendTime);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrentSends.decrementAndGet();
+            }
+            sentOnConnection++;
+            sentMessages.incrementAndGet();
+        }
+    }
+
+    /** A message without content, since content needs the activation framework which is not available on all JREs */
+    private static class TestMessage extends MimeMessage {
+        TestMessage(final Session session, final String to) throws MessagingException {
+            super(session);
+            setFrom(new InternetAddress("ejbca@example.com"));
+            setRecipient(Message.RecipientType.TO, new InternetAddress(to));
+        }
+
+        @Override
+        public void saveChanges() {
+            // Nothing to do without content
+        }
+    }
+
+    private Session session;
+
+    @Before
+    public void setUp() throws Exception {
+        connects.set(0);
+        sentMessages.set(0);
+        maxConcurrentSends.set(0);
+        messagesPerConnection = 0;
+        sendTime = 0;
+        session = Session.getInstance(new Properties());
+        session.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp", CountingTransport.class.getName(), "EJBCA", "1"));
+    }
+
+    private List<Message> createMessages(final int count) throws MessagingException {
+        final List<Message> messages = new ArrayList<Message>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new TestMessage(session, "user" + i + "@example.com"));
+        }
+        return messages;
+    }
+
+    private static void assertAllSent(final boolean[] sent) {
+        for (final boolean messageSent : sent) {
+            assertTrue(messageSent);
+        }
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        final MailDispatcher mailDispatcher = new MailDispatcher(session, MAX_CONNECTIONS, 3);
+        final int count = 10000;
+        final long start = System.currentTimeMillis();
+        assertAllSent(mailDispatcher.sendAll(createMessages(count)));
+        final long time = System.currentTimeMillis() - start;
+        assertEquals(count, sentMessages.get());
+        assertTrue("Made " + connects.get() + " connections.", connects.get() <= MAX_CONNECTIONS);
+        // Sending one at a time reuses the same connections
+        for (final Message message : createMessages(10)) {
+            assertTrue(mailDispatcher.send(message));
+        }
+        assertTrue("Made " + connects.get() + " connections.", connects.get() <= MAX_CONNECTIONS);
+        mailDispatcher.close();
+        log.info("Sent " + count + " emails in " + time + " ms over " + connects.get() + " connections.");
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        sendTime = 5;
+        final MailDispatcher mailDispatcher = new MailDispatcher(session, MAX_CONNECTIONS, 3);
+        assertAllSent(mailDispatcher.sendAll(createMessages(200)));
+        assertEquals(MAX_CONNECTIONS, maxConcurrentSends.get());
+        mailDispatcher.close();
+    }
+
+    @Test
+    public void testRetryOnNewConnection() throws Exception {
+        messagesPerConnection = 100;
+        final MailDispatcher mailDispatcher = new MailDispatcher(session, MAX_CONNECTIONS, 2);
+        final int count = 1000;
+        assertAllSent(mailDispatcher.sendAll(createMessages(count)));
+        assertEquals(count, sentMessages.get());
+        assertTrue(connects.get() >= count / messagesPerConnection);
+        // A message that fails on every connection is given up after the configured number of attempts
+        final MailDispatcher failingDispatcher = new MailDispatcher(session, 1, 3);
+        connects.set(0);
+        messagesPerConnection = -1;
+        assertFalse(failingDispatcher.send(new TestMessage(session, "user@example.com")));
+        assertEquals(3, connects.get());
+    }
+
+    @Test
+    public void testRejectedRecipientIsNotRetried() throws Exception {
+        final MailDispatcher mailDispatcher = new MailDispatcher(session, 1, 3);
+        final List<Message> messages = createMessages(2);
+        messages.add(1, new TestMessage(session, REJECTED_ADDRESS));
+        final boolean[] sent = mailDispatcher.sendAll(messages);
+        assertTrue(sent[0]);
+        assertFalse(sent[1]);
+        assertTrue(sent[2]);
+        assertEquals(1, connects.get());
+    }
+}
@@ -13,6 +13,8 @@
 
 package org.ejbca.config;
 
+import org.apache.log4j.Logger;
+
 /**
  * 
  * @version $Id$
@@ -20,6 +22,8 @@ package org.ejbca.config;
 
 public class MailConfiguration {
 
+	private static final Logger log = Logger.getLogger(MailConfiguration.class);
+
 	/**
 	 * The JNDI-name used to send email notifications from EJBCA.
 	 */
@@ -34,4 +38,30 @@ public class MailConfiguration {
 		return "text/plain;charset=" + EjbcaConfigurationHolder.getExpandedString("mail.contentencoding");
 	}
 
+	/**
+	 * The max number of connections to the mail server that are kept open and used concurrently.
+	 */
+	public static int getMailMaxConnections() {
+		return getIntProperty("mail.pool.maxconnections", 4);
+	}
+
+	/**
+	 * The number of times sending an email is attempted, each time on a new connection, before giving up.
+	 */
+	public static int getMailSendAttempts() {
+		return getIntProperty("mail.sendattempts", 3);
+	}
+
+	private static int getIntProperty(final String key, final int defaultValue) {
+		final String value = EjbcaConfigurationHolder.getString(key);
+		int ret = defaultValue;
+		try {
+			if (value!=null) {
+				ret = Integer.parseInt(value.trim());
+			}
+		} catch (NumberFormatException e) {
+			log.error("Invalid value configured for '"+key+"', must be decimal number: " + e.getMessage());
+		}
+		return ret;
+	}
 }
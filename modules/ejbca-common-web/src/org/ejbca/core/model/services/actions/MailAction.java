@@ -12,14 +12,20 @@
  *************************************************************************/
 package org.ejbca.core.model.services.actions;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import javax.mail.Message;
+import javax.mail.MessagingException;
+
 import org.apache.log4j.Logger;
 import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.services.ActionException;
 import org.ejbca.core.model.services.ActionInfo;
 import org.ejbca.core.model.services.BaseAction;
+import org.ejbca.util.mail.MailDispatcher;
 import org.ejbca.util.mail.MailSender;
 
 /**
@@ -48,16 +54,7 @@ public class MailAction extends BaseAction {
 
         MailActionInfo mailActionInfo = (MailActionInfo) actionInfo;
         String senderAddress = properties.getProperty(PROP_SENDERADDRESS);
-
-        String reciverAddress = mailActionInfo.getReciever();
-        if (reciverAddress == null) {
-            reciverAddress = properties.getProperty(PROP_RECIEVERADDRESS);
-        }
-
-        if (reciverAddress == null || reciverAddress.trim().equals("")) {
-            String msg = intres.getLocalizedMessage("services.mailaction.errorreceiveraddress");
-            throw new ActionException(msg);
-        }
+        String reciverAddress = getRecieverAddress(mailActionInfo);
 
         try {
             MailSender.sendMailOrThrow(senderAddress, Arrays.asList(reciverAddress), MailSender.NO_CC, mailActionInfo.getSubject(),
@@ -72,6 +69,65 @@ public class MailAction extends BaseAction {
         }
     }
 
+    /**
+     * Sends several mails concurrently over pooled connections to the mail server, see {@link MailDispatcher}.
+     * 
+     * Only supports the MailActionInfo otherwise is ActionException thrown, before any mail is sent.
+     * 
+     * @param actionInfos the mails to send
+     * @return for each mail, true if it was handed over to the mail server
+     */
+    public boolean[] performActions(List<? extends ActionInfo> actionInfos) throws ActionException {
+        final String senderAddress = properties.getProperty(PROP_SENDERADDRESS);
+        final List<String> reciverAddresses = new ArrayList<String>(actionInfos.size());
+        for (final ActionInfo actionInfo : actionInfos) {
+            checkConfig(actionInfo);
+            reciverAddresses.add(getRecieverAddress((MailActionInfo) actionInfo));
+        }
+        final MailDispatcher mailDispatcher = MailDispatcher.getInstance();
+        final List<Message> messages = new ArrayList<Message>(actionInfos.size());
+        final List<Integer> messageIndexes = new ArrayList<Integer>(actionInfos.size());
+        for (int i = 0; i < actionInfos.size(); i++) {
+            final MailActionInfo mailActionInfo = (MailActionInfo) actionInfos.get(i);
+            try {
+                messages.add(MailSender.createMessage(mailDispatcher.getSession(), senderAddress, Arrays.asList(reciverAddresses.get(i)),
+                        MailSender.NO_CC, mailActionInfo.getSubject(), mailActionInfo.getMessage(), MailSender.NO_ATTACHMENTS));
+                messageIndexes.add(Integer.valueOf(i));
+            } catch (MessagingException e) {
+                String msg = intres.getLocalizedMessage("services.mailaction.errorsend", reciverAddresses.get(i));
+                log.info(msg, e);
+            }
+        }
+        final boolean[] sentMessages = mailDispatcher.sendAll(messages);
+        final boolean[] ret = new boolean[actionInfos.size()];
+        for (int i = 0; i < sentMessages.length; i++) {
+            final int index = messageIndexes.get(i).intValue();
+            ret[index] = sentMessages[i];
+            if (!sentMessages[i]) {
+                String msg = intres.getLocalizedMessage("services.mailaction.errorsend", reciverAddresses.get(index));
+                log.info(msg);
+            } else if (((MailActionInfo) actionInfos.get(index)).isLoggingEnabled()) {
+                String logmsg = intres.getLocalizedMessage("services.mailaction.sent", reciverAddresses.get(index));
+                log.info(logmsg);
+            }
+        }
+        return ret;
+    }
+
+    /** @return the reciever of the mail, or the configured default reciever */
+    private String getRecieverAddress(final MailActionInfo mailActionInfo) throws ActionException {
+        String reciverAddress = mailActionInfo.getReciever();
+        if (reciverAddress == null) {
+            reciverAddress = properties.getProperty(PROP_RECIEVERADDRESS);
+        }
+
+        if (reciverAddress == null || reciverAddress.trim().equals("")) {
+            String msg = intres.getLocalizedMessage("services.mailaction.errorreceiveraddress");
+            throw new ActionException(msg);
+        }
+        return reciverAddress;
+    }
+
     /**
      * Method that checks the configuration sets the variables and throws an exception if it's invalid
      * 
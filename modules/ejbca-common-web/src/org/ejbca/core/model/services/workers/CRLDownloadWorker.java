@@ -19,15 +19,13 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SignatureException;
 import java.security.cert.CRLException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.cesecore.authorization.AuthorizationDeniedException;
@@ -39,7 +37,9 @@ import org.cesecore.certificates.ca.X509CAInfo;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.crl.CrlStoreException;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.certificates.util.cert.CrlExtensions;
+import org.cesecore.certificates.util.cert.StreamedCrl;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.NetworkTools;
 import org.cesecore.util.ValidityDate;
@@ -63,6 +63,8 @@ public class CRLDownloadWorker extends BaseWorker {
     public static final String PROP_IGNORE_NEXT_UPDATE = "ignoreNextUpdate";
     public static final String PROP_MAX_DOWNLOAD_SIZE = "maxDownloadSize";
     public static final int DEFAULT_MAX_DOWNLOAD_SIZE = 1*1024*1024;
+    /** The number of changed CRL entries written to the database in each transaction */
+    private static final int BATCH_SIZE = 1000;
 
     @Override
     public void work(Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
@@ -100,13 +102,13 @@ public class CRLDownloadWorker extends BaseWorker {
                     final String issuerDn = CertTools.getSubjectDN(caCertificate);
                     // Get last known CRL (if any) and check when the next update will be
                     final Date now = new Date();
-                    final X509CRL lastFullCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, false));
-                    final X509CRL newestFullCrl;
+                    final StreamedCrl lastFullCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, false));
+                    final StreamedCrl newestFullCrl;
                     if (!ignoreNextUpdate && lastFullCrl!=null && now.before(lastFullCrl.getNextUpdate())) {
                         log.info("Next full CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastFullCrl.getNextUpdate(), null) + ". Skipping download.");
                         newestFullCrl = lastFullCrl;
                     } else {
-                        final X509CRL downloadedFullCrl = getAndProcessCrl(url, maxDownloadSize, caCertificate, caInfo, crlStoreSession, certificateStoreSession, lastFullCrl, lastFullCrl);
+                        final StreamedCrl downloadedFullCrl = getAndProcessCrl(url, maxDownloadSize, caCertificate, caInfo, crlStoreSession, certificateStoreSession, lastFullCrl, lastFullCrl);
                         if (downloadedFullCrl==null) {
                             newestFullCrl = lastFullCrl;
                         } else {
@@ -117,7 +119,7 @@ public class CRLDownloadWorker extends BaseWorker {
                         final List<String> freshestCdps = CrlExtensions.extractFreshestCrlDistributionPoints(newestFullCrl);
                         if (!freshestCdps.isEmpty()) {
                             // Delta CRLs are used and we might already have a valid one stored
-                            X509CRL lastDeltaCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, true));
+                            StreamedCrl lastDeltaCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, true));
                             if (lastDeltaCrl!=null && lastDeltaCrl.getThisUpdate().before(newestFullCrl.getThisUpdate())) {
                                 // The last known delta CRL info is already included in the latest full CRL, so treat the last delta as non-existent
                                 lastDeltaCrl = null;
@@ -132,7 +134,7 @@ public class CRLDownloadWorker extends BaseWorker {
                                         log.info("Unusable Freshest CDP HTTP URL '" + freshestCdpUrl + "' in CRL. Skipping download.");
                                         continue;
                                     }
-                                    final X509CRL newDeltaCrl = getAndProcessCrl(freshestCdpUrl, maxDownloadSize, caCertificate, caInfo, crlStoreSession, certificateStoreSession, lastFullCrl, lastDeltaCrl);
+                                    final StreamedCrl newDeltaCrl = getAndProcessCrl(freshestCdpUrl, maxDownloadSize, caCertificate, caInfo, crlStoreSession, certificateStoreSession, lastFullCrl, lastDeltaCrl);
                                     if (newDeltaCrl!=null) {
                                         break;
                                     }
@@ -155,16 +157,17 @@ public class CRLDownloadWorker extends BaseWorker {
         }
     }
     
-    private X509CRL getCRLFromBytes(final byte[] crlBytes) throws CRLException {
+    /** The revoked certificates are not decoded until they are needed, since a CRL can have millions of them */
+    private StreamedCrl getCRLFromBytes(final byte[] crlBytes) throws CRLException {
         if (crlBytes != null) {
-            return CertTools.getCRLfromByteArray(crlBytes);
+            return new StreamedCrl(crlBytes);
         }
         return null;
     }
     
-    private X509CRL getAndProcessCrl(final URL cdpUrl, final int maxSize, final X509Certificate caCertificate, final CAInfo caInfo, final CrlStoreSessionLocal crlStoreSession,
-            final CertificateStoreSessionLocal certificateStoreSession, final X509CRL lastFullCrl, final X509CRL lastCrlOfSameType) throws CrlStoreException, AuthorizationDeniedException {
-        X509CRL newCrl = null;
+    private StreamedCrl getAndProcessCrl(final URL cdpUrl, final int maxSize, final X509Certificate caCertificate, final CAInfo caInfo, final CrlStoreSessionLocal crlStoreSession,
+            final CertificateStoreSessionLocal certificateStoreSession, final StreamedCrl lastFullCrl, final StreamedCrl lastCrlOfSameType) throws CrlStoreException, AuthorizationDeniedException {
+        StreamedCrl newCrl = null;
         final byte[] crlBytesNew = NetworkTools.downloadDataFromUrl(cdpUrl, maxSize);
         if (crlBytesNew==null) {
             log.warn("Unable to download CRL for " + CertTools.getSubjectDN(caCertificate));
@@ -172,7 +175,7 @@ public class CRLDownloadWorker extends BaseWorker {
             final String caFingerprint = CertTools.getFingerprintAsString(caCertificate);
             final String issuerDn = CertTools.getSubjectDN(caCertificate);
             try {
-                newCrl = CertTools.getCRLfromByteArray(crlBytesNew);
+                newCrl = new StreamedCrl(crlBytesNew);
                 // Verify signature
                 newCrl.verify(caCertificate.getPublicKey(), "BC");
             } catch (CRLException e) {
@@ -208,36 +211,17 @@ public class CRLDownloadWorker extends BaseWorker {
                 return null;
             }
             // If the CRL is newer than the last known or there wasn't any old one, loop through it
-            if (newCrl.getRevokedCertificates()==null) {
+            if (newCrl.getEntryCount()==0) {
                 log.info("No revoked certificates in " + (isDeltaCrl?"delta":"full") + " CRL for CA '" + caInfo.getName() + "'");
             } else {
-                final Set<X509CRLEntry> crlEntries = new HashSet<X509CRLEntry>();
-                crlEntries.addAll(newCrl.getRevokedCertificates());
                 if (log.isDebugEnabled()) {
-                    log.debug("Downloaded CRL contains " + crlEntries.size() + " entries.");
-                }
-                if (lastCrlOfSameType != null && lastCrlOfSameType.getRevokedCertificates()!=null) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Last known CRL contains " + lastCrlOfSameType.getRevokedCertificates().size() + " entries.");
-                    }
-                    // Remove all entries that were processed last time
-                    crlEntries.removeAll(lastCrlOfSameType.getRevokedCertificates());
-                }
-                log.info("Found " + crlEntries.size() + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' compared to previous.");
-                // For each entry that was updated after the last known CRL, create/update a new database entry with the new status
-                for (final X509CRLEntry crlEntry : crlEntries) {
-                    final Date revocationDate = crlEntry.getRevocationDate();
-                    final BigInteger serialNumber = crlEntry.getSerialNumber();
-                    final int reasonCode = CrlExtensions.extractReasonCode(crlEntry);
-                    if (crlEntry.getCertificateIssuer()!=null) {
-                        final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().getName());
-                        if (!issuerDn.equals(entryIssuerDn)) {
-                            log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
-                        }
+                    log.debug("Downloaded CRL contains " + newCrl.getEntryCount() + " entries.");
+                    if (lastCrlOfSameType != null) {
+                        log.debug("Last known CRL contains " + lastCrlOfSameType.getEntryCount() + " entries.");
                     }
-                    // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
-                    certificateStoreSession.updateLimitedCertificateDataStatus(getAdmin(), caInfo.getCAId(), issuerDn, serialNumber, revocationDate, reasonCode, caFingerprint);
                 }
+                final int newEntries = updateChangedEntries(certificateStoreSession, caInfo.getCAId(), issuerDn, caFingerprint, newCrl, lastCrlOfSameType);
+                log.info("Found " + newEntries + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' compared to previous.");
             }
             // Calculate (make up) the CRL Number if the number was not present
             final int newCrlNumber;
@@ -252,4 +236,39 @@ public class CRLDownloadWorker extends BaseWorker {
         }
         return newCrl;
     }
+
+    /**
+     * Create or update the database entries of the CRL entries that were added or changed after the last known CRL, a batch at a time.
+     * The CRLs are compared by sorting their entries by serial number, so memory is not needed for more than one batch of entries.
+     * @return the number of added or changed CRL entries
+     */
+    protected int updateChangedEntries(final CertificateStoreSessionLocal certificateStoreSession, final int caId, final String issuerDn,
+            final String caFingerprint, final StreamedCrl newCrl, final StreamedCrl lastCrlOfSameType) throws AuthorizationDeniedException {
+        int newEntries = 0;
+        int writtenEntries = 0;
+        final List<RevokedCertInfo> batch = new ArrayList<RevokedCertInfo>(BATCH_SIZE);
+        final Iterator<StreamedCrl.Entry> crlEntries = newCrl.getEntriesNotIn(lastCrlOfSameType);
+        while (crlEntries.hasNext()) {
+            final StreamedCrl.Entry crlEntry = crlEntries.next();
+            final BigInteger serialNumber = crlEntry.getSerialNumber();
+            if (crlEntry.getCertificateIssuer()!=null) {
+                final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer());
+                if (!issuerDn.equals(entryIssuerDn)) {
+                    log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
+                }
+            }
+            // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
+            batch.add(new RevokedCertInfo(null, serialNumber.toByteArray(), crlEntry.getRevocationDate().getTime(), crlEntry.getReasonCode(), 0));
+            newEntries++;
+            if (batch.size() == BATCH_SIZE || !crlEntries.hasNext()) {
+                // Each batch is written in its own transaction, so the transactions stay small however large the CRL is
+                writtenEntries += certificateStoreSession.updateLimitedCertificateDataStatus(getAdmin(), caId, issuerDn, batch, caFingerprint);
+                batch.clear();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(writtenEntries + " of the " + newEntries + " new CRL entries changed the database.");
+        }
+        return newEntries;
+    }
 }
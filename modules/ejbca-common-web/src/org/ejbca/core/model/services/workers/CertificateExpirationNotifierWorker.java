@@ -216,6 +216,21 @@ public class CertificateExpirationNotifierWorker extends EmailSendingWorker {
         }
     }
     
+    /** Updates the status of the certificates in one transaction. */
+    @Override
+    protected void updateStatus(List<String> pks, int status) {
+        try {
+            final int updated = certificateStoreSession.setStatus(getAdmin(), pks, status);
+            if (updated != pks.size()) {
+                log.error("Error updating certificate status for " + (pks.size() - updated) + " of " + pks.size() + " certificates.");
+            }
+        } catch (AuthorizationDeniedException e) {
+            // Should not be possible...
+            log.error("Internal admin not authorized: ", e);
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Returns the Set of Certificate Profile IDs. For performance reasons cached as a 
      * transient class variable.
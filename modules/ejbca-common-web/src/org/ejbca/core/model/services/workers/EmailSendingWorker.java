@@ -15,12 +15,15 @@ package org.ejbca.core.model.services.workers;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.ejbca.core.model.services.BaseWorker;
+import org.ejbca.core.model.services.IAction;
 import org.ejbca.core.model.services.ServiceExecutionFailedException;
+import org.ejbca.core.model.services.actions.MailAction;
 import org.ejbca.core.model.services.actions.MailActionInfo;
 import org.ejbca.core.model.services.workers.EmailSendingWorkerConstants;
 
@@ -30,6 +33,8 @@ import org.ejbca.core.model.services.workers.EmailSendingWorkerConstants;
 public abstract class EmailSendingWorker extends BaseWorker {
 
 	private static final Logger log = Logger.getLogger(EmailSendingWorker.class);
+	/** The number of emails sent before the status of their certificates or users is updated */
+	private static final int BATCH_SIZE = 1000;
 
 	private transient String endUserSubject = null;
 	private transient String adminSubject = null;
@@ -66,13 +71,28 @@ public abstract class EmailSendingWorker extends BaseWorker {
 	 * @param status status to update to 
 	 */
 	protected abstract void updateStatus(String pk, int status);
+
+	/** Used to update the status of several objects after their emails have been sent, one at a time unless overridden
+	 * @param pks primary keys of objects to update
+	 * @param status status to update to 
+	 */
+	protected void updateStatus(List<String> pks, int status) {
+		for (final String pk : pks) {
+			updateStatus(pk, status);
+		}
+	}
 	
 	protected void sendEmails(ArrayList<EmailCertData> queue, Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
+		final IAction action = getAction();
+		if (action instanceof MailAction) {
+			sendEmailsInBatches(queue, (MailAction) action);
+			return;
+		}
 		Iterator<EmailCertData> iter = queue.iterator();
 		while(iter.hasNext()){			
 			try{
 				EmailCertData next = iter.next();								
-				getAction().performAction(next.getActionInfo(), ejbs);
+				action.performAction(next.getActionInfo(), ejbs);
 				updateStatus(next.getFingerPrint(), CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION);
 			} catch (Exception fe) {
 				log.error("Error sending emails: ", fe);
@@ -81,6 +101,35 @@ public abstract class EmailSendingWorker extends BaseWorker {
 		}
 	}
 
+	/** Send the emails concurrently over pooled connections, and update the status of the ones the mail server accepted a batch at a time */
+	private void sendEmailsInBatches(final List<EmailCertData> queue, final MailAction mailAction) throws ServiceExecutionFailedException {
+		for (int i=0; i<queue.size(); i+=BATCH_SIZE) {
+			final List<EmailCertData> batch = queue.subList(i, Math.min(i+BATCH_SIZE, queue.size()));
+			final List<MailActionInfo> mailActionInfos = new ArrayList<MailActionInfo>(batch.size());
+			for (final EmailCertData emailCertData : batch) {
+				mailActionInfos.add(emailCertData.getActionInfo());
+			}
+			try {
+				final boolean[] sent = mailAction.performActions(mailActionInfos);
+				final List<String> sentPks = new ArrayList<String>(batch.size());
+				for (int j=0; j<sent.length; j++) {
+					if (sent[j]) {
+						sentPks.add(batch.get(j).getFingerPrint());
+					}
+				}
+				if (sent.length != sentPks.size()) {
+					log.info((sent.length - sentPks.size()) + " of " + sent.length + " emails could not be sent, and will be sent in a later run.");
+				}
+				if (!sentPks.isEmpty()) {
+					updateStatus(sentPks, CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION);
+				}
+			} catch (Exception fe) {
+				log.error("Error sending emails: ", fe);
+				throw new ServiceExecutionFailedException(fe);
+			} 
+		}
+	}
+
 	protected String getAdminMessage() {
 		if(adminMessage == null){
 			adminMessage =  properties.getProperty(EmailSendingWorkerConstants.PROP_ADMINMESSAGE,"No Message Configured");
@@ -20,6 +20,7 @@ import java.util.Map;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cesecore.audit.log.InternalSecurityEventsLoggerSessionLocal;
+import org.cesecore.keys.token.BaseCryptoToken;
 import org.cesecore.keys.token.CryptoToken;
 import org.cesecore.keys.token.CryptoTokenInfo;
 import org.cesecore.keys.token.CryptoTokenManagementSessionLocal;
@@ -47,7 +48,8 @@ public class HsmKeepAliveWorker extends BaseWorker {
         InternalSecurityEventsLoggerSessionLocal logSession = (InternalSecurityEventsLoggerSessionLocal)ejbs.get(InternalSecurityEventsLoggerSessionLocal.class);
         logSession.auditLogCryptoTest(this.getClass().getSimpleName());
 
-        // 2. Call testKeyPair on all active crypto tokens that has an alias named testKey
+        // 2. Call testKeyPair on all active crypto tokens that has an alias named testKey. When a PKCS#11 session pool is used, all sessions
+        //    of the pool are tested, and sessions that fail are no longer used.
         CryptoTokenManagementSessionLocal tokenSession = (CryptoTokenManagementSessionLocal)ejbs.get(CryptoTokenManagementSessionLocal.class);
         List<CryptoTokenInfo> infos = tokenSession.getCryptoTokenInfos(admin);
         if (log.isDebugEnabled()) {
@@ -63,7 +65,8 @@ public class HsmKeepAliveWorker extends BaseWorker {
                     for(final String alias : aliases) {
                         if ("testKey".equals(alias)) {
                             if (log.isDebugEnabled()) {
-                                log.debug("Keepalive testing crypto token '"+info.getName()+"' with id "+info.getCryptoTokenId());
+                                final int sessions = token instanceof BaseCryptoToken ? ((BaseCryptoToken) token).getSessionCount() : 1;
+                                log.debug("Keepalive testing crypto token '"+info.getName()+"' with id "+info.getCryptoTokenId()+" using "+sessions+" session(s)");
                             }
                             token.testKeyPair("testKey");
                             tested = true;
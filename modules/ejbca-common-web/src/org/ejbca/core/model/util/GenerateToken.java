@@ -26,6 +26,7 @@ import org.cesecore.authentication.tokens.UsernamePrincipal;
 import org.cesecore.certificates.ca.CaSession;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.cesecore.certificates.endentity.EndEntityInformation;
+import org.cesecore.keys.util.KeyPairPool;
 import org.cesecore.keys.util.KeyPairWrapper;
 import org.cesecore.keys.util.KeyTools;
 import org.cesecore.keys.util.PublicKeyWrapper;
@@ -110,7 +111,7 @@ public class GenerateToken {
                 log.debug("Generating new keys for user: "+ username);
             }
             // generate new keys.
-    		rsaKeys = KeyTools.genKeys(keyspec, keyalg);
+    		rsaKeys = KeyPairPool.getInstance().getKeyPair(keyspec, keyalg);
     	}
     	X509Certificate cert = null;
     	if ((reusecertificate) && (keyData != null)) {
@@ -0,0 +1,254 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.util.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.apache.log4j.Logger;
+import org.ejbca.config.MailConfiguration;
+import org.ejbca.core.ejb.ServiceLocator;
+
+/**
+ * Sends emails over a small pool of connected transports, so the connection to the mail server, the TLS handshake and the authentication
+ * are not repeated for every email. Emails that fail are sent again on a new connection a configured number of times.
+ *
+ * @version $Id$
+ */
+public class MailDispatcher {
+
+    private static final Logger log = Logger.getLogger(MailDispatcher.class);
+
+    /** Connections that have been idle for longer than this are checked before they are used, since the server might have closed them */
+    private static final long IDLE_CHECK_TIME = 10000L;
+
+    private static volatile MailDispatcher instance = null;
+
+    private final Session session;
+    private final String protocol;
+    private final int maxConnections;
+    private final int maxAttempts;
+    /** One permit for each connection that may be in use */
+    private final Semaphore connections;
+    private final ConcurrentLinkedQueue<PooledTransport> idleTransports = new ConcurrentLinkedQueue<PooledTransport>();
+
+    /** A connected transport and when it was last used */
+    private static class PooledTransport {
+        private final Transport transport;
+        private long lastUsed = System.currentTimeMillis();
+
+        PooledTransport(final Transport transport) {
+            this.transport = transport;
+        }
+    }
+
+    /**
+     * @param session the mail session to send the emails with
+     * @param maxConnections the max number of connections to the mail server
+     * @param maxAttempts the number of times sending an email is attempted
+     */
+    public MailDispatcher(final Session session, final int maxConnections, final int maxAttempts) {
+        this.session = session;
+        final String configuredProtocol = session.getProperty("mail.transport.protocol");
+        this.protocol = configuredProtocol == null ? "smtp" : configuredProtocol;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.connections = new Semaphore(this.maxConnections);
+    }
+
+    /** @return the dispatcher for the mail service configured in mail.properties */
+    public static MailDispatcher getInstance() {
+        final Session session = ServiceLocator.getInstance().getMailSession(MailConfiguration.getMailJndiName());
+        MailDispatcher ret = instance;
+        if (ret == null || ret.session != session) {
+            synchronized (MailDispatcher.class) {
+                ret = instance;
+                if (ret == null || ret.session != session) {
+                    if (ret != null) {
+                        // The mail service has been redeployed
+                        ret.close();
+                    }
+                    ret = new MailDispatcher(session, MailConfiguration.getMailMaxConnections(), MailConfiguration.getMailSendAttempts());
+                    instance = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /** @return the session the emails are sent with */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Send an email over one of the pooled connections. If sending fails, the connection is closed and the email is sent again on a new one,
+     * unless the mail server rejected the recipients.
+     *
+     * @param message the email
+     * @return true if the mail server accepted the email
+     */
+    public boolean send(final Message message) {
+        try {
+            message.saveChanges();
+        } catch (MessagingException e) {
+            log.error("Unable to send email: ", e);
+            return false;
+        }
+        for (int attempt = 1;; attempt++) {
+            PooledTransport pooledTransport = null;
+            try {
+                pooledTransport = getTransport();
+                pooledTransport.transport.sendMessage(message, message.getAllRecipients());
+                release(pooledTransport, true);
+                return true;
+            } catch (SendFailedException e) {
+                // The recipients were rejected, so sending the email again would fail the same way. The connection is still usable.
+                release(pooledTransport, true);
+                log.error("Unable to send email: ", e);
+                return false;
+            } catch (MessagingException e) {
+                release(pooledTransport, false);
+                if (attempt >= maxAttempts) {
+                    log.error("Unable to send email: ", e);
+                    return false;
+                }
+                log.info("Unable to send email in attempt " + attempt + " of " + maxAttempts + ", trying again on a new connection: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted while waiting for a connection to the mail server.");
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Send emails concurrently over the pooled connections, using one thread per connection.
+     *
+     * @param messages the emails
+     * @return for each email, true if the mail server accepted it
+     */
+    public boolean[] sendAll(final List<Message> messages) {
+        final boolean[] sent = new boolean[messages.size()];
+        final AtomicInteger next = new AtomicInteger(0);
+        final Runnable sender = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = next.getAndIncrement()) < sent.length && !Thread.currentThread().isInterrupted()) {
+                    sent[index] = send(messages.get(index));
+                }
+            }
+        };
+        final int threads = Math.min(maxConnections, messages.size());
+        if (threads <= 1) {
+            sender.run();
+            return sent;
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executorService.submit(sender));
+            }
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // Not thrown, since send(Message) catches everything
+                    log.error("Email sender failed: " + e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executorService.shutdownNow();
+        } finally {
+            executorService.shutdown();
+        }
+        return sent;
+    }
+
+    /** Close the idle connections. Connections in use are closed when they are released. */
+    public void close() {
+        PooledTransport pooledTransport;
+        while ((pooledTransport = idleTransports.poll()) != null) {
+            closeTransport(pooledTransport.transport);
+        }
+    }
+
+    /** Wait for a connection to be available, and connect it if needed. */
+    private PooledTransport getTransport() throws MessagingException, InterruptedException {
+        connections.acquire();
+        PooledTransport pooledTransport = idleTransports.poll();
+        try {
+            if (pooledTransport == null) {
+                pooledTransport = new PooledTransport(session.getTransport(protocol));
+                pooledTransport.transport.connect();
+                if (log.isDebugEnabled()) {
+                    log.debug("Connected to the mail server.");
+                }
+            } else if (System.currentTimeMillis() - pooledTransport.lastUsed > IDLE_CHECK_TIME && !pooledTransport.transport.isConnected()) {
+                pooledTransport.transport.connect();
+            }
+            return pooledTransport;
+        } catch (MessagingException e) {
+            if (pooledTransport != null) {
+                closeTransport(pooledTransport.transport);
+            }
+            connections.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param pooledTransport the connection, or null if no connection was made
+     * @param reuse false to close the connection
+     */
+    private void release(final PooledTransport pooledTransport, final boolean reuse) {
+        if (pooledTransport == null) {
+            // getTransport() has already released the permit
+            return;
+        }
+        if (reuse) {
+            pooledTransport.lastUsed = System.currentTimeMillis();
+            idleTransports.add(pooledTransport);
+        } else {
+            closeTransport(pooledTransport.transport);
+        }
+        connections.release();
+    }
+
+    private void closeTransport(final Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to close connection to the mail server: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -20,7 +20,6 @@ import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
@@ -28,7 +27,6 @@ import javax.mail.internet.MimeMultipart;
 
 import org.apache.log4j.Logger;
 import org.ejbca.config.MailConfiguration;
-import org.ejbca.core.ejb.ServiceLocator;
 
 /**
  * Simple wrapper for JavaMail.
@@ -73,69 +71,90 @@ public class MailSender {
 	 * @return true if the message was successfully handed over to JavaMail
 	 */
 	public static boolean sendMail(String fromAddress, List<String> toList, List<String> ccList, String subject, String content, List<MailAttachment> attachments) {
-        Session mailSession = ServiceLocator.getInstance().getMailSession(MailConfiguration.getMailJndiName());
+		final MailDispatcher mailDispatcher = MailDispatcher.getInstance();
+		final Message msg;
+		try {
+			msg = createMessage(mailDispatcher.getSession(), fromAddress, toList, ccList, subject, content, attachments);
+		} catch (MessagingException e) {
+			log.error("Unable to send email: ", e);
+			return false;
+		}
+		if (msg == null) {
+			return false;	// We need at least one recipient.. either TO or CC
+		}
+		return mailDispatcher.send(msg);
+	}
+
+	/**
+	 * Creates an email that can be sent with {@link MailDispatcher}.
+	 * 
+	 * @param mailSession The session of the mail service
+	 * @param fromAddress The "From" address
+	 * @param toList List<String> of addresses that will end up in the "To"-field or null to disable
+	 * @param ccList List<String> of addresses that will end up in the "Cc"-field or null to disable
+	 * @param subject The email subject
+	 * @param content The text message body
+	 * @param attachments List<MailAttachment> of files and objects to attach to the email or null to disable multipart messages
+	 * @return the email, or null if there was no recipient
+	 * @throws MessagingException if an address or the content was invalid
+	 */
+	public static Message createMessage(Session mailSession, String fromAddress, List<String> toList, List<String> ccList, String subject, String content, List<MailAttachment> attachments) throws MessagingException {
         Message msg = new MimeMessage(mailSession);
-        try {
-        	if (log.isDebugEnabled()) {
-        		log.debug("from: " + fromAddress);
-        	}
-			msg.setFrom(new InternetAddress(fromAddress));
-			boolean atLeastOneRecipient = false;
-			if (toList != null) {
-				for (int i=0; i<toList.size(); i++) {
-					String to = toList.get(i);
-					msg.addRecipients(javax.mail.Message.RecipientType.TO, InternetAddress.parse(to, false));
-		        	if (log.isDebugEnabled()) {
-		        		log.debug("to: " + to);
-		        	}
-					atLeastOneRecipient = true;
-				}
-			}
-			if (ccList != null) {
-				for (int i=0; i<ccList.size(); i++) {
-					String cc = ccList.get(i);
-					msg.addRecipients(javax.mail.Message.RecipientType.CC, InternetAddress.parse(cc, false));
-		        	if (log.isDebugEnabled()) {
-		        		log.debug("cc: " + cc);
-		        	}
-					atLeastOneRecipient = true;
-				}
+    	if (log.isDebugEnabled()) {
+    		log.debug("from: " + fromAddress);
+    	}
+		msg.setFrom(new InternetAddress(fromAddress));
+		boolean atLeastOneRecipient = false;
+		if (toList != null) {
+			for (int i=0; i<toList.size(); i++) {
+				String to = toList.get(i);
+				msg.addRecipients(javax.mail.Message.RecipientType.TO, InternetAddress.parse(to, false));
+	        	if (log.isDebugEnabled()) {
+	        		log.debug("to: " + to);
+	        	}
+				atLeastOneRecipient = true;
 			}
-			if (!atLeastOneRecipient) {
-				return false;	// We need at least one recipient.. either TO or CC
+		}
+		if (ccList != null) {
+			for (int i=0; i<ccList.size(); i++) {
+				String cc = ccList.get(i);
+				msg.addRecipients(javax.mail.Message.RecipientType.CC, InternetAddress.parse(cc, false));
+	        	if (log.isDebugEnabled()) {
+	        		log.debug("cc: " + cc);
+	        	}
+				atLeastOneRecipient = true;
 			}
-	        msg.setSubject(subject);
+		}
+		if (!atLeastOneRecipient) {
+			return null;
+		}
+        msg.setSubject(subject);
+    	if (log.isDebugEnabled()) {
+    		log.debug("subject: " + subject);
+    	}
+        if (attachments == null || attachments.size() == 0) {
+	        msg.setContent(content, MailConfiguration.getMailMimeType());
         	if (log.isDebugEnabled()) {
-        		log.debug("subject: " + subject);
+        		log.debug("content: " + content);
         	}
-	        if (attachments == null || attachments.size() == 0) {
-		        msg.setContent(content, MailConfiguration.getMailMimeType());
-	        	if (log.isDebugEnabled()) {
-	        		log.debug("content: " + content);
-	        	}
-	        } else {
-		        Multipart multipart = new MimeMultipart();
-		        // Add the text message first
-		        MimeBodyPart msgBody = new MimeBodyPart();
-		        msgBody.setContent(content, MailConfiguration.getMailMimeType());
-		        multipart.addBodyPart(msgBody);
-		        // Attach all the requested files
-				for (int i=0; i<attachments.size(); i++) {
-					MailAttachment mailAttachment = attachments.get(i);
-			        MimeBodyPart msgAttachment = new MimeBodyPart();
-			        msgAttachment.setDataHandler(mailAttachment.getDataHandler());
-			        msgAttachment.setFileName(mailAttachment.getName());
-			        multipart.addBodyPart(msgAttachment);
-		        }
-		        msg.setContent(multipart);
+        } else {
+	        Multipart multipart = new MimeMultipart();
+	        // Add the text message first
+	        MimeBodyPart msgBody = new MimeBodyPart();
+	        msgBody.setContent(content, MailConfiguration.getMailMimeType());
+	        multipart.addBodyPart(msgBody);
+	        // Attach all the requested files
+			for (int i=0; i<attachments.size(); i++) {
+				MailAttachment mailAttachment = attachments.get(i);
+		        MimeBodyPart msgAttachment = new MimeBodyPart();
+		        msgAttachment.setDataHandler(mailAttachment.getDataHandler());
+		        msgAttachment.setFileName(mailAttachment.getName());
+		        multipart.addBodyPart(msgAttachment);
 	        }
-	        msg.setHeader("X-Mailer", "JavaMailer");
-	        msg.setSentDate(new Date());
-	        Transport.send(msg);
-		} catch (MessagingException e) {
-			log.error("Unable to send email: ", e);
-			return false;
-		}
-        return true;
+	        msg.setContent(multipart);
+        }
+        msg.setHeader("X-Mailer", "JavaMailer");
+        msg.setSentDate(new Date());
+        return msg;
 	}
 }
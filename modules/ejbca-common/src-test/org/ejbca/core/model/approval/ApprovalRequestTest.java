@@ -14,11 +14,13 @@
 package org.ejbca.core.model.approval;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.security.cert.X509Certificate;
+import java.util.Date;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authentication.tokens.X509CertificateAuthenticationToken;
@@ -82,6 +84,34 @@ public class ApprovalRequestTest {
 		
 	}
 
+    @Test
+    public void testApprovalDataVODecodesRequestOnFirstUse() throws Exception {
+        X509Certificate testcert = CertTools.getCertfromByteArray(testcertenc, X509Certificate.class);
+        AuthenticationToken token = new X509CertificateAuthenticationToken(testcert);
+        ApprovalProfile approvalProfile = new ApprovalProfile("NrOfApprovalsApprovalProfile");
+        approvalProfile.setNumberOfApprovals(DummyApprovalRequest.NUM_OF_REQUIRED_APPROVALS);
+        DummyApprovalRequest ar = new DummyApprovalRequest(token, null, 1, 2, false, approvalProfile);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(ar);
+        oos.flush();
+        final String requestData = new String(Base64.encode(baos.toByteArray(), false));
+        baos = new ByteArrayOutputStream();
+        oos = new ObjectOutputStream(baos);
+        oos.writeInt(0);
+        oos.flush();
+        final String approvalsData = new String(Base64.encode(baos.toByteArray(), false));
+
+        final ApprovalDataVO approvalDataVO = new ApprovalDataVO(1, 2, ApprovalDataVO.APPROVALTYPE_DUMMY, 2, 1, "CN=Issuer", "1234",
+                ApprovalDataVO.STATUS_WAITINGFORAPPROVAL, approvalsData, requestData, new Date(), new Date(Long.MAX_VALUE), 2);
+        final ApprovalRequest readrequest = approvalDataVO.getApprovalRequest();
+        assertEquals(2, readrequest.getEndEntityProfileId());
+        assertEquals(approvalProfile.getProfileName(), readrequest.getApprovalProfile().getProfileName());
+        assertSame("The request should only be decoded once.", readrequest, approvalDataVO.getApprovalRequest());
+        assertTrue(approvalDataVO.getApprovals().isEmpty());
+        assertSame(approvalDataVO.getApprovals(), approvalDataVO.getApprovals());
+    }
+
     @Test
 	public void testGenerateApprovalId() throws Exception {
 		X509Certificate testcert = CertTools.getCertfromByteArray(testcertenc, X509Certificate.class);
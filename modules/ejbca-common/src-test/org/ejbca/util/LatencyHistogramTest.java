@@ -0,0 +1,92 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @version $Id$
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguous() {
+        int previousIndex = -1;
+        for (long value = 0; value < 1000000; value++) {
+            final int index = LatencyHistogram.getIndex(value);
+            assertTrue("Index must not decrease for value " + value, index >= previousIndex);
+            assertTrue("Index may only grow by one for value " + value, index <= previousIndex + 1);
+            assertTrue(value >= LatencyHistogram.getLowestEquivalentValue(index));
+            assertTrue(value <= LatencyHistogram.getHighestEquivalentValue(index));
+            previousIndex = index;
+        }
+        // The largest value must fit in the histogram
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE_VALUE, histogram.getMaxValue());
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+        for (long value = 1; value <= 100000; value++) {
+            histogram.recordValue(value);
+        }
+        assertEquals(100000, histogram.getTotalCount());
+        assertEquals(100000, histogram.getMaxValue());
+        assertEquals(50000.5, histogram.getMean(), 0.001);
+        assertWithinPrecision(50000, histogram.getValueAtPercentile(50.0));
+        assertWithinPrecision(99000, histogram.getValueAtPercentile(99.0));
+        assertWithinPrecision(99900, histogram.getValueAtPercentile(99.9));
+        assertEquals(100000, histogram.getValueAtPercentile(100.0));
+        assertEquals(1, histogram.getValueAtPercentile(0.0));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.recordValue(3);
+        }
+        histogram.recordValue(127);
+        assertEquals(3, histogram.getValueAtPercentile(99.0));
+        assertEquals(127, histogram.getValueAtPercentile(99.5));
+    }
+
+    @Test
+    public void testAddAndReset() {
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        first.recordValue(1000);
+        second.recordValue(5000000);
+        second.recordValue(-5);
+        first.add(second);
+        assertEquals(3, first.getTotalCount());
+        assertEquals(5000000, first.getMaxValue());
+        assertEquals(0, first.getValueAtPercentile(10.0));
+        assertWithinPrecision(5000000, first.getValueAtPercentile(100.0));
+        first.reset();
+        assertEquals(0, first.getTotalCount());
+        assertEquals(0, first.getMaxValue());
+        assertEquals(0, first.getValueAtPercentile(50.0));
+    }
+
+    private static void assertWithinPrecision(final long expected, final long actual) {
+        assertTrue("Expected " + expected + " but was " + actual, actual >= expected && actual <= expected + expected / 64);
+    }
+}
@@ -0,0 +1,75 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the BCryptVerificationPool class.
+ *
+ * @version $Id$
+ */
+public class BCryptVerificationPoolTest {
+
+    @Test
+    public void testVerifyPassword() {
+        final String passwordHash = BCrypt.hashpw("foo123", BCrypt.gensalt(1));
+        assertTrue(BCryptVerificationPool.INSTANCE.checkpw("foo123", passwordHash));
+        assertFalse(BCryptVerificationPool.INSTANCE.checkpw("bar123", passwordHash));
+    }
+
+    @Test
+    public void testInvalidHash() {
+        try {
+            BCryptVerificationPool.INSTANCE.checkpw("foo123", "$3$01$invalid");
+            fail("An invalid hash should throw the same exception as BCrypt.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testConcurrentVerifications() throws Exception {
+        final String passwordHash = BCrypt.hashpw("foo123", BCrypt.gensalt(4));
+        final ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 40; i++) {
+                final String password = i % 2 == 0 ? "foo123" : "bar123";
+                results.add(callers.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return Boolean.valueOf(BCryptVerificationPool.INSTANCE.checkpw(password, passwordHash));
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("Wrong result for verification " + i, Boolean.valueOf(i % 2 == 0), results.get(i).get());
+            }
+        } finally {
+            callers.shutdown();
+        }
+    }
+}
@@ -240,6 +240,29 @@ public final class EjbcaConfiguration {
         return time;
     }
     
+    /**
+     * @return the number of threads that verify BCrypt hashed passwords on enrollment, or 0 to verify them on the request thread.
+     * Defaults to the number of available processors, since verification is CPU bound.
+     */
+    public static int getPasswordVerificationThreads() {
+        return getIntProperty("ejbca.passwordverification.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /** @return the number of password verifications that may wait for a thread, before further verifications are rejected. */
+    public static int getPasswordVerificationQueueSize() {
+        return getIntProperty("ejbca.passwordverification.queuesize", 100);
+    }
+
+    /** @return the time in milliseconds a request waits for its password to be verified, including the time in the queue. */
+    public static long getPasswordVerificationTimeout() {
+        return getLongProperty("ejbca.passwordverification.timeout", 10000L);
+    }
+
+    /** @return the max number of startup tasks that are run at the same time, where 1 runs them one at a time on the deploying thread. */
+    public static int getStartupThreads() {
+        return getIntProperty("ejbca.startup.threads", 4);
+    }
+
     public static String getCliDefaultUser() {
         return EjbcaConfigurationHolder.getString("ejbca.cli.defaultusername");
     }
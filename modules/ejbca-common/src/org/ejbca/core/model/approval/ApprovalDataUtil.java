@@ -25,7 +25,7 @@ import org.cesecore.util.Base64;
 
 /**
  * Class containing utils for extracting data from the approvaldata table.
- * is used by the Entity and Session bean only.
+ * Is used by the Session bean and by ApprovalDataVO, which decodes the data when it is first needed.
  * 
  * @version $Id$
  */
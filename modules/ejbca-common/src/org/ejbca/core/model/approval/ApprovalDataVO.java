@@ -75,6 +75,10 @@ public class ApprovalDataVO implements Serializable {
     private int status = 0;
     private Collection<Approval> approvals = null;
     private ApprovalRequest approvalRequest = null;
+    /** Encoded approvals from the database, decoded and cleared on first use */
+    private String approvalsData = null;
+    /** Encoded approval request from the database, decoded and cleared on first use */
+    private String approvalRequestData = null;
     private Date requestDate = null;
     private Date expireDate = null;
     private int remainingApprovals = 0;
@@ -117,6 +121,25 @@ public class ApprovalDataVO implements Serializable {
 		this.expireDate = expireDate;
 		this.remainingApprovals = remainingApprovals;
 	}
+
+	/**
+	 * Creates a value object from the encoded approvals and request, as stored in the approvaldata and requestdata columns.
+	 * The data is only deserialized when {@link #getApprovals()} or {@link #getApprovalRequest()} is called, since listings
+	 * of approval requests seldom need all of it.
+	 * 
+	 * @param approvalsData Base64 encoded approvals, as stored in the approvaldata column
+	 * @param approvalRequestData Base64 encoded approval request, as stored in the requestdata column
+	 * @see #ApprovalDataVO(int, int, int, int, int, String, String, int, Collection, ApprovalRequest, Date, Date, int)
+	 */
+	public ApprovalDataVO(int id, int approvalId, int approvalType, int endEntityProfileiId, int cAId, String reqadmincertissuerdn, 
+	        String reqadmincertsn, int status, String approvalsData, String approvalRequestData, Date requestDate, 
+	        Date expireDate, int remainingApprovals) {
+		this(id, approvalId, approvalType, endEntityProfileiId, cAId, reqadmincertissuerdn, reqadmincertsn, status, (Collection<Approval>) null,
+		        (ApprovalRequest) null, requestDate, expireDate, remainingApprovals);
+		this.approvalsData = approvalsData;
+		this.approvalRequestData = approvalRequestData;
+	}
+
 	/**
 	 *  Constructed from action data as actiontype, admin, username etc. It should
      *  result in the same approvalid if the admin tries to request the same action twice.
@@ -131,7 +154,11 @@ public class ApprovalDataVO implements Serializable {
 	 * 
 	 * @return Returns the approvalRequest.
 	 */
-	public ApprovalRequest getApprovalRequest() {
+	public synchronized ApprovalRequest getApprovalRequest() {
+		if (approvalRequestData != null) {
+			approvalRequest = ApprovalDataUtil.getApprovalRequest(approvalRequestData);
+			approvalRequestData = null;
+		}
 		return approvalRequest;
 	}
 	
@@ -140,7 +167,11 @@ public class ApprovalDataVO implements Serializable {
 	 * 
 	 * @return Returns the approvals.
 	 */
-	public Collection<Approval> getApprovals() {
+	public synchronized Collection<Approval> getApprovals() {
+		if (approvalsData != null) {
+			approvals = ApprovalDataUtil.getApprovals(approvalsData);
+			approvalsData = null;
+		}
 		return approvals;
 	}
 	
@@ -0,0 +1,154 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of latencies with a bounded relative error, in the spirit of HdrHistogram.
+ *
+ * Values below 128 are recorded exactly. Larger values are recorded in log-linear buckets where each power of two is split into
+ * 64 sub-buckets, so the value reported for a percentile is never more than 1/64 (~1.6%) above the recorded value. Values larger
+ * than the highest trackable value are clamped.
+ *
+ * Recording does not allocate any objects, so it can be used in the measured code path without disturbing the measurement.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    /** Values up to 2^40-1 can be tracked, which is more than 12 days in microseconds. */
+    private static final int MAX_VALUE_BITS = 40;
+    public static final long HIGHEST_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Records a single value.
+     * @param value the value to record, negative values are recorded as 0
+     */
+    public void recordValue(final long value) {
+        final long v = Math.min(Math.max(value, 0L), HIGHEST_TRACKABLE_VALUE);
+        this.counts.incrementAndGet(getIndex(v));
+        this.totalCount.incrementAndGet();
+        this.totalValue.addAndGet(v);
+        long currentMax;
+        while (v > (currentMax = this.maxValue.get())) {
+            if (this.maxValue.compareAndSet(currentMax, v)) {
+                break;
+            }
+        }
+    }
+
+    /** @return the number of recorded values */
+    public long getTotalCount() {
+        return this.totalCount.get();
+    }
+
+    /** @return the largest recorded value (exact) */
+    public long getMaxValue() {
+        return this.maxValue.get();
+    }
+
+    /** @return the arithmetic mean of the recorded values (exact) or 0 if nothing has been recorded */
+    public double getMean() {
+        final long count = this.totalCount.get();
+        return count == 0 ? 0 : (double) this.totalValue.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value that the given percentage of the recorded values are less than or equal to (within the precision of the
+     * histogram), or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long count = getTotalCount();
+        if (count == 0) {
+            return 0;
+        }
+        final double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        final long countAtPercentile = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long runningCount = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            runningCount += this.counts.get(i);
+            if (runningCount >= countAtPercentile) {
+                return Math.min(getHighestEquivalentValue(i), getMaxValue());
+            }
+        }
+        return getMaxValue();
+    }
+
+    /** Adds all values recorded in another histogram to this one. */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length(); i++) {
+            final long count = other.counts.get(i);
+            if (count != 0) {
+                this.counts.addAndGet(i, count);
+            }
+        }
+        this.totalCount.addAndGet(other.totalCount.get());
+        this.totalValue.addAndGet(other.totalValue.get());
+        long currentMax;
+        final long otherMax = other.maxValue.get();
+        while (otherMax > (currentMax = this.maxValue.get())) {
+            if (this.maxValue.compareAndSet(currentMax, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    /** Clears all recorded values. Values recorded concurrently with the reset may or may not be kept. */
+    public void reset() {
+        for (int i = 0; i < this.counts.length(); i++) {
+            this.counts.set(i, 0);
+        }
+        this.totalCount.set(0);
+        this.totalValue.set(0);
+        this.maxValue.set(0);
+    }
+
+    /** @return the index of the bucket that the value belongs to */
+    static int getIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // The number of bits we have to shift the value right, to make it fit in the upper half of the sub buckets
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    /** @return the lowest value that is recorded in the bucket with the given index */
+    static long getLowestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        return ((long) (index - shift * SUB_BUCKET_HALF_COUNT)) << shift;
+    }
+
+    /** @return the highest value that is recorded in the bucket with the given index */
+    static long getHighestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        return getLowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+}
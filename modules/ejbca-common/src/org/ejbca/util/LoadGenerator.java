@@ -0,0 +1,351 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.ejbca.util.PerformanceTest.Command;
+import org.ejbca.util.PerformanceTest.CommandFactory;
+
+/**
+ * Open-loop load generator for the {@link PerformanceTest.Command}s of the stress test tools.
+ *
+ * Unlike {@link PerformanceTest#execute(CommandFactory, int, int, int, PrintStream)}, where each thread issues a new test when the
+ * previous one has finished, tests are started at a fixed target rate regardless of how fast the server answers. The response time
+ * of a test is measured from the time it was scheduled to start, so time spent waiting for a free thread when the server can not
+ * keep up is included. This avoids "coordinated omission", where a slow server makes the test client send fewer requests and the
+ * tail latency is hidden.
+ *
+ * A test run consists of a warm-up phase, that is not included in the results, followed by a steady-state phase. For each phase
+ * the percentiles of the response time of the whole test and the service time of each command are reported, and the steady-state
+ * results can be written as CSV and JSON.
+ *
+ * The existing stress tools use this engine when the system property {@value #PROPERTY_RATE} is set, for example:
+ * <pre>
+ * JAVA_OPT="-Dperformancetest.rate=500 -Dperformancetest.warmup=30 -Dperformancetest.duration=300 -Dperformancetest.output=ocsp-500"
+ *   ejbcaClientToolBox.sh ocsp stress ...
+ * </pre>
+ * The number of threads given to the tool is then the maximum number of concurrent tests.
+ *
+ * @version $Id$
+ */
+public class LoadGenerator {
+
+    /** Target number of tests started per second. Setting this enables open-loop mode in {@link PerformanceTest}. */
+    public static final String PROPERTY_RATE = "performancetest.rate";
+    /** Duration of the warm-up phase in seconds. Default 0. */
+    public static final String PROPERTY_WARMUP = "performancetest.warmup";
+    /** Duration of the steady-state phase in seconds. Default is the number of tests divided by the rate, or 60 seconds. */
+    public static final String PROPERTY_DURATION = "performancetest.duration";
+    /** Base name of the CSV (.csv) and JSON (.json) files that the steady-state results are written to. Default is no files. */
+    public static final String PROPERTY_OUTPUT = "performancetest.output";
+
+    private static final String TEST_DESCRIPTION = "Response time of test";
+    private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 99.99, 100.0 };
+    private static final int STATISTIC_UPDATE_PERIOD_IN_SECONDS = 10;
+    /** Marks the end of the run for the worker threads */
+    private static final Long END_OF_RUN = Long.valueOf(Long.MIN_VALUE);
+
+    private final PerformanceTest.Log log;
+    private final double targetRate;
+    private final long warmUpNanos;
+    private final long steadyStateNanos;
+    private final String outputBaseName;
+
+    private final BlockingQueue<Long> scheduledStarts = new LinkedBlockingQueue<Long>();
+    private final Phase warmUp = new Phase("warm-up");
+    private final Phase steadyState = new Phase("steady-state");
+    private volatile long startTime;
+
+    /**
+     * @param log the log of the PerformanceTest that the commands are using
+     * @param targetRate number of tests started per second
+     * @param warmUpSeconds duration of the warm-up phase, which is excluded from the results
+     * @param steadyStateSeconds duration of the measured phase
+     * @param outputBaseName base name of the CSV and JSON result files or null if no files should be written
+     */
+    public LoadGenerator(final PerformanceTest.Log log, final double targetRate, final long warmUpSeconds, final long steadyStateSeconds,
+            final String outputBaseName) {
+        if (targetRate <= 0) {
+            throw new IllegalArgumentException("The target rate must be positive.");
+        }
+        this.log = log;
+        this.targetRate = targetRate;
+        this.warmUpNanos = TimeUnit.SECONDS.toNanos(Math.max(warmUpSeconds, 0));
+        this.steadyStateNanos = TimeUnit.SECONDS.toNanos(Math.max(steadyStateSeconds, 1));
+        this.outputBaseName = outputBaseName;
+    }
+
+    /**
+     * Creates a load generator from the performancetest.* system properties.
+     * @param numberOfTests the number of tests given to the stress tool, used to derive the duration if it is not set explicitly
+     * @return the load generator or null if open-loop mode is not enabled
+     */
+    public static LoadGenerator fromSystemProperties(final PerformanceTest.Log log, final int numberOfTests) {
+        final String rate = System.getProperty(PROPERTY_RATE);
+        if (rate == null || rate.trim().length() == 0) {
+            return null;
+        }
+        final double targetRate = Double.parseDouble(rate.trim());
+        final long warmUp = Long.parseLong(System.getProperty(PROPERTY_WARMUP, "0").trim());
+        final String duration = System.getProperty(PROPERTY_DURATION);
+        final long steadyState;
+        if (duration != null && duration.trim().length() > 0) {
+            steadyState = Long.parseLong(duration.trim());
+        } else if (numberOfTests > 0) {
+            steadyState = (long) Math.ceil(numberOfTests / targetRate);
+        } else {
+            steadyState = 60;
+        }
+        return new LoadGenerator(log, targetRate, warmUp, steadyState, System.getProperty(PROPERTY_OUTPUT));
+    }
+
+    /** Histograms for one phase of the test run, all in microseconds. */
+    private static class Phase {
+        private final String name;
+        private final LatencyHistogram testHistogram = new LatencyHistogram();
+        private final Map<String, LatencyHistogram> commandHistograms = new LinkedHashMap<String, LatencyHistogram>();
+        private final AtomicLong failures = new AtomicLong();
+
+        Phase(final String name) {
+            this.name = name;
+        }
+
+        synchronized LatencyHistogram getCommandHistogram(final String description) {
+            LatencyHistogram histogram = this.commandHistograms.get(description);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                this.commandHistograms.put(description, histogram);
+            }
+            return histogram;
+        }
+
+        synchronized Map<String, LatencyHistogram> getAllHistograms() {
+            final Map<String, LatencyHistogram> ret = new LinkedHashMap<String, LatencyHistogram>();
+            ret.put(TEST_DESCRIPTION, this.testHistogram);
+            ret.putAll(this.commandHistograms);
+            return ret;
+        }
+    }
+
+    /** Executes the tests of one thread, using its own set of commands. */
+    private class Worker implements Runnable { // NOPMD this is a standalone test, not run in jee app
+        private final Command[] commands;
+        private final LatencyHistogram[] warmUpHistograms;
+        private final LatencyHistogram[] steadyStateHistograms;
+
+        Worker(final Command[] commands) {
+            this.commands = commands;
+            // Look up the histograms once, so nothing is allocated while measuring
+            this.warmUpHistograms = new LatencyHistogram[commands.length];
+            this.steadyStateHistograms = new LatencyHistogram[commands.length];
+            for (int i = 0; i < commands.length; i++) {
+                this.warmUpHistograms[i] = LoadGenerator.this.warmUp.getCommandHistogram(commands[i].getJobTimeDescription());
+                this.steadyStateHistograms[i] = LoadGenerator.this.steadyState.getCommandHistogram(commands[i].getJobTimeDescription());
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Long scheduledStart;
+                try {
+                    scheduledStart = LoadGenerator.this.scheduledStarts.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (scheduledStart == END_OF_RUN) {
+                    // Let the other workers see it as well
+                    LoadGenerator.this.scheduledStarts.add(END_OF_RUN);
+                    return;
+                }
+                final boolean isWarmUp = scheduledStart.longValue() - LoadGenerator.this.startTime < LoadGenerator.this.warmUpNanos;
+                final Phase phase = isWarmUp ? LoadGenerator.this.warmUp : LoadGenerator.this.steadyState;
+                final LatencyHistogram[] histograms = isWarmUp ? this.warmUpHistograms : this.steadyStateHistograms;
+                boolean success = true;
+                for (int i = 0; success && i < this.commands.length; i++) {
+                    final long commandStart = System.nanoTime();
+                    try {
+                        success = this.commands[i].doIt();
+                    } catch (Throwable t) { // NOPMD: keep on testing
+                        LoadGenerator.this.log.error("Command failure. " + this.commands[i], t);
+                        success = false;
+                    }
+                    histograms[i].recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - commandStart));
+                }
+                // Measured from when the test should have started, not from when a thread was available to start it
+                phase.testHistogram.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledStart.longValue()));
+                if (!success) {
+                    phase.failures.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the test.
+     * @param commandFactory creates the commands for each thread
+     * @param numberOfThreads the maximum number of tests that are executed concurrently
+     * @param printStream where the statistics are printed
+     * @return the number of failed tests in the steady-state phase
+     */
+    public long execute(final CommandFactory commandFactory, final int numberOfThreads, final PrintStream printStream) throws Exception {
+        final Thread[] threads = new Thread[numberOfThreads]; // NOPMD this is a standalone test, not run in jee app
+        for (int i = 0; i < numberOfThreads; i++) {
+            threads[i] = new Thread(new Worker(commandFactory.getCommands()), "LoadGenerator-" + i); // NOPMD this is a standalone test, not run in jee app
+        }
+        for (int i = 0; i < numberOfThreads; i++) {
+            threads[i].start();
+        }
+        printStream.println("Open-loop test started at " + new Date() + ".");
+        printStream.format(Locale.ROOT, "Target rate %.1f tests/s with at most %d concurrent tests. Warm-up %d s, steady-state %d s.%n",
+                this.targetRate, numberOfThreads, TimeUnit.NANOSECONDS.toSeconds(this.warmUpNanos),
+                TimeUnit.NANOSECONDS.toSeconds(this.steadyStateNanos));
+        final double periodNanos = TimeUnit.SECONDS.toNanos(1) / this.targetRate;
+        final long totalNanos = this.warmUpNanos + this.steadyStateNanos;
+        this.startTime = System.nanoTime();
+        long nextReport = this.startTime + TimeUnit.SECONDS.toNanos(STATISTIC_UPDATE_PERIOD_IN_SECONDS);
+        for (long n = 0;; n++) {
+            final long scheduledStart = this.startTime + (long) (n * periodNanos);
+            if (scheduledStart - this.startTime >= totalNanos) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < scheduledStart) {
+                LockSupport.parkNanos(scheduledStart - now);
+            }
+            this.scheduledStarts.add(Long.valueOf(scheduledStart));
+            if (now >= nextReport) {
+                printProgress(printStream, now);
+                nextReport += TimeUnit.SECONDS.toNanos(STATISTIC_UPDATE_PERIOD_IN_SECONDS);
+            }
+        }
+        this.scheduledStarts.add(END_OF_RUN);
+        for (int i = 0; i < numberOfThreads; i++) {
+            threads[i].join();
+        }
+        final double elapsedSeconds = (System.nanoTime() - this.startTime) / 1e9;
+        printStream.format(Locale.ROOT, "Open-loop test finished at %s after %.1f s.%n", new Date(), Double.valueOf(elapsedSeconds));
+        printPhase(printStream, this.warmUp, TimeUnit.NANOSECONDS.toSeconds(this.warmUpNanos));
+        printPhase(printStream, this.steadyState, TimeUnit.NANOSECONDS.toSeconds(this.steadyStateNanos));
+        if (this.outputBaseName != null && this.outputBaseName.trim().length() > 0) {
+            writeCsv(this.outputBaseName.trim() + ".csv");
+            writeJson(this.outputBaseName.trim() + ".json");
+            printStream.println("Steady-state results written to " + this.outputBaseName.trim() + ".csv and " + this.outputBaseName.trim() + ".json");
+        }
+        return this.steadyState.failures.get();
+    }
+
+    private void printProgress(final PrintStream printStream, final long now) {
+        final boolean isWarmUp = now - this.startTime < this.warmUpNanos;
+        final Phase phase = isWarmUp ? this.warmUp : this.steadyState;
+        printStream.format(Locale.ROOT, "%s: %d tests completed, %d failed, %d waiting for a thread, p99 %.3f ms, max %.3f ms%n", phase.name,
+                Long.valueOf(phase.testHistogram.getTotalCount()), Long.valueOf(phase.failures.get()), Integer.valueOf(this.scheduledStarts.size()),
+                Double.valueOf(phase.testHistogram.getValueAtPercentile(99.0) / 1000.0), Double.valueOf(phase.testHistogram.getMaxValue() / 1000.0));
+    }
+
+    private static void printPhase(final PrintStream printStream, final Phase phase, final long seconds) {
+        if (phase.testHistogram.getTotalCount() == 0) {
+            return;
+        }
+        printStream.println();
+        printStream.format(Locale.ROOT, "Results of the %s phase (%d s, %d tests, %d failed, %.1f tests/s). Times in ms:%n", phase.name,
+                Long.valueOf(seconds), Long.valueOf(phase.testHistogram.getTotalCount()), Long.valueOf(phase.failures.get()),
+                Double.valueOf((double) phase.testHistogram.getTotalCount() / Math.max(seconds, 1)));
+        printStream.format(Locale.ROOT, "%-40s %10s %10s %10s %10s %10s %10s %10s%n", "", "mean", "p50", "p90", "p99", "p99.9", "p99.99", "max");
+        for (final Entry<String, LatencyHistogram> entry : phase.getAllHistograms().entrySet()) {
+            final LatencyHistogram histogram = entry.getValue();
+            printStream.format(Locale.ROOT, "%-40s %10.3f", entry.getKey(), Double.valueOf(histogram.getMean() / 1000.0));
+            for (final double percentile : PERCENTILES) {
+                printStream.format(Locale.ROOT, " %10.3f", Double.valueOf(histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            printStream.println();
+        }
+    }
+
+    private void writeCsv(final String fileName) throws IOException {
+        final PrintWriter writer = new PrintWriter(new FileWriter(fileName));
+        try {
+            writer.print("name,count,failures,rate,mean_us");
+            for (final double percentile : PERCENTILES) {
+                writer.print(percentile == 100.0 ? ",max_us" : ",p" + formatPercentile(percentile) + "_us");
+            }
+            writer.println();
+            final long seconds = Math.max(TimeUnit.NANOSECONDS.toSeconds(this.steadyStateNanos), 1);
+            for (final Entry<String, LatencyHistogram> entry : this.steadyState.getAllHistograms().entrySet()) {
+                final LatencyHistogram histogram = entry.getValue();
+                writer.format(Locale.ROOT, "\"%s\",%d,%d,%.3f,%.1f", entry.getKey().replace("\"", "\"\""), Long.valueOf(histogram.getTotalCount()),
+                        Long.valueOf(TEST_DESCRIPTION.equals(entry.getKey()) ? this.steadyState.failures.get() : 0),
+                        Double.valueOf((double) histogram.getTotalCount() / seconds), Double.valueOf(histogram.getMean()));
+                for (final double percentile : PERCENTILES) {
+                    writer.print("," + histogram.getValueAtPercentile(percentile));
+                }
+                writer.println();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeJson(final String fileName) throws IOException {
+        final PrintWriter writer = new PrintWriter(new FileWriter(fileName));
+        try {
+            writer.println("{");
+            writer.format(Locale.ROOT, "  \"targetRate\": %.3f,%n", Double.valueOf(this.targetRate));
+            writer.format(Locale.ROOT, "  \"warmUpSeconds\": %d,%n", Long.valueOf(TimeUnit.NANOSECONDS.toSeconds(this.warmUpNanos)));
+            writer.format(Locale.ROOT, "  \"steadyStateSeconds\": %d,%n", Long.valueOf(TimeUnit.NANOSECONDS.toSeconds(this.steadyStateNanos)));
+            writer.format(Locale.ROOT, "  \"failures\": %d,%n", Long.valueOf(this.steadyState.failures.get()));
+            writer.println("  \"latencies\": [");
+            boolean first = true;
+            for (final Entry<String, LatencyHistogram> entry : this.steadyState.getAllHistograms().entrySet()) {
+                final LatencyHistogram histogram = entry.getValue();
+                if (!first) {
+                    writer.println(",");
+                }
+                first = false;
+                writer.format(Locale.ROOT, "    {\"name\": \"%s\", \"count\": %d, \"meanMicros\": %.1f", entry.getKey().replace("\\", "\\\\").replace("\"", "\\\""),
+                        Long.valueOf(histogram.getTotalCount()), Double.valueOf(histogram.getMean()));
+                for (final double percentile : PERCENTILES) {
+                    final String name = percentile == 100.0 ? "max" : "p" + formatPercentile(percentile);
+                    writer.format(Locale.ROOT, ", \"%sMicros\": %d", name, Long.valueOf(histogram.getValueAtPercentile(percentile)));
+                }
+                writer.print("}");
+            }
+            writer.println();
+            writer.println("  ]");
+            writer.println("}");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** @return 99.9 as "99_9" and 50.0 as "50" */
+    private static String formatPercentile(final double percentile) {
+        final String s = percentile == Math.floor(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+        return s.replace('.', '_');
+    }
+}
@@ -189,7 +189,17 @@ public class PerformanceTest {
         }
     }
 
+    /**
+     * Runs the test. If the system property {@value LoadGenerator#PROPERTY_RATE} is set the tests are started at a fixed rate by a
+     * {@link LoadGenerator} instead, and numberOfThreads is the maximum number of concurrent tests.
+     */
     public void execute(CommandFactory commandFactory, int numberOfThreads, int numberOfTests, int waitTime, PrintStream printStream) throws Exception {
+        final LoadGenerator loadGenerator = LoadGenerator.fromSystemProperties(this.log, numberOfTests);
+        if ( loadGenerator!=null ) {
+            final long failures = loadGenerator.execute(commandFactory, numberOfThreads, printStream);
+            printStream.format("Test exited with %d number of failures.%n", failures);
+            System.exit( (int)Math.min(failures, Integer.MAX_VALUE) );
+        }
 
         final Statistic statistic = new Statistic(numberOfThreads, numberOfTests, printStream);
         final Thread threads[] = new Thread[numberOfThreads]; // NOPMD this is a standalone test, not run in jee app
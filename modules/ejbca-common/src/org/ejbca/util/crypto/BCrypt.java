@@ -14,6 +14,7 @@ package org.ejbca.util.crypto;
 // OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
 
 import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 
 /**
@@ -496,25 +497,28 @@ public class BCrypt {
 	 * @param off	the position in the array of the blocks
 	 */
 	private final void encipher(final int lr[], final int off) {
+		// Local references to the key schedule, so that they are not read from the fields for every lookup
+		final int[] p = bfP;
+		final int[] s = bfS;
 		int i, n, l = lr[off], r = lr[off + 1];
 
-		l ^= bfP[0];
+		l ^= p[0];
 		for (i = 0; i <= BLOWFISH_NUM_ROUNDS - 2;) {
 			// Feistel substitution on left word
-			n = bfS[(l >> 24) & 0xff];
-			n += bfS[0x100 | ((l >> 16) & 0xff)];
-			n ^= bfS[0x200 | ((l >> 8) & 0xff)];
-			n += bfS[0x300 | (l & 0xff)];
-			r ^= n ^ bfP[++i];
+			n = s[l >>> 24];
+			n += s[0x100 | ((l >> 16) & 0xff)];
+			n ^= s[0x200 | ((l >> 8) & 0xff)];
+			n += s[0x300 | (l & 0xff)];
+			r ^= n ^ p[++i];
 
 			// Feistel substitution on right word
-			n = bfS[(r >> 24) & 0xff];
-			n += bfS[0x100 | ((r >> 16) & 0xff)];
-			n ^= bfS[0x200 | ((r >> 8) & 0xff)];
-			n += bfS[0x300 | (r & 0xff)];
-			l ^= n ^ bfP[++i];
+			n = s[r >>> 24];
+			n += s[0x100 | ((r >> 16) & 0xff)];
+			n ^= s[0x200 | ((r >> 8) & 0xff)];
+			n += s[0x300 | (r & 0xff)];
+			l ^= n ^ p[++i];
 		}
-		lr[off] = r ^ bfP[BLOWFISH_NUM_ROUNDS + 1];
+		lr[off] = r ^ p[BLOWFISH_NUM_ROUNDS + 1];
 		lr[off + 1] = l;
 	}
 
@@ -532,7 +536,9 @@ public class BCrypt {
 
 		for (i = 0; i < 4; i++) {
 			word = (word << 8) | (data[off] & 0xff);
-			off = (off + 1) % data.length;
+			if (++off == data.length) {
+				off = 0;
+			}
 		}
 
 		offp[0] = off;
@@ -548,18 +554,32 @@ public class BCrypt {
 	}
 
 	/**
-	 * Key the Blowfish cipher
+	 * Extract the words of key material that are XORed into the
+	 * P-array when keying the Blowfish cipher
 	 * @param key	an array containing the key
+	 * @return	the key material for each entry of the P-array
 	 */
-	private void key(final byte key[]) {
-		int i;
+	private static int[] keyWords(final byte key[]) {
 		final int koffp[] = { 0 };
+		final int words[] = new int[P_ORIG.length];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = streamtoword(key, koffp);
+		}
+		return words;
+	}
+
+	/**
+	 * Key the Blowfish cipher
+	 * @param keyWords	the key material from {@link #keyWords(byte[])}
+	 */
+	private void key(final int keyWords[]) {
+		int i;
 		final int lr[] = { 0, 0 };
 		final int plen = bfP.length;
 		final int slen = bfS.length;
 
 		for (i = 0; i < plen; i++) {
-			bfP[i] = bfP[i] ^ streamtoword(key, koffp);
+			bfP[i] = bfP[i] ^ keyWords[i];
 		}
 		for (i = 0; i < plen; i += 2) {
 			encipher(lr, 0);
@@ -634,9 +654,12 @@ public class BCrypt {
 		}
 		initKey();
 		ekskey(salt, password);
+		// The key material is the same in every round, so it is only extracted once
+		final int passwordWords[] = keyWords(password);
+		final int saltWords[] = keyWords(salt);
 		for (i = 0; i < rounds; i++) {
-			key(password);
-			key(salt);
+			key(passwordWords);
+			key(saltWords);
 		}
 
 		for (i = 0; i < 64; i++) {
@@ -765,6 +788,11 @@ public class BCrypt {
 	 * @return	true if the passwords match, false otherwise
 	 */
 	public static boolean checkpw(final String plaintext, final String hashed) {
-		return (hashed.compareTo(hashpw(plaintext, hashed)) == 0);
+		// Compare in constant time, so the time taken does not tell how much of the hash matched
+		try {
+			return MessageDigest.isEqual(hashed.getBytes("UTF-8"), hashpw(plaintext, hashed).getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException uee) {
+			throw new AssertionError("UTF-8 is not supported");
+		}
 	}
 }
@@ -0,0 +1,175 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util.crypto;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.cesecore.util.metrics.Counter;
+import org.cesecore.util.metrics.Gauge;
+import org.cesecore.util.metrics.Histogram;
+import org.cesecore.util.metrics.MetricFamily;
+import org.cesecore.util.metrics.MetricsRegistry;
+import org.ejbca.config.EjbcaConfiguration;
+
+/**
+ * Bounded thread pool that verifies BCrypt hashed passwords, so that CPU bound password verification during an enrollment storm can
+ * not occupy all request threads of the application server and starve OCSP and other traffic on the same node.
+ *
+ * The request thread waits for the verification. When all threads are busy, verifications wait in a bounded queue, and when the queue
+ * is full a verification is rejected at once with {@link PasswordVerificationRejectedException}. A verification that is still queued
+ * when the caller has given up is skipped. The pool is configured by ejbca.passwordverification.* in ejbca.properties, and with
+ * zero threads passwords are verified on the request thread.
+ *
+ * Idle threads terminate after a minute, so nothing is left running when the application is undeployed.
+ *
+ * @version $Id$
+ */
+public enum BCryptVerificationPool {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(BCryptVerificationPool.class);
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    private static final MetricFamily<Counter> VERIFICATIONS = MetricsRegistry.INSTANCE.counterFamily("password_verifications_total",
+            "BCrypt password verifications, by result", "result");
+    private static final Counter VERIFICATIONS_MATCH = VERIFICATIONS.get("match");
+    private static final Counter VERIFICATIONS_MISMATCH = VERIFICATIONS.get("mismatch");
+    private static final Counter VERIFICATIONS_REJECTED = VERIFICATIONS.get("rejected");
+    private static final Counter VERIFICATIONS_TIMEOUT = VERIFICATIONS.get("timeout");
+    private static final Histogram VERIFICATION_DURATION = MetricsRegistry.INSTANCE.durationFamily("password_verification_duration_seconds",
+            "Time to verify a BCrypt hashed password, not including the time in the queue", null).get();
+    private static final Histogram QUEUE_WAIT = MetricsRegistry.INSTANCE.durationFamily("password_verification_queue_wait_seconds",
+            "Time a password verification waited for a thread", null).get();
+    private static final Gauge QUEUE_LENGTH = MetricsRegistry.INSTANCE.gaugeFamily("password_verification_queue_length",
+            "Number of password verifications waiting for a thread, when last sampled", null).get();
+
+    /** null when passwords are verified on the request thread */
+    private final ThreadPoolExecutor executor;
+    private final int queueSize;
+    private final long timeoutNanos;
+
+    private BCryptVerificationPool() {
+        final int threads = EjbcaConfiguration.getPasswordVerificationThreads();
+        queueSize = Math.max(1, EjbcaConfiguration.getPasswordVerificationQueueSize());
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(EjbcaConfiguration.getPasswordVerificationTimeout());
+        if (threads > 0) {
+            executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                    new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "PasswordVerification-" + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+    }
+
+    /** Verifies a password in the pool and records how long it waited for a thread. */
+    private static class VerificationTask implements Callable<Boolean> {
+        private final String plaintext;
+        private final String hashed;
+        private final long submitted;
+        private final long deadline;
+
+        private VerificationTask(final String plaintext, final String hashed, final long submitted, final long deadline) {
+            this.plaintext = plaintext;
+            this.hashed = hashed;
+            this.submitted = submitted;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Boolean call() {
+            final long started = System.nanoTime();
+            QUEUE_WAIT.record(started - submitted);
+            if (started - deadline > 0) {
+                // The caller has already given up
+                return null;
+            }
+            return Boolean.valueOf(verify(plaintext, hashed));
+        }
+    }
+
+    private static boolean verify(final String plaintext, final String hashed) {
+        final long start = System.nanoTime();
+        final boolean ret = BCrypt.checkpw(plaintext, hashed);
+        VERIFICATION_DURATION.recordNanosSince(start);
+        if (ret) {
+            VERIFICATIONS_MATCH.inc();
+        } else {
+            VERIFICATIONS_MISMATCH.inc();
+        }
+        return ret;
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed one, using a thread of the pool.
+     *
+     * @param plaintext the plaintext password to verify
+     * @param hashed the previously hashed password
+     * @return true if the passwords match, false otherwise
+     * @throws PasswordVerificationRejectedException if the queue is full or the password was not verified within the timeout
+     * @see BCrypt#checkpw(String, String)
+     */
+    public boolean checkpw(final String plaintext, final String hashed) throws PasswordVerificationRejectedException {
+        if (executor == null) {
+            return verify(plaintext, hashed);
+        }
+        final long submitted = System.nanoTime();
+        final Future<Boolean> future;
+        try {
+            future = executor.submit(new VerificationTask(plaintext, hashed, submitted, submitted + timeoutNanos));
+        } catch (RejectedExecutionException e) {
+            VERIFICATIONS_REJECTED.inc();
+            throw new PasswordVerificationRejectedException("All password verification threads are busy and " + queueSize
+                    + " verifications are already waiting.");
+        }
+        QUEUE_LENGTH.set(executor.getQueue().size());
+        try {
+            return future.get(timeoutNanos - (System.nanoTime() - submitted), TimeUnit.NANOSECONDS).booleanValue();
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            VERIFICATIONS_TIMEOUT.inc();
+            throw new PasswordVerificationRejectedException("Password verification did not complete within "
+                    + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms.");
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new PasswordVerificationRejectedException("Interrupted while waiting for password verification.");
+        } catch (ExecutionException e) {
+            // BCrypt only throws unchecked exceptions, like IllegalArgumentException for a malformed hash
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            log.error("Unexpected error during password verification: ", cause);
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util.crypto;
+
+/**
+ * Thrown when a password could not be verified because the password verification pool is overloaded, i.e. the queue was full or the
+ * verification did not complete in time. The password is neither accepted nor rejected, and the request can be retried later.
+ *
+ * @version $Id$
+ */
+public class PasswordVerificationRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PasswordVerificationRejectedException(final String message) {
+        super(message);
+    }
+}
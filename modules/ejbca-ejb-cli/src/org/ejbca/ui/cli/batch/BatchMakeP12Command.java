@@ -36,6 +36,7 @@ import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.util.AlgorithmConstants;
 import org.cesecore.config.GlobalCesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionRemote;
+import org.cesecore.keys.util.KeyPairPool;
 import org.cesecore.keys.util.KeyPairWrapper;
 import org.cesecore.keys.util.KeyTools;
 import org.cesecore.util.CertTools;
@@ -400,7 +401,7 @@ public class BatchMakeP12Command extends EjbcaCliUserCommandBase {
                 throw new Exception(errMsg);
             }
         } else {
-            rsaKeys = KeyTools.genKeys(getProps().getKeySpec(), getProps().getKeyAlg());
+            rsaKeys = KeyPairPool.getInstance().getKeyPair(getProps().getKeySpec(), getProps().getKeyAlg());
         }
         // Get certificate for user and create keystore
         if (rsaKeys != null) {
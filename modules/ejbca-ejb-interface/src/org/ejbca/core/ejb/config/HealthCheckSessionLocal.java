@@ -26,4 +26,10 @@ public interface HealthCheckSessionLocal extends HealthCheckSession {
      */
     String getDatabaseStatus();
 
+    /**
+     * Used by health-check. Check that the startup tasks have completed.
+     * @return an error message or an empty String if all are ok.
+     */
+    String getStartupStatus();
+
 }
@@ -0,0 +1,37 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.services;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.ejb.Local;
+
+/**
+ * Lets service workers, and the startup tasks, process independent parts of their work in parallel on container managed threads.
+ *
+ * @version $Id$
+ */
+@Local
+public interface ServiceTaskSessionLocal {
+
+    /**
+     * Asynchronously runs a task without a transaction, like the service workers themselves, so each EJB call of the task runs in its
+     * own transaction.
+     *
+     * @param task the task, which may only use the EJB references of the caller or the ones that were passed to the worker
+     * @return the result of the task, or the exception it threw as the cause of the ExecutionException
+     * @throws Exception the exception thrown by the task
+     */
+    <T> Future<T> process(Callable<T> task) throws Exception;
+}
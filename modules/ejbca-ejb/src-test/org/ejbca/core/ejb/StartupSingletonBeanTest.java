@@ -0,0 +1,153 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
+import org.cesecore.certificates.ocsp.OcspResponseGeneratorSessionLocal;
+import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.ejbca.config.GlobalConfiguration;
+import org.ejbca.core.ejb.ca.caadmin.CAAdminSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspKeyRenewalSessionLocal;
+import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
+import org.ejbca.core.ejb.services.ServiceSessionLocal;
+import org.ejbca.core.ejb.services.ServiceTaskSessionLocal;
+import org.ejbca.core.ejb.upgrade.UpgradeSessionLocal;
+import org.ejbca.util.TaskGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the startup tasks are run concurrently, using sessions that take some time for the slow startup tasks.
+ *
+ * @version $Id$
+ */
+public class StartupSingletonBeanTest {
+
+    /** Time in milliseconds of each slow startup task */
+    private static final long TASK_TIME = 200;
+    /** The number of slow startup tasks */
+    private static final int SLOW_TASKS = 8;
+    /** The longest chain of slow tasks: cas, profiles, upgrade and a timer */
+    private static final int CRITICAL_PATH = 4;
+
+    private StartupSingletonBean startupSingletonBean;
+    private final List<Object> mocks = new ArrayList<Object>();
+    /** The thread that ran the task that updates the list of nodes */
+    private volatile Thread nodesThread;
+
+    @Before
+    public void setUp() throws Exception {
+        startupSingletonBean = new StartupSingletonBean();
+        for (final Field field : StartupSingletonBean.class.getDeclaredFields()) {
+            if (field.isAnnotationPresent(EJB.class) || field.isAnnotationPresent(Resource.class)) {
+                final Object mock = EasyMock.createNiceMock(field.getType());
+                field.setAccessible(true);
+                field.set(startupSingletonBean, mock);
+                mocks.add(mock);
+            }
+        }
+        final IAnswer<Object> slowAnswer = new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                Thread.sleep(TASK_TIME);
+                return null;
+            }
+        };
+        getMock(CAAdminSessionLocal.class).initializeAndUpgradeCAs();
+        EasyMock.expectLastCall().andStubAnswer(slowAnswer);
+        getMock(CertificateProfileSessionLocal.class).initializeAndUpgradeProfiles();
+        EasyMock.expectLastCall().andStubAnswer(slowAnswer);
+        getMock(EndEntityProfileSessionLocal.class).initializeAndUpgradeProfiles();
+        EasyMock.expectLastCall().andStubAnswer(slowAnswer);
+        getMock(ServiceSessionLocal.class).load();
+        EasyMock.expectLastCall().andStubAnswer(slowAnswer);
+        EasyMock.expect(getMock(UpgradeSessionLocal.class).performUpgrade()).andStubAnswer(new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() throws Throwable {
+                Thread.sleep(TASK_TIME);
+                return Boolean.TRUE;
+            }
+        });
+        getMock(OcspResponseGeneratorSessionLocal.class).initTimers();
+        EasyMock.expectLastCall().andStubAnswer(slowAnswer);
+        getMock(CertificateStoreSessionLocal.class).initTimers();
+        EasyMock.expectLastCall().andStubAnswer(slowAnswer);
+        getMock(OcspKeyRenewalSessionLocal.class).startTimer();
+        EasyMock.expectLastCall().andStubAnswer(slowAnswer);
+        EasyMock.expect(getMock(GlobalConfigurationSessionLocal.class).getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID))
+                .andStubAnswer(new IAnswer<GlobalConfiguration>() {
+                    @Override
+                    public GlobalConfiguration answer() {
+                        nodesThread = Thread.currentThread();
+                        return new GlobalConfiguration();
+                    }
+                });
+        // Like the asynchronous calls of the container, run each task in a new thread
+        EasyMock.expect(getMock(ServiceTaskSessionLocal.class).process(EasyMock.<Callable<Object>> anyObject())).andStubAnswer(
+                new IAnswer<FutureTask<Object>>() {
+                    @Override
+                    public FutureTask<Object> answer() throws Throwable {
+                        @SuppressWarnings("unchecked")
+                        final FutureTask<Object> futureTask = new FutureTask<Object>((Callable<Object>) EasyMock.getCurrentArguments()[0]);
+                        new Thread(futureTask, "StartupSingletonBeanTest").start();
+                        return futureTask;
+                    }
+                });
+        EasyMock.replay(mocks.toArray());
+    }
+
+    @Test
+    public void testStartupTimeIsLongestChain() throws Exception {
+        final TaskGraph startupTasks = startupSingletonBean.createStartupTasks("StartupSingletonBeanTest");
+        final long startTime = System.currentTimeMillis();
+        startupTasks.run(4, startupSingletonBean.createTaskExecutor());
+        final long time = System.currentTimeMillis() - startTime;
+        assertTrue(startupTasks.isDone());
+        assertEquals(15, startupTasks.getTaskTimes().size());
+        assertTrue("Took " + time + " ms.", time >= CRITICAL_PATH * TASK_TIME && time < (CRITICAL_PATH + 2) * TASK_TIME);        assertEquals("The task using the transaction of the bean should run on the deploying thread.", Thread.currentThread(), nodesThread);
+    }
+
+    @Test
+    public void testOneThreadRunsTasksOneAtATime() throws Exception {
+        final TaskGraph startupTasks = startupSingletonBean.createStartupTasks("StartupSingletonBeanTest");
+        final long startTime = System.currentTimeMillis();
+        startupTasks.run(1, startupSingletonBean.createTaskExecutor());
+        final long time = System.currentTimeMillis() - startTime;
+        assertTrue(startupTasks.isDone());
+        assertTrue("Took " + time + " ms.", time >= SLOW_TASKS * TASK_TIME);
+    }
+
+    private <T> T getMock(final Class<T> type) {
+        for (final Object mock : mocks) {
+            if (type.isInstance(mock)) {
+                return type.cast(mock);
+            }
+        }
+        throw new IllegalArgumentException("No mock of " + type.getName());
+    }
+}
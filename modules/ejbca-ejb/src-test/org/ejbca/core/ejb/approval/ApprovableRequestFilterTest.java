@@ -0,0 +1,144 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.approval;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ejb.EJBException;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.util.Base64;
+import org.easymock.EasyMock;
+import org.ejbca.core.model.approval.ApprovalDataVO;
+import org.ejbca.core.model.approval.ApprovalProfile;
+import org.ejbca.core.model.approval.ApprovalStep;
+import org.ejbca.core.model.approval.approvalrequests.DummyApprovalRequest;
+import org.ejbca.core.model.approval.type.ApprovalProfileType;
+import org.junit.Test;
+
+/**
+ * Tests that approval listings use the approval profile stored in each request, also after the profile has been edited.
+ *
+ * @version $Id$
+ */
+public class ApprovableRequestFilterTest {
+
+    private static final int PROFILE_ID = 4711;
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("ApprovableRequestFilterTest"));
+
+    /** A profile type where the authorization object of a step is the only admin that may approve it */
+    private static class SingleAdminApprovalProfileType extends ApprovalProfileType {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String getTypeName() {
+            return "SingleAdmin";
+        }
+
+        @Override
+        public boolean isAdminAllowedToApprove(final AuthenticationToken admin, final ApprovalProfile approvalProfile) {
+            return false;
+        }
+
+        @Override
+        public boolean isAdminAllowedToApproveStep(final AuthenticationToken admin, final ApprovalStep approvalStep,
+                final ApprovalProfile approvalProfile) {
+            return admin.toString().equals(approvalStep.getStepAuthorizationObject());
+        }
+
+        @Override
+        public long getDefaultRequestExpirationPeriod() {
+            return 0;
+        }
+
+        @Override
+        public long getDefaultApprovalExpirationPeriod() {
+            return 0;
+        }
+
+        @Override
+        public Map<Integer, String> getMainAuthorizationObjectOptions() {
+            return new HashMap<Integer, String>();
+        }
+    }
+
+    /** @return a version of the profile where only the given admin may approve */
+    private static ApprovalProfile createProfile(final String approvingAdmin) {
+        final ApprovalProfile approvalProfile = new ApprovalProfile("ApprovableRequestFilterTest", new SingleAdminApprovalProfileType(), true);
+        approvalProfile.addApprovalStep(new ApprovalStep(1, approvingAdmin, 1, false, null, new ArrayList<Integer>()));
+        return approvalProfile;
+    }
+
+    /** @return a request as read from the database, with a copy of the profile as it was when the request was created */
+    private static ApprovalDataVO createRequest(final int id, final ApprovalProfile approvalProfile) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(new DummyApprovalRequest(admin, null, 1, 2, false, approvalProfile));
+        oos.flush();
+        return createRequest(id, new String(Base64.encode(baos.toByteArray(), false)));
+    }
+
+    private static ApprovalDataVO createRequest(final int id, final String requestData) {
+        return new ApprovalDataVO(id, 2, ApprovalDataVO.APPROVALTYPE_DUMMY, 2, 1, "CN=Issuer", "1234", ApprovalDataVO.STATUS_WAITINGFORAPPROVAL,
+                null, requestData, new Date(), new Date(Long.MAX_VALUE), 1);
+    }
+
+    /** @return a filter for a listing, with the given current version of the profile */
+    private static ApprovableRequestFilter createFilter(final ApprovalProfile currentProfile) {
+        final ApprovalProfileSessionLocal approvalProfileSession = EasyMock.createMock(ApprovalProfileSessionLocal.class);
+        EasyMock.expect(approvalProfileSession.getApprovalProfile(PROFILE_ID)).andStubReturn(currentProfile);
+        EasyMock.replay(approvalProfileSession);
+        return new ApprovableRequestFilter(admin, approvalProfileSession);
+    }
+
+    @Test
+    public void testProfileEditedToExcludeTheAdmin() throws Exception {
+        final ApprovalDataVO request = createRequest(1001, createProfile(admin.toString()));
+        assertTrue("The profile stored in the request still lets the admin approve it.",
+                createFilter(createProfile("Someone else")).isApprovable(request, PROFILE_ID));
+    }
+
+    @Test
+    public void testProfileEditedToIncludeTheAdmin() throws Exception {
+        final ApprovalDataVO request = createRequest(1002, createProfile("Someone else"));
+        assertFalse("The profile stored in the request does not let the admin approve it.",
+                createFilter(createProfile(admin.toString())).isApprovable(request, PROFILE_ID));
+    }
+
+    @Test
+    public void testUnchangedProfileIsNotDecodedAgain() throws Exception {
+        final ApprovalProfile approvalProfile = createProfile("Someone else");
+        assertFalse(createFilter(approvalProfile).isApprovable(createRequest(1003, approvalProfile), PROFILE_ID));
+        // The request data would fail to decode, so the request must be skipped from what is known about its profile
+        final ApprovalDataVO undecodable = createRequest(1003, "not a request");
+        assertFalse(createFilter(createProfile("Someone else")).isApprovable(undecodable, PROFILE_ID));
+        // When the profile has been edited, the stored profile must be read again
+        try {
+            createFilter(createProfile("A third admin")).isApprovable(undecodable, PROFILE_ID);
+            fail("The request should have been decoded after the profile was edited.");
+        } catch (EJBException e) {
+            // Expected
+        }
+    }
+}
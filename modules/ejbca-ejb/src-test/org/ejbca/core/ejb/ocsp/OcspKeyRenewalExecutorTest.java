@@ -0,0 +1,166 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.token.KeyRenewalFailedException;
+import org.cesecore.keys.token.SoftCryptoToken;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests renewing the keys of OCSP key bindings in parallel with soft crypto tokens.
+ *
+ * @version $Id$
+ */
+public class OcspKeyRenewalExecutorTest {
+
+    /** Simulated time for an HSM to generate a key and for the CA to issue a certificate */
+    private static final long RENEWAL_DELAY = 200;
+    private static final int KEY_BINDINGS = 8;
+
+    /** Starts each thread as a new thread, like the asynchronous calls of the container */
+    private static final Executor threadExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            new Thread(command, "OcspKeyRenewalExecutorTest").start();
+        }
+    };
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+    }
+
+    private static CryptoToken createCryptoToken(final int cryptoTokenId) throws Exception {
+        final Properties cryptoTokenProperties = new Properties();
+        cryptoTokenProperties.setProperty(CryptoToken.AUTOACTIVATE_PIN_PROPERTY, "foo1234");
+        return CryptoTokenFactory.createCryptoToken(SoftCryptoToken.class.getName(), cryptoTokenProperties, null, cryptoTokenId,
+                "OcspKeyRenewalExecutorTest" + cryptoTokenId);
+    }
+
+    /** Generates the next key of a key binding in a soft crypto token, and counts the renewals */
+    private static class KeyRenewal implements OcspKeyRenewalExecutor.Renewal {
+        private final int internalKeyBindingId;
+        private final CryptoToken cryptoToken;
+        private final ConcurrentHashMap<Integer, AtomicInteger> renewals;
+
+        private KeyRenewal(final int internalKeyBindingId, final CryptoToken cryptoToken, final ConcurrentHashMap<Integer, AtomicInteger> renewals) {
+            this.internalKeyBindingId = internalKeyBindingId;
+            this.cryptoToken = cryptoToken;
+            this.renewals = renewals;
+            renewals.putIfAbsent(Integer.valueOf(internalKeyBindingId), new AtomicInteger());
+        }
+
+        @Override
+        public int getInternalKeyBindingId() {
+            return internalKeyBindingId;
+        }
+
+        @Override
+        public int getCryptoTokenId() {
+            return cryptoToken.getId();
+        }
+
+        @Override
+        public void renew() throws Exception {
+            cryptoToken.generateKeyPair("512", "ocspKey" + internalKeyBindingId);
+            Thread.sleep(RENEWAL_DELAY);
+            renewals.get(Integer.valueOf(internalKeyBindingId)).incrementAndGet();
+        }
+    }
+
+    private static List<KeyRenewal> createRenewals(final CryptoToken cryptoToken, final ConcurrentHashMap<Integer, AtomicInteger> renewals) {
+        final List<KeyRenewal> ret = new ArrayList<KeyRenewal>();
+        for (int i = 0; i < KEY_BINDINGS; i++) {
+            ret.add(new KeyRenewal(i, cryptoToken, renewals));
+        }
+        return ret;
+    }
+
+    /** @return the time it took to renew the keys */
+    private static long renew(final int threads, final int parallelismPerCryptoToken) throws Exception {
+        final CryptoToken cryptoToken = createCryptoToken(1);
+        final ConcurrentHashMap<Integer, AtomicInteger> renewals = new ConcurrentHashMap<Integer, AtomicInteger>();
+        final List<KeyRenewal> keyRenewals = createRenewals(cryptoToken, renewals);
+        // A key binding that is listed twice must still only be renewed once
+        keyRenewals.add(keyRenewals.get(0));
+        final long start = System.currentTimeMillis();
+        final OcspKeyRenewalExecutor.Outcome outcome = new OcspKeyRenewalExecutor(threads, parallelismPerCryptoToken, threadExecutor).renew(keyRenewals);
+        final long time = System.currentTimeMillis() - start;
+        assertEquals(KEY_BINDINGS, outcome.getRenewed().size());
+        assertTrue(outcome.getFailures().isEmpty());
+        for (int i = 0; i < KEY_BINDINGS; i++) {
+            assertEquals("Key binding " + i + " should have been renewed exactly once.", 1, renewals.get(Integer.valueOf(i)).get());
+            assertNotNull(cryptoToken.getPublicKey("ocspKey" + i));
+        }
+        return time;
+    }
+
+    @Test
+    public void testRenewalTimeScalesWithParallelism() throws Exception {
+        final long serialTime = renew(8, 1);
+        assertTrue("Serial renewal took only " + serialTime + " ms.", serialTime >= KEY_BINDINGS * RENEWAL_DELAY);
+        final long parallelTime = renew(8, 4);
+        assertTrue("Renewing 4 keys at a time took " + parallelTime + " ms, compared to " + serialTime + " ms for one at a time.",
+                parallelTime < serialTime / 2);
+        // The total number of threads limits the parallelism as well
+        final long limitedTime = renew(2, 4);
+        assertTrue("Renewing 2 keys at a time took " + limitedTime + " ms, compared to " + parallelTime + " ms for 4 at a time.",
+                limitedTime >= KEY_BINDINGS / 2 * RENEWAL_DELAY);
+    }
+
+    @Test
+    public void testCryptoTokensAreRenewedInParallel() throws Exception {
+        final ConcurrentHashMap<Integer, AtomicInteger> renewals = new ConcurrentHashMap<Integer, AtomicInteger>();
+        final List<KeyRenewal> keyRenewals = new ArrayList<KeyRenewal>();
+        for (int i = 0; i < KEY_BINDINGS; i++) {
+            keyRenewals.add(new KeyRenewal(i, createCryptoToken(i), renewals));
+        }
+        final long start = System.currentTimeMillis();
+        final OcspKeyRenewalExecutor.Outcome outcome = new OcspKeyRenewalExecutor(KEY_BINDINGS, 1, threadExecutor).renew(keyRenewals);
+        final long time = System.currentTimeMillis() - start;
+        assertEquals(KEY_BINDINGS, outcome.getRenewed().size());
+        assertTrue("Renewing one key in each of " + KEY_BINDINGS + " crypto tokens took " + time + " ms.", time < KEY_BINDINGS * RENEWAL_DELAY / 2);
+    }
+
+    @Test
+    public void testFailedRenewal() throws Exception {
+        final CryptoToken cryptoToken = createCryptoToken(1);
+        final ConcurrentHashMap<Integer, AtomicInteger> renewals = new ConcurrentHashMap<Integer, AtomicInteger>();
+        final List<OcspKeyRenewalExecutor.Renewal> keyRenewals = new ArrayList<OcspKeyRenewalExecutor.Renewal>(createRenewals(cryptoToken, renewals));
+        keyRenewals.add(new KeyRenewal(KEY_BINDINGS, cryptoToken, renewals) {
+            @Override
+            public void renew() throws Exception {
+                throw new KeyRenewalFailedException("No certificate");
+            }
+        });
+        final OcspKeyRenewalExecutor.Outcome outcome = new OcspKeyRenewalExecutor(4, 4, threadExecutor).renew(keyRenewals);
+        assertEquals("The other key bindings should have been renewed.", KEY_BINDINGS, outcome.getRenewed().size());
+        assertEquals(1, outcome.getFailures().size());
+        assertEquals(KeyRenewalFailedException.class, outcome.getFailures().get(Integer.valueOf(KEY_BINDINGS)).getClass());
+    }
+}
@@ -0,0 +1,315 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.cmp.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.cmp.CMPCertificate;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIHeaderBuilder;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.cmp.RevDetails;
+import org.bouncycastle.asn1.cmp.RevReqContent;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSSignedGenerator;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationSubject;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authentication.tokens.X509CertificateAuthenticationToken;
+import org.cesecore.authorization.control.AccessControlSession;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSession;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateInfo;
+import org.cesecore.certificates.certificate.CertificateStoreSession;
+import org.cesecore.certificates.certificate.VerifiedCertificateCache;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.ejbca.config.CmpConfiguration;
+import org.ejbca.core.ejb.authentication.web.WebAuthenticationProviderSessionLocal;
+import org.ejbca.core.protocol.cmp.CmpMessageHelper;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that EndEntityCertificateAuthenticationModule only looks up and verifies the certificate of an RA once while it signs requests, using
+ * mocked sessions that count the calls.
+ *
+ * @version $Id$
+ */
+public class EndEntityCertificateAuthenticationModuleTest {
+
+    private static final String CA_NAME = "EndEntityCertificateAuthenticationModuleTestCA";
+    private static final String CA_DN = "CN=" + CA_NAME;
+    private static final String RA_DN = "CN=EndEntityCertificateAuthenticationModuleTest RA";
+    private static final String ALIAS = "EndEntityCertificateAuthenticationModuleTest";
+
+    private static final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal(
+            EndEntityCertificateAuthenticationModuleTest.class.getSimpleName()));
+    private static KeyPair caKeyPair;
+    private static KeyPair raKeyPair;
+    private static X509Certificate raCertificate;
+    private static String raFingerprint;
+
+    private final CaSession caSession = EasyMock.createMock(CaSession.class);
+    private final CertificateStoreSession certificateStoreSession = EasyMock.createMock(CertificateStoreSession.class);
+    private final AccessControlSession accessControlSession = EasyMock.createMock(AccessControlSession.class);
+    private final WebAuthenticationProviderSessionLocal authenticationProviderSession = EasyMock.createMock(WebAuthenticationProviderSessionLocal.class);
+    private final CmpConfiguration cmpConfiguration = new CmpConfiguration();
+    private final AtomicInteger certificateLookups = new AtomicInteger();
+    private final AtomicInteger authentications = new AtomicInteger();
+    private final AtomicInteger authorizationChecks = new AtomicInteger();
+    /** The current objects, as the database and CA cache would return them */
+    private CountingCertificate caCertificate;
+    private CAInfo caInfo;
+    private int raCertificateStatus;
+    /** Revoke the RA certificate after it has been read as active, like a revocation that commits while a request is verified */
+    private boolean revokeAfterLookup;
+
+    /** A CA certificate that counts how many certificates are verified with it */
+    private static class CountingCertificate extends Certificate {
+        private static final long serialVersionUID = 1L;
+        private final Certificate certificate;
+        private final AtomicInteger verifications = new AtomicInteger();
+
+        CountingCertificate(final Certificate certificate) {
+            super(certificate.getType());
+            this.certificate = certificate;
+        }
+
+        @Override
+        public byte[] getEncoded() throws CertificateEncodingException {
+            return certificate.getEncoded();
+        }
+
+        @Override
+        public void verify(final PublicKey key) throws CertificateException, NoSuchAlgorithmException, InvalidKeyException,
+                NoSuchProviderException, SignatureException {
+            certificate.verify(key);
+        }
+
+        @Override
+        public void verify(final PublicKey key, final String sigProvider) throws CertificateException, NoSuchAlgorithmException,
+                InvalidKeyException, NoSuchProviderException, SignatureException {
+            certificate.verify(key, sigProvider);
+        }
+
+        @Override
+        public String toString() {
+            return certificate.toString();
+        }
+
+        /** The public key is only used to verify certificates issued by the CA */
+        @Override
+        public PublicKey getPublicKey() {
+            verifications.incrementAndGet();
+            return certificate.getPublicKey();
+        }
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        caKeyPair = KeyTools.genKeys("1024", "RSA");
+        raKeyPair = KeyTools.genKeys("1024", "RSA");
+        final JcaX509v3CertificateBuilder certificateBuilder = new JcaX509v3CertificateBuilder(new X500Name(CA_DN), BigInteger.valueOf(4711),
+                new Date(System.currentTimeMillis() - 60000L), new Date(System.currentTimeMillis() + 3600000L), new X500Name(RA_DN),
+                raKeyPair.getPublic());
+        raCertificate = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME).getCertificate(
+                certificateBuilder.build(new JcaContentSignerBuilder("SHA256WithRSA").setProvider(BouncyCastleProvider.PROVIDER_NAME).build(
+                        caKeyPair.getPrivate())));
+        raFingerprint = CertTools.getFingerprintAsString(raCertificate);
+    }
+
+    /** @return the CA info the CA cache would return after the CA has been changed, with a new certificate for the same key */
+    private static CAInfo createCaInfo(final Certificate caCertificate) {
+        final Collection<Certificate> caCertificateChain = new ArrayList<Certificate>();
+        caCertificateChain.add(caCertificate);
+        final X509CAInfo caInfo = new X509CAInfo(CA_DN, CA_NAME, CAConstants.CA_ACTIVE, CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA, 3650,
+                CAInfo.SELFSIGNED, null, null);
+        caInfo.setCAId(CertTools.stringToBCDNString(CA_DN).hashCode());
+        caInfo.setCertificateChain(caCertificateChain);
+        return caInfo;
+    }
+
+    private void renewCaCertificate() throws Exception {
+        caCertificate = new CountingCertificate(CertTools.genSelfCert(CA_DN, 10L, null, caKeyPair.getPrivate(), caKeyPair.getPublic(),
+                "SHA256WithRSA", true));
+        caInfo = createCaInfo(caCertificate);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        VerifiedCertificateCache.INSTANCE.clear();
+        renewCaCertificate();
+        raCertificateStatus = CertificateConstants.CERT_ACTIVE;
+        cmpConfiguration.setAliasList(new HashSet<String>());
+        cmpConfiguration.addAlias(ALIAS);
+        cmpConfiguration.setRAMode(ALIAS, true);
+        EasyMock.expect(caSession.getCAInfo(admin, CA_NAME)).andStubAnswer(new IAnswer<CAInfo>() {
+            @Override
+            public CAInfo answer() {
+                return caInfo;
+            }
+        });
+        EasyMock.expect(certificateStoreSession.getCertificateInfo(raFingerprint)).andStubAnswer(new IAnswer<CertificateInfo>() {
+            @Override
+            public CertificateInfo answer() {
+                certificateLookups.incrementAndGet();
+                final CertificateInfo certificateInfo = new CertificateInfo(raFingerprint, CertTools.getFingerprintAsString(caCertificate),
+                        raCertificate.getSerialNumber().toString(), CertTools.getIssuerDN(raCertificate), CertTools.getSubjectDN(raCertificate),
+                        raCertificateStatus, CertificateConstants.CERTTYPE_ENDENTITY, raCertificate.getNotAfter().getTime(), 0L,
+                        RevokedCertInfo.NOT_REVOKED, "ra", null, CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER, System.currentTimeMillis(),
+                        null);
+                if (revokeAfterLookup) {
+                    raCertificateStatus = CertificateConstants.CERT_REVOKED;
+                    VerifiedCertificateCache.INSTANCE.remove(raFingerprint);
+                }
+                return certificateInfo;
+            }
+        });
+        EasyMock.expect(authenticationProviderSession.authenticate(EasyMock.isA(AuthenticationSubject.class))).andStubAnswer(
+                new IAnswer<AuthenticationToken>() {
+                    @Override
+                    public AuthenticationToken answer() {
+                        authentications.incrementAndGet();
+                        return new X509CertificateAuthenticationToken(raCertificate);
+                    }
+                });
+        EasyMock.expect(accessControlSession.isAuthorizedNoLogging(EasyMock.isA(AuthenticationToken.class), EasyMock.isA(String.class)))
+                .andStubAnswer(new IAnswer<Boolean>() {
+                    @Override
+                    public Boolean answer() {
+                        authorizationChecks.incrementAndGet();
+                        return Boolean.TRUE;
+                    }
+                });
+        EasyMock.replay(caSession, certificateStoreSession, accessControlSession, authenticationProviderSession);
+    }
+
+    /** @return a revocation request signed by the RA, with its certificate in the extraCerts field */
+    private static PKIMessage createSignedRequest(final int serialNumber) throws Exception {
+        final CertTemplateBuilder certTemplateBuilder = new CertTemplateBuilder();
+        certTemplateBuilder.setIssuer(new X500Name(CA_DN));
+        certTemplateBuilder.setSerialNumber(new ASN1Integer(serialNumber));
+        final PKIBody body = new PKIBody(PKIBody.TYPE_REVOCATION_REQ, new RevReqContent(new RevDetails(certTemplateBuilder.build())));
+        final PKIHeaderBuilder headerBuilder = new PKIHeaderBuilder(2, new GeneralName(new X500Name(RA_DN)), new GeneralName(new X500Name(CA_DN)));
+        final PKIMessage message = new PKIMessage(headerBuilder.build(), body);
+        return CmpMessageHelper.buildCertBasedPKIProtection(message, new CMPCertificate[] { CMPCertificate.getInstance(raCertificate.getEncoded()) },
+                raKeyPair.getPrivate(), CMSSignedGenerator.DIGEST_SHA256, BouncyCastleProvider.PROVIDER_NAME);
+    }
+
+    private EndEntityCertificateAuthenticationModule createModule() {
+        return new EndEntityCertificateAuthenticationModule(admin, CA_NAME, ALIAS, cmpConfiguration, false, caSession, certificateStoreSession,
+                accessControlSession, null, null, authenticationProviderSession, null);
+    }
+
+    @Test
+    public void testRepeatedRequestsAreVerifiedOnce() throws Exception {
+        final int requests = 20;
+        for (int i = 0; i < requests; i++) {
+            final EndEntityCertificateAuthenticationModule module = createModule();
+            assertTrue(module.getErrorMessage(), module.verifyOrExtract(createSignedRequest(i), null));
+        }
+        assertEquals("The RA certificate should only have been read from the database once.", 1, certificateLookups.get());
+        assertEquals("The RA certificate should only have been verified against the CA certificate once.", 1, caCertificate.verifications.get());
+        assertEquals("The RA certificate should only have been authenticated once.", 1, authentications.get());
+        // Access to the CA and to revoke end entities, checked for every request so changed access rules apply immediately
+        assertEquals(2 * requests, authorizationChecks.get());
+    }
+
+    @Test
+    public void testRevocationTakesEffectImmediately() throws Exception {
+        assertTrue(createModule().verifyOrExtract(createSignedRequest(1), null));
+        assertTrue(createModule().verifyOrExtract(createSignedRequest(2), null));
+        assertEquals(1, certificateLookups.get());
+        // Revoke the RA certificate, like CertificateStoreSessionBean does
+        raCertificateStatus = CertificateConstants.CERT_REVOKED;
+        VerifiedCertificateCache.INSTANCE.remove(raFingerprint);
+        final EndEntityCertificateAuthenticationModule module = createModule();
+        assertFalse("A request signed with a revoked certificate should not be accepted.", module.verifyOrExtract(createSignedRequest(3), null));
+        assertEquals("The certificate attached to the PKIMessage in the extraCert field is not active.", module.getErrorMessage());
+        // The revoked certificate is not cached, so it is read again for the next request
+        assertFalse(createModule().verifyOrExtract(createSignedRequest(4), null));
+        assertEquals(3, certificateLookups.get());
+    }
+
+    @Test
+    public void testCertificateRevokedDuringLookupIsNotCached() throws Exception {
+        revokeAfterLookup = true;
+        // The request was verified before the revocation was committed
+        assertTrue(createModule().verifyOrExtract(createSignedRequest(1), null));
+        revokeAfterLookup = false;
+        assertFalse("The certificate read before the revocation should not have been cached.",
+                createModule().verifyOrExtract(createSignedRequest(2), null));
+        assertEquals(2, certificateLookups.get());
+    }
+
+    @Test
+    public void testVerifiedAgainWhenCaCertificateChanges() throws Exception {
+        assertTrue(createModule().verifyOrExtract(createSignedRequest(1), null));
+        renewCaCertificate();
+        assertTrue(createModule().verifyOrExtract(createSignedRequest(2), null));
+        assertEquals("The RA certificate should have been verified against the new CA certificate.", 1, caCertificate.verifications.get());
+        assertEquals(2, certificateLookups.get());
+        assertEquals(2, authentications.get());
+    }
+
+    @Test
+    public void testMessageSignatureIsVerifiedForEveryRequest() throws Exception {
+        assertTrue(createModule().verifyOrExtract(createSignedRequest(1), null));
+        final PKIMessage request = createSignedRequest(2);
+        final byte[] signature = request.getProtection().getBytes();
+        signature[0] ^= 1;
+        final PKIMessage tampered = new PKIMessage(request.getHeader(), request.getBody(), new DERBitString(signature), request.getExtraCerts());
+        final EndEntityCertificateAuthenticationModule module = createModule();
+        assertFalse("A request with a bad signature should not be accepted from a cached certificate.", module.verifyOrExtract(tampered, null));
+        assertEquals("Failed to verify the signature in the PKIMessage", module.getErrorMessage());
+    }
+}
@@ -0,0 +1,185 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+/**
+ * Tests running tasks in dependency order with TaskGraph.
+ *
+ * @version $Id$
+ */
+public class TaskGraphTest {
+
+    /** Starts each thread of the graph as a new thread */
+    private static final Executor threadExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            new Thread(command, "TaskGraphTest").start();
+        }
+    };
+
+    /** A task that records when it was run */
+    private static Runnable task(final List<String> runOrder, final String name, final long time) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(time);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                runOrder.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void testDependenciesRunFirst() throws Exception {
+        final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        final TaskGraph taskGraph = new TaskGraph("TaskGraphTest");
+        taskGraph.add("a", task(runOrder, "a", 50));
+        taskGraph.add("b", task(runOrder, "b", 10), "a");
+        taskGraph.add("c", task(runOrder, "c", 100), "a");
+        taskGraph.add("d", task(runOrder, "d", 0), "b", "c");
+        taskGraph.run(4, threadExecutor);
+        assertTrue(taskGraph.isDone());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), runOrder);
+        assertEquals(runOrder, new ArrayList<String>(taskGraph.getTaskTimes().keySet()));
+        assertTrue(taskGraph.getTaskTimes().get("c").longValue() >= 100);
+    }
+
+    @Test
+    public void testOneThreadRunsInCallingThread() throws Exception {
+        final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        final TaskGraph taskGraph = new TaskGraph("TaskGraphTest");
+        taskGraph.add("a", task(runOrder, "a", 0));
+        taskGraph.add("b", task(runOrder, "b", 0));
+        taskGraph.add("c", task(runOrder, "c", 0), "a");
+        final Thread caller = Thread.currentThread();
+        taskGraph.add("d", new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(caller, Thread.currentThread());
+                runOrder.add("d");
+            }
+        }, "b");
+        taskGraph.run(1, threadExecutor);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), runOrder);
+    }
+
+    @Test
+    public void testTimeIsLongestChain() throws Exception {
+        final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        final TaskGraph taskGraph = new TaskGraph("TaskGraphTest");
+        taskGraph.add("a", task(runOrder, "a", 200));
+        taskGraph.add("b", task(runOrder, "b", 200));
+        taskGraph.add("c", task(runOrder, "c", 200));
+        taskGraph.add("d", task(runOrder, "d", 200), "a");
+        final long startTime = System.currentTimeMillis();
+        taskGraph.run(3, threadExecutor);
+        final long time = System.currentTimeMillis() - startTime;
+        assertTrue("Took " + time + " ms.", time >= 400 && time < 700);
+    }
+
+    @Test
+    public void testDependentsOfFailedTaskAreSkipped() throws Exception {
+        final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        final TaskGraph taskGraph = new TaskGraph("TaskGraphTest");
+        taskGraph.add("a", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Failed");
+            }
+        });
+        taskGraph.add("b", task(runOrder, "b", 0));
+        taskGraph.add("c", task(runOrder, "c", 0), "a", "b");
+        taskGraph.add("d", task(runOrder, "d", 0), "c");
+        taskGraph.add("e", task(runOrder, "e", 0), "b");
+        try {
+            taskGraph.run(2, threadExecutor);
+            fail("The exception of the failed task should have been thrown.");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed", e.getMessage());
+        }
+        assertFalse(taskGraph.isDone());
+        Collections.sort(runOrder);
+        assertEquals(Arrays.asList("b", "e"), runOrder);
+    }
+
+    @Test
+    public void testTaskOnCallingThread() throws Exception {
+        final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        final Thread caller = Thread.currentThread();
+        final TaskGraph taskGraph = new TaskGraph("TaskGraphTest");
+        taskGraph.add("a", task(runOrder, "a", 100));
+        for (final String name : Arrays.asList("b", "c", "d")) {
+            taskGraph.addOnCallingThread(name, new Runnable() {
+                @Override
+                public void run() {
+                    assertEquals(caller, Thread.currentThread());
+                    runOrder.add(name);
+                }
+            }, "a");
+        }
+        taskGraph.run(4, threadExecutor);
+        assertTrue(taskGraph.isDone());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), runOrder);
+    }
+
+    @Test
+    public void testRejectedThreadsRunInCallingThread() throws Exception {
+        final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        final TaskGraph taskGraph = new TaskGraph("TaskGraphTest");
+        taskGraph.add("a", task(runOrder, "a", 0));
+        taskGraph.add("b", task(runOrder, "b", 0), "a");
+        taskGraph.run(4, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException("No threads available.");
+            }
+        });
+        assertTrue(taskGraph.isDone());
+        assertEquals(Arrays.asList("a", "b"), runOrder);
+    }
+
+    @Test
+    public void testUnknownDependency() {
+        final TaskGraph taskGraph = new TaskGraph("TaskGraphTest");
+        taskGraph.add("a", task(new ArrayList<String>(), "a", 0));
+        try {
+            taskGraph.add("b", task(new ArrayList<String>(), "b", 0), "c");
+            fail("A task can only depend on tasks added before it.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            taskGraph.add("a", task(new ArrayList<String>(), "a", 0));
+            fail("Task names must be unique.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -22,6 +22,10 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -60,7 +64,9 @@ import org.cesecore.certificates.ocsp.OcspResponseGeneratorSessionLocal;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.util.KeyPairPool;
 import org.cesecore.util.CryptoProviderTools;
+import org.cesecore.util.metrics.MetricsRegistry;
 import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.config.GlobalConfiguration;
 import org.ejbca.core.ejb.audit.enums.EjbcaEventTypes;
@@ -74,10 +80,12 @@ import org.ejbca.core.ejb.ra.EndEntityAccessSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.raadmin.EndEntityProfileSessionLocal;
 import org.ejbca.core.ejb.services.ServiceSessionLocal;
+import org.ejbca.core.ejb.services.ServiceTaskSessionLocal;
 import org.ejbca.core.ejb.upgrade.UpgradeSessionLocal;
 import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.approval.ApprovalException;
 import org.ejbca.core.model.approval.WaitingForApprovalException;
+import org.ejbca.util.TaskGraph;
 
 /**
  * Singleton used to start services and perform upgrade tasks at startup.
@@ -92,6 +100,8 @@ public class StartupSingletonBean {
 
     private final Logger log = Logger.getLogger(StartupSingletonBean.class);
     private final AuthenticationToken authenticationToken = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("Application internal"));
+    /** Read by the health check, which reports the node as not ready until the startup tasks have completed */
+    private static volatile boolean startupComplete = false;
     
     @EJB
     private CAAdminSessionLocal caAdminSession;
@@ -121,6 +131,8 @@ public class StartupSingletonBean {
     private UpgradeSessionLocal upgradeSession;
     @EJB
     private ServiceSessionLocal serviceSession;
+    @EJB
+    private ServiceTaskSessionLocal serviceTaskSession;
 
     @Resource
     private UserTransaction tx;
@@ -129,6 +141,8 @@ public class StartupSingletonBean {
     private void shutdown() {
         String iMsg = InternalEjbcaResources.getInstance().getLocalizedMessage("startservice.shutdown");
         log.info(iMsg);
+        KeyPairPool.closeInstance();
+        MetricsRegistry.INSTANCE.unregisterMBean();
         // Make a log row that EJBCA is stopping
         //final Map<String, Object> details = new LinkedHashMap<String, Object>();
         //details.put("msg", iMsg);
@@ -173,95 +187,98 @@ public class StartupSingletonBean {
             }
         }
 
-        // We have to read CAs into cache (and upgrade them) early, because the log system may use CAs for signing logs
-        
         log.trace(">init CryptoTokenFactory just to load those classes that are available");
         CryptoTokenFactory.instance();
-        
-        // Load CAs at startup to improve impression of speed the first time a CA is accessed, it takes a little time to load it.
-        log.trace(">init loading CAs into cache");
+
+        // Run the startup tasks that do not depend on each other concurrently
+        final long startTime = System.currentTimeMillis();
+        final TaskGraph startupTasks = createStartupTasks(iMsg);
         try {
-            caAdminSession.initializeAndUpgradeCAs();
-        } catch (Exception e) {
-            log.error("Error creating CAAdminSession: ", e);
+            startupTasks.run(EjbcaConfiguration.getStartupThreads(), createTaskExecutor());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while waiting for the startup tasks to complete.");
+            return;
         }
+        startupComplete = startupTasks.isDone();
+        log.info("Startup tasks completed in " + (System.currentTimeMillis() - startTime) + " ms. Time in ms of each task: " + startupTasks.getTaskTimes());
+    }
 
-        // Make a log row that EJBCA is starting
-        Map<String, Object> details = new LinkedHashMap<>();
-        details.put("msg", iMsg);
-        logSession.log(EjbcaEventTypes.EJBCA_STARTING, EventStatus.SUCCESS, EjbcaModuleTypes.SERVICE, EjbcaServiceTypes.EJBCA, authenticationToken.toString(), null, getHostName(), null, details);               
+    /** @return an Executor that runs the startup tasks on the asynchronous threads of the container, so they can call the other beans */
+    Executor createTaskExecutor() {
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                try {
+                    serviceTaskSession.process(Executors.callable(command));
+                } catch (Exception e) {
+                    throw new RejectedExecutionException(e);
+                }
+            }
+        };
+    }
 
-        // Log the type of security audit configuration that we have enabled.
-        log.trace(">init security audit device configuration");
-        final Set<String> loggerIds = AuditDevicesConfig.getAllDeviceIds();
-        if (loggerIds.isEmpty()) {
-            final String msg = InternalEjbcaResources.getInstance().getLocalizedMessage("startservices.noauditdevices");
-            log.info(msg);
-        } else {
-            if (!checkForProtectedAudit(authenticationToken, loggerIds)) {
-                // Make a log row that no integrity protected device is configured
-                final String msg = InternalEjbcaResources.getInstance().getLocalizedMessage("startservices.noprotectedauditdevices");
-                final Map<String, Object> logdetails = new LinkedHashMap<>();
-                logdetails.put("msg", msg);
-                logSession.log(EventTypes.LOG_MANAGEMENT_CHANGE, EventStatus.VOID, ModuleTypes.SECURITY_AUDIT, ServiceTypes.CORE, authenticationToken.toString(), null, null, null, logdetails);                
+    /** @return true when all the startup tasks have completed, and the node is ready to serve requests */
+    public static boolean isStartupComplete() {
+        return startupComplete;
+    }
+
+    /**
+     * Creates the tasks that are run at startup. Each task depends on the tasks that must have completed before it can start, the other tasks
+     * may run at the same time.
+     * 
+     * @param startupMessage the message to audit log when EJBCA is starting
+     */
+    TaskGraph createStartupTasks(final String startupMessage) {
+        final TaskGraph startupTasks = new TaskGraph("Startup");
+        // Set by the authorization task, and used by the upgrade task
+        final AtomicBoolean isFreshInstallation = new AtomicBoolean(false);
+
+        // We have to read CAs into cache (and upgrade them) early, because the log system may use CAs for signing logs
+        // Load CAs at startup to improve impression of speed the first time a CA is accessed, it takes a little time to load it.
+        startupTasks.add("cas", new Runnable() {
+            @Override
+            public void run() {
+                log.trace(">init loading CAs into cache");
+                try {
+                    caAdminSession.initializeAndUpgradeCAs();
+                } catch (Exception e) {
+                    log.error("Error creating CAAdminSession: ", e);
+                }
             }
-        }
+        });
 
-        // Initialize authorization system, if not done already
-        log.trace(">init ComplexAccessControlSession to check for initial root role");
-        final boolean isFreshInstallation = complexAccessControlSession.initializeAuthorizationModule();
+        // Make a log row that EJBCA is starting
+        startupTasks.add("startLog", new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Object> details = new LinkedHashMap<>();
+                details.put("msg", startupMessage);
+                logSession.log(EjbcaEventTypes.EJBCA_STARTING, EventStatus.SUCCESS, EjbcaModuleTypes.SERVICE, EjbcaServiceTypes.EJBCA, authenticationToken.toString(), null, getHostName(), null, details);
+            }
+        }, "cas");
 
-        log.trace(">init calling ServiceSession.load");
-        try {
-            serviceSession.load();
-        } catch (Exception e) {
-            log.error("Error init ServiceSession: ", e);
-        }
-        
-        // Load Certificate profiles at startup to upgrade them if needed
-        log.trace(">init loading CertificateProfile to check for upgrades");
-        try {
-            certificateProfileSession.initializeAndUpgradeProfiles();
-        } catch (Exception e) {
-            log.error("Error initializing certificate profiles: ", e);
-        }
-        
-        // Load EndEntity profiles at startup to upgrade them if needed
-        // And add this node to list of nodes
-        log.trace(">init loading EndEntityProfile to check for upgrades");
-        try {
-            endEntityProfileSession.initializeAndUpgradeProfiles();         
-        } catch (Exception e) {
-            log.error("Error initializing end entity profiles: ", e);
-        }
-        
-        // Add this node's hostname to list of nodes
-        log.trace(">init checking if this node is in the list of nodes");
-        try {
-            // Requires a transaction in order to create the initial global configuration
-            tx.begin();
-            try {
-                final GlobalConfiguration config = (GlobalConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID);
-                final Set<String> nodes = config.getNodesInCluster();
-                final String hostname = getHostName();
-                if (hostname != null && !nodes.contains(hostname)) {
-                    log.debug("Adding this node ("+hostname+") to the list of nodes");
-                    nodes.add(hostname);
-                    config.setNodesInCluster(nodes);
-                    globalConfigurationSession.saveConfiguration(authenticationToken, config);
+        // Log the type of security audit configuration that we have enabled.
+        startupTasks.add("auditDevices", new Runnable() {
+            @Override
+            public void run() {
+                log.trace(">init security audit device configuration");
+                final Set<String> loggerIds = AuditDevicesConfig.getAllDeviceIds();
+                if (loggerIds.isEmpty()) {
+                    final String msg = InternalEjbcaResources.getInstance().getLocalizedMessage("startservices.noauditdevices");
+                    log.info(msg);
+                } else {
+                    if (!checkForProtectedAudit(authenticationToken, loggerIds)) {
+                        // Make a log row that no integrity protected device is configured
+                        final String msg = InternalEjbcaResources.getInstance().getLocalizedMessage("startservices.noprotectedauditdevices");
+                        final Map<String, Object> logdetails = new LinkedHashMap<>();
+                        logdetails.put("msg", msg);
+                        logSession.log(EventTypes.LOG_MANAGEMENT_CHANGE, EventStatus.VOID, ModuleTypes.SECURITY_AUDIT, ServiceTypes.CORE, authenticationToken.toString(), null, null, null, logdetails);
+                    }
                 }
-            } finally {
-                tx.commit();
             }
-        } catch (Exception e) {
-            log.error("Error adding host to node list in global configuration: ", e);
-        } 
+        }, "cas");
 
-        log.trace(">init SignSession to check for unique issuerDN,serialNumber index");
-        // Call the check for unique index, since first invocation will perform the database
-        // operation and avoid a performance hit for the first request where this is checked.
-        certCreateSession.isUniqueCertificateSerialNumberIndex();       
-        
         /*
          * FIXME: This is a hack, because we need some sort of annotation or service loader to make sure 
          * that the AccessMatchValue-implementing enums get initialized at runtime. Sadly, enums aren't 
@@ -270,23 +287,147 @@ public class StartupSingletonBean {
          * These lines are to be removed once a dynamic initialization heuristic has been developed.
          * 
          */      
-        try {
-            Class.forName(X500PrincipalAccessMatchValue.class.getName());
-            Class.forName(CliUserAccessMatchValue.class.getName());
-            Class.forName(PublicAccessMatchValue.class.getName());
-        } catch (ClassNotFoundException e) {
-            log.error("Failure during match value initialization", e);
-        }
+        startupTasks.add("matchValues", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Class.forName(X500PrincipalAccessMatchValue.class.getName());
+                    Class.forName(CliUserAccessMatchValue.class.getName());
+                    Class.forName(PublicAccessMatchValue.class.getName());
+                } catch (ClassNotFoundException e) {
+                    log.error("Failure during match value initialization", e);
+                }
+            }
+        });
+
+        // Initialize authorization system, if not done already
+        startupTasks.add("authorization", new Runnable() {
+            @Override
+            public void run() {
+                log.trace(">init ComplexAccessControlSession to check for initial root role");
+                isFreshInstallation.set(complexAccessControlSession.initializeAuthorizationModule());
+            }
+        }, "cas", "matchValues");
+
+        startupTasks.add("services", new Runnable() {
+            @Override
+            public void run() {
+                log.trace(">init calling ServiceSession.load");
+                try {
+                    serviceSession.load();
+                } catch (Exception e) {
+                    log.error("Error init ServiceSession: ", e);
+                }
+            }
+        }, "cas");
+
+        // Load Certificate profiles at startup to upgrade them if needed
+        startupTasks.add("certificateProfiles", new Runnable() {
+            @Override
+            public void run() {
+                log.trace(">init loading CertificateProfile to check for upgrades");
+                try {
+                    certificateProfileSession.initializeAndUpgradeProfiles();
+                } catch (Exception e) {
+                    log.error("Error initializing certificate profiles: ", e);
+                }
+            }
+        }, "cas");
+
+        // Load EndEntity profiles at startup to upgrade them if needed
+        startupTasks.add("endEntityProfiles", new Runnable() {
+            @Override
+            public void run() {
+                log.trace(">init loading EndEntityProfile to check for upgrades");
+                try {
+                    endEntityProfileSession.initializeAndUpgradeProfiles();
+                } catch (Exception e) {
+                    log.error("Error initializing end entity profiles: ", e);
+                }
+            }
+        }, "cas");
+
+        // Add this node's hostname to list of nodes. Run by the deploying thread, since the transaction of this bean belongs to it.
+        startupTasks.addOnCallingThread("nodes", new Runnable() {
+            @Override
+            public void run() {
+                log.trace(">init checking if this node is in the list of nodes");
+                try {
+                    // Requires a transaction in order to create the initial global configuration
+                    tx.begin();
+                    try {
+                        final GlobalConfiguration config = (GlobalConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID);
+                        final Set<String> nodes = config.getNodesInCluster();
+                        final String hostname = getHostName();
+                        if (hostname != null && !nodes.contains(hostname)) {
+                            log.debug("Adding this node ("+hostname+") to the list of nodes");
+                            nodes.add(hostname);
+                            config.setNodesInCluster(nodes);
+                            globalConfigurationSession.saveConfiguration(authenticationToken, config);
+                        }
+                    } finally {
+                        tx.commit();
+                    }
+                } catch (Exception e) {
+                    log.error("Error adding host to node list in global configuration: ", e);
+                }
+            }
+        }, "cas");
+
+        // Call the check for unique index, since first invocation will perform the database
+        // operation and avoid a performance hit for the first request where this is checked.
+        startupTasks.add("uniqueIndex", new Runnable() {
+            @Override
+            public void run() {
+                log.trace(">init SignSession to check for unique issuerDN,serialNumber index");
+                certCreateSession.isUniqueCertificateSerialNumberIndex();
+            }
+        });
+
         // Perform (automatic) upgrades, if needed
-        upgradeSession.performPreUpgrade(isFreshInstallation);
-        upgradeSession.performUpgrade();
+        startupTasks.add("upgrade", new Runnable() {
+            @Override
+            public void run() {
+                upgradeSession.performPreUpgrade(isFreshInstallation.get());
+                upgradeSession.performUpgrade();
+            }
+        }, "authorization", "services", "certificateProfiles", "endEntityProfiles", "nodes", "uniqueIndex");
+
         // Start key reload timer
-        ocspResponseGeneratorSession.initTimers();
+        startupTasks.add("ocspSigningCache", new Runnable() {
+            @Override
+            public void run() {
+                ocspResponseGeneratorSession.initTimers();
+            }
+        }, "upgrade");
+
         // Start CA certificate cache reload
-        certificateStoreSession.initTimers();
+        startupTasks.add("caCertificateCache", new Runnable() {
+            @Override
+            public void run() {
+                certificateStoreSession.initTimers();
+            }
+        }, "upgrade");
+
         // Start legacy background service for renewal of OCSP signers via EJBCA WS calls to CA
-        ocspKeyRenewalSession.startTimer();
+        startupTasks.add("ocspKeyRenewal", new Runnable() {
+            @Override
+            public void run() {
+                ocspKeyRenewalSession.startTimer();
+            }
+        }, "upgrade");
+
         // Verify that the EJB CLI user (if present) cannot be used to generate certificates
+        startupTasks.add("cliUser", new Runnable() {
+            @Override
+            public void run() {
+                checkCliUser();
+            }
+        }, "upgrade");
+        return startupTasks;
+    }
+
+    private void checkCliUser() {
         final String cliUsername = EjbcaConfiguration.getCliDefaultUser();
         try {
             final EndEntityInformation defaultCliUser = endEntityAccessSession.findUser(authenticationToken, cliUsername);
@@ -0,0 +1,133 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.approval;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.util.CertTools;
+import org.ejbca.core.model.approval.ApprovalDataVO;
+import org.ejbca.core.model.approval.ApprovalProfile;
+import org.ejbca.core.model.approval.ApprovalRequest;
+import org.ejbca.core.model.approval.ApprovalStep;
+
+/**
+ * Decides which requests of an approval listing an administrator may approve, using the copy of the approval profile stored in each request.
+ * A request is only skipped without decoding it when the administrator may not approve any step of the current profile, and the request is
+ * known to store an identical copy of that profile.
+ *
+ * @version $Id$
+ */
+class ApprovableRequestFilter {
+
+    private static final Logger log = Logger.getLogger(ApprovableRequestFilter.class);
+
+    /** The max number of remembered requests, so a large approval table can not fill the memory */
+    private static final int MAX_ENTRIES = 10000;
+
+    /** Mapping from the id of an approval request to the hash of the approval profile stored in it, which does not change */
+    private static final Map<Integer, String> storedProfileHashes = new ConcurrentHashMap<Integer, String>();
+
+    private final AuthenticationToken admin;
+    private final ApprovalProfileSessionLocal approvalProfileSession;
+    /** Whether the admin may approve any step of the current version of each profile */
+    private final Map<Integer, Boolean> approvableProfiles = new HashMap<Integer, Boolean>();
+    /** Mapping from the id of a profile whose steps the admin may not approve to the hash of its current version */
+    private final Map<Integer, String> currentProfileHashes = new HashMap<Integer, String>();
+
+    /**
+     * @param admin the administrator that lists the requests
+     * @param approvalProfileSession used to read the current version of the profiles
+     */
+    ApprovableRequestFilter(final AuthenticationToken admin, final ApprovalProfileSessionLocal approvalProfileSession) {
+        this.admin = admin;
+        this.approvalProfileSession = approvalProfileSession;
+    }
+
+    /**
+     * @param approvalDataVO the request, which is only decoded when needed
+     * @param approvalProfileId the value of the approval profile id column of the request
+     * @return true if the admin may approve the next step of the request
+     */
+    boolean isApprovable(final ApprovalDataVO approvalDataVO, final int approvalProfileId) {
+        if (approvalProfileId == 0) {
+            //Let approvals created prior to 6.6.0 (which lack data in the profile ID column) pass
+            return true;
+        }
+        final Integer profileId = Integer.valueOf(approvalProfileId);
+        Boolean approvable = approvableProfiles.get(profileId);
+        if (approvable == null) {
+            final ApprovalProfile approvalProfile = approvalProfileSession.getApprovalProfile(approvalProfileId);
+            // A removed profile says nothing about the copy stored in the request
+            approvable = Boolean.valueOf(approvalProfile == null || isAdminAllowedToApproveAnyStep(approvalProfile));
+            approvableProfiles.put(profileId, approvable);
+            if (!approvable.booleanValue()) {
+                currentProfileHashes.put(profileId, getHash(approvalProfile));
+            }
+        }
+        final Integer requestId = Integer.valueOf(approvalDataVO.getId());
+        final String currentProfileHash = currentProfileHashes.get(profileId);
+        if (currentProfileHash != null && currentProfileHash.equals(storedProfileHashes.get(requestId))) {
+            // The request has the current version of the profile, so the admin can not approve any of its steps
+            return false;
+        }
+        final ApprovalRequest approvalRequest = approvalDataVO.getApprovalRequest();
+        if (currentProfileHash != null && approvalRequest.getApprovalProfile() != null) {
+            if (storedProfileHashes.size() >= MAX_ENTRIES) {
+                storedProfileHashes.clear();
+            }
+            storedProfileHashes.put(requestId, getHash(approvalRequest.getApprovalProfile()));
+        }
+        return approvalRequest.getNextUnhandledApprovalStepByAdmin(admin) != null;
+    }
+
+    /** @return false if the admin is not allowed to approve any step of the profile */
+    private boolean isAdminAllowedToApproveAnyStep(final ApprovalProfile approvalProfile) {
+        if (approvalProfile.getApprovalSteps().isEmpty()) {
+            // Like the accumulative profiles, where the request creates its own steps
+            return true;
+        }
+        for (final ApprovalStep approvalStep : approvalProfile.getApprovalSteps().values()) {
+            try {
+                if (approvalProfile.getApprovalProfileType().isAdminAllowedToApproveStep(admin, approvalStep, approvalProfile)) {
+                    return true;
+                }
+            } catch (AuthorizationDeniedException e) {
+                // Try the next step
+            }
+        }
+        return false;
+    }
+
+    /** @return a hash of the content of the profile, or null if it can not be serialized, which never matches */
+    private static String getHash(final ApprovalProfile approvalProfile) {
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(approvalProfile.saveData());
+            oos.close();
+            return new String(Hex.encode(CertTools.generateSHA256Fingerprint(baos.toByteArray())));
+        } catch (IOException e) {
+            log.debug("Could not serialize approval profile " + approvalProfile.getProfileName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
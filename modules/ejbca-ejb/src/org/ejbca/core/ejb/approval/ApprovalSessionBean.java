@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -45,6 +46,7 @@ import org.cesecore.authorization.control.AccessControlSessionLocal;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.endentity.EndEntityInformation;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.roles.access.RoleAccessSessionLocal;
@@ -440,20 +442,29 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
             }
         }
         
-        final List<ApprovalData> approvalDataList = findByCustomQuery(index, numberofrows, customQuery);
-        final List<ApprovalDataVO> returnData = new ArrayList<ApprovalDataVO>(approvalDataList.size());
-        for (ApprovalData approvalData : approvalDataList) {
-            final ApprovalDataVO approvalInformation = getApprovalDataVO(approvalData);
-            if(approvalData.getApprovalProfileId() != 0) {
-                //Let approvals created prior to 6.6.0 (which lack data in the profile ID column) pass 
-                final ApprovalStep approvalStep = approvalInformation.getApprovalRequest().getNextUnhandledApprovalStepByAdmin(admin);
-                if(approvalStep == null) {
-                    continue;
+        final List<Integer> ids = findIdsByCustomQuery(index, numberofrows, customQuery);
+        final Map<Integer, ApprovalDataVO> approvalDataMap;
+        final Map<Integer, Integer> approvalProfileIds = new HashMap<Integer, Integer>();
+        if (CesecoreConfiguration.useDatabaseIntegrityVerification(ApprovalData.class.getSimpleName())) {
+            // Row protection is only verified when the whole entity is loaded
+            approvalDataMap = new HashMap<Integer, ApprovalDataVO>();
+            for (final Integer id : ids) {
+                final ApprovalData approvalData = findById(id);
+                if (approvalData != null) {
+                    approvalDataMap.put(id, getApprovalDataVO(approvalData));
+                    approvalProfileIds.put(id, approvalData.getApprovalProfileId());
                 }
-
             }
-            returnData.add(approvalInformation);
-            
+        } else {
+            approvalDataMap = findApprovalDataVOByIds(ids, approvalProfileIds);
+        }
+        final List<ApprovalDataVO> returnData = new ArrayList<ApprovalDataVO>(approvalDataMap.size());
+        final ApprovableRequestFilter approvableRequestFilter = new ApprovableRequestFilter(admin, approvalProfileSession);
+        for (final Integer id : ids) {
+            final ApprovalDataVO approvalInformation = approvalDataMap.get(id);
+            if (approvalInformation != null && approvableRequestFilter.isApprovable(approvalInformation, approvalProfileIds.get(id).intValue())) {
+                returnData.add(approvalInformation);
+            }
         }
         log.trace("<query()");
         return returnData;
@@ -661,9 +672,10 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
     @Override
     public ApprovalDataVO getApprovalDataVO(ApprovalData approvalData) {
         approvalData.hasRequestOrApprovalExpired();
+        // The approvals and the request are decoded by the value object when they are first used
         return new ApprovalDataVO(approvalData.getId(), approvalData.getApprovalid(), approvalData.getApprovaltype(),
                 approvalData.getEndentityprofileid(), approvalData.getCaid(), approvalData.getReqadmincertissuerdn(),
-                approvalData.getReqadmincertsn(), approvalData.getStatus(), getApprovals(approvalData), getApprovalRequest(approvalData),
+                approvalData.getReqadmincertsn(), approvalData.getStatus(), approvalData.getApprovaldata(), approvalData.getRequestdata(),
                 approvalData.getRequestDate(), approvalData.getExpireDate(), approvalData.getRemainingapprovals());
     }
 
@@ -721,12 +733,50 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
         return query.getResultList();
     }
 
-    /** @return return the query results as a List<ApprovalData>. */
-    private List<ApprovalData> findByCustomQuery(final int index, final int numberofrows, final String customQuery) {
-        final List<ApprovalData> ret = new ArrayList<ApprovalData>();
+    /**
+     * Reads the approval requests with the given ids using a projection of the columns, without loading and tracking the entities.
+     * The approvals and the approval request are decoded when they are first used, and the status is set to expired in the returned
+     * value objects like {@link ApprovalData#hasRequestOrApprovalExpired()} would do, but nothing is written to the database.
+     * 
+     * @param ids primary keys of the approval requests to read, at most a few hundred
+     * @param approvalProfileIds map that the approval profile id of each approval request is added to
+     * @return the value objects by id
+     */
+    private Map<Integer, ApprovalDataVO> findApprovalDataVOByIds(final List<Integer> ids, final Map<Integer, Integer> approvalProfileIds) {
+        final Map<Integer, ApprovalDataVO> ret = new HashMap<Integer, ApprovalDataVO>();
+        if (ids.isEmpty()) {
+            return ret;
+        }
+        final javax.persistence.Query query = entityManager.createQuery("SELECT a.id, a.approvalid, a.approvaltype, a.endentityprofileid, a.caid,"
+                + " a.reqadmincertissuerdn, a.reqadmincertsn, a.status, a.approvaldata, a.requestdata, a.requestdate, a.expiredate,"
+                + " a.remainingapprovals, a.approvalProfileId FROM ApprovalData a WHERE a.id IN (:ids)");
+        query.setParameter("ids", ids);
+        @SuppressWarnings("unchecked")
+        final List<Object[]> rows = query.getResultList();
+        final long now = System.currentTimeMillis();
+        for (final Object[] row : rows) {
+            final Integer id = (Integer) row[0];
+            final long expireDate = ((Number) row[11]).longValue();
+            int status = ((Number) row[7]).intValue();
+            if (now > expireDate && (status == ApprovalDataVO.STATUS_WAITINGFORAPPROVAL || status == ApprovalDataVO.STATUS_APPROVED
+                    || status == ApprovalDataVO.STATUS_REJECTED)) {
+                status = ApprovalDataVO.STATUS_EXPIRED;
+            }
+            ret.put(id, new ApprovalDataVO(id.intValue(), ((Number) row[1]).intValue(), ((Number) row[2]).intValue(),
+                    ((Number) row[3]).intValue(), ((Number) row[4]).intValue(), (String) row[5], (String) row[6], status,
+                    (String) row[8], (String) row[9], new Date(((Number) row[10]).longValue()), new Date(expireDate),
+                    ((Number) row[12]).intValue()));
+            approvalProfileIds.put(id, row[13] == null ? Integer.valueOf(0) : (Integer) row[13]);
+        }
+        return ret;
+    }
+
+    /** @return the primary keys of the approval requests matching the query, in the order returned by the database */
+    private List<Integer> findIdsByCustomQuery(final int index, final int numberofrows, final String customQuery) {
+        final List<Integer> ret = new ArrayList<Integer>();
         /* Hibernate on DB2 wont allow us to "SELECT *" in combination with setMaxResults.
          * Ingres wont let us access a LOB in a List using a native query for all fields.
-         * -> So we will get a list of primary keys and the fetch the whole entities one by one...
+         * -> So we will get a list of primary keys and then fetch the data of those rows...
          * 
          * As a sad little bonus, DB2 native queries returns a pair of {BigInteger, Integer}
          * where the first value is row and the second is the value.
@@ -739,8 +789,7 @@ public class ApprovalSessionBean implements ApprovalSessionLocal, ApprovalSessio
         @SuppressWarnings("unchecked")
         final List<Object> ids = query.getResultList();
         for (Object object : ids) {
-            final int id = ValueExtractor.extractIntValue(object);
-            ret.add(entityManager.find(ApprovalData.class, id));
+            ret.add(Integer.valueOf(ValueExtractor.extractIntValue(object)));
         }
         return ret;
     }
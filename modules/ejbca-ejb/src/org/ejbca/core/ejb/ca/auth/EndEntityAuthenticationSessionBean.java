@@ -43,6 +43,7 @@ import org.ejbca.core.model.approval.ApprovalException;
 import org.ejbca.core.model.approval.WaitingForApprovalException;
 import org.ejbca.core.model.ca.AuthLoginException;
 import org.ejbca.core.model.ca.AuthStatusException;
+import org.ejbca.util.crypto.PasswordVerificationRejectedException;
 
 /**
  * Authenticates users towards a user database.
@@ -115,6 +116,11 @@ public class EndEntityAuthenticationSessionBean implements EndEntityAuthenticati
             throw se;
         } catch (AuthLoginException le) {
             throw le;
+        } catch (PasswordVerificationRejectedException e) {
+            // The node is overloaded, so this is neither a successful nor a failed login
+            final String msg = intres.getLocalizedMessage("authentication.overloaded", username, e.getMessage());
+            log.info(msg);
+            throw new AuthLoginException(msg);
         } catch (Exception e) {
             log.error(intres.getLocalizedMessage("error.unknown"), e);
             throw new EJBException(e);
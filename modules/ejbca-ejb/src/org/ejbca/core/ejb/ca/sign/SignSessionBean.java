@@ -856,7 +856,7 @@ public class SignSessionBean implements SignSessionLocal, SignSessionRemote {
         final long updateTime = System.currentTimeMillis();
         //Specifically check for the Single Active Certificate Constraint property, which requires that revocation happen in conjunction with renewal. 
         //We have to perform this check here, in addition to the true check in CertificateCreateSession, in order to be able to perform publishing. 
-        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(endEntityInformation.getCertificateProfileId());
+        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(endEntityInformation.getCertificateProfileId());
         if (certProfile.isSingleActiveCertificateConstraint()) {
             // Only get not yet expired certificates with status CERT_ACTIVE, CERT_NOTIFIEDABOUTEXPIRATION, CERT_REVOKED
             final List<CertificateDataWrapper> cdws = certificateStoreSession.getCertificateDataByUsername(endEntityInformation.getUsername(),
@@ -911,7 +911,7 @@ public class SignSessionBean implements SignSessionLocal, SignSessionRemote {
             certreqHistorySession.addCertReqHistoryData(certificateWrapper.getCertificate(), endEntity);
         }
         final int certProfileId = endEntity.getCertificateProfileId();
-        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(certProfileId);
+        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(certProfileId);
         final Collection<Integer> publishers = certProfile.getPublisherList();
         if (!publishers.isEmpty()) {
             publisherSession.storeCertificate(authenticationToken, publishers, certificateWrapper, endEntity.getPassword(), endEntity.getCertificateDN(), endEntity.getExtendedinformation());
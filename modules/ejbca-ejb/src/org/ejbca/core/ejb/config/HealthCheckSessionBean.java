@@ -22,6 +22,7 @@ import javax.persistence.PersistenceContext;
 import org.apache.log4j.Logger;
 import org.cesecore.jndi.JndiConstants;
 import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.core.ejb.StartupSingletonBean;
 
 /**
  * This bean handles configuration changes for system tests.
@@ -50,4 +51,12 @@ public class HealthCheckSessionBean implements HealthCheckSessionLocal, HealthCh
 		return returnval;
     }
 
+    @Override
+    public String getStartupStatus() {
+        if (!StartupSingletonBean.isStartupComplete()) {
+            return "\nSTARTUP: Startup tasks have not completed.";
+        }
+        return "";
+    }
+
 }
@@ -144,7 +144,7 @@ public class KeyRecoverySessionBean implements KeyRecoverySessionLocal, KeyRecov
         final int caid = CertTools.getIssuerDN(certificate).hashCode();
 		final CAInfo cainfo = caSession.getCAInfoInternal(caid);
         final CertificateInfo certinfo = certificateStoreSession.getCertificateInfo(CertTools.getFingerprintAsString(certificate));
-		final CertificateProfile certProfile = certProfileSession.getCertificateProfile(certinfo.getCertificateProfileId());
+		final CertificateProfile certProfile = certProfileSession.getCertificateProfileNoClone(certinfo.getCertificateProfileId());
 		
         // Check if approvals is required.
 		final ApprovalProfile approvalProfiles[] = ApprovalExecutorUtil.getApprovalProfiles(CAInfo.REQ_APPROVAL_KEYRECOVER, cainfo, certProfile, 
@@ -0,0 +1,191 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Renews OCSP signing keys of several key bindings in parallel.
+ *
+ * At most the given number of renewals run at the same time, and at most the given number per crypto token, so that a slow HSM does
+ * not hold up the renewals in other crypto tokens and is not overloaded. A key binding is only renewed by one caller at a time: a
+ * renewal of a key binding that is already being renewed, e.g. by the timer while an administrator triggered a renewal, is skipped.
+ * The calling thread renews keys itself, and the other threads are started with an Executor given by the caller, so that the renewals
+ * can run on container managed threads.
+ *
+ * @version $Id$
+ */
+public class OcspKeyRenewalExecutor {
+
+    private static final Logger log = Logger.getLogger(OcspKeyRenewalExecutor.class);
+
+    /** Key bindings that are being renewed by any caller */
+    private static final ConcurrentHashMap<Integer, Boolean> renewing = new ConcurrentHashMap<Integer, Boolean>();
+
+    /** The renewal of the key of one key binding */
+    public interface Renewal {
+        int getInternalKeyBindingId();
+
+        int getCryptoTokenId();
+
+        void renew() throws Exception;
+    }
+
+    /** The outcome of renewing a number of key bindings */
+    public static final class Outcome {
+        private final List<Integer> renewed = Collections.synchronizedList(new ArrayList<Integer>());
+        private final Map<Integer, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<Integer, Exception>());
+
+        /** @return the IDs of the key bindings that were renewed */
+        public List<Integer> getRenewed() {
+            return renewed;
+        }
+
+        /** @return the exceptions thrown by failed renewals, by key binding ID */
+        public Map<Integer, Exception> getFailures() {
+            return failures;
+        }
+    }
+
+    private final int threads;
+    private final int parallelismPerCryptoToken;
+    private final Executor executor;
+
+    /**
+     * @param threads the max number of renewals running at the same time
+     * @param parallelismPerCryptoToken the max number of renewals using the same crypto token running at the same time
+     * @param executor starts the threads besides the calling one. If it fails to start one, the keys are renewed by fewer threads.
+     */
+    public OcspKeyRenewalExecutor(final int threads, final int parallelismPerCryptoToken, final Executor executor) {
+        this.threads = Math.max(1, threads);
+        this.parallelismPerCryptoToken = Math.max(1, parallelismPerCryptoToken);
+        this.executor = executor;
+    }
+
+    /**
+     * Run the renewals and wait for them to finish. A key binding is renewed at most once, even if it is in the list more than once.
+     *
+     * @param renewals the renewals to run
+     * @return the key bindings that were renewed and the ones that failed. Key bindings that were being renewed by another caller
+     *      are not included.
+     */
+    public Outcome renew(final List<? extends Renewal> renewals) {
+        final Outcome outcome = new Outcome();
+        // Queue the renewals by crypto token, once per key binding
+        final Map<Integer, ConcurrentLinkedQueue<Renewal>> queues = new LinkedHashMap<Integer, ConcurrentLinkedQueue<Renewal>>();
+        final List<Integer> internalKeyBindingIds = new ArrayList<Integer>();
+        for (final Renewal renewal : renewals) {
+            final Integer internalKeyBindingId = Integer.valueOf(renewal.getInternalKeyBindingId());
+            if (internalKeyBindingIds.contains(internalKeyBindingId)) {
+                continue;
+            }
+            internalKeyBindingIds.add(internalKeyBindingId);
+            ConcurrentLinkedQueue<Renewal> queue = queues.get(Integer.valueOf(renewal.getCryptoTokenId()));
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<Renewal>();
+                queues.put(Integer.valueOf(renewal.getCryptoTokenId()), queue);
+            }
+            queue.add(renewal);
+        }
+        if (internalKeyBindingIds.isEmpty()) {
+            return outcome;
+        }
+        // Each worker renews keys in one crypto token until there are none left, so the workers never wait for each other
+        final ConcurrentLinkedQueue<Runnable> workers = new ConcurrentLinkedQueue<Runnable>();
+        for (final ConcurrentLinkedQueue<Renewal> queue : queues.values()) {
+            for (int i = 0; i < Math.min(parallelismPerCryptoToken, queue.size()); i++) {
+                workers.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        Renewal renewal;
+                        while ((renewal = queue.poll()) != null) {
+                            renew(renewal, outcome);
+                        }
+                    }
+                });
+            }
+        }
+        // Each thread runs workers until there are none left
+        final Runnable runner = new Runnable() {
+            @Override
+            public void run() {
+                Runnable worker;
+                while ((worker = workers.poll()) != null) {
+                    worker.run();
+                }
+            }
+        };
+        final int otherThreads = Math.min(threads, workers.size()) - 1;
+        final CountDownLatch otherThreadsDone = new CountDownLatch(otherThreads);
+        for (int i = 0; i < otherThreads; i++) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runner.run();
+                        } finally {
+                            otherThreadsDone.countDown();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                log.info("Could not start another thread for OCSP key renewal: " + e.getMessage());
+                otherThreadsDone.countDown();
+            }
+        }
+        runner.run();
+        // The renewals in progress can not be stopped half-way without leaving a key binding with a key but no certificate
+        boolean interrupted = false;
+        while (true) {
+            try {
+                otherThreadsDone.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return outcome;
+    }
+
+    private void renew(final Renewal renewal, final Outcome outcome) {
+        final Integer internalKeyBindingId = Integer.valueOf(renewal.getInternalKeyBindingId());
+        if (renewing.putIfAbsent(internalKeyBindingId, Boolean.TRUE) != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Key binding " + internalKeyBindingId + " is already being renewed.");
+            }
+            return;
+        }
+        try {
+            renewal.renew();
+            outcome.renewed.add(internalKeyBindingId);
+        } catch (Exception e) {
+            outcome.failures.put(internalKeyBindingId, e);
+        } finally {
+            renewing.remove(internalKeyBindingId);
+        }
+    }
+}
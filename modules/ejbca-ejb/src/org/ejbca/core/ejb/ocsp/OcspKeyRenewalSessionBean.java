@@ -33,6 +33,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -83,6 +87,7 @@ import org.cesecore.keys.token.KeyRenewalFailedException;
 import org.cesecore.keys.util.KeyTools;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.provider.X509TrustManagerAcceptAll;
+import org.ejbca.core.ejb.services.ServiceTaskSessionLocal;
 import org.ejbca.core.protocol.ws.client.gen.CertificateResponse;
 import org.ejbca.core.protocol.ws.client.gen.EjbcaWS;
 import org.ejbca.core.protocol.ws.client.gen.EjbcaWSService;
@@ -120,6 +125,8 @@ public class OcspKeyRenewalSessionBean implements OcspKeyRenewalSessionLocal, Oc
     private CryptoTokenManagementSessionLocal cryptoTokenManagementSession;
     @EJB
     private CertificateStoreSessionLocal certificateStoreSession;
+    @EJB
+    private ServiceTaskSessionLocal serviceTaskSession;
     
     @Resource
     private SessionContext sessionContext;
@@ -152,7 +159,7 @@ public class OcspKeyRenewalSessionBean implements OcspKeyRenewalSessionLocal, Oc
      * @throws InvalidKeyException if the public key in the tokenAndChain can not be used to verify a string signed by the private key, because the key 
      * is wrong or the signature operation fails for other reasons such as a NoSuchAlgorithmException or SignatureException.
      */
-    private synchronized void renewKeyStores(String signerSubjectDN, long safetyMargin) throws InvalidKeyException,
+    private void renewKeyStores(String signerSubjectDN, long safetyMargin) throws InvalidKeyException,
             CryptoTokenOfflineException {
         //Cancel all running timers
         cancelTimers();
@@ -173,6 +180,10 @@ public class OcspKeyRenewalSessionBean implements OcspKeyRenewalSessionLocal, Oc
             }
             final StringBuffer matched = new StringBuffer();
             final StringBuffer unMatched = new StringBuffer();
+            final List<OcspKeyRenewalExecutor.Renewal> renewals = new ArrayList<OcspKeyRenewalExecutor.Renewal>();
+            // JAX-WS ports are not meant to be shared by threads, so each renewal borrows a port that no other renewal is using
+            final ConcurrentLinkedQueue<EjbcaWS> ejbcaWSPorts = new ConcurrentLinkedQueue<EjbcaWS>();
+            ejbcaWSPorts.add(ejbcaWS);
             for (final OcspSigningCacheEntry ocspSigningCacheEntry : OcspSigningCache.INSTANCE.getEntries()) {
                 // Only perform renewal for non CA signing key OCSP signers
                 if (!ocspSigningCacheEntry.isUsingSeparateOcspSigningCertificate()) {
@@ -187,13 +198,33 @@ public class OcspKeyRenewalSessionBean implements OcspKeyRenewalSessionLocal, Oc
                         continue;
                     }
                     matched.append(" '" + ocspSigningCertificate.getIssuerX500Principal().getName() + '\'');
-                    try {
-                        renewKeyStore(ejbcaWS, ocspSigningCacheEntry);
-                    } catch (KeyRenewalFailedException e) {
-                        String msg = intres.getLocalizedMessage("ocsp.rekey.failed.unknown.reason", target, e.getLocalizedMessage());
-                        log.error(msg, e);
-                        continue;
-                    }
+                    renewals.add(new OcspKeyRenewalExecutor.Renewal() {
+                        @Override
+                        public int getInternalKeyBindingId() {
+                            return ocspSigningCacheEntry.getOcspKeyBinding().getId();
+                        }
+
+                        @Override
+                        public int getCryptoTokenId() {
+                            return ocspSigningCacheEntry.getOcspKeyBinding().getCryptoTokenId();
+                        }
+
+                        @Override
+                        public void renew() throws InvalidKeyException, CryptoTokenOfflineException, KeyRenewalFailedException {
+                            EjbcaWS renewalEjbcaWS = ejbcaWSPorts.poll();
+                            if (renewalEjbcaWS == null) {
+                                renewalEjbcaWS = getEjbcaWS();
+                                if (renewalEjbcaWS == null) {
+                                    throw new KeyRenewalFailedException("Could not locate a suitable web service for automatic OCSP key/certificate renewal.");
+                                }
+                            }
+                            try {
+                                renewKeyStore(renewalEjbcaWS, ocspSigningCacheEntry);
+                            } finally {
+                                ejbcaWSPorts.add(renewalEjbcaWS);
+                            }
+                        }
+                    });
                 }
             }
             if (matched.length() < 1 && target != null) {
@@ -201,6 +232,40 @@ public class OcspKeyRenewalSessionBean implements OcspKeyRenewalSessionLocal, Oc
                 return;
             }
             log.info(intres.getLocalizedMessage("ocsp.rekey.triggered", matched));
+            // The renewals call other beans, so they run on the asynchronous threads of the container
+            final Executor executor = new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                    try {
+                        serviceTaskSession.process(Executors.callable(command));
+                    } catch (Exception e) {
+                        throw new RejectedExecutionException(e);
+                    }
+                }
+            };
+            final OcspKeyRenewalExecutor.Outcome outcome = new OcspKeyRenewalExecutor(OcspConfiguration.getRekeyingThreads(),
+                    OcspConfiguration.getRekeyingParallelismPerCryptoToken(), executor).renew(renewals);
+            if (!outcome.getRenewed().isEmpty()) {
+                /*
+                 * Replace the aliases and the chains of all renewed keys at once. If anything bad happened prior to this step the old
+                 * alias and chain are still active, and no harm done.
+                 */
+                ocspResponseGeneratorSession.reloadOcspSigningCache();
+            }
+            Exception firstFailure = null;
+            for (final Map.Entry<Integer, Exception> failure : outcome.getFailures().entrySet()) {
+                final Exception e = failure.getValue();
+                log.error(intres.getLocalizedMessage("ocsp.rekey.failed.unknown.reason", target, e.getLocalizedMessage()) + " Key binding ID: "
+                        + failure.getKey(), e);
+                if (firstFailure == null && (e instanceof InvalidKeyException || e instanceof CryptoTokenOfflineException)) {
+                    firstFailure = e;
+                }
+            }
+            if (firstFailure instanceof InvalidKeyException) {
+                throw (InvalidKeyException) firstFailure;
+            } else if (firstFailure instanceof CryptoTokenOfflineException) {
+                throw (CryptoTokenOfflineException) firstFailure;
+            }
         } finally {
             //Set new timer to run, even if something breaks.
             addTimer(OcspConfiguration.getRekeyingUpdateTimeInSeconds());
@@ -208,13 +273,14 @@ public class OcspKeyRenewalSessionBean implements OcspKeyRenewalSessionLocal, Oc
     }
 
     @Override
-    public synchronized void renewKeyStores(String signerSubjectDN) throws KeyStoreException, CryptoTokenOfflineException,
+    public void renewKeyStores(String signerSubjectDN) throws KeyStoreException, CryptoTokenOfflineException,
             InvalidKeyException {
         renewKeyStores(signerSubjectDN, NO_SAFETY_MARGIN);
     }
 
     /**
-     * Generate a new key pair and request a new certificate for this key pair using EJBCA WS.
+     * Generate a new key pair and request a new certificate for this key pair using EJBCA WS. The OCSP signing cache is not reloaded, so
+     * the old key is used until the caller reloads it.
      * 
      * @param ejbcaWS a reference to the remote EJBCA WS
      * @param ocspSigningCacheEntry the cached OCSP signing entry backed by an OcspKeyBinding
@@ -244,11 +310,6 @@ public class OcspKeyRenewalSessionBean implements OcspKeyRenewalSessionLocal, Oc
         } catch (AuthorizationDeniedException e) {
             throw new KeyRenewalFailedException(e);
         }
-        /*
-         * Replace the alias and the chain at this step. If anything bad happened prior to this step the old alias and 
-         * chain are still active, and no harm done. 
-         */
-        ocspResponseGeneratorSession.reloadOcspSigningCache();
     }
 
     /**
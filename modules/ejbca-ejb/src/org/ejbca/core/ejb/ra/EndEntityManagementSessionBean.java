@@ -131,6 +131,7 @@ import org.ejbca.core.model.ra.raadmin.ICustomNotificationRecipient;
 import org.ejbca.core.model.ra.raadmin.UserDoesntFullfillEndEntityProfile;
 import org.ejbca.core.model.ra.raadmin.UserNotification;
 import org.ejbca.util.PrinterManager;
+import org.ejbca.util.crypto.PasswordVerificationRejectedException;
 import org.ejbca.util.dn.DistinguishedName;
 import org.ejbca.util.mail.MailSender;
 import org.ejbca.util.query.BasicMatch;
@@ -343,7 +344,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         if (caInfo.isUseUserStorage()) {
             final int numOfApprovalsRequired = getNumOfApprovalRequired(CAInfo.REQ_APPROVAL_ADDEDITENDENTITY, caid,
                     endEntity.getCertificateProfileId());
-            final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(endEntity.getCertificateProfileId());
+            final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(endEntity.getCertificateProfileId());
             final ApprovalProfile approvalProfiles[] = ApprovalExecutorUtil.getApprovalProfiles(CAInfo.REQ_APPROVAL_ADDEDITENDENTITY, caInfo, 
                     certProfile, approvalProfileSession);
             if (approvalProfiles[0]!=null) {
@@ -369,7 +370,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         if (caInfo instanceof X509CAInfo && caInfo.getCertificateChain() != null && !caInfo.getCertificateChain().isEmpty()) {
             final X509CAInfo x509cainfo = (X509CAInfo) caInfo;
             final X509Certificate cacert = (X509Certificate)caInfo.getCertificateChain().iterator().next();
-            final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(endEntity.getCertificateProfileId());
+            final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(endEntity.getCertificateProfileId());
             
             final X500NameStyle nameStyle;
             if (x509cainfo.getUsePrintableStringSubjectDN()) {
@@ -725,7 +726,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         // Check if approvals is required.
         final int numOfApprovalsRequired = getNumOfApprovalRequired(CAInfo.REQ_APPROVAL_ADDEDITENDENTITY, caid, endEntityInformation.getCertificateProfileId());
         final CAInfo cainfo = caSession.getCAInfoInternal(caid, null, true);
-        final CertificateProfile certificateProfile = certificateProfileSession.getCertificateProfile(endEntityInformation.getCertificateProfileId());
+        final CertificateProfile certificateProfile = certificateProfileSession.getCertificateProfileNoClone(endEntityInformation.getCertificateProfileId());
         final ApprovalProfile approvalProfiles[] = ApprovalExecutorUtil.getApprovalProfiles(CAInfo.REQ_APPROVAL_ADDEDITENDENTITY, cainfo, 
                 certificateProfile, approvalProfileSession);
         if (approvalProfiles[0]!=null) {
@@ -751,7 +752,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         if (nameChanged && cainfo instanceof X509CAInfo && !cainfo.getCertificateChain().isEmpty()) {
             final X509CAInfo x509cainfo = (X509CAInfo) cainfo;
             final X509Certificate cacert = (X509Certificate)cainfo.getCertificateChain().iterator().next();
-            final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(userData.getCertificateProfileId());
+            final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(userData.getCertificateProfileId());
             
             final X500NameStyle nameStyle;
             if (x509cainfo.getUsePrintableStringSubjectDN()) {
@@ -1187,7 +1188,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         final String username = data1.getUsername();
         final int endEntityProfileId = data1.getEndEntityProfileId();
         // Check if approvals is required.
-        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(data1.getCertificateProfileId());
+        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(data1.getCertificateProfileId());
         final ApprovalProfile approvalProfiles[] = ApprovalExecutorUtil.getApprovalProfiles(CAInfo.REQ_APPROVAL_ADDEDITENDENTITY, cainfo, 
                 certProfile, approvalProfileSession);
         final int numOfApprovalsRequired = getNumOfApprovalRequired(CAInfo.REQ_APPROVAL_ADDEDITENDENTITY, caid, data1.getCertificateProfileId());
@@ -1373,6 +1374,9 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         } catch (NoSuchAlgorithmException nsae) {
             log.debug("NoSuchAlgorithmException while verifying password for user " + username);
             throw new EJBException(nsae);
+        } catch (PasswordVerificationRejectedException e) {
+            log.info(intres.getLocalizedMessage("authentication.overloaded", username, e.getMessage()));
+            throw new EJBException(e);
         }
         if (log.isTraceEnabled()) {
             log.trace("<verifyPassword(" + username + ", hiddenpwd)");
@@ -1400,7 +1404,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
             if (data.getStatus() != EndEntityConstants.STATUS_REVOKED) {
                 // Check if approvals is required.
                 final CAInfo cainfo = caSession.getCAInfoInternal(caid, null, true);
-                final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(data.getCertificateProfileId());
+                final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(data.getCertificateProfileId());
                 final ApprovalProfile approvalProfiles[] = ApprovalExecutorUtil.getApprovalProfiles(CAInfo.REQ_APPROVAL_REVOCATION, cainfo, 
                         certProfile, approvalProfileSession);
                 final int numOfReqApprovals = getNumOfApprovalRequired(CAInfo.REQ_APPROVAL_REVOCATION, caid, data.getCertificateProfileId());
@@ -1460,7 +1464,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         } catch (CADoesntExistsException e1) {
             throw new FinderException("CA with ID " + caid + " not found.");
         }
-        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(userData.getCertificateProfileId());
+        final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(userData.getCertificateProfileId());
         final ApprovalProfile approvalProfiles[] = ApprovalExecutorUtil.getApprovalProfiles(CAInfo.REQ_APPROVAL_REVOCATION, cainfo, certProfile, 
                 approvalProfileSession);
         final int numOfReqApprovals = getNumOfApprovalRequired(CAInfo.REQ_APPROVAL_REVOCATION, caid, userData.getCertificateProfileId());
@@ -1615,7 +1619,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
             } catch (CADoesntExistsException e) {
                 throw new FinderException("CA with ID " + caid + " not found.");
             }
-            final CertificateProfile certProfile = certificateProfileSession.getCertificateProfile(certificateProfileId);
+            final CertificateProfile certProfile = certificateProfileSession.getCertificateProfileNoClone(certificateProfileId);
             final ApprovalProfile approvalProfiles[] = ApprovalExecutorUtil.getApprovalProfiles(CAInfo.REQ_APPROVAL_REVOCATION, cainfo, 
                     certProfile, approvalProfileSession);
             final int numOfReqApprovals = getNumOfApprovalRequired(CAInfo.REQ_APPROVAL_REVOCATION, caid, certificateProfileId);
@@ -1630,7 +1634,7 @@ public class EndEntityManagementSessionBean implements EndEntityManagementSessio
         }
         // Finally find the publishers for the certificate profileId that we found
         Collection<Integer> publishers = new ArrayList<Integer>(0);
-        final CertificateProfile certificateProfile = certificateProfileSession.getCertificateProfile(certificateProfileId);
+        final CertificateProfile certificateProfile = certificateProfileSession.getCertificateProfileNoClone(certificateProfileId);
         if (certificateProfile != null) {
             publishers = certificateProfile.getPublisherList();
             if (publishers == null || publishers.size() == 0) {
@@ -173,6 +173,8 @@ public class ServiceSessionBean implements ServiceSessionLocal, ServiceSessionRe
     private CryptoTokenManagementSessionLocal cryptoTokenSession;
     @EJB
     private CmpMessageDispatcherSessionLocal cmpMsgDispatcherSession;
+    @EJB
+    private ServiceTaskSessionLocal serviceTaskSession;
 
     // The administrator that the services should be run as. Internal, allow all.
     private AuthenticationToken intAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("ServiceSession"));
@@ -622,6 +624,7 @@ public class ServiceSessionBean implements ServiceSessionLocal, ServiceSessionRe
             ejbs.put(PublishingCrlSessionLocal.class, publishingCrlSession);
             ejbs.put(CryptoTokenManagementSessionLocal.class, cryptoTokenSession);
             ejbs.put(CmpMessageDispatcherSessionLocal.class, cmpMsgDispatcherSession);
+            ejbs.put(ServiceTaskSessionLocal.class, serviceTaskSession);
             worker.work(ejbs);
             final String msg = intres.getLocalizedMessage("services.serviceexecuted", serviceName);
             log.info(msg);
@@ -48,6 +48,7 @@ import org.cesecore.certificates.ca.CaSession;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.CertificateInfo;
 import org.cesecore.certificates.certificate.CertificateStoreSession;
+import org.cesecore.certificates.certificate.VerifiedCertificateCache;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.util.CertTools;
 import org.ejbca.config.CmpConfiguration;
@@ -275,15 +276,9 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
             CAInfo cainfo = getCAInfoByName(authenticationparameter);
             if(cainfo == null)  return false;
             
-            // Check that extraCert is in the Database
-            CertificateInfo certinfo = certSession.getCertificateInfo(CertTools.getFingerprintAsString(extraCert));
-            if(certinfo == null) {
-                this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be found in the database.";
-                return false;
-            }
-            
-            // More extraCert verifications
-            if(!isExtraCertIssuedByCA(cainfo) || !isExtraCertValid() || !isExtraCertActive(certinfo)) {
+            // Check that extraCert is in the Database, is issued by the CA, is valid and is active
+            final VerifiedCertificateCache.Entry verifiedCert = getVerifiedExtraCert(cainfo);
+            if(verifiedCert == null) {
                 return false;
             } else {
                 if(log.isDebugEnabled()) {
@@ -292,7 +287,7 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
             }
 
             // Check that extraCert belong to an admin with sufficient access rights
-            if(!isAuthorizedAdmin(certinfo, msg)){
+            if(!isAuthorizedAdmin(verifiedCert, msg)){
                 this.errorMessage = "'" + CertTools.getSubjectDN(extraCert) + "' is not an authorized administrator.";
                 return false;
             }
@@ -319,21 +314,16 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
                 
                 // Get the CA to use for the authentication
                 CAInfo cainfo = getCAInfoByIssuer(CertTools.getIssuerDN(extraCert));
+                if(cainfo == null)  return false;
 
-                // Check that extraCert is in the Database
-                CertificateInfo certinfo = certSession.getCertificateInfo(CertTools.getFingerprintAsString(extraCert));
-                if(certinfo == null) {
-                    this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be found in the database.";
-                    return false;
-                }
-                
-                // More extraCert verifications
-                if(!isExtraCertIssuedByCA(cainfo) || !isExtraCertValid() || !isExtraCertActive(certinfo)) {
+                // Check that extraCert is in the Database, is issued by the CA, is valid and is active
+                final VerifiedCertificateCache.Entry verifiedCert = getVerifiedExtraCert(cainfo);
+                if(verifiedCert == null) {
                     return false;
                 }
                 
                 // Extract the username from extraCert to use for  further authentication
-                extraCertUsername = certinfo.getUsername();
+                extraCertUsername = verifiedCert.getCertificateInfo().getUsername();
             }
             
             // Check if this certificate belongs to the user
@@ -452,20 +442,26 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
     
     /**
      * Checks if cert belongs to an administrator who is authorized to process the request.
+     * The certificate is only authenticated once while it is cached, but the access rules are checked for every request.
      * 
-     * @param certInfo
+     * @param verifiedCert the verified extraCert
      * @param msg
-     * @param caid
      * @return true if the administrator is authorized to process the request and false otherwise.
      */
-    private boolean isAuthorizedAdmin(final CertificateInfo certInfo, final PKIMessage msg) {
+    private boolean isAuthorizedAdmin(final VerifiedCertificateCache.Entry verifiedCert, final PKIMessage msg) {
     
-        X509Certificate x509cert = (X509Certificate) extraCert;
-        Set<X509Certificate> credentials = new HashSet<X509Certificate>();
-        credentials.add(x509cert);
-        
-        AuthenticationSubject subject = new AuthenticationSubject(null, credentials);
-        AuthenticationToken reqAuthToken = authenticationProviderSession.authenticate(subject);
+        AuthenticationToken reqAuthToken = verifiedCert.getAuthenticationToken();
+        if (reqAuthToken == null) {
+            X509Certificate x509cert = (X509Certificate) extraCert;
+            Set<X509Certificate> credentials = new HashSet<X509Certificate>();
+            credentials.add(x509cert);
+
+            AuthenticationSubject subject = new AuthenticationSubject(null, credentials);
+            reqAuthToken = authenticationProviderSession.authenticate(subject);
+            if (reqAuthToken != null) {
+                verifiedCert.setAuthenticationToken(reqAuthToken);
+            }
+        }
         
         final int tagnr = msg.getBody().getType();
         if( (tagnr == CmpPKIBodyConstants.CERTIFICATAIONREQUEST) || (tagnr == CmpPKIBodyConstants.INITIALIZATIONREQUEST) || (tagnr == CmpPKIBodyConstants.KEYUPDATEREQUEST) ) {
@@ -618,6 +614,35 @@ public class EndEntityCertificateAuthenticationModule implements ICMPAuthenticat
         return getCAInfoByName(caname).getCAId();
     }
     
+    /**
+     * Checks that extraCert is in the database, is issued by the CA, is valid and is active. A certificate that has been verified against
+     * the current CA certificate before is taken from the cache, and only its validity period is checked again.
+     * 
+     * @param cainfo the CA that should have issued extraCert
+     * @return the verified certificate, or null if it could not be verified
+     */
+    private VerifiedCertificateCache.Entry getVerifiedExtraCert(final CAInfo cainfo) {
+        final String fingerprint = CertTools.getFingerprintAsString(extraCert);
+        final Certificate cacert = cainfo.getCertificateChain().iterator().next();
+        final VerifiedCertificateCache.Entry cached = VerifiedCertificateCache.INSTANCE.get(fingerprint, cacert);
+        if (cached != null) {
+            if(log.isDebugEnabled()) {
+                log.debug("The certificate in extraCert was verified against the CA '" + cainfo.getName() + "' before");
+            }
+            return isExtraCertValid() ? cached : null;
+        }
+        final long removalCount = VerifiedCertificateCache.INSTANCE.getRemovalCount();
+        final CertificateInfo certinfo = certSession.getCertificateInfo(fingerprint);
+        if(certinfo == null) {
+            this.errorMessage = "The certificate attached to the PKIMessage in the extraCert field could not be found in the database.";
+            return null;
+        }
+        if(!isExtraCertIssuedByCA(cainfo) || !isExtraCertValid() || !isExtraCertActive(certinfo)) {
+            return null;
+        }
+        return VerifiedCertificateCache.INSTANCE.put(fingerprint, certinfo, cacert, removalCount);
+    }
+
     private boolean isExtraCertValid() {
         X509Certificate cert = (X509Certificate) extraCert;
         try {
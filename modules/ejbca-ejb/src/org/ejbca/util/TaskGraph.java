@@ -0,0 +1,257 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tasks with dependencies between them, that are run concurrently by a bounded number of threads. A task is started when all the tasks it
+ * depends on have completed, so the total time is the time of the longest chain of dependent tasks, when there are enough threads.
+ * <p>
+ * A task can only depend on tasks added before it, so there can be no cycles. If a task fails, the tasks that depend on it are skipped,
+ * while the other tasks still run.
+ * <p>
+ * The calling thread runs tasks itself, and the other threads are taken from an Executor given by the caller, e.g. one that dispatches to
+ * asynchronous EJB methods so the tasks run on container managed threads. Tasks that must run on the calling thread, e.g. because they use
+ * its transaction, are added with {@link #addOnCallingThread(String, Runnable, String...)}.
+ *
+ * @version $Id$
+ */
+public class TaskGraph {
+
+    private static final Logger log = Logger.getLogger(TaskGraph.class);
+
+    private final String name;
+    private final Map<String, Task> tasks = new LinkedHashMap<String, Task>();
+    /** Tasks whose dependencies have completed. Guarded by itself, which is also notified when a task is added or all tasks are done. */
+    private final LinkedList<Task> ready = new LinkedList<Task>();
+    /** The number of tasks that have not completed or been skipped. Guarded by ready. */
+    private int remaining;
+    /** Set when the calling thread stops waiting, so the other threads stop taking tasks. Guarded by ready. */
+    private boolean cancelled = false;
+    /** Time in milliseconds of each completed task, in the order they completed */
+    private final Map<String, Long> taskTimes = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private volatile RuntimeException failure = null;
+    private volatile boolean done = false;
+
+    private static class Task {
+        private final String name;
+        private final Runnable runnable;
+        /** True if the task may only be run by the thread that calls {@link TaskGraph#run(int, Executor)} */
+        private final boolean onCallingThread;
+        private final List<Task> dependents = new ArrayList<Task>();
+        private final AtomicInteger pendingDependencies = new AtomicInteger();
+        /** Set when a task this task depends on failed or was skipped */
+        private volatile boolean blocked = false;
+
+        private Task(final String name, final Runnable runnable, final boolean onCallingThread) {
+            this.name = name;
+            this.runnable = runnable;
+            this.onCallingThread = onCallingThread;
+        }
+    }
+
+    /** @param name the name of the tasks, used in log messages */
+    public TaskGraph(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param taskName a name that is unique in this graph
+     * @param runnable the task
+     * @param dependencies the names of the tasks that must have completed before this task is started
+     * @return this graph
+     * @throws IllegalArgumentException if the name is in use or a dependency has not been added
+     */
+    public TaskGraph add(final String taskName, final Runnable runnable, final String... dependencies) {
+        return add(taskName, runnable, false, dependencies);
+    }
+
+    /**
+     * Like {@link #add(String, Runnable, String...)}, for a task that is always run by the thread that runs the graph.
+     *
+     * @return this graph
+     * @throws IllegalArgumentException if the name is in use or a dependency has not been added
+     */
+    public TaskGraph addOnCallingThread(final String taskName, final Runnable runnable, final String... dependencies) {
+        return add(taskName, runnable, true, dependencies);
+    }
+
+    private TaskGraph add(final String taskName, final Runnable runnable, final boolean onCallingThread, final String... dependencies) {
+        if (tasks.containsKey(taskName)) {
+            throw new IllegalArgumentException("Task '" + taskName + "' has already been added.");
+        }
+        final Task task = new Task(taskName, runnable, onCallingThread);
+        for (final String dependency : dependencies) {
+            final Task dependsOn = tasks.get(dependency);
+            if (dependsOn == null) {
+                throw new IllegalArgumentException("Task '" + taskName + "' depends on '" + dependency + "', which has not been added.");
+            }
+            dependsOn.dependents.add(task);
+            task.pendingDependencies.incrementAndGet();
+        }
+        tasks.put(taskName, task);
+        return this;
+    }
+
+    /**
+     * Run all the tasks and wait for them to complete. The calling thread is one of the threads that runs the tasks, so with one thread
+     * the tasks are run one at a time in the calling thread.
+     *
+     * @param maxThreads the max number of tasks to run at the same time
+     * @param executor starts the other threads, each of which runs tasks until all tasks are done. If it fails to start one, the tasks
+     *            are run by fewer threads.
+     * @throws RuntimeException the first exception a task threw, after all tasks have completed or been skipped
+     * @throws InterruptedException if the calling thread was interrupted while waiting for tasks run by other threads
+     */
+    public void run(final int maxThreads, final Executor executor) throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        int threads = 1;
+        synchronized (ready) {
+            remaining = tasks.size();
+            for (final Task task : tasks.values()) {
+                if (task.pendingDependencies.get() == 0) {
+                    ready.add(task);
+                }
+            }
+        }
+        if (tasks.isEmpty()) {
+            done = true;
+            return;
+        }
+        for (int i = 1; i < maxThreads; i++) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runTasks(false);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                threads++;
+            } catch (RuntimeException e) {
+                log.info(name + " could not start another thread, running the tasks with " + threads + " threads: " + e.getMessage());
+                break;
+            }
+        }
+        try {
+            runTasks(true);
+        } finally {
+            synchronized (ready) {
+                // The other threads have stopped by themselves, unless the calling thread was interrupted
+                cancelled = true;
+                ready.notifyAll();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            long sum = 0;
+            for (final long taskTime : getTaskTimes().values()) {
+                sum += taskTime;
+            }
+            log.debug(name + " completed in " + (System.currentTimeMillis() - startTime) + " ms with " + threads + " threads. The tasks took "
+                    + sum + " ms together.");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        done = true;
+    }
+
+    /** @return true if all tasks have completed successfully */
+    public boolean isDone() {
+        return done;
+    }
+
+    /** @return the time in milliseconds each task took, for the tasks that have completed, in the order they completed */
+    public Map<String, Long> getTaskTimes() {
+        synchronized (taskTimes) {
+            return new LinkedHashMap<String, Long>(taskTimes);
+        }
+    }
+
+    /** Run tasks as they become ready, until all tasks are done */
+    private void runTasks(final boolean callingThread) throws InterruptedException {
+        Task task;
+        while ((task = take(callingThread)) != null) {
+            final long startTime = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                task.runnable.run();
+                success = true;
+            } catch (RuntimeException e) {
+                log.error(name + " task '" + task.name + "' failed: " + e.getMessage());
+                if (failure == null) {
+                    failure = e;
+                }
+            } finally {
+                final long time = System.currentTimeMillis() - startTime;
+                taskTimes.put(task.name, Long.valueOf(time));
+                if (log.isDebugEnabled()) {
+                    log.debug(name + " task '" + task.name + "' took " + time + " ms.");
+                }
+                synchronized (ready) {
+                    completed(task, success);
+                    ready.notifyAll();
+                }
+            }
+        }
+    }
+
+    /** @return the next ready task this thread may run, waiting until there is one, or null when all tasks are done */
+    private Task take(final boolean callingThread) throws InterruptedException {
+        synchronized (ready) {
+            while (remaining > 0 && !cancelled) {
+                for (final Iterator<Task> iterator = ready.iterator(); iterator.hasNext();) {
+                    final Task task = iterator.next();
+                    if (callingThread || !task.onCallingThread) {
+                        iterator.remove();
+                        return task;
+                    }
+                }
+                ready.wait();
+            }
+            return null;
+        }
+    }
+
+    /** Start the tasks that only waited for this task, or skip them if this task did not succeed. Called with the lock of ready held. */
+    private void completed(final Task task, final boolean success) {
+        for (final Task dependent : task.dependents) {
+            if (!success) {
+                dependent.blocked = true;
+            }
+            if (dependent.pendingDependencies.decrementAndGet() == 0) {
+                if (dependent.blocked) {
+                    log.info(name + " task '" + dependent.name + "' was skipped, since a task it depends on failed.");
+                    completed(dependent, false);
+                } else {
+                    ready.add(dependent);
+                }
+            }
+        }
+        remaining--;
+    }
+}
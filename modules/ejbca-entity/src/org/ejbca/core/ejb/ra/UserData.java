@@ -40,8 +40,9 @@ import org.cesecore.util.CertTools;
 import org.cesecore.util.QueryResultWrapper;
 import org.cesecore.util.StringTools;
 import org.ejbca.core.model.SecConst;
-import org.ejbca.util.crypto.BCrypt;
+import org.ejbca.util.crypto.BCryptVerificationPool;
 import org.ejbca.util.crypto.CryptoTools;
+import org.ejbca.util.crypto.PasswordVerificationRejectedException;
 import org.ejbca.util.crypto.SupportedPasswordHashAlgorithm;
 
 /**
@@ -419,7 +420,9 @@ public class UserData extends ProtectedData implements Serializable {
     }
     
     /**
-     * Verifies password by verifying against passwordhash
+     * Verifies password by verifying against passwordhash. BCrypt hashes are verified by the password verification pool.
+     * 
+     * @throws PasswordVerificationRejectedException if the password verification pool is overloaded
      */
     public boolean comparePassword(final String password) throws NoSuchAlgorithmException {
         if (log.isTraceEnabled()) {
@@ -432,7 +435,7 @@ public class UserData extends ProtectedData implements Serializable {
             switch (findHashAlgorithm()) {
             case SHA1_BCRYPT:
                 // new style with good salt
-                ret = BCrypt.checkpw(password, hash);
+                ret = BCryptVerificationPool.INSTANCE.checkpw(password, hash);
                 break;
             case SHA1_OLD:
             default:
@@ -0,0 +1,115 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.protocol;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.util.CertTools;
+import org.ejbca.config.ScepConfiguration;
+
+/**
+ * Ready-to-write responses to the SCEP GetCACert, GetCACertChain, GetNextCACert and GetCACaps messages, by message, alias and CA name.
+ * Many clients send some of these messages before every enrollment, and the responses only change with the CA.
+ *
+ * A response is only used if it was created from the same CAInfo and ScepConfiguration objects as the current ones. The CA cache and the
+ * configuration cache replace these objects when the CA (including its certificate chain and rollover certificate chain) or the SCEP
+ * configuration changes, so the responses are recreated after any change is visible to the SCEP servlet, and no later.
+ *
+ * @version $Id$
+ */
+public enum ScepCaResponseCache {
+    INSTANCE;
+
+    /** Max number of cached responses. There are normally a handful per SCEP alias and CA. */
+    private static final int MAX_ENTRIES = 1000;
+
+    private final ConcurrentHashMap<String, CachedResponse> cache = new ConcurrentHashMap<>();
+
+    /** A response body with its content type, and the objects it was created from. */
+    public static final class CachedResponse {
+        private final CAInfo caInfo;
+        private final ScepConfiguration scepConfig;
+        private final byte[] body;
+        private final String contentType;
+        private final String etag;
+
+        private CachedResponse(final CAInfo caInfo, final ScepConfiguration scepConfig, final byte[] body, final String contentType) {
+            this.caInfo = caInfo;
+            this.scepConfig = scepConfig;
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = "\"" + CertTools.getFingerprintAsString(body) + "\"";
+        }
+
+        /**
+         * Write the response, or "304 Not Modified" if the client already has it.
+         *
+         * @param ifNoneMatch the If-None-Match header of the request, or null
+         */
+        public void write(final HttpServletResponse response, final String ifNoneMatch) throws IOException {
+            response.setHeader("ETag", etag);
+            if (etag.equals(ifNoneMatch)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            response.setContentType(contentType);
+            response.setContentLength(body.length);
+            final ServletOutputStream os = response.getOutputStream();
+            os.write(body);
+            response.flushBuffer();
+        }
+    }
+
+    private static String getKey(final String operation, final String alias, final String caName) {
+        return operation + '\n' + alias + '\n' + caName;
+    }
+
+    /**
+     * @param caInfo the current CAInfo of the CA, as returned from the CA cache
+     * @param scepConfig the current SCEP configuration, as returned from the configuration cache
+     * @return the cached response or null if there is none, or if the CA or SCEP configuration has changed since it was created
+     */
+    public CachedResponse get(final String operation, final String alias, final String caName, final CAInfo caInfo, final ScepConfiguration scepConfig) {
+        final CachedResponse cachedResponse = cache.get(getKey(operation, alias, caName));
+        if (cachedResponse == null || cachedResponse.caInfo != caInfo || cachedResponse.scepConfig != scepConfig) {
+            return null;
+        }
+        return cachedResponse;
+    }
+
+    /**
+     * Cache a response created from the given CAInfo and SCEP configuration.
+     *
+     * @param body the response body, which must not be modified after it has been passed to this cache
+     * @return the cached response
+     */
+    public CachedResponse put(final String operation, final String alias, final String caName, final CAInfo caInfo, final ScepConfiguration scepConfig,
+            final byte[] body, final String contentType) {
+        final CachedResponse cachedResponse = new CachedResponse(caInfo, scepConfig, body, contentType);
+        if (cache.size() >= MAX_ENTRIES) {
+            cache.clear();
+        }
+        cache.put(getKey(operation, alias, caName), cachedResponse);
+        return cachedResponse;
+    }
+
+    /** Remove all cached responses. */
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -78,6 +78,7 @@ import org.ejbca.core.model.ca.AuthStatusException;
 import org.ejbca.core.protocol.scep.ScepRequestMessage;
 import org.ejbca.core.protocol.scep.ScepResponseMessage;
 import org.ejbca.ui.web.RequestHelper;
+import org.ejbca.ui.web.protocol.ScepCaResponseCache.CachedResponse;
 import org.ejbca.util.HTMLTools;
 
 
@@ -133,6 +134,8 @@ public class ScepServlet extends HttpServlet {
     
     private static final String DEFAULT_SCEP_ALIAS = "scep";
 
+    private final ScepCaResponseCache responseCache = ScepCaResponseCache.INSTANCE;
+
     private transient ScepOperationPlugin scepRaModeExtension = null;
     private transient ScepResponsePlugin scepClientCertificateRenewal = null;
 
@@ -217,7 +220,7 @@ public class ScepServlet extends HttpServlet {
             output.write(buf, 0, n);
         }
         String message = new String(Base64.encode(output.toByteArray()));
-        service(operation, message, request.getRemoteAddr(), response, request.getPathInfo());
+        service(operation, message, request.getRemoteAddr(), response, request.getPathInfo(), null);
         log.trace("<SCEP doPost()");
     } //doPost
 
@@ -248,12 +251,16 @@ public class ScepServlet extends HttpServlet {
             message = message.replace(' ', '+');
         }
 
-        service(operation, message, request.getRemoteAddr(), response, request.getPathInfo());
+        service(operation, message, request.getRemoteAddr(), response, request.getPathInfo(), request.getHeader("If-None-Match"));
 
         log.trace("<SCEP doGet()");
     } // doGet
 
-    private void service(String operation, String message, String remoteAddr, HttpServletResponse response, String pathInfo) throws IOException {
+    /**
+     * @param ifNoneMatch the If-None-Match header of a GET request, or null
+     */
+    private void service(String operation, String message, String remoteAddr, HttpServletResponse response, String pathInfo,
+            final String ifNoneMatch) throws IOException {
 
         String alias = getAlias(pathInfo);
         if(alias == null) {
@@ -322,18 +329,21 @@ public class ScepServlet extends HttpServlet {
                 if (log.isDebugEnabled()) {
                     log.debug("Got SCEP cert request for CA '" + caname + "'");
                 }
-                Collection<Certificate> certs = null;
-                CAInfo cainfo = casession.getCAInfoInternal(-1, caname, true);
-                if (cainfo != null) {
-                    certs = cainfo.getCertificateChain();
+                final CAInfo cainfo = casession.getCAInfoInternal(-1, caname, true);
+                CachedResponse cachedResponse = responseCache.get(operation, alias, caname, cainfo, scepConfig);
+                if (cachedResponse == null) {
+                    final Collection<Certificate> certs = cainfo == null ? null : cainfo.getCertificateChain();
+                    if ((certs != null) && (certs.size() > 0)) {
+                        // CAs certificate is in the first position in the Collection
+                        final X509Certificate cert = (X509Certificate) certs.iterator().next();
+                        cachedResponse = responseCache.put(operation, alias, caname, cainfo, scepConfig, cert.getEncoded(), "application/x-x509-ca-cert");
+                    }
                 }
-                if ((certs != null) && (certs.size() > 0)) {
-                    // CAs certificate is in the first position in the Collection
-                    X509Certificate cert = (X509Certificate) certs.iterator().next();
+                if (cachedResponse != null) {
                     if (log.isDebugEnabled()) {
                         log.debug("Sent certificate for CA '" + caname + "' to SCEP client.");
                     }
-                    RequestHelper.sendNewX509CaCert(cert.getEncoded(), response);
+                    cachedResponse.write(response, ifNoneMatch);
             		iMsg = intres.getLocalizedMessage("scep.sentresponsemsg", "GetCACert", remoteAddr);
         			log.info(iMsg);
                 } else {
@@ -353,13 +363,19 @@ public class ScepServlet extends HttpServlet {
                 final String caname = getCAName(message);
                 log.debug("Got SCEP pkcs7 request for CA '" + caname + "'. Old client using SCEP draft 18?");
   
-                CAInfo cainfo = casession.getCAInfo(administrator, caname);
-                byte[] pkcs7 = signsession.createPKCS7(administrator, cainfo.getCAId(), true);
-                if ((pkcs7 != null) && (pkcs7.length > 0)) {
+                final CAInfo cainfo = casession.getCAInfoInternal(-1, caname, true);
+                CachedResponse cachedResponse = responseCache.get(operation, alias, caname, cainfo, scepConfig);
+                if (cachedResponse == null) {
+                    final byte[] pkcs7 = signsession.createPKCS7(administrator, cainfo.getCAId(), true);
+                    if ((pkcs7 != null) && (pkcs7.length > 0)) {
+                        cachedResponse = responseCache.put(operation, alias, caname, cainfo, scepConfig, pkcs7, "application/x-x509-ca-ra-cert-chain");
+                    }
+                }
+                if (cachedResponse != null) {
                     if (log.isDebugEnabled()) {
                         log.debug("Sent PKCS7 for CA '" + caname + "' to SCEP client.");
                     }
-                    RequestHelper.sendBinaryBytes(pkcs7, response, "application/x-x509-ca-ra-cert-chain", null);
+                    cachedResponse.write(response, ifNoneMatch);
             		iMsg = intres.getLocalizedMessage("scep.sentresponsemsg", "GetCACertChain", remoteAddr);
         			log.info(iMsg);
                 } else {
@@ -379,13 +395,17 @@ public class ScepServlet extends HttpServlet {
                     log.error(errMsg);
                     response.sendError(HttpServletResponse.SC_NOT_FOUND, "No such CA.");
                 } else {
-                    if (casession.getFutureRolloverCertificate(cainfo.getCAId()) != null) {
-                        // Send full certificate chain of next CA, in SCEP-PKCS7 format 
+                    CachedResponse cachedResponse = responseCache.get(operation, alias, caname, cainfo, scepConfig);
+                    if (cachedResponse == null && casession.getFutureRolloverCertificate(cainfo.getCAId()) != null) {
+                        // Full certificate chain of next CA, in SCEP-PKCS7 format 
+                        final byte[] bytes = signsession.createPKCS7Rollover(administrator, cainfo.getCAId());
+                        cachedResponse = responseCache.put(operation, alias, caname, cainfo, scepConfig, bytes, "application/x-x509-next-ca-cert");
+                    }
+                    if (cachedResponse != null) {
                         if (log.isDebugEnabled()) {
                             log.debug("Sending next certificate chain for CA '" + caname + "' to SCEP client.");
                         }
-                        final byte[] bytes = signsession.createPKCS7Rollover(administrator, cainfo.getCAId());
-                        RequestHelper.sendBinaryBytes(bytes, response, "application/x-x509-next-ca-cert", null);
+                        cachedResponse.write(response, ifNoneMatch);
                         iMsg = intres.getLocalizedMessage("scep.sentresponsemsg", "GetNextCACert", remoteAddr);
                         log.info(iMsg);
                     } else {
@@ -409,24 +429,30 @@ public class ScepServlet extends HttpServlet {
                                        certificate.  
                  */
                 log.debug("Got SCEP GetCACaps request");
-                response.setContentType("text/plain");
                 
                 final String caname = getCAName(message);
-                boolean hasRolloverCert;
+                CAInfo cainfo;
                 try {
-                    final CAInfo cainfo = casession.getCAInfoInternal(-1, caname, true);
-                    hasRolloverCert = (casession.getFutureRolloverCertificate(cainfo.getCAId()) != null);
+                    cainfo = casession.getCAInfoInternal(-1, caname, true);
                 } catch (CADoesntExistsException e) {
-                    hasRolloverCert = false;
+                    cainfo = null;
                     if (log.isDebugEnabled()) {
                         log.debug("CA was not found: "+caname);
                     }
                 }
-                // SCEP draft 23, "4.6.1.  Get Next CA Response Message Format". 
-                // It SHOULD also remove the GetNextCACert setting from the capabilities until it does have rollover certificates.
-                response.getOutputStream().print(hasRolloverCert ?
-                        "POSTPKIOperation\nGetNextCACert\nRenewal\nSHA-1" :
-                        "POSTPKIOperation\nRenewal\nSHA-1");
+                if (cainfo == null) {
+                    // Not cached, since the CA name can be anything
+                    response.setContentType("text/plain");
+                    response.getOutputStream().print(getCACaps(false));
+                } else {
+                    CachedResponse cachedResponse = responseCache.get(operation, alias, caname, cainfo, scepConfig);
+                    if (cachedResponse == null) {
+                        final boolean hasRolloverCert = casession.getFutureRolloverCertificate(cainfo.getCAId()) != null;
+                        cachedResponse = responseCache.put(operation, alias, caname, cainfo, scepConfig, getCACaps(hasRolloverCert).getBytes("US-ASCII"),
+                                "text/plain");
+                    }
+                    cachedResponse.write(response, ifNoneMatch);
+                }
             } else {
                 log.error("Invalid parameter '" + operation);
                 // Send back proper Failure Response
@@ -488,6 +514,13 @@ public class ScepServlet extends HttpServlet {
         }
     }
     
+    /** @return the GetCACaps response */
+    private String getCACaps(final boolean hasRolloverCert) {
+        // SCEP draft 23, "4.6.1.  Get Next CA Response Message Format". 
+        // It SHOULD also remove the GetNextCACert setting from the capabilities until it does have rollover certificates.
+        return hasRolloverCert ? "POSTPKIOperation\nGetNextCACert\nRenewal\nSHA-1" : "POSTPKIOperation\nRenewal\nSHA-1";
+    }
+
     /** Later SCEP draft say that for GetCACert message is optional. If message is there, it is the CA name
      * but if message is not provided by the client, some default CA should be used.
      * @param message the message part for the SCEP get request, can be null or empty string
@@ -81,4 +81,34 @@ public class WebServiceConfiguration {
 		return EjbcaConfigurationHolder.getString("ejbcaws.trx-log-order");
 	}
 	
+	/**
+	 * Returns the maximum number of items accepted in a single bulk WS call (certificateRequests, revokeCerts). 
+	 */
+	public static int getBulkMaxItems() {
+		return getIntValue("ejbcaws.bulk.maxitems", 1000);
+	}
+
+	/**
+	 * Returns the number of items of a bulk WS call that will be processed in parallel.
+	 * Defaults to the number of available processors, since issuance is bound by signing capacity.
+	 */
+	public static int getBulkConcurrency() {
+		return getIntValue("ejbcaws.bulk.concurrency", Runtime.getRuntime().availableProcessors());
+	}
+
+	private static int getIntValue(final String property, final int defaultValue) {
+		final String value = EjbcaConfigurationHolder.getExpandedString(property);
+		if (value != null) {
+			try {
+				final int ret = Integer.parseInt(value.trim());
+				if (ret > 0) {
+					return ret;
+				}
+			} catch (NumberFormatException e) {
+				// Fall through to default
+			}
+		}
+		return defaultValue;
+	}
+
 }
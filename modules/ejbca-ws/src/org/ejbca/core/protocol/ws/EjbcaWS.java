@@ -45,6 +45,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.annotation.Resource;
 import javax.ejb.CreateException;
@@ -112,6 +115,7 @@ import org.cesecore.keys.token.CryptoTokenAuthenticationFailedException;
 import org.cesecore.keys.token.CryptoTokenManagementSessionLocal;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.keys.token.p11.exception.NoSuchSlotException;
+import org.cesecore.keys.util.KeyPairPool;
 import org.cesecore.keys.util.KeyTools;
 import org.cesecore.roles.RoleNotFoundException;
 import org.cesecore.util.Base64;
@@ -182,12 +186,16 @@ import org.ejbca.core.protocol.ws.common.IEjbcaWS;
 import org.ejbca.core.protocol.ws.logger.TransactionLogger;
 import org.ejbca.core.protocol.ws.logger.TransactionTags;
 import org.ejbca.core.protocol.ws.objects.Certificate;
+import org.ejbca.core.protocol.ws.objects.CertificateRequestResultWS;
+import org.ejbca.core.protocol.ws.objects.CertificateRequestWS;
 import org.ejbca.core.protocol.ws.objects.CertificateResponse;
 import org.ejbca.core.protocol.ws.objects.ExtendedInformationWS;
 import org.ejbca.core.protocol.ws.objects.HardTokenDataWS;
 import org.ejbca.core.protocol.ws.objects.KeyStore;
 import org.ejbca.core.protocol.ws.objects.NameAndId;
 import org.ejbca.core.protocol.ws.objects.PinDataWS;
+import org.ejbca.core.protocol.ws.objects.RevokeCertRequestWS;
+import org.ejbca.core.protocol.ws.objects.RevokeCertResultWS;
 import org.ejbca.core.protocol.ws.objects.RevokeStatus;
 import org.ejbca.core.protocol.ws.objects.TokenCertificateRequestWS;
 import org.ejbca.core.protocol.ws.objects.TokenCertificateResponseWS;
@@ -281,6 +289,8 @@ public class EjbcaWS implements IEjbcaWS {
     private WebAuthenticationProviderSessionLocal webAuthenticationSession;
     @EJB 
     private EnterpriseEditionWSBridgeSessionLocal enterpriseWSBridgeSession;
+    @EJB
+    private EjbcaWSBulkSessionLocal bulkSession;
 
 	/** The maximum number of rows returned in array responses. */
 	private static final int MAXNUMBEROFROWS = 100;
@@ -1328,15 +1338,29 @@ public class EjbcaWS implements IEjbcaWS {
 
 	private void revokeCert(final String issuerDN, final String certificateSN, final int reason, Date date, IPatternLogger logger) throws CADoesntExistsException, AuthorizationDeniedException,
 			NotFoundException, EjbcaException, ApprovalException, WaitingForApprovalException, AlreadyRevokedException, RevokeBackDateNotAllowedForProfileException {
-		if (log.isDebugEnabled()) {
-			log.debug("Revoke cert with serial number '"+certificateSN+"' from issuer '"+issuerDN+"' with reason '"+reason+"'.");
-		}
 		try {
 			final EjbcaWSHelper ejbhelper = new EjbcaWSHelper(wsContext, authorizationSession, caAdminSession, caSession, certificateProfileSession, certificateStoreSession, endEntityAccessSession, endEntityProfileSession, hardTokenSession, endEntityManagementSession, webAuthenticationSession, cryptoTokenManagementSession);
 			final AuthenticationToken admin = ejbhelper.getAdmin();
 			logAdminName(admin,logger);
 			final int caid = CertTools.stringToBCDNString(issuerDN).hashCode();
 			caSession.verifyExistenceOfCA(caid);
+			revokeCert(admin, issuerDN, certificateSN, reason, date, logger);
+		} catch (RuntimeException e) {	// EJBException, ClassCastException, ...
+			throw EjbcaWSHelper.getInternalException(e, logger);
+		}
+	}
+
+    /**
+     * Revokes a single certificate for an already authenticated administrator, where the existence of the CA has already been verified.
+     * Does not use the WebServiceContext, so it is safe to call from the threads processing a bulk request.
+     */
+	private void revokeCert(final AuthenticationToken admin, final String issuerDN, final String certificateSN, final int reason, final Date date,
+	        final IPatternLogger logger) throws AuthorizationDeniedException, NotFoundException, EjbcaException, ApprovalException, WaitingForApprovalException,
+	        AlreadyRevokedException, RevokeBackDateNotAllowedForProfileException {
+		if (log.isDebugEnabled()) {
+			log.debug("Revoke cert with serial number '"+certificateSN+"' from issuer '"+issuerDN+"' with reason '"+reason+"'.");
+		}
+		try {
 			final BigInteger serno = new BigInteger(certificateSN, 16);
 			// Revoke or unrevoke, will throw appropriate exceptions if parameters are wrong, such as trying to unrevoke a certificate
 			// that was permanently revoked
@@ -1348,6 +1372,20 @@ public class EjbcaWS implements IEjbcaWS {
 		}
 	}
 
+	/** @return the parsed ISO 8601 revocation date, which may not be in the future */
+	private Date getRevocationDate(final String sDate) throws DateNotValidException {
+		final Date date;
+		try {
+			date = DatatypeConverter.parseDateTime(sDate).getTime();
+		} catch (IllegalArgumentException e) {
+			throw new DateNotValidException( intres.getLocalizedMessage("ra.bad.date", sDate) );
+		}
+		if ( date.after(new Date()) ) {
+			throw new DateNotValidException("Revocation date in the future: '"+sDate+"'.");
+		}
+		return date;
+	}
+
 	@Override
 	public void revokeCert(final String issuerDN, final String certificateSN, final int reason) throws
 	CADoesntExistsException, AuthorizationDeniedException, NotFoundException, EjbcaException, ApprovalException, WaitingForApprovalException, AlreadyRevokedException {
@@ -1373,16 +1411,7 @@ public class EjbcaWS implements IEjbcaWS {
 				revokeCert(issuerDN, certificateSN, reason);
 				return;
 			}
-			final Date date;
-			try {
-				date = DatatypeConverter.parseDateTime(sDate).getTime();
-			} catch (IllegalArgumentException e) {
-				throw new DateNotValidException( intres.getLocalizedMessage("ra.bad.date", sDate) );
-			}
-			if ( date.after(new Date()) ) {
-				throw new DateNotValidException("Revocation date in the future: '"+sDate+"'.");
-			}
-			revokeCert(issuerDN, certificateSN, reason, date, logger);
+			revokeCert(issuerDN, certificateSN, reason, getRevocationDate(sDate), logger);
 		} finally {
 			logger.writeln();
 			logger.flush();
@@ -1976,7 +2005,7 @@ public class EjbcaWS implements IEjbcaWS {
 							throw EjbcaWSHelper.getEjbcaException("Unsupported Key Store Type : " + next.getTokenType() + " only " + HardTokenConstants.TOKENTYPE_PKCS12 + " is supported",
                                                         logger, ErrorCode.NOT_SUPPORTED_KEY_STORE, null);
 						}
-						KeyPair keys = KeyTools.genKeys(next.getKeyspec(), next.getKeyalg());							  
+						KeyPair keys = KeyPairPool.getInstance().getKeyPair(next.getKeyspec(), next.getKeyalg());							  
 						userData.setCertificateProfileId(certificateProfileId);
 						userData.setCAId(cAInfo.getCAId());
 						userData.setPassword(password);
@@ -2716,14 +2745,35 @@ public class EjbcaWS implements IEjbcaWS {
 	throws AuthorizationDeniedException, NotFoundException, UserDoesntFullfillEndEntityProfile,
 	ApprovalException, WaitingForApprovalException, EjbcaException {
 	    final IPatternLogger logger = TransactionLogger.getPatternLogger();
+	    try {
+	    	final EjbcaWSHelper ejbcawshelper = new EjbcaWSHelper(wsContext, authorizationSession, caAdminSession, caSession, certificateProfileSession, certificateStoreSession, endEntityAccessSession, endEntityProfileSession, hardTokenSession, endEntityManagementSession, webAuthenticationSession, cryptoTokenManagementSession);
+	    	final AuthenticationToken admin = ejbcawshelper.getAdmin(false);
+	    	logAdminName(admin,logger);
+	    	return certificateRequest(ejbcawshelper, admin, userdata, requestData, requestType, hardTokenSN, responseType, logger);
+        } catch( AuthorizationDeniedException t ) {
+            logger.paramPut(TransactionTags.ERROR_MESSAGE.toString(), t.toString());
+            throw t;
+        } catch (RuntimeException e) {	// EJBException, ClassCastException, ...
+            throw EjbcaWSHelper.getInternalException(e, logger);
+        } finally {
+            logger.writeln();
+            logger.flush();
+        }
+	}
+
+    /**
+     * Processes a single certificate request for an already authenticated administrator. Does not use the WebServiceContext, so it is safe
+     * to call from the threads processing a bulk request.
+     */
+    private CertificateResponse certificateRequest(final EjbcaWSHelper ejbcawshelper, final AuthenticationToken admin, final UserDataVOWS userdata,
+            final String requestData, final int requestType, final String hardTokenSN, final String responseType, final IPatternLogger logger)
+            throws AuthorizationDeniedException, NotFoundException, UserDoesntFullfillEndEntityProfile, ApprovalException, WaitingForApprovalException,
+            EjbcaException {
 	    try {
 	    	if (log.isDebugEnabled()) {
 	    		log.debug("CertReq for user '" + userdata.getUsername() + "'.");
 	    	}
 	        setUserDataVOWS(userdata);
-	    	final EjbcaWSHelper ejbcawshelper = new EjbcaWSHelper(wsContext, authorizationSession, caAdminSession, caSession, certificateProfileSession, certificateStoreSession, endEntityAccessSession, endEntityProfileSession, hardTokenSession, endEntityManagementSession, webAuthenticationSession, cryptoTokenManagementSession);
-	    	final AuthenticationToken admin = ejbcawshelper.getAdmin(false);
-	    	logAdminName(admin,logger);
             enrichUserDataWithRawSubjectDn(userdata);
 	        final EndEntityInformation endEntityInformation = ejbcawshelper.convertUserDataVOWS(admin, userdata);
 	        int responseTypeInt = CertificateConstants.CERT_RES_TYPE_CERTIFICATE;
@@ -2784,11 +2834,212 @@ public class EjbcaWS implements IEjbcaWS {
 			throw new NotFoundException(e.getMessage());
         } catch (RuntimeException e) {	// EJBException, ClassCastException, ...
             throw EjbcaWSHelper.getInternalException(e, logger);
+        }
+	}
+
+    @Override
+    public List<CertificateRequestResultWS> certificateRequests(final List<CertificateRequestWS> requests) throws AuthorizationDeniedException, EjbcaException {
+        final IPatternLogger logger = TransactionLogger.getPatternLogger();
+        try {
+            verifyBulkSize(requests, logger);
+            if (log.isDebugEnabled()) {
+                log.debug("Bulk CertReq with " + requests.size() + " requests.");
+            }
+            final EjbcaWSHelper ejbcawshelper = new EjbcaWSHelper(wsContext, authorizationSession, caAdminSession, caSession, certificateProfileSession, certificateStoreSession, endEntityAccessSession, endEntityProfileSession, hardTokenSession, endEntityManagementSession, webAuthenticationSession, cryptoTokenManagementSession);
+            // Authenticate once for the whole batch. The WebServiceContext is only available on the request thread anyway.
+            final AuthenticationToken admin = ejbcawshelper.getAdmin(false);
+            logAdminName(admin,logger);
+            final List<BulkItem<CertificateRequestResultWS>> items = new ArrayList<>(requests.size());
+            for (final CertificateRequestWS request : requests) {
+                final UserDataVOWS userdata = request.getUserData();
+                final String username = userdata == null ? null : userdata.getUsername();
+                items.add(new BulkItem<CertificateRequestResultWS>(TransactionLogger.getPatternLogger()) {
+                    @Override
+                    public CertificateRequestResultWS call() throws Exception {
+                        if (userdata == null || request.getRequestData() == null || request.getResponseType() == null) {
+                            throw new EjbcaException(ErrorCode.FIELD_VALUE_NOT_VALID, "userData, requestData and responseType are required.");
+                        }
+                        return new CertificateRequestResultWS(username, certificateRequest(ejbcawshelper, admin, userdata, request.getRequestData(),
+                                request.getRequestType(), request.getHardTokenSN(), request.getResponseType(), this.logger));
+                    }
+
+                    @Override
+                    CertificateRequestResultWS failed(final ErrorCode errorCode, final String message) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Bulk CertReq for user '" + username + "' failed: " + message);
+                        }
+                        return new CertificateRequestResultWS(username, errorCode.getInternalErrorCode(), message);
+                    }
+                });
+            }
+            return invokeBulk(admin, items, logger);
+        } catch( AuthorizationDeniedException t ) {
+            logger.paramPut(TransactionTags.ERROR_MESSAGE.toString(), t.toString());
+            throw t;
+        } catch (RuntimeException e) {  // EJBException, ClassCastException, ...
+            throw EjbcaWSHelper.getInternalException(e, logger);
         } finally {
             logger.writeln();
             logger.flush();
         }
-	}
+    }
+
+    @Override
+    public List<RevokeCertResultWS> revokeCerts(final List<RevokeCertRequestWS> requests) throws AuthorizationDeniedException, EjbcaException {
+        final IPatternLogger logger = TransactionLogger.getPatternLogger();
+        try {
+            verifyBulkSize(requests, logger);
+            if (log.isDebugEnabled()) {
+                log.debug("Bulk revocation with " + requests.size() + " requests.");
+            }
+            final EjbcaWSHelper ejbhelper = new EjbcaWSHelper(wsContext, authorizationSession, caAdminSession, caSession, certificateProfileSession, certificateStoreSession, endEntityAccessSession, endEntityProfileSession, hardTokenSession, endEntityManagementSession, webAuthenticationSession, cryptoTokenManagementSession);
+            final AuthenticationToken admin = ejbhelper.getAdmin();
+            logAdminName(admin,logger);
+            // Batches typically target a handful of CAs, so only verify the existence of each CA once instead of once per item
+            final Map<String, CADoesntExistsException> missingCas = new HashMap<>();
+            for (final RevokeCertRequestWS request : requests) {
+                final String issuerDN = request.getIssuerDN();
+                if (issuerDN != null && !missingCas.containsKey(issuerDN)) {
+                    try {
+                        caSession.verifyExistenceOfCA(CertTools.stringToBCDNString(issuerDN).hashCode());
+                        missingCas.put(issuerDN, null);
+                    } catch (CADoesntExistsException e) {
+                        missingCas.put(issuerDN, e);
+                    }
+                }
+            }
+            final List<BulkItem<RevokeCertResultWS>> items = new ArrayList<>(requests.size());
+            for (final RevokeCertRequestWS request : requests) {
+                final String issuerDN = request.getIssuerDN();
+                final String certificateSN = request.getCertificateSN();
+                items.add(new BulkItem<RevokeCertResultWS>(TransactionLogger.getPatternLogger()) {
+                    @Override
+                    public RevokeCertResultWS call() throws Exception {
+                        if (issuerDN == null || certificateSN == null) {
+                            throw new EjbcaException(ErrorCode.FIELD_VALUE_NOT_VALID, "issuerDN and certificateSN are required.");
+                        }
+                        if (missingCas.get(issuerDN) != null) {
+                            throw missingCas.get(issuerDN);
+                        }
+                        final Date date = request.getRevocationDate() == null ? null : getRevocationDate(request.getRevocationDate());
+                        revokeCert(admin, issuerDN, certificateSN, request.getReason(), date, this.logger);
+                        return new RevokeCertResultWS(issuerDN, certificateSN, null, null);
+                    }
+
+                    @Override
+                    RevokeCertResultWS failed(final ErrorCode errorCode, final String message) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Bulk revocation of certificate '" + certificateSN + "' from issuer '" + issuerDN + "' failed: " + message);
+                        }
+                        return new RevokeCertResultWS(issuerDN, certificateSN, errorCode.getInternalErrorCode(), message);
+                    }
+                });
+            }
+            return invokeBulk(admin, items, logger);
+        } catch( AuthorizationDeniedException t ) {
+            logger.paramPut(TransactionTags.ERROR_MESSAGE.toString(), t.toString());
+            throw t;
+        } catch (RuntimeException e) {  // EJBException, ClassCastException, ...
+            throw EjbcaWSHelper.getInternalException(e, logger);
+        } finally {
+            logger.writeln();
+            logger.flush();
+        }
+    }
+
+    /**
+     * One item of a bulk call, with its own transaction log line. The item is run by EjbcaWSBulkSessionBean in a new transaction on a thread
+     * of the container, so it may not use the WebServiceContext.
+     */
+    private static abstract class BulkItem<T> implements Callable<T> {
+        /** The transaction log line of this item, which the item uses like the single item WS calls use theirs */
+        final IPatternLogger logger;
+
+        BulkItem(final IPatternLogger logger) {
+            this.logger = logger;
+        }
+
+        /** @return the result to report for this item when it threw an exception, which rolled back its transaction unless it is waiting for approval */
+        abstract T failed(ErrorCode errorCode, String message);
+    }
+
+    private void verifyBulkSize(final List<?> requests, final IPatternLogger logger) throws EjbcaException {
+        if (requests == null || requests.isEmpty()) {
+            throw EjbcaWSHelper.getEjbcaException("No requests in bulk call.", logger, ErrorCode.FIELD_VALUE_NOT_VALID, null);
+        }
+        final int maxItems = WebServiceConfiguration.getBulkMaxItems();
+        if (requests.size() > maxItems) {
+            throw EjbcaWSHelper.getEjbcaException("Too many requests in bulk call: " + requests.size() + " (max " + maxItems + ").", logger,
+                    ErrorCode.FIELD_VALUE_NOT_VALID, null);
+        }
+    }
+
+    /**
+     * Runs the items, with at most ejbcaws.bulk.concurrency of them at the same time, and writes the transaction log line of each item when
+     * it has completed.
+     *
+     * @return the results in the same order as the items
+     */
+    private <T> List<T> invokeBulk(final AuthenticationToken admin, final List<BulkItem<T>> items, final IPatternLogger logger) throws EjbcaException {
+        final int concurrency = WebServiceConfiguration.getBulkConcurrency();
+        final List<Future<T>> futures = new ArrayList<>(items.size());
+        final List<T> results = new ArrayList<>(items.size());
+        try {
+            for (final BulkItem<T> item : items) {
+                if (futures.size() - results.size() >= concurrency) {
+                    // Wait for the oldest running item before starting another one
+                    results.add(getBulkResult(items.get(results.size()), futures.get(results.size())));
+                }
+                logAdminName(admin, item.logger);
+                futures.add(bulkSession.process(item));
+            }
+            while (results.size() < items.size()) {
+                results.add(getBulkResult(items.get(results.size()), futures.get(results.size())));
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw EjbcaWSHelper.getInternalException(e, logger);
+        } catch (Exception e) {
+            // Only thrown by the asynchronous call itself, since the exceptions of the items are returned through their futures
+            throw EjbcaWSHelper.getInternalException(e, logger);
+        }
+    }
+
+    /** @return the result of the item, or the error to report for it if it failed */
+    private <T> T getBulkResult(final BulkItem<T> item, final Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof EJBException && ((EJBException) cause).getCausedByException() != null) {
+                cause = ((EJBException) cause).getCausedByException();
+            }
+            item.logger.paramPut(TransactionTags.ERROR_MESSAGE.toString(), cause.toString());
+            return item.failed(getBulkErrorCode(cause), cause.getMessage());
+        } finally {
+            item.logger.writeln();
+            item.logger.flush();
+        }
+    }
+
+    /** @return the error code to report for a failed item in a bulk call */
+    private static ErrorCode getBulkErrorCode(final Throwable e) {
+        if (e instanceof EjbcaException && ((EjbcaException) e).getErrorCode() != null) {
+            return ((EjbcaException) e).getErrorCode();
+        } else if (e instanceof CesecoreException && ((CesecoreException) e).getErrorCode() != null) {
+            return ((CesecoreException) e).getErrorCode();
+        } else if (e instanceof AuthorizationDeniedException) {
+            return ErrorCode.NOT_AUTHORIZED;
+        } else if (e instanceof UserDoesntFullfillEndEntityProfile) {
+            return ErrorCode.FIELD_VALUE_NOT_VALID;
+        } else if (e instanceof AlreadyRevokedException) {
+            return ErrorCode.ALREADY_REVOKED;
+        } else if (e instanceof NotFoundException) {
+            return ErrorCode.USER_NOT_FOUND;
+        }
+        return ErrorCode.NOT_SPECIFIED;
+    }
 
     /** Add the raw subject DN as requested (used if we allow override from request End Entity Information) */
     private void enrichUserDataWithRawSubjectDn(final UserDataVOWS userdata) {
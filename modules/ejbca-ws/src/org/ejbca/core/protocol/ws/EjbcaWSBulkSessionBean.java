@@ -0,0 +1,55 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.ws;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.annotation.Resource;
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+import org.ejbca.core.model.approval.WaitingForApprovalException;
+
+/**
+ * Runs the items of bulk WS calls on the asynchronous threads of the container, each in its own transaction. A failed item is rolled back,
+ * while an item that is waiting for approval is committed, since its approval request is stored in its transaction.
+ *
+ * @version $Id$
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+public class EjbcaWSBulkSessionBean implements EjbcaWSBulkSessionLocal {
+
+    @Resource
+    private SessionContext sessionContext;
+
+    @Asynchronous
+    @Override
+    public <T> Future<T> process(final Callable<T> item) throws Exception {
+        try {
+            return new AsyncResult<T>(item.call());
+        } catch (WaitingForApprovalException e) {
+            // The item was accepted, and the approval request stored for it must remain so it can be approved
+            throw e;
+        } catch (Exception e) {
+            // Application exceptions do not roll back by themselves, and a failed item must not leave half of its changes behind
+            sessionContext.setRollbackOnly();
+            throw e;
+        }
+    }
+}
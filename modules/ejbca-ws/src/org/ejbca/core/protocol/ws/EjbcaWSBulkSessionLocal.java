@@ -0,0 +1,38 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.ws;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.ejb.Local;
+
+/**
+ * Processes the items of bulk WS calls on container managed threads.
+ *
+ * @version $Id$
+ */
+@Local
+public interface EjbcaWSBulkSessionLocal {
+
+    /**
+     * Asynchronously runs one item of a bulk call in a new transaction, so the item is either completed or rolled back as a whole,
+     * independently of the other items.
+     *
+     * @param item the item, which may only use the EJB references of the calling bean
+     * @return the result of the item, or the exception it threw as the cause of the ExecutionException
+     * @throws Exception the exception thrown by the item, after the transaction has been marked for rollback unless the item is waiting for
+     *             approval
+     */
+    <T> Future<T> process(Callable<T> item) throws Exception;
+}
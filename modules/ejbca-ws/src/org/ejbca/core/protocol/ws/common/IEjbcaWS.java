@@ -39,10 +39,14 @@ import org.ejbca.core.model.ra.userdatasource.UserDataSourceException;
 import org.ejbca.core.protocol.ws.DateNotValidException;
 import org.ejbca.core.protocol.ws.UnknownProfileTypeException;
 import org.ejbca.core.protocol.ws.objects.Certificate;
+import org.ejbca.core.protocol.ws.objects.CertificateRequestResultWS;
+import org.ejbca.core.protocol.ws.objects.CertificateRequestWS;
 import org.ejbca.core.protocol.ws.objects.CertificateResponse;
 import org.ejbca.core.protocol.ws.objects.HardTokenDataWS;
 import org.ejbca.core.protocol.ws.objects.KeyStore;
 import org.ejbca.core.protocol.ws.objects.NameAndId;
+import org.ejbca.core.protocol.ws.objects.RevokeCertRequestWS;
+import org.ejbca.core.protocol.ws.objects.RevokeCertResultWS;
 import org.ejbca.core.protocol.ws.objects.RevokeStatus;
 import org.ejbca.core.protocol.ws.objects.TokenCertificateRequestWS;
 import org.ejbca.core.protocol.ws.objects.TokenCertificateResponseWS;
@@ -1136,6 +1140,43 @@ public interface IEjbcaWS {
 	throws CADoesntExistsException, AuthorizationDeniedException, NotFoundException, UserDoesntFullfillEndEntityProfile,
 	ApprovalException, WaitingForApprovalException, EjbcaException;
 
+    /**
+     * Generates certificates for a batch of users, with the same semantics as calling
+     * {@link #certificateRequest(UserDataVOWS, String, int, String, String)} once per item.
+     * <p>
+     * The caller is authenticated once for the whole batch and the items are processed in parallel
+     * on the server. Each item is processed in its own transaction, so a failing item does not affect
+     * the others. Instead of throwing an exception, the failure of an item is reported in the
+     * corresponding result.
+     * <p>
+     * Authorization requirements: the same as for {@link #certificateRequest(UserDataVOWS, String, int, String, String)},
+     * checked for each item.
+     * 
+     * @param requests the certificate requests, at most ejbcaws.bulk.maxitems (jaxws.properties) items
+     * @return one result per request, in the same order as the requests
+     * @throws AuthorizationDeniedException if the client isn't an authorized administrator
+     * @throws EjbcaException if the list is empty or too large, or for internal errors
+     */
+    List<CertificateRequestResultWS> certificateRequests(List<CertificateRequestWS> requests) throws AuthorizationDeniedException, EjbcaException;
+
+    /**
+     * Revokes, or un-revokes certificates on hold, for a batch of certificates, with the same semantics as calling
+     * {@link #revokeCertBackdated(String, String, int, String)} once per item (or {@link #revokeCert(String, String, int)}
+     * for items without a revocation date).
+     * <p>
+     * The caller is authenticated once for the whole batch and the items are processed in parallel
+     * on the server. Each item is processed in its own transaction, so a failing item does not affect
+     * the others. Instead of throwing an exception, the failure of an item is reported in the
+     * corresponding result.
+     * <p>
+     * Authorization requirements: the same as for {@link #revokeCert(String, String, int)}, checked for each item.
+     * 
+     * @param requests the revocation requests, at most ejbcaws.bulk.maxitems (jaxws.properties) items
+     * @return one result per request, in the same order as the requests
+     * @throws AuthorizationDeniedException if the client isn't an authorized administrator
+     * @throws EjbcaException if the list is empty or too large, or for internal errors
+     */
+    List<RevokeCertResultWS> revokeCerts(List<RevokeCertRequestWS> requests) throws AuthorizationDeniedException, EjbcaException;
 
     /**
      * Returns the length of a publisher queue.
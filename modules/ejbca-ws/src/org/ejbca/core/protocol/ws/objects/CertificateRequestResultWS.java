@@ -0,0 +1,80 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.ws.objects;
+
+/**
+ * Result of one item in a bulk certificate request. Either the certificate response is set,
+ * or the error code and message describing why this particular item failed.
+ * 
+ * @see org.ejbca.core.protocol.ws.common.IEjbcaWS#certificateRequests(java.util.List)
+ * @version $Id$
+ */
+public class CertificateRequestResultWS {
+
+    private String username;
+    private CertificateResponse certificateResponse;
+    private String errorCode;
+    private String errorMessage;
+
+    /**
+     * WS Constructor
+     */
+    public CertificateRequestResultWS() {
+    }
+
+    /** Creates a successful result. */
+    public CertificateRequestResultWS(String username, CertificateResponse certificateResponse) {
+        this.username = username;
+        this.certificateResponse = certificateResponse;
+    }
+
+    /** Creates a failed result. */
+    public CertificateRequestResultWS(String username, String errorCode, String errorMessage) {
+        this.username = username;
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public CertificateResponse getCertificateResponse() {
+        return certificateResponse;
+    }
+
+    public void setCertificateResponse(CertificateResponse certificateResponse) {
+        this.certificateResponse = certificateResponse;
+    }
+
+    /** @return one of the ErrorCode internal error codes or null if the item succeeded */
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public void setErrorCode(String errorCode) {
+        this.errorCode = errorCode;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+}
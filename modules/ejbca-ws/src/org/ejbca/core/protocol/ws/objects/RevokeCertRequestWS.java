@@ -0,0 +1,79 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.ws.objects;
+
+/**
+ * One item in a bulk revocation request, holding the same parameters as a single call to
+ * revokeCert or revokeCertBackdated.
+ * 
+ * @see org.ejbca.core.protocol.ws.common.IEjbcaWS#revokeCerts(java.util.List)
+ * @version $Id$
+ */
+public class RevokeCertRequestWS {
+
+    private String issuerDN;
+    private String certificateSN;
+    private int reason;
+    private String revocationDate;
+
+    /**
+     * WS Constructor
+     */
+    public RevokeCertRequestWS() {
+    }
+
+    /**
+     * @param issuerDN of the certificate to revoke
+     * @param certificateSN serial number in hex format of the certificate to revoke
+     * @param reason one of the RevokeStatus.REVOKATION_REASON_ constants or RevokeStatus.NOT_REVOKED
+     * @param revocationDate ISO 8601 revocation date for back dated revocation, or null to use the current time
+     */
+    public RevokeCertRequestWS(String issuerDN, String certificateSN, int reason, String revocationDate) {
+        this.issuerDN = issuerDN;
+        this.certificateSN = certificateSN;
+        this.reason = reason;
+        this.revocationDate = revocationDate;
+    }
+
+    public String getIssuerDN() {
+        return issuerDN;
+    }
+
+    public void setIssuerDN(String issuerDN) {
+        this.issuerDN = issuerDN;
+    }
+
+    public String getCertificateSN() {
+        return certificateSN;
+    }
+
+    public void setCertificateSN(String certificateSN) {
+        this.certificateSN = certificateSN;
+    }
+
+    public int getReason() {
+        return reason;
+    }
+
+    public void setReason(int reason) {
+        this.reason = reason;
+    }
+
+    public String getRevocationDate() {
+        return revocationDate;
+    }
+
+    public void setRevocationDate(String revocationDate) {
+        this.revocationDate = revocationDate;
+    }
+}
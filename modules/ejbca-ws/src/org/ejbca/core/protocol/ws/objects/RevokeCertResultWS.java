@@ -0,0 +1,73 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.ws.objects;
+
+/**
+ * Result of one item in a bulk revocation request.
+ * 
+ * @see org.ejbca.core.protocol.ws.common.IEjbcaWS#revokeCerts(java.util.List)
+ * @version $Id$
+ */
+public class RevokeCertResultWS {
+
+    private String issuerDN;
+    private String certificateSN;
+    private String errorCode;
+    private String errorMessage;
+
+    /**
+     * WS Constructor
+     */
+    public RevokeCertResultWS() {
+    }
+
+    public RevokeCertResultWS(String issuerDN, String certificateSN, String errorCode, String errorMessage) {
+        this.issuerDN = issuerDN;
+        this.certificateSN = certificateSN;
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+    }
+
+    public String getIssuerDN() {
+        return issuerDN;
+    }
+
+    public void setIssuerDN(String issuerDN) {
+        this.issuerDN = issuerDN;
+    }
+
+    public String getCertificateSN() {
+        return certificateSN;
+    }
+
+    public void setCertificateSN(String certificateSN) {
+        this.certificateSN = certificateSN;
+    }
+
+    /** @return one of the ErrorCode internal error codes or null if the item succeeded */
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public void setErrorCode(String errorCode) {
+        this.errorCode = errorCode;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+}
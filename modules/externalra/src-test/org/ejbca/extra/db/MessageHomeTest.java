@@ -19,6 +19,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.persistence.Persistence;
 
@@ -182,4 +184,47 @@ public class MessageHomeTest {
 		assertNull(msghome.findByMessageId("test3"));
 		
 	}
+
+	/**
+	 * Test method for 'org.ejbca.extra.db.MessageHome.claimWaitingMessages(int)'
+	 */
+    @Test
+	public void test06ClaimWaitingMessages() {
+		// Messages created in the same millisecond have no defined order, so give them distinct create times
+		final long createTime = System.currentTimeMillis() - 10000;
+		for (int i = 0; i < 3; i++) {
+			SubMessages submessages = new SubMessages(null,null,null);
+			submessages.addSubMessage(ExtRAMessagesTest.genExtRAPKCS10Request(i, "PKCS10REQ", "PKCS10"));
+			msghome.create("claim" + i, submessages);
+			Message msg = msghome.findByMessageId("claim" + i);
+			msg.setCreatetime(createTime + i * 1000);
+			msghome.update(msg);
+		}
+		try {
+			List<Message> msgs = msghome.claimWaitingMessages(2);
+			assertEquals("Wrong number of claimed messages", 2, msgs.size());
+			assertEquals("claim0", msgs.get(0).getMessageid());
+			assertEquals("claim1", msgs.get(1).getMessageid());
+			assertEquals("Claimed message does not have INPROCESS status", Message.STATUS_INPROCESS, msghome.findByMessageId("claim0").getStatus());
+			// Claimed messages are not handed out again
+			msgs = msghome.claimWaitingMessages(2);
+			assertEquals("Wrong number of claimed messages", 1, msgs.size());
+			assertEquals("claim2", msgs.get(0).getMessageid());
+			assertTrue("No more messages should be waiting", msghome.claimWaitingMessages(2).isEmpty());
+			// Results are written back together
+			Message msg0 = msghome.findByMessageId("claim0");
+			msg0.setStatus(Message.STATUS_PROCESSED);
+			Message msg1 = msghome.findByMessageId("claim1");
+			msg1.setStatus(Message.STATUS_WAITING);
+			msghome.update(Arrays.asList(msg0, msg1));
+			assertEquals(Message.STATUS_PROCESSED, msghome.findByMessageId("claim0").getStatus());
+			msgs = msghome.claimWaitingMessages(2);
+			assertEquals("Wrong number of claimed messages", 1, msgs.size());
+			assertEquals("claim1", msgs.get(0).getMessageid());
+		} finally {
+			for (int i = 0; i < 3; i++) {
+				msghome.remove("claim" + i);
+			}
+		}
+	}
 }
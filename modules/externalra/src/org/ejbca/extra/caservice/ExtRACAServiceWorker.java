@@ -19,19 +19,24 @@ import java.security.SignatureException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import javax.ejb.AsyncResult;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
 import org.cesecore.authentication.tokens.AuthenticationSubject;
@@ -40,6 +45,7 @@ import org.cesecore.authentication.tokens.UsernamePrincipal;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.ejbca.core.ejb.authentication.web.WebAuthenticationProviderSessionLocal;
+import org.ejbca.core.ejb.services.ServiceTaskSessionLocal;
 import org.ejbca.core.model.services.BaseWorker;
 import org.ejbca.core.model.services.ServiceExecutionFailedException;
 import org.ejbca.extra.caservice.processor.MessageProcessor;
@@ -63,6 +69,8 @@ public class ExtRACAServiceWorker extends BaseWorker {
 	private String keystorePwd = null;
 	private String caname = null;
 	private String whiteList = null;
+	private int threads = 1;
+	private int batchSize = 100;
 	
 	private static ConcurrentHashMap<String, EntityManagerFactory> entityManagerFactories = new ConcurrentHashMap<String, EntityManagerFactory>();
     
@@ -78,6 +86,7 @@ public class ExtRACAServiceWorker extends BaseWorker {
 
 	private CaSessionLocal caSession;
     private WebAuthenticationProviderSessionLocal authenticationSession;
+    private ServiceTaskSessionLocal serviceTaskSession;
 	
 	/**
 	 * Checks if there are any new messages on the External RA and processes them.
@@ -90,6 +99,7 @@ public class ExtRACAServiceWorker extends BaseWorker {
 		}
         caSession = (CaSessionLocal)ejbs.get(CaSessionLocal.class);
         authenticationSession = (WebAuthenticationProviderSessionLocal)ejbs.get(WebAuthenticationProviderSessionLocal.class);
+        serviceTaskSession = (ServiceTaskSessionLocal)ejbs.get(ServiceTaskSessionLocal.class);
 		if (startWorking()) {
 			try {
 				// A semaphore used to not run parallel service jobs on the same host so not to start unlimited number of threads just
@@ -164,6 +174,14 @@ public class ExtRACAServiceWorker extends BaseWorker {
 		if (log.isDebugEnabled()) {
 			log.debug("externalra-caservice.whitelist: "+whiteList);
 		}		
+		threads = getPositiveIntProperty("externalra-caservice.threads", 1);
+		if (log.isDebugEnabled()) {
+			log.debug("externalra-caservice.threads: "+threads);
+		}		
+		batchSize = getPositiveIntProperty("externalra-caservice.batchsize", 100);
+		if (log.isDebugEnabled()) {
+			log.debug("externalra-caservice.batchsize: "+batchSize);
+		}		
 		// Initialize the JPA provider with the current persistence unit
 		if (entityManagerFactories.get(persistenceUnit) == null) {
 			EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory(persistenceUnit);
@@ -190,11 +208,14 @@ public class ExtRACAServiceWorker extends BaseWorker {
 	}
 
 	/**
-	 * Loops and gets waiting messages from the extRA database as long as there are any, and processes them. 
+	 * Loops and claims batches of waiting messages from the extRA database as long as there are any, and processes them.
+	 * The messages of a batch are processed in parallel by at most externalra-caservice.threads container threads, and the
+	 * results of each group of parallel messages are written back to the database together as soon as the group has been
+	 * processed. Claimed messages that have not been processed when the loop ends are put back in status waiting.
 	 * If there are no more messages in status waiting the method ends.
 	 * @param ejbs A map between Local EJB interface classes and their injected stub
 	 */
-	public void processWaitingMessages(Map<Class<?>, Object> ejbs) {
+	public void processWaitingMessages(final Map<Class<?>, Object> ejbs) {
 
 	    // Check if caname exists
 	    final boolean exists = caSession.existsCa(caname);
@@ -209,98 +230,173 @@ public class ExtRACAServiceWorker extends BaseWorker {
 			}
 		}				
 
-		Message msg = null;
-		String lastMessageId = null;
-		do{	
-			msg = msgHome.getNextWaitingMessage();
-			// A small section that makes sure we don't loop too quickly over the same message.
-			// Check if we are trying to process the same messageId as the last time. If this is the case exit from the loop and let the next 
-			// worker try to process it.
-			// If it is not the same messageId process the message immediately.
-			if (msg != null) {
-				String id = msg.getMessageid();
-				if (StringUtils.equals(id, lastMessageId)) {
-					log.info("The same message (" + id + ") was in the queue twice, putting back and exiting from the current loop");
-					// Re-set status to waiting so we will process it the next time the service is run
-					msg.setStatus(Message.STATUS_WAITING);
-					msgHome.update(msg);							
-					msg = null;
-				} else {
-					String errormessage = null;
-					SubMessages submgs = null;
-					try {
-						log.info("Started processing message with messageId: " + msg.getMessageid()+", and uniqueId: "+msg.getUniqueId()); 
-
-						if (serviceKeyStore != null) {
-					        final Collection<Certificate> cACertChain = MessageProcessor.getCACertChain(caname, true, caSession);
-							submgs = msg.getSubMessages(
-									(PrivateKey) serviceKeyStore.getKeyStore().getKey(serviceKeyStore.getAlias(), keystorePwd.toCharArray()),
-									cACertChain);
-						} else {
-							submgs =  msg.getSubMessages(null,null);
-						}
-						if (log.isDebugEnabled()) {
-							if (submgs.isSigned()) {
-								log.debug("Message from : " + msg.getMessageid() + " was signed");
-							}
-							if (submgs.isEncrypted()) {
-								log.debug("Message from : " + msg.getMessageid() + " was encrypted");
-							}
+		// Messages that were processed in this run. A message that is left in the queue and claimed again in the same run
+		// is put back, and we exit from the loop and let the next run of the worker try to process it. This makes sure we
+		// don't loop too quickly over the same message.
+		final Set<String> processedIds = new HashSet<String>();
+		boolean more = true;
+		while (more) {
+			final List<Message> claimed = msgHome.claimWaitingMessages(batchSize);
+			if (claimed.isEmpty()) {
+				break;
+			}
+			more = claimed.size() == batchSize;
+			// The number of claimed messages that have been handed to a thread, and that must not be put back
+			int started = 0;
+			boolean duplicate = false;
+			try {
+				while (started < claimed.size() && !duplicate) {
+					final List<Message> group = new ArrayList<Message>(threads);
+					while (group.size() < threads && started < claimed.size()) {
+						final Message msg = claimed.get(started);
+						if (!processedIds.add(msg.getMessageid())) {
+							log.info("The same message (" + msg.getMessageid() + ") was in the queue twice, putting back and exiting from the current loop");
+							more = false;
+							duplicate = true;
+							break;
 						}
-						if (signatureRequired && !submgs.isSigned()) {
-							errormessage = "Error: Message from : " + msg.getMessageid() + " wasn't signed which is a requirement";
-							log.error(errormessage);
+						group.add(msg);
+						started++;
+					}
+					final List<Message> results = processGroup(group, ejbs);
+					if (!results.isEmpty()) {
+						msgHome.update(results);
+					}
+				}
+			} catch (InterruptedException e) {
+				log.info("Interrupted while processing External RA messages, the remaining messages will be processed the next time the service is run.");
+				Thread.currentThread().interrupt();
+				more = false;
+			} finally {
+				if (started < claimed.size()) {
+					// Re-set status to waiting so we will process the rest of the batch the next time the service is run
+					final List<Message> unprocessed = claimed.subList(started, claimed.size());
+					for (final Message msg : unprocessed) {
+						msg.setStatus(Message.STATUS_WAITING);
+					}
+					msgHome.update(unprocessed);
+				}
+			}
+		}
+	} // processWaitingMessage
 
-						}
-						if (encryptionRequired && !submgs.isEncrypted()) {
-							errormessage = "Error: Message from : " + msg.getMessageid() + " wasn't encrypted which is a requirement";
-							log.error(errormessage);
-						}
-					} catch (Exception e) {
-						errormessage = "Error processing waiting message with Messageid : " + msg.getMessageid() + " : "+ e.getMessage();
-						log.error("Error processing waiting message with Messageid : " + msg.getMessageid(), e);
+	/**
+	 * Processes the messages in parallel, on the asynchronous threads of the container when more than one thread is configured.
+	 * @return the messages that should be written back to the database
+	 * @throws InterruptedException if interrupted while waiting for a message, which is then left in status in process
+	 */
+	private List<Message> processGroup(final List<Message> group, final Map<Class<?>, Object> ejbs) throws InterruptedException {
+		final List<Message> results = new ArrayList<Message>(group.size());
+		if (group.size() == 1 || serviceTaskSession == null) {
+			for (final Message msg : group) {
+				if (processMessage(msg, ejbs)) {
+					results.add(msg);
+				}
+			}
+			return results;
+		}
+		final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(group.size());
+		for (final Message msg : group) {
+			try {
+				futures.add(serviceTaskSession.process(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return Boolean.valueOf(processMessage(msg, ejbs));
 					}
+				}));
+			} catch (Exception e) {
+				// Only thrown by the asynchronous call itself, so process the message on this thread instead
+				log.info("Could not process message with Messageid " + msg.getMessageid() + " asynchronously: " + e.getMessage());
+				futures.add(new AsyncResult<Boolean>(Boolean.valueOf(processMessage(msg, ejbs))));
+			}
+		}
+		for (int i = 0; i < group.size(); i++) {
+			try {
+				if (futures.get(i).get().booleanValue()) {
+					results.add(group.get(i));
+				}
+			} catch (ExecutionException e) {
+				log.error("Error processing waiting message with Messageid : " + group.get(i).getMessageid(), e.getCause());
+			}
+		}
+		return results;
+	}
 
-					if (submgs != null) {
-						SubMessages respSubMsg;
-						try {
-							respSubMsg = generateResponseSubMessage(submgs.getSignerCert());
-							Iterator<ISubMessage> iter = submgs.getSubMessages().iterator();
-							boolean somethingprocessed = false;
-							while(iter.hasNext()){
-								ISubMessage reqMsg = iter.next();
-								if (!checkWhiteList(reqMsg)) {
-									errormessage = "Sub message of type " + reqMsg.getClass().getName() + " is not listed in white list. Message id: " + msg.getMessageid();
-								}
-								ISubMessage respMsg = MessageProcessor.processSubMessage(getAdmin(submgs), reqMsg, errormessage, ejbs);
-								if (respMsg != null) {
-									// if the response message is null here, we will ignore this message, 
-									// it means that we should not do anything with it this round 
-									respSubMsg.addSubMessage(respMsg);
-									somethingprocessed = true;
-								}
-							}
-							if (somethingprocessed) {
-								msg.setStatus(Message.STATUS_PROCESSED);
-								msg.setSubMessages(respSubMsg);
-							} else {
-								log.info("Nothing processed for msg with messageId: "+msg.getMessageid()+", leaving it in the queue");
-								msg.setStatus(Message.STATUS_WAITING);
-								// Update create time, so that we will process the next message instead of this again the next round in the loop
-								msg.setCreatetime((new Date()).getTime());
-							}
-							msgHome.update(msg);							
-						} catch (Exception e) {
-							log.error("Error generating response message with Messageid : " + msg.getMessageid(), e);
-						}
+	/**
+	 * Processes one claimed message and sets its status and response.
+	 * @return true if the message should be written back to the database, false if it should be left in status in process
+	 */
+	private boolean processMessage(final Message msg, final Map<Class<?>, Object> ejbs) {
+		String errormessage = null;
+		SubMessages submgs = null;
+		try {
+			log.info("Started processing message with messageId: " + msg.getMessageid()+", and uniqueId: "+msg.getUniqueId()); 
 
-					}					
+			if (serviceKeyStore != null) {
+		        final Collection<Certificate> cACertChain = MessageProcessor.getCACertChain(caname, true, caSession);
+				submgs = msg.getSubMessages(
+						(PrivateKey) serviceKeyStore.getKeyStore().getKey(serviceKeyStore.getAlias(), keystorePwd.toCharArray()),
+						cACertChain);
+			} else {
+				submgs =  msg.getSubMessages(null,null);
+			}
+			if (log.isDebugEnabled()) {
+				if (submgs.isSigned()) {
+					log.debug("Message from : " + msg.getMessageid() + " was signed");
+				}
+				if (submgs.isEncrypted()) {
+					log.debug("Message from : " + msg.getMessageid() + " was encrypted");
 				}
-				lastMessageId = id;	    	 
 			}
-		} while (msg != null);
+			if (signatureRequired && !submgs.isSigned()) {
+				errormessage = "Error: Message from : " + msg.getMessageid() + " wasn't signed which is a requirement";
+				log.error(errormessage);
 
-	} // processWaitingMessage
+			}
+			if (encryptionRequired && !submgs.isEncrypted()) {
+				errormessage = "Error: Message from : " + msg.getMessageid() + " wasn't encrypted which is a requirement";
+				log.error(errormessage);
+			}
+		} catch (Exception e) {
+			errormessage = "Error processing waiting message with Messageid : " + msg.getMessageid() + " : "+ e.getMessage();
+			log.error("Error processing waiting message with Messageid : " + msg.getMessageid(), e);
+		}
+
+		if (submgs != null) {
+			SubMessages respSubMsg;
+			try {
+				respSubMsg = generateResponseSubMessage(submgs.getSignerCert());
+				Iterator<ISubMessage> iter = submgs.getSubMessages().iterator();
+				boolean somethingprocessed = false;
+				while(iter.hasNext()){
+					ISubMessage reqMsg = iter.next();
+					if (!checkWhiteList(reqMsg)) {
+						errormessage = "Sub message of type " + reqMsg.getClass().getName() + " is not listed in white list. Message id: " + msg.getMessageid();
+					}
+					ISubMessage respMsg = MessageProcessor.processSubMessage(getAdmin(submgs), reqMsg, errormessage, ejbs);
+					if (respMsg != null) {
+						// if the response message is null here, we will ignore this message, 
+						// it means that we should not do anything with it this round 
+						respSubMsg.addSubMessage(respMsg);
+						somethingprocessed = true;
+					}
+				}
+				if (somethingprocessed) {
+					msg.setStatus(Message.STATUS_PROCESSED);
+					msg.setSubMessages(respSubMsg);
+				} else {
+					log.info("Nothing processed for msg with messageId: "+msg.getMessageid()+", leaving it in the queue");
+					msg.setStatus(Message.STATUS_WAITING);
+					// Update create time, so that we will process the next message instead of this again the next round in the loop
+					msg.setCreatetime((new Date()).getTime());
+				}
+				return true;
+			} catch (Exception e) {
+				log.error("Error generating response message with Messageid : " + msg.getMessageid(), e);
+			}
+		}
+		return false;
+	}
 	
 	
 	protected MessageHome getMessageHome() {
@@ -375,6 +471,21 @@ public class ExtRACAServiceWorker extends BaseWorker {
 		return new SubMessages(null,null,null);
 	}
 
+	/** @return the value of an integer worker property, or the default value if it is missing or not a positive integer */
+	private int getPositiveIntProperty(final String key, final int defaultValue) {
+		final String value = this.properties.getProperty(key, String.valueOf(defaultValue)).trim();
+		try {
+			final int ret = Integer.parseInt(value);
+			if (ret > 0) {
+				return ret;
+			}
+		} catch (NumberFormatException e) {
+			// Handled below
+		}
+		log.warn("Invalid value '" + value + "' of " + key + ", using " + defaultValue + ".");
+		return defaultValue;
+	}
+
 	/**
 	 * Check if the classname is listed in the whitelist of allowed classes.
 	 * @param reqMsg is request submessage
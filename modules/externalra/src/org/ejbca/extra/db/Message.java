@@ -17,6 +17,7 @@ import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -182,4 +183,34 @@ public class Message implements Serializable, Cloneable {
     		return null;
     	}
     }
+
+    /** @return the unique ids of at most maxResults messages with status waiting, oldest first */
+    @SuppressWarnings("unchecked")
+    public static List<String> getWaitingMessageIds(EntityManager entityManager, int maxResults) {
+    	Query query = entityManager.createQuery("SELECT a.uniqueId FROM Message a WHERE a.status=:status ORDER BY a.createtime ASC");
+    	query.setParameter("status", STATUS_WAITING);
+    	query.setMaxResults(maxResults);
+    	return query.getResultList();
+    }
+
+    /**
+     * Sets the status of a message to STATUS_INPROCESS if, and only if, it still has status waiting.
+     * @return 1 if the message was claimed, 0 if it has been claimed by someone else or removed
+     */
+    public static int claimWaitingMessage(EntityManager entityManager, String uniqueId, long modifytime) {
+    	Query query = entityManager.createQuery("UPDATE Message a SET a.status=:inprocess, a.modifytime=:modifytime WHERE a.uniqueId=:uniqueId AND a.status=:waiting");
+    	query.setParameter("inprocess", STATUS_INPROCESS);
+    	query.setParameter("modifytime", modifytime);
+    	query.setParameter("uniqueId", uniqueId);
+    	query.setParameter("waiting", STATUS_WAITING);
+    	return query.executeUpdate();
+    }
+
+    /** @return the messages with the given unique ids, in no particular order */
+    @SuppressWarnings("unchecked")
+    public static List<Message> findByUniqueIds(EntityManager entityManager, Collection<String> uniqueIds) {
+    	Query query = entityManager.createQuery("SELECT a FROM Message a WHERE a.uniqueId IN (:uniqueIds)");
+    	query.setParameter("uniqueIds", uniqueIds);
+    	return query.getResultList();
+    }
 }
@@ -12,7 +12,12 @@
  *************************************************************************/
 package org.ejbca.extra.db;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -110,6 +115,29 @@ public class MessageHome {
       }
       log.trace("<update : Message, Messageid : " + msg.getMessageid());
     }
+
+    /**
+     * Method that updates the data of several messages to the database in one transaction.
+     * 
+     * @param msgs the messages to update.
+     */
+    public void update(Collection<Message> msgs){
+      log.trace(">update : " + msgs.size() + " messages");
+      if (msgs.isEmpty()) {
+    	  return;
+      }
+      EntityManager entityManager = getNewEntityManager();
+      try {
+    	  final long now = new Date().getTime();
+    	  for (final Message msg : msgs) {
+    		  msg.setModifytime(now);
+    		  entityManager.merge(msg);
+    	  }
+      } finally {
+    	  closeEntityManager(entityManager);
+      }
+      log.trace("<update : " + msgs.size() + " messages");
+    }
     
     /**
      * Method that removes a message from the database.
@@ -178,6 +206,49 @@ public class MessageHome {
         log.trace("<getNextWaitingMessage() : " + (message==null?"No message":"Message " + message.getMessageid()) +" found");
         return message;
     }
+
+    /**
+     * Method that claims the oldest created Messages with status waiting.
+     * 
+     * Each message is claimed with a conditional update from status waiting to
+     * STATUS_INPROCESS, all in one transaction. A message that another worker
+     * claims at the same time is only returned to one of them, so each waiting
+     * message is handed out exactly once.
+     * 
+     * @param maxMessages the maximum number of messages to claim.
+     * @return the claimed Messages, oldest first, or an empty list if no message is waiting.
+     */
+    public List<Message> claimWaitingMessages(int maxMessages) {
+        log.trace(">claimWaitingMessages()");
+        EntityManager entityManager = getNewEntityManager();
+        final List<Message> messages = new ArrayList<Message>();
+        try {
+        	final List<String> uniqueIds = Message.getWaitingMessageIds(entityManager, maxMessages);
+        	final long now = new Date().getTime();
+        	final List<String> claimedIds = new ArrayList<String>(uniqueIds.size());
+        	for (final String uniqueId : uniqueIds) {
+        		if (Message.claimWaitingMessage(entityManager, uniqueId, now) == 1) {
+        			claimedIds.add(uniqueId);
+        		}
+        	}
+        	if (!claimedIds.isEmpty()) {
+        		final Map<String, Message> messagesById = new HashMap<String, Message>();
+        		for (final Message message : Message.findByUniqueIds(entityManager, claimedIds)) {
+        			messagesById.put(message.getUniqueId(), message);
+        		}
+        		for (final String uniqueId : claimedIds) {
+        			final Message message = messagesById.get(uniqueId);
+        			if (message != null) {
+        				messages.add(message);
+        			}
+        		}
+        	}
+        } finally {
+        	closeEntityManager(entityManager);
+        }
+        log.trace("<claimWaitingMessages() : " + messages.size() + " messages claimed");
+        return messages;
+    }
  
 
 }
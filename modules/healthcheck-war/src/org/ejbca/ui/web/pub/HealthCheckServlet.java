@@ -183,9 +183,15 @@ public class HealthCheckServlet extends HttpServlet {
         }
         final StringBuilder sb = new StringBuilder(0);
         if (log.isDebugEnabled()) {
-            log.debug("Checking database connection.");
+            log.debug("Checking that startup has completed.");
+        }
+        sb.append(healthCheckSession.getStartupStatus());
+        if (sb.length()==0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Checking database connection.");
+            }
+            sb.append(healthCheckSession.getDatabaseStatus());
         }
-        sb.append(healthCheckSession.getDatabaseStatus());
         if (sb.length()==0) { 
             if (log.isDebugEnabled()) {
                 log.debug("Checking JVM heap memory.");
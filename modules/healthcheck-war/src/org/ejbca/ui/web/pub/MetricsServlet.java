@@ -0,0 +1,109 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.ejb.EJB;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.log4j.Logger;
+import org.cesecore.util.metrics.Gauge;
+import org.cesecore.util.metrics.MetricFamily;
+import org.cesecore.util.metrics.MetricsRegistry;
+import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.core.ejb.ca.publisher.PublisherQueueSessionLocal;
+import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
+import org.ejbca.core.model.InternalEjbcaResources;
+
+/**
+ * Servlet that writes the internal metrics of this node in the Prometheus text format, for scraping by a monitoring system.
+ *
+ * The same remote IPs as for the health check are authorized (healthcheck.authorizedips). The publisher queue lengths are read from the
+ * database when the metrics are requested, all other metrics are recorded where they happen.
+ *
+ * @version $Id$
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final Logger log = Logger.getLogger(MetricsServlet.class);
+    private static final long serialVersionUID = 1L;
+
+    /** Internal localization of logs and errors */
+    private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final MetricFamily<Gauge> PUBLISHER_QUEUE_LENGTH = MetricsRegistry.INSTANCE.gaugeFamily("publisher_queue_pending_entries",
+            "Number of pending entries in the publisher queue, by publisher", "publisher");
+
+    private String[] authIPs = null;
+    private boolean anyIpAuthorized = false;
+
+    @EJB
+    private PublisherSessionLocal publisherSession;
+    @EJB
+    private PublisherQueueSessionLocal publisherQueueSession;
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        authIPs = EjbcaConfiguration.getHealthCheckAuthorizedIps().split(";");
+        anyIpAuthorized = ArrayUtils.contains(authIPs, "ANY");
+    }
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        String remoteIP = request.getRemoteAddr();
+        if (remoteIP == null || remoteIP.length() > 100) {
+            remoteIP = "unknown";
+        }
+        if (!anyIpAuthorized && !ArrayUtils.contains(authIPs, remoteIP)) {
+            log.error(intres.getLocalizedMessage("healthcheck.errorauth", remoteIP));
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "ERROR : Metrics request recieved from an non authorized IP: " + remoteIP);
+            return;
+        }
+        updatePublisherQueueLengths();
+        response.setContentType(CONTENT_TYPE);
+        final Writer out = response.getWriter();
+        MetricsRegistry.INSTANCE.writeTextFormat(out);
+        out.close();
+    }
+
+    /** Read the number of pending entries of each publisher, and drop publishers that no longer exist. */
+    private void updatePublisherQueueLengths() {
+        try {
+            final Map<Integer, String> publishers = publisherSession.getPublisherIdToNameMap();
+            final Set<String> publisherNames = new HashSet<String>();
+            for (final Entry<Integer, String> entry : publishers.entrySet()) {
+                publisherNames.add(entry.getValue());
+                PUBLISHER_QUEUE_LENGTH.get(entry.getValue()).set(publisherQueueSession.getPendingEntriesCountForPublisher(entry.getKey().intValue()));
+            }
+            for (final String publisherName : PUBLISHER_QUEUE_LENGTH.getMetrics().keySet()) {
+                if (!publisherNames.contains(publisherName)) {
+                    PUBLISHER_QUEUE_LENGTH.remove(publisherName);
+                }
+            }
+        } catch (RuntimeException e) { // NOPMD: the other metrics are still useful when the database is unavailable
+            log.info("Unable to read publisher queue lengths: " + e.getMessage());
+        }
+    }
+}
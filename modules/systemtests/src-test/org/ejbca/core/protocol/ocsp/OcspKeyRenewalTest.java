@@ -27,7 +27,9 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.cesecore.SystemTestsConfiguration;
@@ -69,6 +71,7 @@ import org.cesecore.util.EjbRemoteHelper;
 import org.cesecore.util.TraceLogMethodsRule;
 import org.ejbca.core.ejb.ra.EndEntityAccessSessionRemote;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionRemote;
+import org.ejbca.core.ejb.ocsp.OcspKeyRenewalSessionLocal;
 import org.ejbca.core.model.SecConst;
 import org.ejbca.core.protocol.ocsp.standalone.OcspKeyRenewalProxySessionRemote;
 import org.junit.AfterClass;
@@ -93,6 +96,9 @@ public class OcspKeyRenewalTest {
     private static final Logger log = Logger.getLogger(OcspKeyRenewalTest.class);
     
     private static final String ECC_CRYPTOTOKEN_NAME = TESTCLASSNAME+"ECC";
+    /** The number of key bindings in the same soft crypto token that are renewed together */
+    private static final int PARALLEL_KEY_BINDINGS = 4;
+    private static final String PARALLEL_SIGNER_DN = SIGNER_DN + "Parallel";
 
     private static final CaSessionRemote caSession = EjbRemoteHelper.INSTANCE.getRemoteSession(CaSessionRemote.class);
     private static final CertificateStoreSessionRemote certificateStoreSession = EjbRemoteHelper.INSTANCE
@@ -236,6 +242,7 @@ public class OcspKeyRenewalTest {
     }
     
     private static void cleanup() throws Exception {
+        cleanupParallelKeyBindings();
         try {
             roleManagementSession.remove(authenticationToken, TESTCLASSNAME);
         } catch (Exception e) {
@@ -477,6 +484,72 @@ public class OcspKeyRenewalTest {
         }
     }
 
+    @Test
+    public void testKeyRenewalOfManyKeyBindings() throws Exception {
+        assertNotEquals("This test cannot run without a ManagementCA that issued the localhost SSL certificate.", 0, managementCaId);
+        // Fingerprints of the current certificates, by key binding ID
+        final Map<Integer, String> oldFingerprints = new LinkedHashMap<Integer, String>();
+        try {
+            for (int i = 0; i < PARALLEL_KEY_BINDINGS; i++) {
+                final int internalKeyBindingId = OcspTestUtils.createInternalKeyBinding(authenticationToken, cryptoTokenId,
+                        OcspKeyBinding.IMPLEMENTATION_ALIAS, TESTCLASSNAME + "-parallel" + i, "RSA2048", AlgorithmConstants.SIGALG_SHA1_WITH_RSA);
+                final String username = TESTCLASSNAME + "Parallel" + i;
+                final EndEntityInformation user = new EndEntityInformation(username, PARALLEL_SIGNER_DN + i, x509ca.getCAId(), null, null,
+                        EndEntityTypes.ENDUSER.toEndEntityType(), SecConst.EMPTY_ENDENTITYPROFILE, CertificateProfileConstants.CERTPROFILE_FIXED_OCSPSIGNER,
+                        EndEntityConstants.TOKEN_USERGEN, 0, null);
+                user.setPassword("foo123");
+                endEntityManagementSession.addUser(authenticationToken, user, true);
+                final X509Certificate certificate = OcspTestUtils.createOcspSigningCertificate(authenticationToken, username, PARALLEL_SIGNER_DN + i,
+                        internalKeyBindingId, x509ca.getCAId());
+                OcspTestUtils.updateInternalKeyBindingCertificate(authenticationToken, internalKeyBindingId);
+                OcspTestUtils.setInternalKeyBindingStatus(authenticationToken, internalKeyBindingId, InternalKeyBindingStatus.ACTIVE);
+                oldFingerprints.put(Integer.valueOf(internalKeyBindingId), CertTools.getFingerprintAsString(certificate));
+            }
+            ocspResponseGeneratorTestSession.reloadOcspSigningCache();
+            // All the key bindings use the same soft crypto token, so they are renewed by the threads allowed per crypto token
+            ocspKeyRenewalProxySession.renewKeyStores(OcspKeyRenewalSessionLocal.RENEW_ALL_KEYS);
+            final List<X509Certificate> cachedOcspCertificates = standaloneOcspResponseGeneratorTestSession.getCacheOcspCertificates();
+            for (final Map.Entry<Integer, String> entry : oldFingerprints.entrySet()) {
+                final InternalKeyBinding internalKeyBinding = internalKeyBindingMgmtSession.getInternalKeyBindingInfo(authenticationToken,
+                        entry.getKey().intValue());
+                final String newFingerprint = internalKeyBinding.getCertificateId();
+                assertNotEquals("Key binding " + internalKeyBinding.getName() + " was not renewed.", entry.getValue(), newFingerprint);
+                final Certificate newOcspCertificate = certificateStoreSession.findCertificateByFingerprint(newFingerprint);
+                newOcspCertificate.verify(caCertificate.getPublicKey());
+                boolean newCertificateExistsInCache = false;
+                for (final X509Certificate cachedCertificate : cachedOcspCertificates) {
+                    if (CertTools.getFingerprintAsString(cachedCertificate).equals(newFingerprint)) {
+                        newCertificateExistsInCache = true;
+                        break;
+                    }
+                }
+                assertTrue("Renewed certificate of key binding " + internalKeyBinding.getName() + " does not exist in OCSP cache.",
+                        newCertificateExistsInCache);
+            }
+        } finally {
+            cleanupParallelKeyBindings();
+        }
+    }
+
+    private static void cleanupParallelKeyBindings() throws Exception {
+        for (int i = 0; i < PARALLEL_KEY_BINDINGS; i++) {
+            cleanupKeyBinding(TESTCLASSNAME + "-parallel" + i);
+            try {
+                for (final Certificate certificate : certificateStoreSession.findCertificatesBySubject(PARALLEL_SIGNER_DN + i)) {
+                    internalCertificateStoreSession.removeCertificate(certificate);
+                }
+            } catch (Exception e) {
+                //Ignore any failures.
+                log.debug(e.getMessage());
+            }
+            final String username = TESTCLASSNAME + "Parallel" + i;
+            if (endEntityAccessSession.findUser(authenticationToken, username) != null) {
+                endEntityManagementSession.deleteUser(authenticationToken, username);
+            }
+        }
+        ocspResponseGeneratorTestSession.reloadOcspSigningCache();
+    }
+
     @Test
     public void testAutomaticKeyRenewal() throws InvalidKeyException, KeyStoreException, CryptoTokenOfflineException, AuthorizationDeniedException, CertificateException, NoSuchAlgorithmException, NoSuchProviderException, InterruptedException {
         if (managementCaId == 0) {
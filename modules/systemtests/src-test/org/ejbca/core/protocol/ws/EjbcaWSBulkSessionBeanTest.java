@@ -0,0 +1,131 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.ejb.SessionContext;
+
+import org.cesecore.ErrorCode;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.ejbca.core.EjbcaException;
+import org.ejbca.core.model.approval.WaitingForApprovalException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the items of a bulk WS call are committed or rolled back like the single item WS calls, without a container.
+ *
+ * @version $Id$
+ */
+public class EjbcaWSBulkSessionBeanTest {
+
+    private final EjbcaWSBulkSessionBean bulkSession = new EjbcaWSBulkSessionBean();
+    /** The approval requests stored by committed items, like the ApprovalData table */
+    private final List<Integer> approvalRequests = new ArrayList<Integer>();
+    /** The approval requests stored in the transaction of the current item */
+    private final List<Integer> transaction = new ArrayList<Integer>();
+    private boolean rollbackOnly;
+
+    @Before
+    public void setUp() throws Exception {
+        final SessionContext sessionContext = EasyMock.createMock(SessionContext.class);
+        sessionContext.setRollbackOnly();
+        EasyMock.expectLastCall().andStubAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                rollbackOnly = true;
+                return null;
+            }
+        });
+        EasyMock.replay(sessionContext);
+        final Field field = EjbcaWSBulkSessionBean.class.getDeclaredField("sessionContext");
+        field.setAccessible(true);
+        field.set(bulkSession, sessionContext);
+    }
+
+    /** A revocation of a certificate issued by a CA where revocations require approval */
+    private Callable<Void> createRevocationRequiringApproval(final int approvalId) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                transaction.add(Integer.valueOf(approvalId));
+                throw new WaitingForApprovalException("Revocation has been sent for approval.", approvalId);
+            }
+        };
+    }
+
+    /** Runs an item like the container does, and commits the approval requests it stored unless its transaction was marked for rollback */
+    private Exception processInTransaction(final Callable<Void> item) {
+        rollbackOnly = false;
+        transaction.clear();
+        Exception ret = null;
+        try {
+            bulkSession.process(item);
+        } catch (Exception e) {
+            ret = e;
+        }
+        if (!rollbackOnly) {
+            approvalRequests.addAll(transaction);
+        }
+        return ret;
+    }
+
+    @Test
+    public void testBulkWithApprovalRequired() throws Exception {
+        final List<Callable<Void>> items = new ArrayList<Callable<Void>>();
+        items.add(createRevocationRequiringApproval(4711));
+        items.add(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                // Fails after it has stored its approval request
+                transaction.add(Integer.valueOf(4712));
+                throw new EjbcaException(ErrorCode.INTERNAL_ERROR, "Failed after the approval request was stored.");
+            }
+        });
+        items.add(createRevocationRequiringApproval(4713));
+        final List<Exception> results = new ArrayList<Exception>();
+        for (final Callable<Void> item : items) {
+            results.add(processInTransaction(item));
+        }
+        assertEquals(WaitingForApprovalException.class, results.get(0).getClass());
+        assertEquals(4711, ((WaitingForApprovalException) results.get(0)).getApprovalId());
+        assertEquals(EjbcaException.class, results.get(1).getClass());
+        assertEquals(WaitingForApprovalException.class, results.get(2).getClass());
+        assertEquals("The approval requests of the items waiting for approval should remain, so they can be approved.",
+                Arrays.asList(Integer.valueOf(4711), Integer.valueOf(4713)), approvalRequests);
+    }
+
+    @Test
+    public void testFailedItemIsRolledBack() throws Exception {
+        final Exception e = processInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                transaction.add(Integer.valueOf(4711));
+                throw new IllegalStateException("Failed.");
+            }
+        });
+        if (!(e instanceof IllegalStateException)) {
+            fail("The exception of the item should be thrown: " + e);
+        }
+        assertEquals(0, approvalRequests.size());
+    }
+}